@@ -18,14 +18,17 @@
 package me.whitewood.simpledb.engine.json.client;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
 import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
 
 import java.io.IOException;
 import java.util.List;
 
 /**
  * JsonDatabaseClient is the client to interact with json databases.
- * Currently, supports reads only.
+ * Currently, supports reads and inserts.
  **/
 public interface JsonDatabaseClient {
 
@@ -43,6 +46,13 @@ public interface JsonDatabaseClient {
      */
     List<JsonTable> listTables(String pattern);
 
+    /**
+     * Get a table by the exact name.
+     * @param tableName The table name.
+     * @return The table, which must exist.
+     */
+    JsonTable getTable(String tableName);
+
     /**
      * Scan table with a desired column name list.
      * @param tableName The table name.
@@ -59,6 +69,76 @@ public interface JsonDatabaseClient {
      * @return The {@link JsonReader} of the table.
      * @throws IOException When IO error occurs.
      */
-    JsonReader scanTableAsStream(String tableName, List<String> columns) throws IOException;;
+    JsonReader scanTableAsStream(String tableName, List<String> columns) throws IOException;
+
+    /**
+     * Scan table as stream of typed rows with a desired column name list and pushed-down filters.
+     * @param table The table.
+     * @param columns Optional column names. Null denotes all columns are desired.
+     * @param filters Optional conjunctive filters. Null denotes no filter.
+     * @return The {@link JsonRowReader} of the table.
+     * @throws IOException When IO error occurs.
+     */
+    JsonRowReader scanTableAsRows(JsonTable table, List<String> columns, List<JsonFilter> filters) throws IOException;
+
+    /**
+     * Scan table as batches of typed rows with a desired column name list and pushed-down filters. The batches are
+     * produced ahead of the reader up to a bounded number, so a slow reader throttles the scan.
+     * @param table The table.
+     * @param columns Optional column names. Null denotes all columns are desired.
+     * @param filters Optional conjunctive filters. Null denotes no filter.
+     * @return The {@link RowBatchReader} of the table.
+     * @throws IOException When IO error occurs.
+     */
+    RowBatchReader scanTableAsBatches(JsonTable table, List<String> columns, List<JsonFilter> filters)
+            throws IOException;
+
+    /**
+     * Compute grouped aggregates over the rows that satisfy pushed-down filters, so that only the aggregate
+     * results rather than the rows leave the engine.
+     * @param table The table.
+     * @param groupColumns The group column names, which may be empty.
+     * @param aggregates The aggregates.
+     * @param filters Optional conjunctive filters. Null denotes no filter.
+     * @return The rows of the group values followed by the aggregate results, one row per group, or a single row
+     *         if there's no group column. See {@link JsonAggregate} for the types of the results.
+     * @throws IOException When IO error occurs.
+     */
+    List<Object[]> aggregateTable(
+            JsonTable table, List<String> groupColumns, List<JsonAggregate> aggregates, List<JsonFilter> filters)
+            throws IOException;
+
+    /**
+     * Insert rows into a table. The rows are durable when the call returns.
+     * @param tableName The table name.
+     * @param rows The rows of values in the order of the columns of the table.
+     * @return The number of inserted rows.
+     * @throws IOException When IO error occurs.
+     */
+    int insertRows(String tableName, List<Object[]> rows) throws IOException;
+
+    /**
+     * Compute and persist the statistics of a table, like ANALYZE TABLE in SQL databases.
+     * @param tableName The table name.
+     * @return The statistics.
+     * @throws IOException When IO error occurs.
+     */
+    JsonTableStatistics analyzeTable(String tableName) throws IOException;
+
+    /**
+     * Get the statistics of a table computed by the last {@link #analyzeTable(String)}.
+     * @param tableName The table name.
+     * @return The statistics, or null if the table is never analyzed.
+     * @throws IOException When IO error occurs.
+     */
+    JsonTableStatistics getTableStatistics(String tableName) throws IOException;
+
+    /**
+     * Get the version of the data of a table, eg. to tell if results computed from the table are outdated.
+     * @param tableName The table name.
+     * @return The version, which changes whenever rows are added to or removed from the table.
+     * @throws IOException When IO error occurs.
+     */
+    long getTableVersion(String tableName) throws IOException;
 
 }
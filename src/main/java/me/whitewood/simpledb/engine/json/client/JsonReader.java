@@ -17,56 +17,189 @@
 
 package me.whitewood.simpledb.engine.json.client;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
 
 import javax.annotation.Nullable;
 import java.io.BufferedReader;
-import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * A simple reader that wraps the JSON parsing in json-lines fashion (see https://jsonlines.org/),
  * with an optional field name list for pushdown filters.
+ *
+ * JsonReader works in one of the two modes, which can't be mixed on the same reader:
+ *
+ * 1. Tree mode ({@link #readJson()}): each line is parsed into a {@link JsonNode}.
+ * 2. Typed row mode ({@link #readRow(Object[])}): records are decoded token by token with a Jackson
+ *    {@link JsonParser} straight from the raw bytes. Fields that are not projected are skipped without
+ *    being materialized, and projected fields are written as typed java values into a caller-provided
+ *    row buffer in column order. Typed row mode is only available when the reader is created with a
+ *    {@link JsonTable} schema, and supports pushed-down {@link JsonFilter}s.
  **/
-public class JsonReader implements Closeable {
+public class JsonReader implements JsonRowReader {
 
-    private final BufferedReader br;
+    @Nullable
+    private final InputStream in;
+
+    @Nullable
+    private final Reader reader;
+
+    @Nullable
+    private BufferedReader br;
+
+    @Nullable
+    private Set<String> fields;
 
+    /** Column types in the order of the row buffer, only set in typed row mode. */
     @Nullable
-    private List<String> fields;
+    private JsonDataType[] rowTypes;
+
+    /** Field name to the position in the row buffer, only set in typed row mode. */
+    @Nullable
+    private Map<String, Integer> rowIndexes;
+
+    /** Number of projected columns, which are the leading slots. */
+    private int projectedSize;
+
+    /** Values of the columns that are referenced by filters only. */
+    @Nullable
+    private Object[] scratch;
+
+    @Nullable
+    private JsonFilter[] filters;
+
+    /** Slot of the column referenced by each filter. */
+    @Nullable
+    private int[] filterSlots;
+
+    @Nullable
+    private JsonParser parser;
+
+    /** Byte offset of the last record read in typed row mode. */
+    private long recordOffset = -1;
 
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     public JsonReader(InputStream in) {
         this(in, null);
     }
 
     public JsonReader(InputStream in, List<String> fields) {
-        this.br = new BufferedReader(new InputStreamReader(in));
-        this.fields = fields;
+        this.in = in;
+        this.reader = null;
+        this.fields = fields == null ? null : Sets.newHashSet(fields);
     }
 
     public JsonReader(Reader in) {
-        this.br = new BufferedReader(in);
+        this(in, null);
     }
 
     public JsonReader(Reader in, List<String> fields) {
-        this.br = new BufferedReader(in);
-        this.fields = fields;
+        this.in = null;
+        this.reader = in;
+        this.fields = fields == null ? null : Sets.newHashSet(fields);
+    }
+
+    /**
+     * Create a reader in typed row mode.
+     * @param in The raw bytes of json lines.
+     * @param table The schema of the records.
+     * @param columns Optional projected column names, which decides the layout of the row buffer.
+     *                Null denotes all columns of the table in the schema order.
+     */
+    public JsonReader(InputStream in, JsonTable table, @Nullable List<String> columns) {
+        this(in, table, columns, null);
     }
 
+    /**
+     * Create a reader in typed row mode with pushed-down filters. Records that don't satisfy all the filters
+     * are discarded during parsing. Filters may reference columns that are not projected.
+     * @param in The raw bytes of json lines.
+     * @param table The schema of the records.
+     * @param columns Optional projected column names, which decides the layout of the row buffer.
+     *                Null denotes all columns of the table in the schema order.
+     * @param filters Optional conjunctive filters. Null denotes no filter.
+     */
+    public JsonReader(InputStream in, JsonTable table, @Nullable List<String> columns, @Nullable List<JsonFilter> filters) {
+        this(in, columns);
+        Map<String, JsonDataType> tableTypes = Maps.newHashMap();
+        for (JsonColumn column : table.getColumns()) {
+            tableTypes.put(column.getName(), column.getType());
+        }
+        if (columns == null) {
+            columns = table.getColumns().stream().map(JsonColumn::getName).collect(Collectors.toList());
+        }
+        List<String> slotColumns = Lists.newArrayList(columns);
+        if (filters != null) {
+            for (JsonFilter filter : filters) {
+                if (!slotColumns.contains(filter.getColumn())) {
+                    slotColumns.add(filter.getColumn());
+                }
+            }
+        }
+        // slots of projected columns are in the row buffer, and the rest are in the scratch buffer
+        this.projectedSize = columns.size();
+        this.rowTypes = new JsonDataType[slotColumns.size()];
+        this.rowIndexes = Maps.newHashMapWithExpectedSize(slotColumns.size());
+        for (int i = 0; i < slotColumns.size(); i++) {
+            String column = slotColumns.get(i);
+            Preconditions.checkArgument(
+                    tableTypes.containsKey(column), "Column %s doesn't exist in table %s", column, table.getName());
+            rowTypes[i] = tableTypes.get(column);
+            rowIndexes.put(column, i);
+        }
+        this.scratch = new Object[slotColumns.size() - projectedSize];
+        if (filters != null && !filters.isEmpty()) {
+            this.filters = filters.toArray(new JsonFilter[0]);
+            this.filterSlots = new int[filters.size()];
+            for (int i = 0; i < filters.size(); i++) {
+                filterSlots[i] = rowIndexes.get(filters.get(i).getColumn());
+            }
+        }
+    }
+
+    /**
+     * Read the next record, skipping blank lines.
+     * @return The record, or null if the end of the stream is reached.
+     * @throws IOException When IO error occurs.
+     */
     public JsonNode readJson() throws IOException {
-        String jsonString = br.readLine();
-        if (jsonString == null) {
-            return null;
+        Preconditions.checkState(parser == null, "The reader is already used in typed row mode.");
+        if (br == null) {
+            br = new BufferedReader(in != null ? new InputStreamReader(in) : reader);
         }
+        String jsonString;
+        do {
+            jsonString = br.readLine();
+            if (jsonString == null) {
+                return null;
+            }
+        } while (jsonString.trim().isEmpty());
         ObjectNode node = (ObjectNode) OBJECT_MAPPER.readTree(jsonString);
         if (fields != null) {
             Iterator<String> ite = node.fieldNames();
@@ -80,8 +213,128 @@ public class JsonReader implements Closeable {
         return node;
     }
 
+    /**
+     * Decode the next record that satisfies the filters into a row buffer. Missing fields and json nulls are
+     * decoded as null. The buffer is overwritten on each call, so callers that retain rows must pass a new buffer.
+     * @param row The row buffer, whose length must be no less than the number of projected columns.
+     * @return True if a record is decoded, false if the end of the stream is reached.
+     * @throws IOException When IO error occurs or the record is not a json object.
+     */
+    @Override
+    public boolean readRow(Object[] row) throws IOException {
+        Preconditions.checkState(rowTypes != null, "Typed row mode requires the reader to be created with a schema.");
+        Preconditions.checkState(br == null, "The reader is already used in tree mode.");
+        Preconditions.checkArgument(row.length >= projectedSize,
+                "Row buffer of size %s is smaller than the %s projected columns", row.length, projectedSize);
+        if (parser == null) {
+            parser = in != null ? JSON_FACTORY.createParser(in) : JSON_FACTORY.createParser(reader);
+        }
+        while (true) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return false;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a json object per line, but got " + token);
+            }
+            recordOffset = parser.getTokenLocation().getByteOffset();
+            if (decodeObject(row)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Decode the fields of the current object, stopping the decoding (but not the skipping) of the remaining
+     * fields once a filter is not satisfied.
+     * @return True if the record satisfies the filters.
+     */
+    private boolean decodeObject(Object[] row) throws IOException {
+        Arrays.fill(row, 0, projectedSize, null);
+        Arrays.fill(scratch, null);
+        boolean matched = true;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Integer index = matched ? rowIndexes.get(parser.getCurrentName()) : null;
+            JsonToken token = parser.nextToken();
+            if (index == null) {
+                parser.skipChildren();
+                continue;
+            }
+            Object value = readValue(token, rowTypes[index]);
+            if (index < projectedSize) {
+                row[index] = value;
+            } else {
+                scratch[index - projectedSize] = value;
+            }
+            if (filters != null) {
+                matched = testFilters(index, value);
+            }
+        }
+        if (filters != null && matched) {
+            // columns that are absent in the record haven't been tested yet
+            for (int i = 0; i < filters.length && matched; i++) {
+                int slot = filterSlots[i];
+                matched = filters[i].test(slot < projectedSize ? row[slot] : scratch[slot - projectedSize]);
+            }
+        }
+        return matched;
+    }
+
+    private boolean testFilters(int slot, @Nullable Object value) {
+        for (int i = 0; i < filters.length; i++) {
+            if (filterSlots[i] == slot && !filters[i].test(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the position of the last record returned by {@link #readRow(Object[])} in the underlying stream.
+     * @return The byte offset, or -1 if no record is read or the reader reads chars.
+     */
+    public long getRecordOffset() {
+        return recordOffset;
+    }
+
+    @Nullable
+    private Object readValue(JsonToken token, JsonDataType type) throws IOException {
+        switch (token) {
+            case VALUE_NULL:
+                return null;
+            case START_OBJECT:
+            case START_ARRAY:
+                // nested values are not supported for now
+                parser.skipChildren();
+                return null;
+            default:
+                break;
+        }
+        switch (type) {
+            case STRING:
+                return parser.getValueAsString();
+            case NUMBER:
+                return parser.getValueAsDouble();
+            case INTEGER:
+                return parser.getValueAsInt();
+            case BOOLEAN:
+                return parser.getValueAsBoolean();
+            default:
+                throw new IllegalArgumentException("Unsupported JSON type: " + type);
+        }
+    }
+
     @Override
     public void close() throws IOException {
-        br.close();
+        if (parser != null) {
+            parser.close();
+        }
+        if (br != null) {
+            br.close();
+        } else if (in != null) {
+            in.close();
+        } else if (reader != null) {
+            reader.close();
+        }
     }
 }
@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * JsonRowReader reads the records of a table as typed rows, see {@link JsonReader#readRow(Object[])}.
+ **/
+public interface JsonRowReader extends Closeable {
+
+    /**
+     * Decode the next record into a row buffer in the column order of the scan.
+     * The buffer is overwritten on each call, so callers that retain rows must pass a new buffer.
+     * @param row The row buffer, whose length must be no less than the number of projected columns.
+     * @return True if a record is decoded, false if the end of the scan is reached.
+     * @throws IOException When IO error occurs.
+     */
+    boolean readRow(Object[] row) throws IOException;
+}
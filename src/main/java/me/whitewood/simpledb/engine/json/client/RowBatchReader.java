@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.client;
+
+import me.whitewood.simpledb.engine.json.common.ColumnarBatch;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * RowBatchReader reads the records of a table as batches of typed rows, which are produced ahead by the server
+ * up to a bounded number of batches, so a slow reader throttles the scan rather than the scan buffering the table.
+ * Batches are in columnar form, see {@link ColumnarBatch}, both for embedded and remote servers.
+ *
+ * Batches and single rows ({@link #readRow(Object[])}) can't be mixed on the same reader.
+ **/
+public interface RowBatchReader extends JsonRowReader {
+
+    /**
+     * Read the next batch of rows, waiting for it to be produced if necessary.
+     * @return The batch, which is never empty, or null if the end of the scan is reached.
+     * @throws IOException When IO error occurs while producing the batch.
+     */
+    @Nullable
+    ColumnarBatch nextBatch() throws IOException;
+}
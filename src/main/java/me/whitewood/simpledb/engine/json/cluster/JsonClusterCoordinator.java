@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.engine.json.cluster;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.whitewood.simpledb.engine.json.client.JsonDatabaseClient;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.AggregateAccumulator;
+import me.whitewood.simpledb.engine.json.common.ConsistentHashRing;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseConfig;
+import me.whitewood.simpledb.engine.json.remote.JsonRpcClient;
+import me.whitewood.simpledb.engine.json.remote.JsonRpcService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * JsonClusterCoordinator serves a database whose partitions are split among the nodes of a cluster, each of which
+ * is a {@link JsonRpcService} over the same database, eg. on shared storage. Partitions are assigned to the nodes by
+ * consistent hashing of their file names (see {@link ConsistentHashRing}), and each node only scans the partitions
+ * assigned to it, see {@link EmbeddedJsonDatabaseConfig#getClusterNodes()}. So the scans of a table are spread over
+ * the disks and cores of all the nodes.
+ *
+ * Requests are served as follows:
+ *
+ * 1. Scans, with the pushed-down projections and filters, are scattered to all the nodes, and the results are
+ *    gathered as they arrive, see {@link ScatterGatherBatchReader}. So rows are not in partition order.
+ * 2. Aggregates are computed by the nodes over their partitions, and the partial results are merged by the
+ *    coordinator, see {@link AggregateAccumulator}. So only one row per group per node crosses the network.
+ * 3. Inserts, analyzing, statistics and versions of a table are served by the owner node of the table, which is
+ *    the node that the table name is assigned to. So a table has a single writer, and the rows that the owner
+ *    buffers in memory are counted in the versions.
+ * 4. Metadata is served by any node, since the catalog is shared.
+ *
+ * Nodes must run with compactions and the memtable disabled, since both keep state in the memory of a process
+ * that the other nodes can't see. Other nodes read the partitions that the owner is appending to up to their
+ * current length, so rows of an insert may be seen before the insert returns. Nodes are not replicated, so a
+ * scan fails if any node is down.
+ **/
+public class JsonClusterCoordinator implements JsonDatabaseClient, Closeable {
+
+    /** Maximum number of batches received ahead of the reader of a scan, per node. */
+    private static final int SCAN_CAPACITY_PER_NODE = 2;
+
+    /** The same limit as a single node, which each node applies to its own partitions. */
+    private static final int MAX_RESULT_SIZE = 1024;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsonClusterCoordinator.class);
+
+    private final ConsistentHashRing ring;
+
+    private final Map<String, JsonRpcClient> nodes;
+
+    /** Services of the nodes started by the coordinator, which are stopped along with it. */
+    private final List<JsonRpcService> services;
+
+    /** Runs the requests to the nodes, which block on the network. */
+    private final ExecutorService executor;
+
+    /**
+     * Create a coordinator of nodes that are already running.
+     * @param nodes The opened clients of the nodes by the node ids, whose partitions are assigned by a ring of the
+     *              same ids. The clients are closed along with the coordinator.
+     */
+    public JsonClusterCoordinator(Map<String, JsonRpcClient> nodes) {
+        this(nodes, Collections.emptyList());
+    }
+
+    private JsonClusterCoordinator(Map<String, JsonRpcClient> nodes, List<JsonRpcService> services) {
+        Preconditions.checkArgument(!nodes.isEmpty(), "A cluster needs at least one node.");
+        this.nodes = ImmutableMap.copyOf(nodes);
+        this.ring = new ConsistentHashRing(this.nodes.keySet());
+        this.services = services;
+        this.executor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("cluster-coordinator-thread-%d").build());
+    }
+
+    /**
+     * Start a cluster of nodes on this machine, each of which is served by a child process, and connect to them.
+     * @param basePath The base path of the database.
+     * @param config The config of the nodes, whose cluster options are set for each node.
+     * @param nodeCount The number of nodes.
+     * @return The coordinator, which stops the nodes once it's closed.
+     */
+    public static JsonClusterCoordinator startLocal(String basePath, EmbeddedJsonDatabaseConfig config, int nodeCount) {
+        Preconditions.checkArgument(nodeCount > 0, "Node count must be positive: %s", nodeCount);
+        List<String> nodeIds = Lists.newArrayListWithCapacity(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            nodeIds.add("node-" + i);
+        }
+        Map<String, JsonRpcClient> clients = Maps.newLinkedHashMap();
+        List<JsonRpcService> services = Lists.newArrayList();
+        try {
+            for (String nodeId : nodeIds) {
+                JsonRpcService service = new JsonRpcService(
+                        basePath,
+                        getNodeConfig(config, nodeIds, nodeId),
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                service.start(false);
+                services.add(service);
+                JsonRpcClient client = new JsonRpcClient(
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), service.getPort()));
+                client.open();
+                clients.put(nodeId, client);
+            }
+        } catch (RuntimeException e) {
+            clients.values().forEach(JsonRpcClient::close);
+            services.forEach(JsonRpcService::stop);
+            throw e;
+        }
+        LOGGER.info("Started a local cluster of {} nodes over {}", nodeCount, basePath);
+        return new JsonClusterCoordinator(clients, services);
+    }
+
+    /**
+     * Get the config of a node of a cluster, which disables the features that are not supported by clusters.
+     */
+    public static EmbeddedJsonDatabaseConfig getNodeConfig(
+            EmbeddedJsonDatabaseConfig config, List<String> nodeIds, String nodeId) {
+        EmbeddedJsonDatabaseConfig nodeConfig = OBJECT_MAPPER.convertValue(config, EmbeddedJsonDatabaseConfig.class);
+        nodeConfig.setClusterNodes(Lists.newArrayList(nodeIds));
+        nodeConfig.setClusterNodeId(nodeId);
+        nodeConfig.setCompactionEnabled(false);
+        nodeConfig.setMemtableEnabled(false);
+        return nodeConfig;
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    @Override
+    public List<String> listTableNames(@Nullable String pattern) {
+        return anyNode().listTableNames(pattern);
+    }
+
+    @Override
+    public List<JsonTable> listTables(@Nullable String pattern) {
+        return anyNode().listTables(pattern);
+    }
+
+    @Override
+    public JsonTable getTable(String tableName) {
+        return anyNode().getTable(tableName);
+    }
+
+    @Override
+    public List<JsonNode> scanTable(String tableName, @Nullable List<String> columns) throws IOException {
+        List<JsonNode> result = Lists.newArrayList();
+        for (List<JsonNode> nodes : scatter(node -> node.scanTable(tableName, columns))) {
+            if (result.size() + nodes.size() > MAX_RESULT_SIZE) {
+                LOGGER.warn("Scan query reached limit of result set size, returning the top {} records",
+                        MAX_RESULT_SIZE);
+                result.addAll(nodes.subList(0, MAX_RESULT_SIZE - result.size()));
+                break;
+            }
+            result.addAll(nodes);
+        }
+        return result;
+    }
+
+    /**
+     * The json lines of the nodes are concatenated in the order of the nodes, separated by line separators.
+     */
+    @Override
+    public JsonReader scanTableAsStream(String tableName, @Nullable List<String> columns) throws IOException {
+        List<InputStream> streams = scatter(node -> node.openStream(tableName, columns));
+        List<InputStream> parts = Lists.newArrayListWithCapacity(streams.size() * 2);
+        for (InputStream stream : streams) {
+            parts.add(stream);
+            parts.add(new ByteArrayInputStream(new byte[]{'\n'}));
+        }
+        return new JsonReader(new SequenceInputStream(Collections.enumeration(parts)), columns);
+    }
+
+    @Override
+    public JsonRowReader scanTableAsRows(
+            JsonTable table, @Nullable List<String> columns, @Nullable List<JsonFilter> filters) throws IOException {
+        return scanTableAsBatches(table, columns, filters);
+    }
+
+    @Override
+    public RowBatchReader scanTableAsBatches(
+            JsonTable table, @Nullable List<String> columns, @Nullable List<JsonFilter> filters) throws IOException {
+        List<RowBatchReader> readers = scatter(node -> node.scanTableAsBatches(table, columns, filters));
+        return new ScatterGatherBatchReader(readers, SCAN_CAPACITY_PER_NODE * nodes.size(), executor);
+    }
+
+    @Override
+    public List<Object[]> aggregateTable(
+            JsonTable table,
+            List<String> groupColumns,
+            List<JsonAggregate> aggregates,
+            @Nullable List<JsonFilter> filters) throws IOException {
+        AggregateAccumulator accumulator = new AggregateAccumulator(groupColumns.size(), aggregates);
+        for (List<Object[]> partials : scatter(node -> node.aggregateTable(table, groupColumns, aggregates, filters))) {
+            for (Object[] partial : partials) {
+                accumulator.merge(partial);
+            }
+        }
+        return accumulator.getRows();
+    }
+
+    @Override
+    public int insertRows(String tableName, List<Object[]> rows) throws IOException {
+        return getOwner(tableName).insertRows(tableName, rows);
+    }
+
+    @Override
+    public JsonTableStatistics analyzeTable(String tableName) throws IOException {
+        return getOwner(tableName).analyzeTable(tableName);
+    }
+
+    @Override
+    @Nullable
+    public JsonTableStatistics getTableStatistics(String tableName) throws IOException {
+        return getOwner(tableName).getTableStatistics(tableName);
+    }
+
+    @Override
+    public long getTableVersion(String tableName) throws IOException {
+        return getOwner(tableName).getTableVersion(tableName);
+    }
+
+    /**
+     * Close the clients of the nodes, and stop the nodes started by the coordinator.
+     */
+    @Override
+    public void close() {
+        nodes.values().forEach(JsonRpcClient::close);
+        services.forEach(JsonRpcService::stop);
+        executor.shutdown();
+    }
+
+    private JsonRpcClient anyNode() {
+        return nodes.values().iterator().next();
+    }
+
+    private JsonRpcClient getOwner(String tableName) {
+        return nodes.get(ring.getNode(tableName));
+    }
+
+    /**
+     * Send a request to all the nodes concurrently, and wait for all of them.
+     * @return The results in the order of the nodes.
+     * @throws IOException When any of the requests fails, in which case the closeable results are closed.
+     */
+    private <T> List<T> scatter(NodeRequest<T> request) throws IOException {
+        List<CompletableFuture<T>> futures = Lists.newArrayListWithCapacity(nodes.size());
+        for (JsonRpcClient node : nodes.values()) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return request.send(node);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        List<T> results = Lists.newArrayListWithCapacity(futures.size());
+        Throwable failure = null;
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                failure = failure == null ? e.getCause() : failure;
+            }
+        }
+        if (failure == null) {
+            return results;
+        }
+        for (T result : results) {
+            if (result instanceof Closeable) {
+                try {
+                    ((Closeable) result).close();
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to close the result of a node", e);
+                }
+            }
+        }
+        if (failure instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) failure).getCause();
+        }
+        throw new IOException("Failed to serve the request on a node", failure);
+    }
+
+    @FunctionalInterface
+    private interface NodeRequest<T> {
+        T send(JsonRpcClient node) throws IOException;
+    }
+}
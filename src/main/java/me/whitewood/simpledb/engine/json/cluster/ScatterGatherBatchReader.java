@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.engine.json.cluster;
+
+import com.google.common.base.Preconditions;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.ColumnarBatch;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ScatterGatherBatchReader merges the batches of the scans of many nodes in the order they arrive, so the nodes
+ * scan their partitions concurrently and a slow node doesn't hold back the others.
+ *
+ * Batches are pulled from the scans by tasks on an executor, one per scan at a time, into a queue of bounded
+ * capacity. Like the batch scans of the embedded server, a task stops once the queue is full and releases its
+ * thread, and the consumer resumes the tasks whenever it takes a batch out. Batches are handed over as they're
+ * received, without being decoded into rows.
+ *
+ * A failure of any scan fails the merged scan. It's not thread safe for the consumer side.
+ **/
+class ScatterGatherBatchReader implements RowBatchReader {
+
+    /** Marks the end of a scan, after all of its batches. */
+    private static final ColumnarBatch END = new ColumnarBatch.Builder(new JsonDataType[0], 0).build();
+
+    private final Feeder[] feeders;
+
+    private final int capacity;
+
+    private final Executor executor;
+
+    private final BlockingQueue<ColumnarBatch> batches = new LinkedBlockingQueue<>();
+
+    /** Number of scans whose ends are not taken yet, only accessed by the consumer. */
+    private int remaining;
+
+    private volatile boolean closed = false;
+
+    @Nullable
+    private volatile Throwable error;
+
+    @Nullable
+    private ColumnarBatch current;
+
+    private int position;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScatterGatherBatchReader.class);
+
+    /**
+     * @param sources The scans of the nodes, which are closed along with the reader.
+     * @param capacity The maximum number of batches received ahead of the consumer.
+     * @param executor The executor that runs the tasks pulling batches.
+     */
+    ScatterGatherBatchReader(List<RowBatchReader> sources, int capacity, Executor executor) {
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive: %s", capacity);
+        this.feeders = new Feeder[sources.size()];
+        for (int i = 0; i < feeders.length; i++) {
+            feeders[i] = new Feeder(sources.get(i));
+        }
+        this.remaining = feeders.length;
+        this.capacity = capacity;
+        this.executor = executor;
+        resume();
+    }
+
+    @Override
+    @Nullable
+    public ColumnarBatch nextBatch() throws IOException {
+        Preconditions.checkState(!closed, "The reader is closed.");
+        while (remaining > 0) {
+            checkError();
+            ColumnarBatch batch;
+            try {
+                batch = batches.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the next batch");
+            }
+            if (batch == END) {
+                remaining--;
+                continue;
+            }
+            resume();
+            return batch;
+        }
+        checkError();
+        return null;
+    }
+
+    @Override
+    public boolean readRow(Object[] row) throws IOException {
+        if (current == null || position == current.getSize()) {
+            current = nextBatch();
+            position = 0;
+            if (current == null) {
+                return false;
+            }
+        }
+        current.readRow(position++, row);
+        return true;
+    }
+
+    /**
+     * Stop pulling batches and release them. The scans that are being pulled are closed by their tasks.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        batches.clear();
+        for (Feeder feeder : feeders) {
+            if (feeder.feeding.compareAndSet(false, true)) {
+                feeder.closeSource();
+            }
+        }
+    }
+
+    private void checkError() throws IOException {
+        Throwable t = error;
+        if (t != null) {
+            throw t instanceof IOException ? (IOException) t : new IOException("Failed to scan a node", t);
+        }
+    }
+
+    private void resume() {
+        for (Feeder feeder : feeders) {
+            feeder.resume();
+        }
+    }
+
+    /**
+     * Pulls the batches of the scan of a node.
+     */
+    private final class Feeder {
+
+        private final RowBatchReader source;
+
+        /** Whether a task is scheduled or running, or the scan is finished. */
+        private final AtomicBoolean feeding = new AtomicBoolean(false);
+
+        private volatile boolean finished = false;
+
+        Feeder(RowBatchReader source) {
+            this.source = source;
+        }
+
+        void resume() {
+            if (finished || closed || batches.size() >= capacity || !feeding.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                executor.execute(this::feed);
+            } catch (RejectedExecutionException e) {
+                finish(e);
+            }
+        }
+
+        private void feed() {
+            try {
+                while (!closed && batches.size() < capacity) {
+                    ColumnarBatch batch = source.nextBatch();
+                    if (batch == null) {
+                        finish(null);
+                        return;
+                    }
+                    batches.add(batch);
+                }
+            } catch (Throwable t) {
+                finish(t);
+                return;
+            }
+            if (closed) {
+                closeSource();
+                return;
+            }
+            feeding.set(false);
+            // the consumer may have taken batches, or closed the reader, before the flag is cleared
+            if (closed) {
+                if (feeding.compareAndSet(false, true)) {
+                    closeSource();
+                }
+            } else {
+                resume();
+            }
+        }
+
+        private void finish(@Nullable Throwable t) {
+            if (t != null && error == null) {
+                error = t;
+            }
+            finished = true;
+            closeSource();
+            batches.add(END);
+        }
+
+        void closeSource() {
+            try {
+                source.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close the scan of a node", e);
+            }
+        }
+    }
+}
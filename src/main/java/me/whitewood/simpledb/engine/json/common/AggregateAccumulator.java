@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.engine.json.common;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AggregateAccumulator computes grouped aggregates with a hash table of the groups, either from the rows of a
+ * table or from the partial results computed elsewhere, eg. by the nodes of a cluster.
+ *
+ * Results are rows of the group values followed by the results of the aggregates, in the order the groups are
+ * first seen. Without group columns, there's always a single row, even if no row is accumulated.
+ **/
+public class AggregateAccumulator {
+
+    private final int groupCount;
+
+    private final JsonAggregate[] aggregates;
+
+    private final Map<List<Object>, Object[]> groups = Maps.newLinkedHashMap();
+
+    /**
+     * @param groupCount The number of group columns.
+     * @param aggregates The aggregates.
+     */
+    public AggregateAccumulator(int groupCount, List<JsonAggregate> aggregates) {
+        this.groupCount = groupCount;
+        this.aggregates = aggregates.toArray(new JsonAggregate[0]);
+    }
+
+    /**
+     * Accumulate a row of a table.
+     * @param row The row, whose leading values are the group values.
+     * @param argumentSlots The index in the row of the column of each aggregate, or -1 for COUNT(*).
+     */
+    public void accumulate(Object[] row, int[] argumentSlots) {
+        Object[] results = getResults(row);
+        for (int i = 0; i < aggregates.length; i++) {
+            int slot = argumentSlots[i];
+            results[groupCount + i] = aggregates[i].accumulate(results[groupCount + i], slot < 0 ? null : row[slot]);
+        }
+    }
+
+    /**
+     * Merge a partial result.
+     * @param partial The row of the group values followed by the partial results of the aggregates.
+     */
+    public void merge(Object[] partial) {
+        Preconditions.checkArgument(partial.length == groupCount + aggregates.length,
+                "Expected a partial result of %s values, but got %s", groupCount + aggregates.length, partial.length);
+        Object[] results = getResults(partial);
+        for (int i = 0; i < aggregates.length; i++) {
+            results[groupCount + i] = aggregates[i].merge(results[groupCount + i], partial[groupCount + i]);
+        }
+    }
+
+    private Object[] getResults(Object[] row) {
+        // row buffers are reused by readers, so the group values are copied
+        List<Object> key = Arrays.asList(Arrays.copyOf(row, groupCount));
+        Object[] results = groups.get(key);
+        if (results == null) {
+            results = newResults(key);
+            groups.put(key, results);
+        }
+        return results;
+    }
+
+    private Object[] newResults(List<Object> key) {
+        Object[] results = new Object[groupCount + aggregates.length];
+        for (int i = 0; i < groupCount; i++) {
+            results[i] = key.get(i);
+        }
+        for (int i = 0; i < aggregates.length; i++) {
+            results[groupCount + i] = aggregates[i].initial();
+        }
+        return results;
+    }
+
+    /**
+     * @return The rows of the results, one per group.
+     */
+    public List<Object[]> getRows() {
+        if (groupCount == 0 && groups.isEmpty()) {
+            return Lists.<Object[]>newArrayList(newResults(Lists.newArrayList()));
+        }
+        return Lists.newArrayList(groups.values());
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.common;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * ColumnVector is the view of the values of a column in a binary section, which is shared by the columnar
+ * sidecars of partitions and the columnar batches of scans. The layout (big-endian) of a section is the null
+ * bitmap of ceil(rowCount / 8) bytes, followed by the values:
+ *
+ * INTEGER: rowCount * int
+ * NUMBER:  rowCount * double
+ * BOOLEAN: bitmap of ceil(rowCount / 8) bytes
+ * STRING:  dictionarySize(int) dictionarySize * [length(int) UTF-8 bytes] rowCount * code(int)
+ *
+ * Null values take the slots of zeros. Values are read in place with absolute gets, so the section may be
+ * memory-mapped or shared with other readers.
+ **/
+public class ColumnVector {
+
+    private final JsonDataType type;
+
+    private final ByteBuffer buffer;
+
+    private final int nullsOffset;
+
+    private final int valuesOffset;
+
+    /** Decoded dictionary, only for STRING columns. */
+    @Nullable
+    private final String[] dictionary;
+
+    /**
+     * @param type The type of the column.
+     * @param buffer The buffer that holds the section.
+     * @param offset The absolute offset of the section in the buffer.
+     * @param rowCount The number of rows of the section.
+     */
+    public ColumnVector(JsonDataType type, ByteBuffer buffer, int offset, int rowCount) {
+        this.type = type;
+        this.buffer = buffer;
+        this.nullsOffset = offset;
+        int valuesOffset = offset + bitmapSize(rowCount);
+        if (type == JsonDataType.STRING) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(valuesOffset);
+            int dictionarySize = view.getInt();
+            Preconditions.checkArgument(dictionarySize >= 0 && dictionarySize <= view.remaining() / 4,
+                    "Invalid dictionary size %s", dictionarySize);
+            dictionary = new String[dictionarySize];
+            for (int i = 0; i < dictionary.length; i++) {
+                byte[] bytes = new byte[view.getInt()];
+                view.get(bytes);
+                dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            valuesOffset = view.position();
+        } else {
+            dictionary = null;
+        }
+        this.valuesOffset = valuesOffset;
+    }
+
+    public JsonDataType getType() {
+        return type;
+    }
+
+    public boolean isNull(int index) {
+        return (buffer.get(nullsOffset + (index >>> 3)) & (1 << (index & 7))) != 0;
+    }
+
+    public int getInt(int index) {
+        return buffer.getInt(valuesOffset + index * 4);
+    }
+
+    public double getDouble(int index) {
+        return buffer.getDouble(valuesOffset + index * 8);
+    }
+
+    public boolean getBoolean(int index) {
+        return (buffer.get(valuesOffset + (index >>> 3)) & (1 << (index & 7))) != 0;
+    }
+
+    public String getString(int index) {
+        return dictionary[buffer.getInt(valuesOffset + index * 4)];
+    }
+
+    /**
+     * Get the dictionary of a STRING column, whose entries are referenced by the codes of the values.
+     */
+    @Nullable
+    public String[] getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Get a value as a java object, whose type is the same as the values decoded from json lines.
+     */
+    @Nullable
+    public Object get(int index) {
+        if (isNull(index)) {
+            return null;
+        }
+        switch (type) {
+            case INTEGER:
+                return getInt(index);
+            case NUMBER:
+                return getDouble(index);
+            case BOOLEAN:
+                return getBoolean(index);
+            case STRING:
+                return getString(index);
+            default:
+                throw new IllegalArgumentException("Unsupported JSON type: " + type);
+        }
+    }
+
+    public static int bitmapSize(int rowCount) {
+        return (rowCount + 7) / 8;
+    }
+
+    /** Accumulates the values of a column in primitive arrays, and encodes them as a section. */
+    public static class Builder {
+
+        private final JsonDataType type;
+
+        private final BitSet nulls = new BitSet();
+
+        private final BitSet booleans = new BitSet();
+
+        private int[] ints;
+
+        private double[] doubles;
+
+        private final Map<String, Integer> dictionary = Maps.newLinkedHashMap();
+
+        public Builder(JsonDataType type) {
+            this(type, 1024);
+        }
+
+        /**
+         * @param capacity The expected number of rows, beyond which the arrays grow.
+         */
+        public Builder(JsonDataType type, int capacity) {
+            this.type = type;
+            int initial = Math.max(capacity, 1);
+            this.ints = new int[type == JsonDataType.NUMBER ? 0 : initial];
+            this.doubles = new double[type == JsonDataType.NUMBER ? initial : 0];
+        }
+
+        /**
+         * Set the value of a row, whose java type must be the one decoded from json lines for the column type.
+         */
+        public void add(int index, @Nullable Object value) {
+            if (index >= ints.length && type != JsonDataType.NUMBER) {
+                ints = Arrays.copyOf(ints, Math.max(ints.length * 2, index + 1));
+            }
+            if (index >= doubles.length && type == JsonDataType.NUMBER) {
+                doubles = Arrays.copyOf(doubles, Math.max(doubles.length * 2, index + 1));
+            }
+            if (value == null) {
+                nulls.set(index);
+                return;
+            }
+            switch (type) {
+                case INTEGER:
+                    ints[index] = (Integer) value;
+                    break;
+                case NUMBER:
+                    doubles[index] = (Double) value;
+                    break;
+                case BOOLEAN:
+                    booleans.set(index, (Boolean) value);
+                    break;
+                case STRING:
+                    Integer code = dictionary.get(value);
+                    if (code == null) {
+                        code = dictionary.size();
+                        dictionary.put((String) value, code);
+                    }
+                    ints[index] = code;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported JSON type: " + type);
+            }
+        }
+
+        /**
+         * Encode the first rows as a section.
+         */
+        public byte[] toSection(int rowCount) {
+            Preconditions.checkArgument(rowCount >= 0, "Invalid row count %s", rowCount);
+            byte[][] entries = null;
+            int size = bitmapSize(rowCount);
+            switch (type) {
+                case INTEGER:
+                    size += rowCount * 4;
+                    break;
+                case NUMBER:
+                    size += rowCount * 8;
+                    break;
+                case BOOLEAN:
+                    size += bitmapSize(rowCount);
+                    break;
+                case STRING:
+                    entries = new byte[dictionary.size()][];
+                    size += 4 + rowCount * 4;
+                    int i = 0;
+                    for (String value : dictionary.keySet()) {
+                        entries[i] = value.getBytes(StandardCharsets.UTF_8);
+                        size += 4 + entries[i++].length;
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported JSON type: " + type);
+            }
+            ByteBuffer section = ByteBuffer.allocate(size);
+            putBitmap(section, nulls, rowCount);
+            switch (type) {
+                case INTEGER:
+                    section.asIntBuffer().put(ints, 0, rowCount);
+                    break;
+                case NUMBER:
+                    section.asDoubleBuffer().put(doubles, 0, rowCount);
+                    break;
+                case BOOLEAN:
+                    putBitmap(section, booleans, rowCount);
+                    break;
+                case STRING:
+                    section.putInt(entries.length);
+                    for (byte[] entry : entries) {
+                        section.putInt(entry.length);
+                        section.put(entry);
+                    }
+                    section.asIntBuffer().put(ints, 0, rowCount);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported JSON type: " + type);
+            }
+            return section.array();
+        }
+
+        private static void putBitmap(ByteBuffer section, BitSet bits, int rowCount) {
+            byte[] bytes = bits.toByteArray();
+            int size = bitmapSize(rowCount);
+            section.put(bytes, 0, Math.min(bytes.length, size));
+            section.position(section.position() + Math.max(0, size - bytes.length));
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.common;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A batch of the rows of a scan in columnar binary form, which is the format of scan results both in process
+ * and on the wire. The layout (big-endian) is:
+ *
+ * rowCount(int) columnCount(int) columnCount * [type(byte) sectionLength(int)] columnCount * section
+ *
+ * where the columns are in the order of the scan, and each section holds the null bitmap and the typed values of
+ * a column with dictionary-encoded strings, see {@link ColumnVector}. Batches are read in place, so a batch
+ * received from the network is wrapped rather than decoded into rows, and its bytes are sent as is.
+ **/
+public class ColumnarBatch {
+
+    private static final int HEADER_SIZE = 4 + 4;
+
+    private static final int COLUMN_HEADER_SIZE = 1 + 4;
+
+    private static final JsonDataType[] TYPES = JsonDataType.values();
+
+    private final ByteBuffer buffer;
+
+    private final int size;
+
+    private final ColumnVector[] columns;
+
+    private ColumnarBatch(ByteBuffer buffer, int size, ColumnVector[] columns) {
+        this.buffer = buffer;
+        this.size = size;
+        this.columns = columns;
+    }
+
+    /**
+     * Wrap the bytes of a batch without copying.
+     * @param buffer The bytes from the position to the limit of the buffer.
+     * @throws IllegalArgumentException When the bytes are not a valid batch.
+     */
+    public static ColumnarBatch wrap(ByteBuffer buffer) {
+        ByteBuffer bytes = buffer.slice();
+        Preconditions.checkArgument(bytes.remaining() >= HEADER_SIZE, "Truncated batch header");
+        int size = bytes.getInt();
+        int columnCount = bytes.getInt();
+        Preconditions.checkArgument(size >= 0 && columnCount >= 0
+                && (long) columnCount * COLUMN_HEADER_SIZE <= bytes.remaining(), "Invalid batch header");
+        JsonDataType[] types = new JsonDataType[columnCount];
+        int[] lengths = new int[columnCount];
+        long total = HEADER_SIZE + (long) columnCount * COLUMN_HEADER_SIZE;
+        for (int i = 0; i < columnCount; i++) {
+            int type = bytes.get();
+            Preconditions.checkArgument(type >= 0 && type < TYPES.length, "Unknown column type %s", type);
+            types[i] = TYPES[type];
+            lengths[i] = bytes.getInt();
+            Preconditions.checkArgument(lengths[i] >= minSectionLength(types[i], size),
+                    "Truncated section of column %s", i);
+            total += lengths[i];
+        }
+        Preconditions.checkArgument(total == bytes.limit(), "Batch of %s bytes doesn't match the sections", total);
+        ColumnVector[] columns = new ColumnVector[columnCount];
+        int offset = bytes.position();
+        for (int i = 0; i < columnCount; i++) {
+            columns[i] = new ColumnVector(types[i], bytes, offset, size);
+            offset += lengths[i];
+        }
+        return new ColumnarBatch(bytes, size, columns);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public ColumnVector getColumn(int index) {
+        return columns[index];
+    }
+
+    @Nullable
+    public Object getValue(int column, int row) {
+        Preconditions.checkElementIndex(row, size);
+        return columns[column].get(row);
+    }
+
+    /**
+     * Read a row into a row buffer in the column order.
+     * @param row The index of the row.
+     * @param buffer The row buffer, whose length must be no less than the number of columns.
+     */
+    public void readRow(int row, Object[] buffer) {
+        Preconditions.checkElementIndex(row, size);
+        for (int i = 0; i < columns.length; i++) {
+            buffer[i] = columns[i].get(row);
+        }
+    }
+
+    public Object[] getRow(int row) {
+        Object[] values = new Object[columns.length];
+        readRow(row, values);
+        return values;
+    }
+
+    /**
+     * Get the bytes of the batch, which must not be modified since they may be shared with the batch.
+     */
+    public byte[] toByteArray() {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.limit() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.limit()];
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        view.get(bytes);
+        return bytes;
+    }
+
+    private static long minSectionLength(JsonDataType type, int size) {
+        long bitmap = ColumnVector.bitmapSize(size);
+        switch (type) {
+            case INTEGER:
+                return bitmap + size * 4L;
+            case NUMBER:
+                return bitmap + size * 8L;
+            case BOOLEAN:
+                return bitmap * 2;
+            case STRING:
+                return bitmap + 4 + size * 4L;
+            default:
+                throw new IllegalArgumentException("Unsupported JSON type: " + type);
+        }
+    }
+
+    @Override
+    public String toString() {
+        Object[][] rows = new Object[size][];
+        for (int i = 0; i < size; i++) {
+            rows[i] = getRow(i);
+        }
+        return "ColumnarBatch{" +
+                "size=" + size +
+                ", rows=" + Arrays.deepToString(rows) +
+                '}';
+    }
+
+    /**
+     * Builds a batch from rows, whose values are of the java types decoded from json lines for the column types.
+     */
+    public static class Builder {
+
+        private final JsonDataType[] types;
+
+        private final ColumnVector.Builder[] columns;
+
+        private int size;
+
+        /**
+         * @param types The types of the columns in the order of the rows.
+         * @param capacity The expected number of rows.
+         */
+        public Builder(JsonDataType[] types, int capacity) {
+            this.types = types;
+            this.columns = new ColumnVector.Builder[types.length];
+            for (int i = 0; i < types.length; i++) {
+                columns[i] = new ColumnVector.Builder(types[i], capacity);
+            }
+        }
+
+        /**
+         * Add a row, whose values are copied so the row buffer can be reused.
+         */
+        public Builder add(Object[] row) {
+            Preconditions.checkArgument(row.length >= columns.length,
+                    "Row of size %s is smaller than the %s columns", row.length, columns.length);
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].add(size, row[i]);
+            }
+            size++;
+            return this;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public ColumnarBatch build() {
+            byte[][] sections = new byte[columns.length][];
+            int length = HEADER_SIZE + columns.length * COLUMN_HEADER_SIZE;
+            for (int i = 0; i < columns.length; i++) {
+                sections[i] = columns[i].toSection(size);
+                length += sections[i].length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            buffer.putInt(size);
+            buffer.putInt(columns.length);
+            for (int i = 0; i < columns.length; i++) {
+                buffer.put((byte) types[i].ordinal());
+                buffer.putInt(sections[i].length);
+            }
+            for (byte[] section : sections) {
+                buffer.put(section);
+            }
+            buffer.flip();
+            return wrap(buffer);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.engine.json.common;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ConsistentHashRing assigns keys, eg. the names of partition files, to nodes. Each node is placed at a number of
+ * virtual points on a ring of 64-bit hashes, and a key belongs to the node of the first point at or after the hash
+ * of the key. Adding or removing a node only moves the keys between it and its neighbours, which is about 1/N of
+ * the keys, and the virtual points keep the keys evenly spread.
+ *
+ * Hashes are stable across processes, so every process that builds a ring of the same nodes assigns the keys
+ * the same way without any coordination.
+ **/
+public class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final List<String> nodes;
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+
+    public ConsistentHashRing(Collection<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param nodes The distinct ids of the nodes.
+     * @param virtualNodes The number of points of each node on the ring.
+     */
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        Preconditions.checkArgument(!nodes.isEmpty(), "A ring needs at least one node.");
+        Preconditions.checkArgument(virtualNodes > 0, "Virtual nodes must be positive: %s", virtualNodes);
+        Preconditions.checkArgument(Sets.newHashSet(nodes).size() == nodes.size(), "Duplicate nodes in %s", nodes);
+        this.nodes = ImmutableList.copyOf(nodes);
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Get the node that a key belongs to.
+     */
+    public String getNode(String key) {
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    private static long hash(String value) {
+        return HASH.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistentHashRing{" +
+                "nodes=" + nodes +
+                ", points=" + points.size() +
+                '}';
+    }
+}
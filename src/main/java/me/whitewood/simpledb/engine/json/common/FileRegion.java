@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.common;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A range of bytes of an open file, which can be transferred to a channel by
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so the bytes are sent by the kernel
+ * without being copied through the heap, see {@link TransferableStream}.
+ **/
+public class FileRegion {
+
+    private final FileChannel channel;
+
+    private final long position;
+
+    private final long length;
+
+    public FileRegion(FileChannel channel, long position, long length) {
+        this.channel = channel;
+        this.position = position;
+        this.length = length;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Transfer a part of the region to a channel, which may be non-blocking.
+     * @param offset The offset in the region.
+     * @return The number of bytes transferred, which is 0 if a non-blocking channel is full.
+     * @throws IOException When IO error occurs.
+     */
+    public long transferTo(long offset, WritableByteChannel target) throws IOException {
+        return channel.transferTo(position + offset, length - offset, target);
+    }
+
+    @Override
+    public String toString() {
+        return "FileRegion{" +
+                "position=" + position +
+                ", length=" + length +
+                '}';
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.engine.json.common;
+
+import javax.annotation.Nullable;
+
+/**
+ * An aggregate function over a column, which is computed by the engine rather than the query layer.
+ *
+ * Aggregates are decomposable: rows are accumulated into partial results, eg. per partition or per node, and
+ * partial results are merged into the final one, see {@link #accumulate(Object, Object)} and
+ * {@link #merge(Object, Object)}. Partial and final results have the same form, so merging is associative.
+ * Nulls follow SQL semantics: they're ignored, COUNT of no value is 0 and the others of no value are null.
+ * SUM of integral values is a Long, and a Double otherwise. AVG is computed by the caller as SUM / COUNT.
+ **/
+public class JsonAggregate {
+
+    /** Supported aggregate functions. */
+    public enum Function {
+        COUNT,
+        SUM,
+        MIN,
+        MAX
+    }
+
+    private Function function;
+
+    /** The aggregated column, or null for COUNT(*). */
+    @Nullable
+    private String column;
+
+    public JsonAggregate() {}
+
+    public JsonAggregate(Function function, @Nullable String column) {
+        this.function = function;
+        this.column = column;
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    public void setFunction(Function function) {
+        this.function = function;
+    }
+
+    @Nullable
+    public String getColumn() {
+        return column;
+    }
+
+    public void setColumn(@Nullable String column) {
+        this.column = column;
+    }
+
+    /**
+     * @return The result of no row.
+     */
+    @Nullable
+    public Object initial() {
+        return function == Function.COUNT ? 0L : null;
+    }
+
+    /**
+     * Add the value of a row to a partial result.
+     * @param partial The partial result of the previous rows.
+     * @param value The value of the column in the row, which is ignored by COUNT(*).
+     * @return The partial result including the row.
+     */
+    @Nullable
+    public Object accumulate(@Nullable Object partial, @Nullable Object value) {
+        if (function == Function.COUNT) {
+            long count = partial == null ? 0L : (Long) partial;
+            return column == null || value != null ? count + 1 : count;
+        }
+        return merge(partial, value);
+    }
+
+    /**
+     * Merge two partial results.
+     */
+    @Nullable
+    public Object merge(@Nullable Object left, @Nullable Object right) {
+        if (function == Function.COUNT) {
+            return (left == null ? 0L : (Long) left) + (right == null ? 0L : (Long) right);
+        }
+        if (left == null || right == null) {
+            Object value = left == null ? right : left;
+            return function == Function.SUM && isIntegral(value) ? (Object) ((Number) value).longValue() : value;
+        }
+        switch (function) {
+            case SUM:
+                if (isIntegral(left) && isIntegral(right)) {
+                    return ((Number) left).longValue() + ((Number) right).longValue();
+                }
+                return ((Number) left).doubleValue() + ((Number) right).doubleValue();
+            case MIN:
+                return JsonFilter.compare(left, right) <= 0 ? left : right;
+            case MAX:
+                return JsonFilter.compare(left, right) >= 0 ? left : right;
+            default:
+                throw new IllegalArgumentException("Unsupported aggregate function: " + function);
+        }
+    }
+
+    private static boolean isIntegral(@Nullable Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    @Override
+    public String toString() {
+        return function + "(" + (column == null ? "*" : column) + ")";
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.common;
+
+import com.google.common.collect.Lists;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Statistics of a column of a json table.
+ *
+ * The histogram is equi-depth: the non-null values are divided into buckets of (roughly) the same number of
+ * values, and the histogram holds the upper bounds of the buckets in ascending order.
+ **/
+public class JsonColumnStatistics {
+
+    private long nullCount;
+
+    /** Estimated number of distinct non-null values. */
+    private long distinctCount;
+
+    /** Whether the non-null values are known to be distinct, ie. the distinct count is exact and equals to them. */
+    private boolean unique;
+
+    /** Whether the values are non-null and ascending in the scan order of the table. */
+    private boolean sorted;
+
+    @Nullable
+    private Object min;
+
+    @Nullable
+    private Object max;
+
+    private List<Object> histogram = Lists.newArrayList();
+
+    public JsonColumnStatistics() {}
+
+    public long getNullCount() {
+        return nullCount;
+    }
+
+    public void setNullCount(long nullCount) {
+        this.nullCount = nullCount;
+    }
+
+    public long getDistinctCount() {
+        return distinctCount;
+    }
+
+    public void setDistinctCount(long distinctCount) {
+        this.distinctCount = distinctCount;
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    public void setUnique(boolean unique) {
+        this.unique = unique;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    public void setSorted(boolean sorted) {
+        this.sorted = sorted;
+    }
+
+    @Nullable
+    public Object getMin() {
+        return min;
+    }
+
+    public void setMin(@Nullable Object min) {
+        this.min = min;
+    }
+
+    @Nullable
+    public Object getMax() {
+        return max;
+    }
+
+    public void setMax(@Nullable Object max) {
+        this.max = max;
+    }
+
+    public List<Object> getHistogram() {
+        return histogram;
+    }
+
+    public void setHistogram(List<Object> histogram) {
+        this.histogram = histogram;
+    }
+
+    @Override
+    public String toString() {
+        return "JsonColumnStatistics{" +
+                "nullCount=" + nullCount +
+                ", distinctCount=" + distinctCount +
+                ", unique=" + unique +
+                ", sorted=" + sorted +
+                ", min=" + min +
+                ", max=" + max +
+                ", histogram=" + histogram +
+                '}';
+    }
+}
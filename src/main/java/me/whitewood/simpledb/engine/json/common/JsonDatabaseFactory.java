@@ -28,7 +28,8 @@ import java.io.IOException;
  **/
 public class JsonDatabaseFactory {
 
-    private static final String META_DIR = "_metadata";
+    /** Directory under the base path of a database that holds metadata and auxiliary files of tables. */
+    public static final String META_DIR = "_metadata";
 
     private static final String META_FILE = "meta.json";
 
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.common;
+
+import javax.annotation.Nullable;
+
+/**
+ * A simple predicate on a single column, which is pushed down from the query layer to the reader.
+ *
+ * Comparisons follow SQL semantics, that is a null column value never satisfies a comparison.
+ * Values are plain java objects (String/Boolean/Number), and numbers are compared by their numeric
+ * values regardless of the boxed types.
+ **/
+public class JsonFilter {
+
+    /** Supported comparison operators. */
+    public enum Operator {
+        EQUALS,
+        NOT_EQUALS,
+        LESS_THAN,
+        LESS_THAN_OR_EQUAL,
+        GREATER_THAN,
+        GREATER_THAN_OR_EQUAL,
+        IS_NULL,
+        IS_NOT_NULL;
+
+        /**
+         * The operator to use when the operands are swapped, eg. `a < b` is equivalent to `b > a`.
+         */
+        public Operator reverse() {
+            switch (this) {
+                case LESS_THAN:
+                    return GREATER_THAN;
+                case LESS_THAN_OR_EQUAL:
+                    return GREATER_THAN_OR_EQUAL;
+                case GREATER_THAN:
+                    return LESS_THAN;
+                case GREATER_THAN_OR_EQUAL:
+                    return LESS_THAN_OR_EQUAL;
+                default:
+                    return this;
+            }
+        }
+    }
+
+    private String column;
+
+    private Operator operator;
+
+    @Nullable
+    private Object value;
+
+    public JsonFilter() {}
+
+    public JsonFilter(String column, Operator operator, @Nullable Object value) {
+        this.column = column;
+        this.operator = operator;
+        this.value = value;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public void setColumn(String column) {
+        this.column = column;
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public void setOperator(Operator operator) {
+        this.operator = operator;
+    }
+
+    @Nullable
+    public Object getValue() {
+        return value;
+    }
+
+    public void setValue(@Nullable Object value) {
+        this.value = value;
+    }
+
+    /**
+     * Evaluate the filter against a column value.
+     * @param columnValue The decoded value of the column, null if absent.
+     * @return True if the value satisfies the filter.
+     */
+    public boolean test(@Nullable Object columnValue) {
+        switch (operator) {
+            case IS_NULL:
+                return columnValue == null;
+            case IS_NOT_NULL:
+                return columnValue != null;
+            default:
+                break;
+        }
+        if (columnValue == null || value == null) {
+            return false;
+        }
+        int c = compare(columnValue, value);
+        switch (operator) {
+            case EQUALS:
+                return c == 0;
+            case NOT_EQUALS:
+                return c != 0;
+            case LESS_THAN:
+                return c < 0;
+            case LESS_THAN_OR_EQUAL:
+                return c <= 0;
+            case GREATER_THAN:
+                return c > 0;
+            case GREATER_THAN_OR_EQUAL:
+                return c >= 0;
+            default:
+                throw new IllegalArgumentException("Unsupported operator: " + operator);
+        }
+    }
+
+    /**
+     * Compare two non-null column values of the same json type.
+     */
+    public static int compare(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            if (isIntegral(left) && isIntegral(right)) {
+                return Long.compare(((Number) left).longValue(), ((Number) right).longValue());
+            }
+            return Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+        }
+        if (left instanceof Boolean && right instanceof Boolean) {
+            return Boolean.compare((Boolean) left, (Boolean) right);
+        }
+        if (left instanceof String && right instanceof String) {
+            return ((String) left).compareTo((String) right);
+        }
+        throw new IllegalArgumentException(
+                String.format("Can't compare %s of %s with %s of %s", left, left.getClass(), right, right.getClass()));
+    }
+
+    private static boolean isIntegral(Object number) {
+        return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte;
+    }
+
+    @Override
+    public String toString() {
+        return "JsonFilter{" +
+                "column='" + column + '\'' +
+                ", operator=" + operator +
+                ", value=" + value +
+                '}';
+    }
+}
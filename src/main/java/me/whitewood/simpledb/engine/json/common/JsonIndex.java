@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.common;
+
+/**
+ * Metadata of a secondary index on a column of a json table, declared in meta.json like:
+ *
+ * "indexes": [{"column": "user_id"}]
+ *
+ * Indexes are sorted, mapping each non-null value of the column to the locations of the rows.
+ **/
+public class JsonIndex {
+
+    private String column;
+
+    public JsonIndex() {}
+
+    public JsonIndex(String column) {
+        this.column = column;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public void setColumn(String column) {
+        this.column = column;
+    }
+
+    @Override
+    public String toString() {
+        return "JsonIndex{" +
+                "column='" + column + '\'' +
+                '}';
+    }
+}
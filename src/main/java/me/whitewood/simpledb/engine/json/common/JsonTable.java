@@ -17,6 +17,8 @@
 
 package me.whitewood.simpledb.engine.json.common;
 
+import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -28,6 +30,12 @@ public class JsonTable {
 
     private List<JsonColumn> columns;
 
+    private List<JsonIndex> indexes = Collections.emptyList();
+
+    /** Optional column by which the rows of merged partitions are sorted on compaction. */
+    @Nullable
+    private String clusteringColumn;
+
     public JsonTable() {}
 
     public JsonTable(String name, List<JsonColumn> columns) {
@@ -51,11 +59,30 @@ public class JsonTable {
         this.columns = columns;
     }
 
+    public List<JsonIndex> getIndexes() {
+        return indexes;
+    }
+
+    public void setIndexes(List<JsonIndex> indexes) {
+        this.indexes = indexes;
+    }
+
+    @Nullable
+    public String getClusteringColumn() {
+        return clusteringColumn;
+    }
+
+    public void setClusteringColumn(@Nullable String clusteringColumn) {
+        this.clusteringColumn = clusteringColumn;
+    }
+
     @Override
     public String toString() {
         return "JsonTable{" +
                 "name='" + name + '\'' +
                 ", columns=" + columns +
+                ", indexes=" + indexes +
+                ", clusteringColumn='" + clusteringColumn + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.common;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * Statistics of a json table, computed by analyzing all the rows of the table.
+ **/
+public class JsonTableStatistics {
+
+    private long rowCount;
+
+    /** Epoch millis when the statistics are computed. */
+    private long analyzeTime;
+
+    /** Fingerprint of the names, sizes and mtimes of the partitions that are analyzed. */
+    private long partitionsVersion;
+
+    /**
+     * Whether the partitions are changed since analyzing. Row counts and distinct counts of stale statistics are
+     * still good estimations, but uniqueness and sortedness may no longer hold.
+     */
+    private boolean stale;
+
+    private Map<String, JsonColumnStatistics> columns = Maps.newLinkedHashMap();
+
+    public JsonTableStatistics() {}
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public void setRowCount(long rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    public long getAnalyzeTime() {
+        return analyzeTime;
+    }
+
+    public void setAnalyzeTime(long analyzeTime) {
+        this.analyzeTime = analyzeTime;
+    }
+
+    public long getPartitionsVersion() {
+        return partitionsVersion;
+    }
+
+    public void setPartitionsVersion(long partitionsVersion) {
+        this.partitionsVersion = partitionsVersion;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public void setStale(boolean stale) {
+        this.stale = stale;
+    }
+
+    public Map<String, JsonColumnStatistics> getColumns() {
+        return columns;
+    }
+
+    public void setColumns(Map<String, JsonColumnStatistics> columns) {
+        this.columns = columns;
+    }
+
+    @Override
+    public String toString() {
+        return "JsonTableStatistics{" +
+                "rowCount=" + rowCount +
+                ", analyzeTime=" + analyzeTime +
+                ", partitionsVersion=" + partitionsVersion +
+                ", stale=" + stale +
+                ", columns=" + columns +
+                '}';
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.common;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * A stream whose bytes may be taken as regions of files rather than read, so that senders like the rpc service
+ * can transfer them to sockets without copying, eg. by sendfile. Bytes that are not stored as is in files, like
+ * compressed partitions, are read from the stream as usual.
+ **/
+public interface TransferableStream {
+
+    /**
+     * Take the next bytes of the stream if they are stored in a file, skipping them in the stream.
+     * The region is only valid until the next call on the stream, which may close the file.
+     * @param maxLength The maximum length of the region.
+     * @return The region, or null if the next bytes are not in a file or the end of the stream is reached,
+     *         in which case they should be read from the stream.
+     * @throws IOException When IO error occurs.
+     */
+    @Nullable
+    FileRegion nextFileRegion(long maxLength) throws IOException;
+}
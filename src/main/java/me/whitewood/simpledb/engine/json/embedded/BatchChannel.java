@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.ColumnarBatch;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * BatchChannel hands the rows of a scan from the server to the client in batches, with backpressure.
+ *
+ * Batches are produced by tasks on the server executor into a channel of bounded capacity. A production task
+ * stops once the channel is full and releases its thread instead of waiting for room, and the consumer resumes
+ * the production whenever it takes a batch out. So a slow consumer holds at most the capacity of batches and
+ * no server thread, and a fast consumer finds the next batches already produced.
+ *
+ * Rows are encoded into {@link ColumnarBatch}es by the production tasks through a single row buffer, so a batch
+ * holds primitive vectors rather than an object per row, and the same bytes can be sent as is by remote servers.
+ *
+ * At most one production task runs at a time, which is tracked by a flag that stays set once the scan is finished
+ * or the channel is closed, so the scan reader is only accessed by one thread at a time and is closed once.
+ **/
+class BatchChannel implements RowBatchReader {
+
+    /** Marks the end of the scan, after all the batches. */
+    private static final ColumnarBatch END = new ColumnarBatch.Builder(new JsonDataType[0], 0).build();
+
+    private final JsonRowReader source;
+
+    private final JsonDataType[] types;
+
+    /** The row buffer of the production tasks, which run one at a time. */
+    private final Object[] row;
+
+    private final int batchSize;
+
+    private final int capacity;
+
+    private final Executor executor;
+
+    /** Produced batches, which are only added by production tasks, so the capacity is checked without locks. */
+    private final BlockingQueue<ColumnarBatch> batches = new LinkedBlockingQueue<>();
+
+    /** Whether a production task is scheduled or running, or the source is finished. */
+    private final AtomicBoolean producing = new AtomicBoolean(false);
+
+    private volatile boolean finished = false;
+
+    private volatile boolean closed = false;
+
+    @Nullable
+    private volatile Throwable error;
+
+    /** The batch being read by {@link #readRow(Object[])}, only accessed by the consumer. */
+    @Nullable
+    private ColumnarBatch current;
+
+    private int position;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchChannel.class);
+
+    /**
+     * @param source The reader of the scan, which is closed along with the channel.
+     * @param types The types of the columns of the scan.
+     * @param batchSize The maximum number of rows in a batch.
+     * @param capacity The maximum number of batches produced ahead of the consumer.
+     * @param executor The executor that runs the production tasks.
+     */
+    BatchChannel(JsonRowReader source, JsonDataType[] types, int batchSize, int capacity, Executor executor) {
+        Preconditions.checkArgument(batchSize > 0, "Batch size must be positive: %s", batchSize);
+        Preconditions.checkArgument(capacity > 0, "Channel capacity must be positive: %s", capacity);
+        this.source = source;
+        this.types = types;
+        this.row = new Object[types.length];
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+        this.executor = executor;
+    }
+
+    /**
+     * Start producing batches ahead of the consumer.
+     */
+    void start() {
+        resume();
+    }
+
+    @Override
+    @Nullable
+    public ColumnarBatch nextBatch() throws IOException {
+        Preconditions.checkState(!closed, "The channel is closed.");
+        ColumnarBatch batch;
+        try {
+            batch = batches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the next batch");
+        }
+        if (batch == END) {
+            // keep the end for the subsequent calls
+            batches.add(END);
+            Throwable t = error;
+            if (t != null) {
+                throw t instanceof IOException ? (IOException) t : new IOException("Failed to produce batches", t);
+            }
+            return null;
+        }
+        resume();
+        return batch;
+    }
+
+    @Override
+    public boolean readRow(Object[] row) throws IOException {
+        Preconditions.checkArgument(row.length >= types.length,
+                "Row buffer of size %s is smaller than the %s projected columns", row.length, types.length);
+        if (current == null || position == current.getSize()) {
+            current = nextBatch();
+            position = 0;
+            if (current == null) {
+                return false;
+            }
+        }
+        current.readRow(position++, row);
+        return true;
+    }
+
+    /**
+     * Stop the production and release the batches. The source is closed by the running production task if any.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        batches.clear();
+        if (producing.compareAndSet(false, true)) {
+            source.close();
+        }
+    }
+
+    /**
+     * @return The number of batches produced but not taken yet.
+     */
+    int getBufferedBatches() {
+        return batches.contains(END) ? batches.size() - 1 : batches.size();
+    }
+
+    private void resume() {
+        if (finished || closed || !producing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::produce);
+        } catch (RejectedExecutionException e) {
+            finish(e);
+        }
+    }
+
+    private void produce() {
+        try {
+            while (!closed && batches.size() < capacity) {
+                ColumnarBatch batch = readBatch();
+                if (batch.getSize() > 0) {
+                    batches.add(batch);
+                }
+                if (batch.getSize() < batchSize) {
+                    finish(null);
+                    return;
+                }
+            }
+        } catch (Throwable t) {
+            finish(t);
+            return;
+        }
+        if (closed) {
+            closeSource();
+            return;
+        }
+        producing.set(false);
+        // the consumer may have taken batches, or closed the channel, before the flag is cleared
+        if (closed) {
+            if (producing.compareAndSet(false, true)) {
+                closeSource();
+            }
+        } else if (batches.size() < capacity) {
+            resume();
+        }
+    }
+
+    private ColumnarBatch readBatch() throws IOException {
+        ColumnarBatch.Builder builder = new ColumnarBatch.Builder(types, batchSize);
+        while (builder.getSize() < batchSize && source.readRow(row)) {
+            builder.add(row);
+        }
+        return builder.build();
+    }
+
+    private void finish(@Nullable Throwable t) {
+        error = t;
+        finished = true;
+        closeSource();
+        batches.add(END);
+    }
+
+    private void closeSource() {
+        try {
+            source.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close the reader of a scan", e);
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BlockCache keeps fixed-size blocks of partition files in memory, shared by all the scans of a server,
+ * so that repeated scans of hot tables don't read the same bytes from the file system again.
+ *
+ * Blocks are keyed by the path, the length and the modification time of their files, so a block of an
+ * older version of a file is never returned. When a new version of a file is opened, the blocks of the older
+ * versions are dropped. Blocks are evicted with the CLOCK algorithm once the cached bytes exceed the capacity:
+ * hits only set the reference bit of a block without locking, and the clock hand gives referenced blocks
+ * a second chance on eviction.
+ **/
+public class BlockCache {
+
+    private final long capacity;
+
+    private final int blockSize;
+
+    private final ConcurrentHashMap<BlockKey, Block> blocks = new ConcurrentHashMap<>();
+
+    /** Version of each file of the cached blocks. */
+    private final ConcurrentHashMap<String, FileVersion> versions = new ConcurrentHashMap<>();
+
+    /** Blocks in the order of the clock hand, guarded by this. */
+    private final ArrayDeque<Block> clock = new ArrayDeque<>();
+
+    /** Cached bytes, guarded by this. */
+    private long size = 0;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param capacity The maximum cached bytes.
+     * @param blockSize The size of the blocks, which is the unit of reading and eviction.
+     */
+    BlockCache(long capacity, int blockSize) {
+        Preconditions.checkArgument(capacity > 0, "Block cache capacity must be positive: %s", capacity);
+        Preconditions.checkArgument(blockSize > 0, "Block size must be positive: %s", blockSize);
+        this.capacity = capacity;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Open a byte range of a file as a stream that reads through the cache.
+     * @param file The file.
+     * @param start The start offset, inclusive.
+     * @param end The end offset, exclusive, which should be no larger than the length of the file.
+     * @return The stream.
+     */
+    InputStream open(File file, long start, long end) {
+        FileVersion version = new FileVersion(file.length(), file.lastModified());
+        FileVersion previous = versions.put(file.getPath(), version);
+        if (previous != null && !previous.equals(version)) {
+            invalidate(file.getPath(), version);
+        }
+        return new BlockCacheInputStream(file, version, start, Math.min(end, version.length));
+    }
+
+    /**
+     * Drop the blocks of a file, except those of the given version.
+     */
+    private synchronized void invalidate(String path, FileVersion retained) {
+        Iterator<Block> ite = clock.iterator();
+        while (ite.hasNext()) {
+            Block block = ite.next();
+            if (block.key.path.equals(path) && !block.key.version.equals(retained)) {
+                ite.remove();
+                blocks.remove(block.key);
+                size -= block.data.length;
+            }
+        }
+    }
+
+    @Nullable
+    private byte[] lookup(BlockKey key) {
+        Block block = blocks.get(key);
+        if (block == null) {
+            missCount.increment();
+            return null;
+        }
+        block.referenced = true;
+        hitCount.increment();
+        return block.data;
+    }
+
+    private byte[] load(BlockKey key, FileChannel channel) throws IOException {
+        long position = key.index * blockSize;
+        byte[] data = new byte[(int) Math.min(blockSize, key.version.length - position)];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException(String.format("File %s is truncated to %s bytes", key.path, channel.size()));
+            }
+        }
+        put(new Block(key, data));
+        return data;
+    }
+
+    private synchronized void put(Block block) {
+        if (blocks.putIfAbsent(block.key, block) != null) {
+            // loaded concurrently by another scan
+            return;
+        }
+        clock.addLast(block);
+        size += block.data.length;
+        while (size > capacity && !clock.isEmpty()) {
+            Block candidate = clock.pollFirst();
+            if (candidate.referenced) {
+                candidate.referenced = false;
+                clock.addLast(candidate);
+            } else {
+                blocks.remove(candidate.key);
+                size -= candidate.data.length;
+                evictionCount.increment();
+            }
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "BlockCache{" +
+                "capacity=" + capacity +
+                ", blockSize=" + blockSize +
+                ", size=" + getSize() +
+                ", hitCount=" + getHitCount() +
+                ", missCount=" + getMissCount() +
+                ", evictionCount=" + getEvictionCount() +
+                '}';
+    }
+
+    private static class FileVersion {
+
+        private final long length;
+
+        private final long lastModified;
+
+        FileVersion(long length, long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            FileVersion that = (FileVersion) o;
+            return length == that.length && lastModified == that.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(length, lastModified);
+        }
+    }
+
+    private static class BlockKey {
+
+        private final String path;
+
+        private final FileVersion version;
+
+        private final long index;
+
+        BlockKey(String path, FileVersion version, long index) {
+            this.path = path;
+            this.version = version;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            BlockKey that = (BlockKey) o;
+            return index == that.index && path.equals(that.path) && version.equals(that.version);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, version, index);
+        }
+    }
+
+    private static class Block {
+
+        private final BlockKey key;
+
+        private final byte[] data;
+
+        /** Set on hits, and cleared when the clock hand passes. */
+        private volatile boolean referenced = false;
+
+        Block(BlockKey key, byte[] data) {
+            this.key = key;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Reads a byte range of a file block by block through the cache. The file is only opened on the first miss.
+     */
+    private class BlockCacheInputStream extends InputStream {
+
+        private final File file;
+
+        private final FileVersion version;
+
+        private final long end;
+
+        private long position;
+
+        private byte[] block;
+
+        private long blockStart = -1;
+
+        private FileChannel channel;
+
+        BlockCacheInputStream(File file, FileVersion version, long start, long end) {
+            this.file = file;
+            this.version = version;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureBlock()) {
+                return -1;
+            }
+            return block[(int) (position++ - blockStart)] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureBlock()) {
+                return -1;
+            }
+            int offset = (int) (position - blockStart);
+            int n = (int) Math.min(Math.min(len, block.length - offset), end - position);
+            System.arraycopy(block, offset, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        /**
+         * All the remaining bytes of the range are reported, not only those of the current block, since
+         * {@link java.util.zip.GZIPInputStream} stops at the end of a gzip member if nothing is available.
+         */
+        @Override
+        public int available() {
+            return (int) Math.max(0, Math.min(end - position, Integer.MAX_VALUE));
+        }
+
+        /**
+         * Make the block that contains the current position the current block.
+         * @return False if the end of the range is reached.
+         */
+        private boolean ensureBlock() throws IOException {
+            if (position >= end) {
+                return false;
+            }
+            if (block == null || position < blockStart || position >= blockStart + block.length) {
+                long index = position / blockSize;
+                BlockKey key = new BlockKey(file.getPath(), version, index);
+                block = lookup(key);
+                if (block == null) {
+                    if (channel == null) {
+                        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                    }
+                    block = load(key, channel);
+                }
+                blockStart = index * blockSize;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            position = end;
+            block = null;
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+}
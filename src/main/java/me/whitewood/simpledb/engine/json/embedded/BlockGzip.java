@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * BlockGzip is the layout of compressed json-lines partitions (*.json.gz and *.jsonl.gz).
+ *
+ * A compressed partition is a concatenation of gzip members (blocks), each of which holds whole lines, so it's
+ * a valid gzip file for standard tools and any range of whole blocks can be inflated on its own. Like BGZF,
+ * the header of each block carries the compressed size of the block in an extra subfield ("SD"), so that block
+ * boundaries are found by hopping from header to header without inflating, see {@link #blockOffsets(File)}.
+ * Plain gzip files are readable as well, but can't be split.
+ **/
+final class BlockGzip {
+
+    static final String SUFFIX = ".gz";
+
+    /** Default size of the uncompressed lines in a block. */
+    static final int DEFAULT_BLOCK_SIZE = 64 << 10;
+
+    /** Header of a block: the fixed gzip header, XLEN, and the "SD" subfield of the block size. */
+    static final int HEADER_SIZE = 20;
+
+    static final byte SUBFIELD_ID1 = 'S';
+
+    static final byte SUBFIELD_ID2 = 'D';
+
+    private static final int INFLATE_BUFFER_SIZE = 64 << 10;
+
+    private BlockGzip() {}
+
+    static boolean isCompressed(File partition) {
+        return partition.getName().endsWith(SUFFIX);
+    }
+
+    /**
+     * Open a partition file as a stream of json lines, inflating it on the fly if it's compressed.
+     */
+    static InputStream open(File partition) throws IOException {
+        InputStream in = new FileInputStream(partition);
+        // an empty file has no gzip member to inflate
+        return isCompressed(partition) && partition.length() > 0 ? inflate(in) : in;
+    }
+
+    /**
+     * Inflate a stream of whole gzip members.
+     */
+    static InputStream inflate(InputStream in) throws IOException {
+        return new GZIPInputStream(in, INFLATE_BUFFER_SIZE);
+    }
+
+    /**
+     * Find the offsets of the blocks of a compressed partition.
+     * @return The offsets in file order, or null if the file is not block framed.
+     * @throws IOException When IO error occurs.
+     */
+    @Nullable
+    static List<Long> blockOffsets(File partition) throws IOException {
+        List<Long> offsets = Lists.newArrayList();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(partition.toPath(), StandardOpenOption.READ)) {
+            long fileLength = channel.size();
+            long position = 0;
+            while (position < fileLength) {
+                header.clear();
+                while (header.hasRemaining() && channel.read(header, position + header.position()) > 0) {
+                    // read until the header is full or the end of the file
+                }
+                int blockSize = header.hasRemaining() ? -1 : readBlockSize(header);
+                if (blockSize < HEADER_SIZE || position + blockSize > fileLength) {
+                    return null;
+                }
+                offsets.add(position);
+                position += blockSize;
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * @return The size of the block, or -1 if the header is not a block header.
+     */
+    private static int readBlockSize(ByteBuffer header) {
+        boolean valid = (header.get(0) & 0xFF) == 0x1F
+                && (header.get(1) & 0xFF) == 0x8B
+                && header.get(2) == 8
+                && (header.get(3) & BlockGzipOutputStream.FEXTRA) != 0
+                && header.getShort(10) == 8
+                && header.get(12) == SUBFIELD_ID1
+                && header.get(13) == SUBFIELD_ID2
+                && header.getShort(14) == 4;
+        return valid ? header.getInt(16) : -1;
+    }
+
+    /**
+     * Compress a json-lines file into a block framed gzip file, replacing the target atomically.
+     */
+    static void compress(File source, File target, int blockSize) throws IOException {
+        File tmp = new File(target.getParentFile(), "." + target.getName() + ".tmp");
+        try (InputStream in = new BufferedInputStream(new FileInputStream(source));
+             OutputStream out = new BlockGzipOutputStream(new FileOutputStream(tmp), blockSize)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+}
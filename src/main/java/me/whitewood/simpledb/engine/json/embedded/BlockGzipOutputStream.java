@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * BlockGzipOutputStream writes json lines in the block framed gzip layout described in {@link BlockGzip}.
+ * Lines are buffered until the buffer reaches the block size, and then the whole lines in the buffer are
+ * deflated as one block. A line longer than the block size grows the buffer, and so the block, until it ends.
+ **/
+class BlockGzipOutputStream extends OutputStream {
+
+    static final int FEXTRA = 4;
+
+    private static final int OS_UNKNOWN = 255;
+
+    private final OutputStream out;
+
+    private final int blockSize;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] deflateBuffer = new byte[8192];
+
+    /** Uncompressed bytes of the current block. */
+    private byte[] buffer;
+
+    private int count = 0;
+
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+
+    private boolean closed = false;
+
+    BlockGzipOutputStream(OutputStream out) {
+        this(out, BlockGzip.DEFAULT_BLOCK_SIZE);
+    }
+
+    BlockGzipOutputStream(OutputStream out, int blockSize) {
+        Preconditions.checkArgument(blockSize > 0, "Invalid block size %s", blockSize);
+        this.out = out;
+        this.blockSize = blockSize;
+        this.buffer = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Preconditions.checkState(!closed, "The stream is closed.");
+        while (len > 0) {
+            if (count == buffer.length) {
+                if (!flushLines()) {
+                    // a single line fills the buffer, so grow it until the line ends
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Write the whole lines in the buffer as a block, keeping the trailing partial line.
+     * @return False if there is no whole line in the buffer.
+     */
+    private boolean flushLines() throws IOException {
+        int end = count;
+        while (end > 0 && buffer[end - 1] != '\n') {
+            end--;
+        }
+        if (end == 0) {
+            return false;
+        }
+        writeBlock(buffer, end);
+        System.arraycopy(buffer, end, buffer, 0, count - end);
+        count -= end;
+        if (buffer.length > blockSize && count < blockSize) {
+            buffer = Arrays.copyOf(buffer, blockSize);
+        }
+        return true;
+    }
+
+    private void writeBlock(byte[] data, int length) throws IOException {
+        block.reset();
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(deflateBuffer);
+            block.write(deflateBuffer, 0, n);
+        }
+        crc.reset();
+        crc.update(data, 0, length);
+
+        int blockSize = BlockGzip.HEADER_SIZE + block.size() + 8;
+        ByteBuffer header = ByteBuffer.allocate(BlockGzip.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 0x1F).put((byte) 0x8B).put((byte) 8).put((byte) FEXTRA)
+                .putInt(0)
+                .put((byte) 0).put((byte) OS_UNKNOWN)
+                .putShort((short) 8)
+                .put(BlockGzip.SUBFIELD_ID1).put(BlockGzip.SUBFIELD_ID2).putShort((short) 4)
+                .putInt(blockSize);
+        out.write(header.array());
+        block.writeTo(out);
+        ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putInt((int) crc.getValue()).putInt(length);
+        out.write(trailer.array());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (count > 0) {
+                writeBlock(buffer, count);
+                count = 0;
+            }
+            out.flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+}
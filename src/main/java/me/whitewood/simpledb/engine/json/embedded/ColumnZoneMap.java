@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+
+import javax.annotation.Nullable;
+
+/**
+ * Min/max/null-count statistics of a column in a partition. Min and max are null if all the values are null.
+ **/
+public class ColumnZoneMap {
+
+    @Nullable
+    private Object min;
+
+    @Nullable
+    private Object max;
+
+    private long nullCount;
+
+    public ColumnZoneMap() {}
+
+    public ColumnZoneMap(@Nullable Object min, @Nullable Object max, long nullCount) {
+        this.min = min;
+        this.max = max;
+        this.nullCount = nullCount;
+    }
+
+    @Nullable
+    public Object getMin() {
+        return min;
+    }
+
+    public void setMin(@Nullable Object min) {
+        this.min = min;
+    }
+
+    @Nullable
+    public Object getMax() {
+        return max;
+    }
+
+    public void setMax(@Nullable Object max) {
+        this.max = max;
+    }
+
+    public long getNullCount() {
+        return nullCount;
+    }
+
+    public void setNullCount(long nullCount) {
+        this.nullCount = nullCount;
+    }
+
+    void add(@Nullable Object value) {
+        if (value == null) {
+            nullCount++;
+            return;
+        }
+        if (min == null || JsonFilter.compare(value, min) < 0) {
+            min = value;
+        }
+        if (max == null || JsonFilter.compare(value, max) > 0) {
+            max = value;
+        }
+    }
+
+    /**
+     * Whether any value of the column may satisfy the filter.
+     * @param rowCount Number of rows in the partition.
+     */
+    boolean mayMatch(JsonFilter filter, long rowCount) {
+        switch (filter.getOperator()) {
+            case IS_NULL:
+                return nullCount > 0;
+            case IS_NOT_NULL:
+                return nullCount < rowCount;
+            default:
+                break;
+        }
+        Object value = filter.getValue();
+        if (min == null || max == null || value == null) {
+            // all values are null, or the filter never matches
+            return false;
+        }
+        switch (filter.getOperator()) {
+            case EQUALS:
+                return JsonFilter.compare(min, value) <= 0 && JsonFilter.compare(max, value) >= 0;
+            case NOT_EQUALS:
+                return JsonFilter.compare(min, value) != 0 || JsonFilter.compare(max, value) != 0;
+            case LESS_THAN:
+                return JsonFilter.compare(min, value) < 0;
+            case LESS_THAN_OR_EQUAL:
+                return JsonFilter.compare(min, value) <= 0;
+            case GREATER_THAN:
+                return JsonFilter.compare(max, value) > 0;
+            case GREATER_THAN_OR_EQUAL:
+                return JsonFilter.compare(max, value) >= 0;
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnZoneMap{" +
+                "min=" + min +
+                ", max=" + max +
+                ", nullCount=" + nullCount +
+                '}';
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonDatabaseFactory;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * ColumnarCache keeps a {@link ColumnarPartition} sidecar for each json-lines partition, at
+ * ${basePath}/_metadata/columnar/${table}/${partition}.col.
+ *
+ * A sidecar is written the first time the partition is scanned, and rewritten whenever the committed length
+ * or the modification time of the partition changes, so rows of appends in flight are never transcoded.
+ * Partitions larger than {@link #MAX_SOURCE_SIZE} are not cached, since the transcoding buffers a whole
+ * partition in memory.
+ **/
+class ColumnarCache {
+
+    static final String CACHE_DIR = "columnar";
+
+    static final String FILE_SUFFIX = ".col";
+
+    static final long MAX_SOURCE_SIZE = 256L << 20;
+
+    private final File cacheDir;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ColumnarCache.class);
+
+    ColumnarCache(String basePath) {
+        this.cacheDir = new File(new File(basePath, JsonDatabaseFactory.META_DIR), CACHE_DIR);
+    }
+
+    static boolean isCacheable(long length) {
+        return length <= MAX_SOURCE_SIZE;
+    }
+
+    /**
+     * Open a reader over the columnar form of a partition, transcoding the partition if the sidecar
+     * is missing or stale.
+     * @param table The table of the partition.
+     * @param partition The partition file.
+     * @param length The committed length of the partition.
+     * @param opener Opener of the json lines of the partition, which reads up to the committed length.
+     * @param columns Optional projected column names.
+     * @param filters Optional conjunctive filters.
+     * @return The reader, or null if the sidecar can't be used, in which case the json text should be read.
+     */
+    @Nullable
+    JsonRowReader open(
+            JsonTable table,
+            File partition,
+            long length,
+            EmbeddedJsonDatabaseMaster.PartitionOpener opener,
+            @Nullable List<String> columns,
+            @Nullable List<JsonFilter> filters) {
+        File sidecar = getSidecar(table.getName(), partition);
+        try {
+            // capture the version before reading, so that concurrent changes make the result stale rather than wrong
+            long lastModified = partition.lastModified();
+            ColumnarPartition columnar = sidecar.exists() ? ColumnarPartition.open(sidecar) : null;
+            if (columnar == null || !columnar.isFresh(length, lastModified, table)) {
+                LOGGER.info("Transcoding partition {} into columnar sidecar {}", partition, sidecar);
+                try (InputStream in = opener.open(partition)) {
+                    ColumnarPartition.write(table, in, length, lastModified, sidecar);
+                }
+                columnar = ColumnarPartition.open(sidecar);
+            }
+            return columnar == null ? null : columnar.reader(table, columns, filters);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to use columnar sidecar {}, falling back to json", sidecar, e);
+            return null;
+        }
+    }
+
+    File getSidecar(String tableName, File partition) {
+        return new File(new File(cacheDir, tableName), partition.getName() + FILE_SUFFIX);
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.ColumnVector;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ColumnarPartition is the columnar binary form of a json-lines partition file, which is read instead of
+ * the json text when it's up-to-date with the source file.
+ *
+ * The layout (big-endian) is:
+ *
+ * magic(int) version(int) sourceLength(long) sourceLastModified(long) rowCount(int) columnCount(int)
+ * columnCount * [nameLength(int) UTF-8 name type(byte) sectionLength(long)]
+ * columnCount * section
+ *
+ * A section holds the null bitmap and the values of a column, see {@link ColumnVector} for its layout.
+ **/
+class ColumnarPartition {
+
+    private static final int MAGIC = 0x53444243;
+
+    private static final int VERSION = 1;
+
+    /** The mapped file, or the heap buffer, that holds the sections. */
+    private final ByteBuffer buffer;
+
+    private final long sourceLength;
+
+    private final long sourceLastModified;
+
+    private final int rowCount;
+
+    private final Map<String, ColumnVector> columns;
+
+    private ColumnarPartition(
+            ByteBuffer buffer,
+            long sourceLength,
+            long sourceLastModified,
+            int rowCount,
+            Map<String, ColumnVector> columns) {
+        this.buffer = buffer;
+        this.sourceLength = sourceLength;
+        this.sourceLastModified = sourceLastModified;
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+
+    /**
+     * Whether the columnar form matches the given version of the source file and the table schema.
+     */
+    boolean isFresh(long length, long lastModified, JsonTable table) {
+        if (length != sourceLength || lastModified != sourceLastModified) {
+            return false;
+        }
+        for (JsonColumn column : table.getColumns()) {
+            ColumnVector c = columns.get(column.getName());
+            if (c == null || c.getType() != column.getType()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    long getSourceLength() {
+        return sourceLength;
+    }
+
+    long getSourceLastModified() {
+        return sourceLastModified;
+    }
+
+    /**
+     * Estimate the heap usage of the partition, which is the columnar bytes plus the decoded dictionaries.
+     */
+    long getMemorySize() {
+        long size = 0;
+        for (ColumnVector column : columns.values()) {
+            if (column.getDictionary() != null) {
+                for (String value : column.getDictionary()) {
+                    // object header, fields and the backing array
+                    size += 40 + value.length() * 2L;
+                }
+            }
+        }
+        return size + buffer.capacity();
+    }
+
+    /**
+     * Create a reader of the rows with the given projection and filters.
+     */
+    JsonRowReader reader(JsonTable table, @Nullable List<String> projection, @Nullable List<JsonFilter> filters) {
+        String[] names = projection == null
+                ? table.getColumns().stream().map(JsonColumn::getName).toArray(String[]::new)
+                : projection.toArray(new String[0]);
+        ColumnVector[] projected = new ColumnVector[names.length];
+        for (int i = 0; i < names.length; i++) {
+            projected[i] = columns.get(names[i]);
+            Preconditions.checkArgument(projected[i] != null, "Column %s doesn't exist", names[i]);
+        }
+        JsonFilter[] filterArray = filters == null ? new JsonFilter[0] : filters.toArray(new JsonFilter[0]);
+        ColumnVector[] filtered = new ColumnVector[filterArray.length];
+        for (int i = 0; i < filterArray.length; i++) {
+            filtered[i] = columns.get(filterArray[i].getColumn());
+            Preconditions.checkArgument(filtered[i] != null, "Column %s doesn't exist", filterArray[i].getColumn());
+        }
+        return new JsonRowReader() {
+
+            private int next = 0;
+
+            @Override
+            public boolean readRow(Object[] row) {
+                rowLoop:
+                while (next < rowCount) {
+                    int index = next++;
+                    for (int i = 0; i < filterArray.length; i++) {
+                        if (!filterArray[i].test(filtered[i].get(index))) {
+                            continue rowLoop;
+                        }
+                    }
+                    for (int i = 0; i < projected.length; i++) {
+                        row[i] = projected[i].get(index);
+                    }
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public void close() {
+                // the mapping is released when the partition is garbage collected
+            }
+        };
+    }
+
+    /**
+     * Open a columnar file by mapping it into memory.
+     * @param file The columnar file.
+     * @return The partition, or null if the file is not a valid columnar file of the current version.
+     * @throws IOException When IO error occurs.
+     */
+    @Nullable
+    static ColumnarPartition open(File file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return parse(buffer);
+    }
+
+    /**
+     * Decode json lines into the columnar form in memory.
+     * @param table The schema of the json lines.
+     * @param source The json lines.
+     * @param sourceLength The length of the source partition, as a part of the version.
+     * @param sourceLastModified The modification time of the source partition, as a part of the version.
+     * @return The partition on the heap.
+     * @throws IOException When IO error occurs.
+     */
+    static ColumnarPartition decode(JsonTable table, InputStream source, long sourceLength, long sourceLastModified)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            transcode(table, source, sourceLength, sourceLastModified, out);
+        }
+        return Preconditions.checkNotNull(parse(ByteBuffer.wrap(bytes.toByteArray())));
+    }
+
+    @Nullable
+    private static ColumnarPartition parse(ByteBuffer buffer) {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        long sourceLength = buffer.getLong();
+        long sourceLastModified = buffer.getLong();
+        int rowCount = buffer.getInt();
+        int columnCount = buffer.getInt();
+        String[] names = new String[columnCount];
+        JsonDataType[] types = new JsonDataType[columnCount];
+        long[] sectionLengths = new long[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = readString(buffer);
+            types[i] = JsonDataType.values()[buffer.get()];
+            sectionLengths[i] = buffer.getLong();
+        }
+        Map<String, ColumnVector> columns = Maps.newHashMapWithExpectedSize(columnCount);
+        int offset = buffer.position();
+        for (int i = 0; i < columnCount; i++) {
+            columns.put(names[i], new ColumnVector(types[i], buffer, offset, rowCount));
+            offset += (int) sectionLengths[i];
+        }
+        return new ColumnarPartition(buffer, sourceLength, sourceLastModified, rowCount, columns);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Transcode a json-lines partition into the columnar form. The file is written to a temporary file first,
+     * and then renamed to the target, so readers never see a partially written file.
+     * @param table The schema of the partition.
+     * @param source The json lines of the partition.
+     * @param sourceLength The committed length of the source partition, as a part of the version.
+     * @param sourceLastModified The modification time of the source partition, as a part of the version.
+     * @param target The columnar file.
+     * @throws IOException When IO error occurs.
+     */
+    static void write(JsonTable table, InputStream source, long sourceLength, long sourceLastModified, File target)
+            throws IOException {
+        File parent = target.getParentFile();
+        Preconditions.checkState(parent.mkdirs() || parent.isDirectory(), "Failed to create directory %s", parent);
+        File tmp = new File(parent, "." + target.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            transcode(table, source, sourceLength, sourceLastModified, out);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void transcode(
+            JsonTable table, InputStream source, long sourceLength, long sourceLastModified, DataOutputStream out)
+            throws IOException {
+        List<JsonColumn> tableColumns = table.getColumns();
+        ColumnVector.Builder[] builders = new ColumnVector.Builder[tableColumns.size()];
+        for (int i = 0; i < builders.length; i++) {
+            builders[i] = new ColumnVector.Builder(tableColumns.get(i).getType());
+        }
+        int rowCount = 0;
+        try (JsonReader reader = new JsonReader(source, table, null)) {
+            Object[] row = new Object[builders.length];
+            while (reader.readRow(row)) {
+                for (int i = 0; i < builders.length; i++) {
+                    builders[i].add(rowCount, row[i]);
+                }
+                rowCount++;
+            }
+        }
+        byte[][] sections = new byte[builders.length][];
+        for (int i = 0; i < builders.length; i++) {
+            sections[i] = builders[i].toSection(rowCount);
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(sourceLength);
+        out.writeLong(sourceLastModified);
+        out.writeInt(rowCount);
+        out.writeInt(builders.length);
+        for (int i = 0; i < builders.length; i++) {
+            writeString(out, tableColumns.get(i).getName());
+            out.writeByte(tableColumns.get(i).getType().ordinal());
+            out.writeLong(sections[i].length);
+        }
+        for (byte[] section : sections) {
+            out.write(section);
+        }
+    }
+}
@@ -20,7 +20,12 @@ package me.whitewood.simpledb.engine.json.embedded;
 import com.fasterxml.jackson.databind.JsonNode;
 import me.whitewood.simpledb.engine.json.client.JsonDatabaseClient;
 import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
 import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +46,9 @@ public class EmbeddedJsonDatabaseClient implements JsonDatabaseClient {
 
     private static final long TIMEOUT = 10;
 
+    /** Analyzing reads the whole table, so it's given much more time than the other requests. */
+    private static final long ANALYZE_TIMEOUT = 3600;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedJsonDatabaseClient.class);
 
     public EmbeddedJsonDatabaseClient(EmbeddedJsonDatabaseServer server) {
@@ -69,17 +77,12 @@ public class EmbeddedJsonDatabaseClient implements JsonDatabaseClient {
         }
     }
 
+    @Override
     public JsonTable getTable(String tableName) {
         try {
-            // TODO: replace fuzzy match with exact match
-            List<JsonTable> tables = server.listTables(tableName, TIMEOUT, TimeUnit.SECONDS);
-            if (tables.size() >= 1) {
-                return tables.get(0);
-            } else {
-                throw  new RuntimeException("Table " + tableName + " does not exist.");
-            }
+            return server.getTable(tableName, TIMEOUT, TimeUnit.SECONDS);
         } catch (Exception e) {
-            throw new RuntimeException("Failed to get tables. Please retry later.", e);
+            throw new RuntimeException("Failed to get table " + tableName + ".", e);
         }
     }
 
@@ -97,7 +100,11 @@ public class EmbeddedJsonDatabaseClient implements JsonDatabaseClient {
     }
 
     public List<JsonNode> scanTable(JsonTable table) throws IOException {
-        return scanTable(table.getName());
+        return scanTable(table, null);
+    }
+
+    public List<JsonNode> scanTable(JsonTable table, @Nullable List<String> columns) throws IOException {
+        return scanTable(table.getName(), columns);
     }
 
     /**
@@ -113,10 +120,88 @@ public class EmbeddedJsonDatabaseClient implements JsonDatabaseClient {
     @Override
     public JsonReader scanTableAsStream(String tableName, List<String> columns) throws IOException {
         try {
-            return new JsonReader(server.scanTableAsStream(tableName, columns, TIMEOUT, TimeUnit.SECONDS));
+            return new JsonReader(server.scanTableAsStream(tableName, columns, TIMEOUT, TimeUnit.SECONDS), columns);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to scan table. Please retry later.", e);
+        }
+    }
+
+    public JsonRowReader scanTableAsRows(JsonTable table, @Nullable List<String> columns) throws IOException {
+        return scanTableAsRows(table, columns, null);
+    }
+
+    @Override
+    public JsonRowReader scanTableAsRows(
+            JsonTable table, @Nullable List<String> columns, @Nullable List<JsonFilter> filters) throws IOException {
+        try {
+            return server.scanTableAsRows(table.getName(), columns, filters, TIMEOUT, TimeUnit.SECONDS);
         } catch (Exception e) {
             throw new RuntimeException("Failed to scan table. Please retry later.", e);
         }
     }
 
+    @Override
+    public RowBatchReader scanTableAsBatches(
+            JsonTable table, @Nullable List<String> columns, @Nullable List<JsonFilter> filters) throws IOException {
+        try {
+            return server.scanTableAsBatches(table.getName(), columns, filters, TIMEOUT, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to scan table. Please retry later.", e);
+        }
+    }
+
+    /**
+     * Aggregating reads the whole table like analyzing, so it's given as much time.
+     */
+    @Override
+    public List<Object[]> aggregateTable(
+            JsonTable table,
+            List<String> groupColumns,
+            List<JsonAggregate> aggregates,
+            @Nullable List<JsonFilter> filters) throws IOException {
+        try {
+            return server.aggregateTable(
+                    table.getName(), groupColumns, aggregates, filters, ANALYZE_TIMEOUT, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to aggregate table. Please retry later.", e);
+        }
+    }
+
+    @Override
+    public int insertRows(String tableName, List<Object[]> rows) throws IOException {
+        try {
+            return server.insertRows(tableName, rows, TIMEOUT, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to insert rows. Please retry later.", e);
+        }
+    }
+
+    @Override
+    public JsonTableStatistics analyzeTable(String tableName) throws IOException {
+        try {
+            return server.analyzeTable(tableName, ANALYZE_TIMEOUT, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to analyze table. Please retry later.", e);
+        }
+    }
+
+    @Override
+    @Nullable
+    public JsonTableStatistics getTableStatistics(String tableName) throws IOException {
+        try {
+            return server.getTableStatistics(tableName, TIMEOUT, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to get table statistics. Please retry later.", e);
+        }
+    }
+
+    @Override
+    public long getTableVersion(String tableName) throws IOException {
+        try {
+            return server.getTableVersion(tableName, TIMEOUT, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to get table version. Please retry later.", e);
+        }
+    }
+
 }
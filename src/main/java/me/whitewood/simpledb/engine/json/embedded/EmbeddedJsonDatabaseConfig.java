@@ -0,0 +1,348 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Options of {@link EmbeddedJsonDatabaseServer}. The defaults are suitable for a single process on one machine.
+ **/
+public class EmbeddedJsonDatabaseConfig {
+
+    /** Number of worker threads that read partitions concurrently. 1 disables parallel scans. */
+    private int scanParallelism = Runtime.getRuntime().availableProcessors();
+
+    /** Whether parallel scans return rows in partition order, or in the order rows are decoded. */
+    private boolean orderedScan = true;
+
+    /** Partition files larger than this are split into byte ranges which are scanned in parallel. */
+    private long splitSize = 64L << 20;
+
+    /** Whether to keep columnar sidecars of partitions and scan them instead of the json text. */
+    private boolean columnarCacheEnabled = false;
+
+    /** Whether to keep per-partition zone maps and skip partitions that can't satisfy the filters of a scan. */
+    private boolean zoneMapsEnabled = false;
+
+    /** Inserts roll to a new partition file once the current one reaches this size. */
+    private long partitionRollSize = 128L << 20;
+
+    /** Whether inserts go to a write-ahead log and a memtable, instead of being appended to partitions directly. */
+    private boolean memtableEnabled = false;
+
+    /** The memtable is flushed into new partition files once the json lines inserted into it reach this size. */
+    private long memtableFlushSize = 64L << 20;
+
+    /** Whether the server merges small partitions in the background. */
+    private boolean compactionEnabled = false;
+
+    /** Interval between the compaction rounds of the server. */
+    private long compactionIntervalMillis = 60_000L;
+
+    /** Partitions smaller than this are merged, into partitions no larger than this. */
+    private long compactionTargetSize = 128L << 20;
+
+    /** How long the partitions replaced by a compaction are kept for the scans that already listed them. */
+    private long compactionRetentionMillis = 10 * 60_000L;
+
+    /** Capacity in bytes of the block cache shared by the scans of the server. 0 disables the cache. */
+    private long blockCacheSize = 0;
+
+    /** Size of the blocks in the block cache. */
+    private int blockCacheBlockSize = 1 << 20;
+
+    /** Capacity in bytes of the cache of decoded rows of partitions. 0 disables the cache. */
+    private long rowCacheSize = 0;
+
+    /**
+     * Whether to watch the database directory, so that changes of meta.json and of partition files made by other
+     * processes are picked up without restarting the server, and scans use the partition lists kept in memory
+     * instead of listing table directories.
+     */
+    private boolean hotReloadEnabled = false;
+
+    /** Number of threads that serve requests. */
+    private int serverParallelism = Runtime.getRuntime().availableProcessors();
+
+    /** Requests that wait for a server thread beyond this number are rejected. */
+    private int serverQueueSize = 1024;
+
+    /**
+     * Whether to serve each request on a virtual thread instead, if the runtime supports them, in which case
+     * the server parallelism and queue size don't apply.
+     */
+    private boolean virtualThreadsEnabled = false;
+
+    /** Maximum number of rows in a batch of batched scans. */
+    private int scanBatchSize = 1024;
+
+    /** Maximum number of batches that batched scans produce ahead of their readers. */
+    private int scanBatchCapacity = 4;
+
+    /**
+     * Ids of the nodes of the cluster that the server is a node of, among which partitions are assigned by
+     * consistent hashing of their file names. Empty if the server is not clustered.
+     */
+    private List<String> clusterNodes = Collections.emptyList();
+
+    /** Id of the node of the server in the cluster, whose scans only read the partitions assigned to it. */
+    @Nullable
+    private String clusterNodeId;
+
+    public EmbeddedJsonDatabaseConfig() {}
+
+    public int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    public void setScanParallelism(int scanParallelism) {
+        Preconditions.checkArgument(scanParallelism > 0, "Scan parallelism must be positive: %s", scanParallelism);
+        this.scanParallelism = scanParallelism;
+    }
+
+    public boolean isOrderedScan() {
+        return orderedScan;
+    }
+
+    public void setOrderedScan(boolean orderedScan) {
+        this.orderedScan = orderedScan;
+    }
+
+    public long getSplitSize() {
+        return splitSize;
+    }
+
+    public void setSplitSize(long splitSize) {
+        // each split is memory-mapped as a whole
+        Preconditions.checkArgument(
+                splitSize > 0 && splitSize <= Integer.MAX_VALUE, "Split size must be in (0, 2GB): %s", splitSize);
+        this.splitSize = splitSize;
+    }
+
+    public boolean isColumnarCacheEnabled() {
+        return columnarCacheEnabled;
+    }
+
+    public void setColumnarCacheEnabled(boolean columnarCacheEnabled) {
+        this.columnarCacheEnabled = columnarCacheEnabled;
+    }
+
+    public boolean isZoneMapsEnabled() {
+        return zoneMapsEnabled;
+    }
+
+    public void setZoneMapsEnabled(boolean zoneMapsEnabled) {
+        this.zoneMapsEnabled = zoneMapsEnabled;
+    }
+
+    public long getPartitionRollSize() {
+        return partitionRollSize;
+    }
+
+    public void setPartitionRollSize(long partitionRollSize) {
+        Preconditions.checkArgument(partitionRollSize > 0, "Partition roll size must be positive: %s", partitionRollSize);
+        this.partitionRollSize = partitionRollSize;
+    }
+
+    public boolean isMemtableEnabled() {
+        return memtableEnabled;
+    }
+
+    public void setMemtableEnabled(boolean memtableEnabled) {
+        this.memtableEnabled = memtableEnabled;
+    }
+
+    public long getMemtableFlushSize() {
+        return memtableFlushSize;
+    }
+
+    public void setMemtableFlushSize(long memtableFlushSize) {
+        Preconditions.checkArgument(memtableFlushSize > 0, "Memtable flush size must be positive: %s", memtableFlushSize);
+        this.memtableFlushSize = memtableFlushSize;
+    }
+
+    public boolean isCompactionEnabled() {
+        return compactionEnabled;
+    }
+
+    public void setCompactionEnabled(boolean compactionEnabled) {
+        this.compactionEnabled = compactionEnabled;
+    }
+
+    public long getCompactionIntervalMillis() {
+        return compactionIntervalMillis;
+    }
+
+    public void setCompactionIntervalMillis(long compactionIntervalMillis) {
+        Preconditions.checkArgument(
+                compactionIntervalMillis > 0, "Compaction interval must be positive: %s", compactionIntervalMillis);
+        this.compactionIntervalMillis = compactionIntervalMillis;
+    }
+
+    public long getCompactionTargetSize() {
+        return compactionTargetSize;
+    }
+
+    public void setCompactionTargetSize(long compactionTargetSize) {
+        Preconditions.checkArgument(
+                compactionTargetSize > 0, "Compaction target size must be positive: %s", compactionTargetSize);
+        this.compactionTargetSize = compactionTargetSize;
+    }
+
+    public long getCompactionRetentionMillis() {
+        return compactionRetentionMillis;
+    }
+
+    public void setCompactionRetentionMillis(long compactionRetentionMillis) {
+        Preconditions.checkArgument(compactionRetentionMillis >= 0,
+                "Compaction retention must not be negative: %s", compactionRetentionMillis);
+        this.compactionRetentionMillis = compactionRetentionMillis;
+    }
+
+    public long getBlockCacheSize() {
+        return blockCacheSize;
+    }
+
+    public void setBlockCacheSize(long blockCacheSize) {
+        Preconditions.checkArgument(blockCacheSize >= 0, "Block cache size must not be negative: %s", blockCacheSize);
+        this.blockCacheSize = blockCacheSize;
+    }
+
+    public int getBlockCacheBlockSize() {
+        return blockCacheBlockSize;
+    }
+
+    public void setBlockCacheBlockSize(int blockCacheBlockSize) {
+        Preconditions.checkArgument(
+                blockCacheBlockSize > 0, "Block cache block size must be positive: %s", blockCacheBlockSize);
+        this.blockCacheBlockSize = blockCacheBlockSize;
+    }
+
+    public long getRowCacheSize() {
+        return rowCacheSize;
+    }
+
+    public void setRowCacheSize(long rowCacheSize) {
+        Preconditions.checkArgument(rowCacheSize >= 0, "Row cache size must not be negative: %s", rowCacheSize);
+        this.rowCacheSize = rowCacheSize;
+    }
+
+    public boolean isHotReloadEnabled() {
+        return hotReloadEnabled;
+    }
+
+    public void setHotReloadEnabled(boolean hotReloadEnabled) {
+        this.hotReloadEnabled = hotReloadEnabled;
+    }
+
+    public int getServerParallelism() {
+        return serverParallelism;
+    }
+
+    public void setServerParallelism(int serverParallelism) {
+        Preconditions.checkArgument(
+                serverParallelism > 0, "Server parallelism must be positive: %s", serverParallelism);
+        this.serverParallelism = serverParallelism;
+    }
+
+    public int getServerQueueSize() {
+        return serverQueueSize;
+    }
+
+    public void setServerQueueSize(int serverQueueSize) {
+        Preconditions.checkArgument(serverQueueSize > 0, "Server queue size must be positive: %s", serverQueueSize);
+        this.serverQueueSize = serverQueueSize;
+    }
+
+    public boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
+
+    public void setVirtualThreadsEnabled(boolean virtualThreadsEnabled) {
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+    }
+
+    public int getScanBatchSize() {
+        return scanBatchSize;
+    }
+
+    public void setScanBatchSize(int scanBatchSize) {
+        Preconditions.checkArgument(scanBatchSize > 0, "Scan batch size must be positive: %s", scanBatchSize);
+        this.scanBatchSize = scanBatchSize;
+    }
+
+    public int getScanBatchCapacity() {
+        return scanBatchCapacity;
+    }
+
+    public void setScanBatchCapacity(int scanBatchCapacity) {
+        Preconditions.checkArgument(
+                scanBatchCapacity > 0, "Scan batch capacity must be positive: %s", scanBatchCapacity);
+        this.scanBatchCapacity = scanBatchCapacity;
+    }
+
+    public List<String> getClusterNodes() {
+        return clusterNodes;
+    }
+
+    public void setClusterNodes(List<String> clusterNodes) {
+        this.clusterNodes = clusterNodes;
+    }
+
+    @Nullable
+    public String getClusterNodeId() {
+        return clusterNodeId;
+    }
+
+    public void setClusterNodeId(@Nullable String clusterNodeId) {
+        this.clusterNodeId = clusterNodeId;
+    }
+
+    @Override
+    public String toString() {
+        return "EmbeddedJsonDatabaseConfig{" +
+                "scanParallelism=" + scanParallelism +
+                ", orderedScan=" + orderedScan +
+                ", splitSize=" + splitSize +
+                ", columnarCacheEnabled=" + columnarCacheEnabled +
+                ", zoneMapsEnabled=" + zoneMapsEnabled +
+                ", partitionRollSize=" + partitionRollSize +
+                ", memtableEnabled=" + memtableEnabled +
+                ", memtableFlushSize=" + memtableFlushSize +
+                ", compactionEnabled=" + compactionEnabled +
+                ", compactionIntervalMillis=" + compactionIntervalMillis +
+                ", compactionTargetSize=" + compactionTargetSize +
+                ", compactionRetentionMillis=" + compactionRetentionMillis +
+                ", blockCacheSize=" + blockCacheSize +
+                ", blockCacheBlockSize=" + blockCacheBlockSize +
+                ", rowCacheSize=" + rowCacheSize +
+                ", hotReloadEnabled=" + hotReloadEnabled +
+                ", serverParallelism=" + serverParallelism +
+                ", serverQueueSize=" + serverQueueSize +
+                ", virtualThreadsEnabled=" + virtualThreadsEnabled +
+                ", scanBatchSize=" + scanBatchSize +
+                ", scanBatchCapacity=" + scanBatchCapacity +
+                ", clusterNodes=" + clusterNodes +
+                ", clusterNodeId='" + clusterNodeId + '\'' +
+                '}';
+    }
+}
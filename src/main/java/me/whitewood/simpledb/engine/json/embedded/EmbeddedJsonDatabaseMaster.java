@@ -17,37 +17,56 @@
 
 package me.whitewood.simpledb.engine.json.embedded;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.AggregateAccumulator;
+import me.whitewood.simpledb.engine.json.common.ConsistentHashRing;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
 import me.whitewood.simpledb.engine.json.common.JsonDatabase;
 import me.whitewood.simpledb.engine.json.common.JsonDatabaseFactory;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
 import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
+import me.whitewood.simpledb.engine.json.common.TransferableStream;
 import me.whitewood.simpledb.engine.json.server.JsonDatabaseMaster;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.SequenceInputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 /**
- * EmbeddedJsonDatabaseMaster holds metadata of tables in a database. Since json databases are read only,
- * metadata are loaded once into memories on initiation and never written back.
+ * EmbeddedJsonDatabaseMaster holds metadata of tables in a database. Metadata are loaded into memories
+ * on initiation and never written back, and are reloaded on changes if hot reloading is enabled,
+ * see {@link PartitionDiscovery}. Rows are inserted by appending to the partition files of tables,
+ * see {@link PartitionWriter}.
  *
  * The directory structure of a Json database is like (without partition):
  *
@@ -55,26 +74,115 @@ import java.util.stream.Collectors;
  *             - ${table 1} - ${jsonFile 1..N}
  *             - ${table 2} - ${jsonFile 1..N}
  *             - ${table 3} - ${jsonFile 1..N}
+ *
+ * Json files are *.json or *.jsonl, or their block compressed forms *.json.gz or *.jsonl.gz (see {@link BlockGzip}).
+ * Files named part-${N}-${M} are ordered by the numbers, so that scans return rows in the order of insertion.
+ *
+ * If the server is a node of a cluster, scans only read the partitions assigned to the node by consistent hashing
+ * of the file names (see {@link ConsistentHashRing}), so that the nodes of a cluster over the same database split
+ * the partitions between them. Metadata and statistics still cover all the partitions of a table, while each node
+ * only maintains the indexes and zone maps of its own partitions in the shared files.
  **/
 public class EmbeddedJsonDatabaseMaster implements JsonDatabaseMaster {
 
     private final String basePath;
 
-    private final JsonDatabase database;
+    private final TableCatalog catalog;
+
+    /** Only set if hot reloading is enabled. */
+    @Nullable
+    private final PartitionDiscovery discovery;
+
+    private final EmbeddedJsonDatabaseConfig config;
+
+    /** Worker pool of parallel scans. */
+    private final Executor scanExecutor;
+
+    @Nullable
+    private final ColumnarCache columnarCache;
+
+    @Nullable
+    private final ZoneMapStore zoneMapStore;
+
+    private final IndexStore indexStore;
+
+    private final StatisticsStore statisticsStore;
+
+    private final PartitionWriter partitionWriter;
+
+    private final PartitionCompactor compactor;
 
-    private final Map<String, JsonTable> tableMap = Maps.newHashMap();
+    /** Only set if the row cache is enabled. */
+    @Nullable
+    private final RowCache rowCache;
+
+    /** Only set if the block cache is enabled. */
+    @Nullable
+    private final BlockCache blockCache;
+
+    /** Only set if the memtable is enabled. */
+    @Nullable
+    private final MemTableWriter memTableWriter;
+
+    /** Only set if the server is a node of a cluster. */
+    @Nullable
+    private final ConsistentHashRing clusterRing;
 
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     private static final int MAX_RESULT_SIZE = 1024;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedJsonDatabaseMaster.class);
 
-    EmbeddedJsonDatabaseMaster(String basePath) {
+    EmbeddedJsonDatabaseMaster(String basePath, EmbeddedJsonDatabaseConfig config, Executor scanExecutor) {
         this.basePath = basePath;
-        this.database = JsonDatabaseFactory.getJsonDatabase(basePath);
-        for (JsonTable table: database.getTables()) {
-            this.tableMap.put(table.getName(), table);
+        this.config = config;
+        this.scanExecutor = scanExecutor;
+        this.columnarCache = config.isColumnarCacheEnabled() ? new ColumnarCache(basePath) : null;
+        JsonDatabase database = JsonDatabaseFactory.getJsonDatabase(basePath);
+        this.catalog = new TableCatalog(database.getTables());
+        if (config.isHotReloadEnabled()) {
+            try {
+                this.discovery = new PartitionDiscovery(
+                        basePath, file -> isPartitionFile(file.getName()), db -> catalog.update(db.getTables()));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to watch database " + basePath, e);
+            }
+        } else {
+            this.discovery = null;
+        }
+        this.partitionWriter = new PartitionWriter(basePath, config.getPartitionRollSize(), discovery);
+        this.blockCache = config.getBlockCacheSize() > 0
+                ? new BlockCache(config.getBlockCacheSize(), config.getBlockCacheBlockSize())
+                : null;
+        this.rowCache = config.getRowCacheSize() > 0 ? new RowCache(config.getRowCacheSize()) : null;
+        // the stores read partitions like scans, so they are created after the writer and the block cache
+        this.zoneMapStore = config.isZoneMapsEnabled()
+                ? new ZoneMapStore(basePath, this::openPartition, partitionWriter::getVisibleLength)
+                : null;
+        this.indexStore =
+                new IndexStore(basePath, this::openPartition, partitionWriter::getVisibleLength, blockCache);
+        this.statisticsStore = new StatisticsStore(basePath, this::openPartition, partitionWriter::getVisibleLength);
+        this.compactor = new PartitionCompactor(
+                basePath, config.getCompactionTargetSize(), config.getCompactionRetentionMillis(), discovery);
+        if (config.isMemtableEnabled()) {
+            try {
+                this.memTableWriter = new MemTableWriter(
+                        basePath, this::getTable, config.getMemtableFlushSize(), discovery);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to replay write-ahead logs of database " + basePath, e);
+            }
+        } else {
+            this.memTableWriter = null;
+        }
+        if (config.getClusterNodeId() != null) {
+            Preconditions.checkArgument(config.getClusterNodes().contains(config.getClusterNodeId()),
+                    "Node %s is not in cluster %s", config.getClusterNodeId(), config.getClusterNodes());
+            this.clusterRing = new ConsistentHashRing(config.getClusterNodes());
+        } else {
+            this.clusterRing = null;
         }
     }
 
@@ -84,37 +192,31 @@ public class EmbeddedJsonDatabaseMaster implements JsonDatabaseMaster {
 
     @Override
     public List<String> listTableNames(@Nullable String pattern) {
-        if (pattern == null) {
-            return tableMap.keySet().stream().sorted().collect(Collectors.toList());
-        }
-        return tableMap.keySet().stream().filter(
-                k -> { Matcher m = Pattern.compile(pattern).matcher(k); return m.find();}
-        ).sorted().collect(Collectors.toList());
+        return catalog.listTableNames(pattern);
     }
 
     @Override
     public List<JsonTable> listTables(@Nullable String pattern) {
-        List<String> tableNames = listTableNames(pattern);
-        return tableNames.stream().map(tableMap::get).collect(Collectors.toList());
+        return catalog.listTables(pattern);
     }
 
-
+    @Override
     public JsonTable getTable(String tableName) {
-        if (tableMap.containsKey(tableName)) {
-            return tableMap.get(tableName);
-        } else {
+        JsonTable table = catalog.getTable(tableName);
+        if (table == null) {
             throw new IllegalArgumentException(String.format("Table %s doesn't exist", tableName));
         }
+        return table;
     }
 
     @Override
     public List<JsonNode> scanTable(String tableName, @Nullable List<String> columns) throws IOException {
-        File[] files = getTableFiles(tableName);
+        MemTableWriter.Snapshot snapshot = snapshotTable(tableName);
         List<JsonNode> result = Lists.newArrayList();
-        fileLoop: for (File file: files) {
-            try (JsonReader br = new JsonReader(new FileReader(file), columns)) {
+        fileLoop: for (File file: getAssignedPartitions(snapshot.getFiles())) {
+            try (JsonReader br = new JsonReader(new InputStreamReader(openPartition(file)), columns)) {
                 JsonNode jsonNode;
-                while ((jsonNode = br.readJson()) != null && result.size() < MAX_RESULT_SIZE) {
+                while ((jsonNode = br.readJson()) != null) {
                     if (result.size() == MAX_RESULT_SIZE) {
                         LOGGER.warn("Scan query reached limit of result set size, returning the top {} records",
                                 MAX_RESULT_SIZE);
@@ -125,6 +227,15 @@ public class EmbeddedJsonDatabaseMaster implements JsonDatabaseMaster {
                 }
             }
         }
+        if (!snapshot.getRows().isEmpty() && result.size() < MAX_RESULT_SIZE) {
+            byte[] lines = encodeRows(getTable(tableName), snapshot.getRows());
+            try (JsonReader br = new JsonReader(new InputStreamReader(new ByteArrayInputStream(lines)), columns)) {
+                JsonNode jsonNode;
+                while (result.size() < MAX_RESULT_SIZE && (jsonNode = br.readJson()) != null) {
+                    result.add(jsonNode);
+                }
+            }
+        }
         return result;
     }
 
@@ -146,22 +257,328 @@ public class EmbeddedJsonDatabaseMaster implements JsonDatabaseMaster {
         return scanTableAsStream(tableName, null);
     }
 
+    /**
+     * Scan a table as json lines. The stream is a {@link TransferableStream}, so uncompressed partitions can be
+     * sent without being copied through the heap, see {@link PartitionInputStream}.
+     */
     @Override
     public InputStream scanTableAsStream(String tableName, List<String> columns) throws IOException {
-        File[] files = getTableFiles(tableName);
-        List<InputStream> inputStreams = Lists.newArrayList();
-        for (File file: files) {
-            inputStreams.add(new FileInputStream(file));
+        MemTableWriter.Snapshot snapshot = snapshotTable(tableName);
+        byte[] lines = snapshot.getRows().isEmpty() ? null : encodeRows(getTable(tableName), snapshot.getRows());
+        return new PartitionInputStream(getAssignedPartitions(snapshot.getFiles()),
+                this::openPartition, partitionWriter::getVisibleLength, lines);
+    }
+
+    /**
+     * Scan table as typed rows. If one of the filters is an equality on a column with a secondary index declared
+     * in meta.json, only the records at the locations given by the index are read, see {@link IndexStore}.
+     * Otherwise, partitions whose zone maps show that no row satisfies the filters are skipped,
+     * see {@link ZoneMapStore}. Partitions whose decoded rows are cached in memory are read from the cache,
+     * see {@link RowCache}. Partitions that have fresh columnar sidecars are read from the sidecars,
+     * see {@link ColumnarCache}. When parallel scans are enabled, json partition files are divided into splits
+     * of whole lines (see {@link PartitionSplit}), which are decoded concurrently from memory-mapped ranges
+     * on the scan worker pool, see {@link ParallelScanReader}. Otherwise the partitions are decoded one after
+     * another by the calling thread. Rows in the memtable that are not flushed yet are read after the partitions.
+     */
+    @Override
+    public JsonRowReader scanTableAsRows(
+            String tableName, @Nullable List<String> columns, @Nullable List<JsonFilter> filters) throws IOException {
+        JsonTable table = getTable(tableName);
+        MemTableWriter.Snapshot snapshot = snapshotTable(tableName);
+        List<File> files = Arrays.asList(getAssignedPartitions(snapshot.getFiles()));
+        // rows in the memtable are newer than the partitions, so they come last
+        ScanSplit memTableSplit = snapshot.getRows().isEmpty()
+                ? null
+                : () -> new MemTableReader(snapshot.getRows(), table, columns, filters);
+        if (filters != null && !filters.isEmpty()) {
+            // only the assigned partitions are indexed by a node of a cluster
+            File[] assigned = files.toArray(new File[0]);
+            JsonRowReader indexReader = indexStore.lookup(table, assigned, assigned, columns, filters, scanExecutor);
+            if (indexReader != null) {
+                return memTableSplit == null
+                        ? indexReader
+                        : new SequentialScanReader(Arrays.asList(() -> indexReader, memTableSplit));
+            }
+        }
+        if (zoneMapStore != null && filters != null && !filters.isEmpty()) {
+            files = zoneMapStore.prune(table, files.toArray(new File[0]), filters, scanExecutor);
+        }
+        boolean parallel = config.getScanParallelism() > 1;
+        List<ScanSplit> splits = Lists.newArrayList();
+        for (File file : files) {
+            long length = partitionWriter.getVisibleLength(file);
+            if (rowCache != null && rowCache.isCacheable(length)) {
+                splits.add(() -> rowCache.open(table, file, length, this::openPartition, columns, filters));
+            } else if (columnarCache != null && ColumnarCache.isCacheable(length)) {
+                // transcoding, if needed, happens in the thread that opens the split
+                splits.add(() -> {
+                    JsonRowReader reader =
+                            columnarCache.open(table, file, length, this::openPartition, columns, filters);
+                    return reader != null ? reader : new JsonReader(openPartition(file), table, columns, filters);
+                });
+            } else if (parallel) {
+                for (PartitionSplit split : planSplits(file, length)) {
+                    splits.add(() -> new JsonReader(openSplit(split), table, columns, filters));
+                }
+            } else {
+                splits.add(() -> new JsonReader(openPartition(file), table, columns, filters));
+            }
+        }
+        if (memTableSplit != null) {
+            splits.add(memTableSplit);
+        }
+        if (!parallel || splits.size() <= 1) {
+            return new SequentialScanReader(splits);
         }
-        InputStream sequenceInputStream = new SequenceInputStream(Collections.enumeration(inputStreams));
-        return sequenceInputStream;
+        int rowWidth = columns == null ? table.getColumns().size() : columns.size();
+        return new ParallelScanReader(
+                scanExecutor, splits, rowWidth, config.getScanParallelism(), config.isOrderedScan());
     }
 
+    /**
+     * Divide a partition into splits, which are none if the partition is deleted since it's listed.
+     */
+    private List<PartitionSplit> planSplits(File file, long length) throws IOException {
+        try {
+            return PartitionSplit.plan(file, length, config.getSplitSize());
+        } catch (NoSuchFileException e) {
+            if (file.exists()) {
+                throw e;
+            }
+            LOGGER.debug("Partition {} is deleted since it's listed", file);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Open a split, which is read as empty if the partition is deleted since it's listed.
+     */
+    private InputStream openSplit(PartitionSplit split) throws IOException {
+        try {
+            return split.open(blockCache);
+        } catch (NoSuchFileException e) {
+            if (split.getFile().exists()) {
+                throw e;
+            }
+            LOGGER.debug("Partition {} is deleted since it's listed", split.getFile());
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+
+    /**
+     * Aggregate the rows of a scan of the group columns and the aggregated columns with a hash table of the groups,
+     * see {@link AggregateAccumulator}. So only the results are handed over, which are partial results if the server
+     * is a node of a cluster.
+     */
+    @Override
+    public List<Object[]> aggregateTable(
+            String tableName,
+            List<String> groupColumns,
+            List<JsonAggregate> aggregates,
+            @Nullable List<JsonFilter> filters) throws IOException {
+        List<String> columns = Lists.newArrayList(groupColumns);
+        int[] argumentSlots = new int[aggregates.size()];
+        for (int i = 0; i < argumentSlots.length; i++) {
+            String column = aggregates.get(i).getColumn();
+            if (column == null) {
+                argumentSlots[i] = -1;
+                continue;
+            }
+            if (!columns.contains(column)) {
+                columns.add(column);
+            }
+            argumentSlots[i] = columns.indexOf(column);
+        }
+        AggregateAccumulator accumulator = new AggregateAccumulator(groupColumns.size(), aggregates);
+        Object[] row = new Object[columns.size()];
+        try (JsonRowReader reader = scanTableAsRows(tableName, columns, filters)) {
+            while (reader.readRow(row)) {
+                accumulator.accumulate(row, argumentSlots);
+            }
+        }
+        return accumulator.getRows();
+    }
+
+    /**
+     * Insert rows by appending them to the current partition of the table. The call returns after the rows
+     * are durable, and many concurrent inserts share one fsync, see {@link PartitionWriter}.
+     */
+    @Override
+    public int insertRows(String tableName, List<Object[]> rows) throws IOException {
+        try {
+            appendRows(tableName, rows).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while inserting into table " + tableName);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to insert into table " + tableName, e.getCause());
+        }
+        return rows.size();
+    }
+
+    /**
+     * Encode rows as json lines and append them to the current partition of the table asynchronously.
+     * If the memtable is enabled, the rows are logged and added to the memtable synchronously instead,
+     * see {@link MemTableWriter}.
+     * @param tableName The table name.
+     * @param rows The rows of values in the order of the columns of the table.
+     * @return The future that completes when the rows are durable.
+     */
+    CompletableFuture<Void> appendRows(String tableName, List<Object[]> rows) throws IOException {
+        JsonTable table = getTable(tableName);
+        byte[] lines = encodeRows(table, rows);
+        if (memTableWriter != null) {
+            memTableWriter.insert(table, lines);
+            return CompletableFuture.completedFuture(null);
+        }
+        return partitionWriter.append(tableName, lines);
+    }
+
+    /**
+     * Encode rows as json lines, each of which ends with a newline.
+     * @param table The table of the rows.
+     * @param rows The rows of values in the order of the columns of the table.
+     * @return The bytes of the json lines.
+     */
+    static byte[] encodeRows(JsonTable table, List<Object[]> rows) throws IOException {
+        String tableName = table.getName();
+        List<JsonColumn> columns = table.getColumns();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rows.size() * 64);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.setRootValueSeparator(null);
+            for (Object[] row : rows) {
+                Preconditions.checkArgument(row.length == columns.size(),
+                        "Expected %s values for table %s, but got %s", columns.size(), tableName, row.length);
+                generator.writeStartObject();
+                for (int i = 0; i < row.length; i++) {
+                    generator.writeFieldName(columns.get(i).getName());
+                    writeValue(generator, columns.get(i), row[i]);
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeValue(JsonGenerator generator, JsonColumn column, @Nullable Object value)
+            throws IOException {
+        if (value == null) {
+            generator.writeNull();
+            return;
+        }
+        switch (column.getType()) {
+            case STRING:
+                generator.writeString(value.toString());
+                return;
+            case BOOLEAN:
+                Preconditions.checkArgument(
+                        value instanceof Boolean, "Invalid value %s for boolean column %s", value, column.getName());
+                generator.writeBoolean((Boolean) value);
+                return;
+            case INTEGER:
+                Preconditions.checkArgument(
+                        value instanceof Number, "Invalid value %s for integer column %s", value, column.getName());
+                long longValue = ((Number) value).longValue();
+                // fractions and values out of the range of int would be silently changed otherwise
+                Preconditions.checkArgument(
+                        ((Number) value).doubleValue() == longValue
+                                && longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE,
+                        "Invalid value %s for integer column %s", value, column.getName());
+                generator.writeNumber((int) longValue);
+                return;
+            case NUMBER:
+                Preconditions.checkArgument(
+                        value instanceof Number, "Invalid value %s for numeric column %s", value, column.getName());
+                if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+                    generator.writeNumber(((Number) value).longValue());
+                } else {
+                    generator.writeNumber(((Number) value).doubleValue());
+                }
+                return;
+            default:
+                throw new IllegalArgumentException("Unsupported JSON type: " + column.getType());
+        }
+    }
+
+    @Override
+    public JsonTableStatistics analyzeTable(String tableName) throws IOException {
+        JsonTable table = getTable(tableName);
+        long sequence = getMemTableSequence();
+        MemTableWriter.Snapshot snapshot = snapshotTable(tableName);
+        return statisticsStore.analyze(table, snapshot.getFiles(), snapshot.getRows(), sequence);
+    }
+
+    @Override
+    @Nullable
+    public JsonTableStatistics getTableStatistics(String tableName) throws IOException {
+        getTable(tableName);
+        JsonTableStatistics statistics = statisticsStore.get(tableName);
+        if (statistics != null) {
+            // unflushed inserts make the statistics stale as well as changed partitions
+            statistics.setStale(statisticsStore.isStale(statistics, getTableFiles(tableName), getMemTableSequence()));
+        }
+        return statistics;
+    }
+
+    private long getMemTableSequence() {
+        return memTableWriter == null ? 0 : memTableWriter.getSequence();
+    }
+
+    /**
+     * Get the version of a table from the names, the committed lengths and the modification times of its partitions,
+     * and the inserts into the memtable if it's enabled. Any insert into the memtable changes the versions of all
+     * the tables, which is conservative but cheap.
+     */
+    @Override
+    public long getTableVersion(String tableName) {
+        getTable(tableName);
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        if (new File(basePath, tableName).exists()) {
+            for (File partition : getTableFiles(tableName)) {
+                hasher.putString(partition.getName(), StandardCharsets.UTF_8)
+                        .putLong(partitionWriter.getVisibleLength(partition))
+                        .putLong(partition.lastModified());
+            }
+        }
+        if (memTableWriter != null) {
+            hasher.putLong(memTableWriter.getSequence());
+        }
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * Merge the small partitions of the tables, see {@link PartitionCompactor}.
+     * @return The number of merged partitions created.
+     */
+    int compactTables() {
+        int created = 0;
+        for (String tableName : catalog.listTableNames(null)) {
+            if (!new File(basePath, tableName).isDirectory()) {
+                continue;
+            }
+            try {
+                created += compactor.compact(getTable(tableName), getTableFiles(tableName), this::openPartition);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Failed to compact table {}", tableName, e);
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Get the partition files of a table, sorted by file names so that scans are deterministic.
+     * The partitions are listed from memory rather than the directory if hot reloading is enabled.
+     */
     @Nonnull
     private File[] getTableFiles(String tableName) {
         File tableDir = new File(basePath, tableName);
         Preconditions.checkState(tableDir.exists(), "Table directory %s doesn't exist", tableDir);
-        File[] files =  tableDir.listFiles((dir, name) -> name.endsWith(".json") || name.endsWith(".jsonl"));
+        // partitions replaced by compactions are hidden
+        File[] files = compactor.listPartitions(tableDir, file -> isPartitionFile(file.getName()));
         Preconditions.checkNotNull(
                 files,
                 "Failed to read table %s, for errors while reading table base directory %s",
@@ -169,4 +586,121 @@ public class EmbeddedJsonDatabaseMaster implements JsonDatabaseMaster {
                 tableDir);
         return files;
     }
+
+    /**
+     * Get the partition files of a table along with the rows that are inserted into the memtable but not flushed yet.
+     */
+    private MemTableWriter.Snapshot snapshotTable(String tableName) {
+        if (memTableWriter == null) {
+            return new MemTableWriter.Snapshot(getTableFiles(tableName), Collections.emptyList());
+        }
+        // the table directory is created by the first flush
+        return memTableWriter.snapshot(tableName, () -> new File(basePath, tableName).exists()
+                ? getTableFiles(tableName)
+                : new File[0]);
+    }
+
+    /**
+     * Get the partitions that scans of the server read, which are those assigned to the node if the server is
+     * a node of a cluster.
+     */
+    private File[] getAssignedPartitions(File[] partitions) {
+        if (clusterRing == null) {
+            return partitions;
+        }
+        String node = config.getClusterNodeId();
+        return Arrays.stream(partitions)
+                .filter(partition -> clusterRing.getNode(partition.getName()).equals(node))
+                .toArray(File[]::new);
+    }
+
+    @Nullable
+    MemTableWriter getMemTableWriter() {
+        return memTableWriter;
+    }
+
+    /**
+     * Open a partition file as a stream of json lines, up to the bytes that are committed if it's being written.
+     * The bytes are read through the block cache if it's enabled. A partition deleted since it's listed, eg. before
+     * the deletion is discovered, is read as empty.
+     */
+    private InputStream openPartition(File file) throws IOException {
+        try {
+            return openPartitionFile(file);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            if (file.exists()) {
+                throw e;
+            }
+            LOGGER.debug("Partition {} is deleted since it's listed", file);
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+
+    private InputStream openPartitionFile(File file) throws IOException {
+        if (blockCache != null) {
+            if (BlockGzip.isCompressed(file)) {
+                long length = file.length();
+                InputStream in = blockCache.open(file, 0, length);
+                return length > 0 ? BlockGzip.inflate(in) : in;
+            }
+            return blockCache.open(file, 0, partitionWriter.getVisibleLength(file));
+        }
+        if (BlockGzip.isCompressed(file)) {
+            return BlockGzip.open(file);
+        }
+        long length = partitionWriter.getVisibleLength(file);
+        return ByteStreams.limit(new FileInputStream(file), length);
+    }
+
+    @Nullable
+    RowCache getRowCache() {
+        return rowCache;
+    }
+
+    @Nullable
+    BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    PartitionWriter getPartitionWriter() {
+        return partitionWriter;
+    }
+
+    PartitionCompactor getPartitionCompactor() {
+        return compactor;
+    }
+
+    @Nullable
+    PartitionDiscovery getPartitionDiscovery() {
+        return discovery;
+    }
+
+    /**
+     * Stop the writers and the watcher of the database, after the inserts in flight are committed.
+     */
+    void close() throws IOException {
+        if (memTableWriter != null) {
+            memTableWriter.close();
+        }
+        partitionWriter.close();
+        if (discovery != null) {
+            discovery.close();
+        }
+    }
+
+    private static boolean isPartitionFile(String name) {
+        if (name.endsWith(BlockGzip.SUFFIX)) {
+            name = name.substring(0, name.length() - BlockGzip.SUFFIX.length());
+        }
+        return name.endsWith(".json") || name.endsWith(".jsonl");
+    }
+
+    /**
+     * Opens a partition as a stream of json lines, up to its visible length if it's being written. The bytes are
+     * read through the block cache if it's enabled, and inflated if the partition is gzip compressed.
+     */
+    interface PartitionOpener {
+
+        InputStream open(File file) throws IOException;
+    }
 }
@@ -19,82 +19,445 @@ package me.whitewood.simpledb.engine.json.embedded;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
 import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
+import me.whitewood.simpledb.engine.json.server.AsyncJsonDatabaseServer;
 import me.whitewood.simpledb.engine.json.server.JsonDatabaseServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
  * EmbeddedJsonDatabaseServer serves request from {@link EmbeddedJsonDatabaseClient}.
+ *
+ * Requests are served asynchronously on the server executor, see {@link AsyncJsonDatabaseServer}, and the
+ * blocking requests of {@link JsonDatabaseServer} wait for the asynchronous ones. By default, the executor is
+ * a pool of {@link EmbeddedJsonDatabaseConfig#getServerParallelism()} threads with a bounded queue, or a thread
+ * per request if virtual threads are enabled and supported by the runtime, or is provided by the caller.
+ * Table lookups never block, so they are served in the calling thread.
+ *
+ * The threads of the server, and those of the writers and the watcher of the database, are stopped on
+ * {@link #close()}.
  **/
-public class EmbeddedJsonDatabaseServer implements JsonDatabaseServer {
+public class EmbeddedJsonDatabaseServer implements JsonDatabaseServer, AsyncJsonDatabaseServer, Closeable {
 
     private final EmbeddedJsonDatabaseMaster master;
 
-    private final Executor executor;
+    private final ExecutorService executor;
+
+    /** Whether the executor is created by the server, in which case it's shut down on closing. */
+    private final boolean ownsExecutor;
+
+    private final int scanBatchSize;
+
+    private final int scanBatchCapacity;
+
+    /** Worker pool of parallel scans, shared by all the scans of the server. */
+    private final ExecutorService scanExecutor;
+
+    /** Runs the background compactions, only set if compaction is enabled. */
+    @Nullable
+    private final ScheduledExecutorService compactionExecutor;
 
-    private static final int QUEUE_SIZE = 10;
+    /** How long closing waits for the running tasks of an executor before interrupting them. */
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedJsonDatabaseServer.class);
 
     public EmbeddedJsonDatabaseServer(String basePath) {
-        this.master = new EmbeddedJsonDatabaseMaster(basePath);
-        this.executor = new ThreadPoolExecutor(
-                1,
-                1,
-                0L,
+        this(basePath, new EmbeddedJsonDatabaseConfig());
+    }
+
+    public EmbeddedJsonDatabaseServer(String basePath, EmbeddedJsonDatabaseConfig config) {
+        this(basePath, config, createExecutor(config), true);
+    }
+
+    /**
+     * @param executor The executor that serves the requests, which is not shut down by the server.
+     */
+    public EmbeddedJsonDatabaseServer(String basePath, EmbeddedJsonDatabaseConfig config, ExecutorService executor) {
+        this(basePath, config, executor, false);
+    }
+
+    private EmbeddedJsonDatabaseServer(
+            String basePath, EmbeddedJsonDatabaseConfig config, ExecutorService executor, boolean ownsExecutor) {
+        this.ownsExecutor = ownsExecutor;
+        this.scanExecutor = Executors.newFixedThreadPool(
+                config.getScanParallelism(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("embedded-scan-thread-%d").build());
+        this.master = new EmbeddedJsonDatabaseMaster(basePath, config, scanExecutor);
+        this.executor = executor;
+        this.scanBatchSize = config.getScanBatchSize();
+        this.scanBatchCapacity = config.getScanBatchCapacity();
+        if (config.isCompactionEnabled()) {
+            this.compactionExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("embedded-compaction-thread-%d").build());
+            compactionExecutor.scheduleWithFixedDelay(
+                    master::compactTables,
+                    config.getCompactionIntervalMillis(),
+                    config.getCompactionIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.compactionExecutor = null;
+        }
+    }
+
+    private static ExecutorService createExecutor(EmbeddedJsonDatabaseConfig config) {
+        if (config.isVirtualThreadsEnabled()) {
+            ExecutorService executor = newVirtualThreadPerTaskExecutor();
+            if (executor != null) {
+                return executor;
+            }
+            LOGGER.warn("Virtual threads are not supported by the runtime, falling back to a thread pool.");
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                config.getServerParallelism(),
+                config.getServerParallelism(),
+                60L,
                 TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(QUEUE_SIZE, false),
-                new ThreadFactoryBuilder().setDaemon(false).setNameFormat("embedded-server-thread-%d").build()
+                new ArrayBlockingQueue<>(config.getServerQueueSize(), false),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("embedded-server-thread-%d").build()
         );
+        // idle servers don't hold threads
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Create an executor that starts a virtual thread per task, which is only available since Java 21,
+     * so it's looked up reflectively.
+     * @return The executor, or null if the runtime doesn't support virtual threads.
+     */
+    @Nullable
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
     }
 
     public EmbeddedJsonDatabaseClient getClient() {
         return new EmbeddedJsonDatabaseClient(this);
     }
 
+    /**
+     * Get the block cache shared by the scans of the server, eg. for its hit and miss counts.
+     * @return The cache, or null if it's disabled.
+     */
+    @Nullable
+    public BlockCache getBlockCache() {
+        return master.getBlockCache();
+    }
+
+    /**
+     * Get the cache of decoded rows shared by the scans of the server, eg. for its hit and miss counts.
+     * @return The cache, or null if it's disabled.
+     */
+    @Nullable
+    public RowCache getRowCache() {
+        return master.getRowCache();
+    }
+
+    EmbeddedJsonDatabaseMaster getMaster() {
+        return master;
+    }
+
+    /**
+     * Stop the background compactions, the request executor if it's created by the server, the scan workers,
+     * and the writers and the watcher of the database. Inserts in flight are committed before the writers stop.
+     */
+    @Override
+    public void close() {
+        if (compactionExecutor != null) {
+            shutdown(compactionExecutor);
+        }
+        if (ownsExecutor) {
+            shutdown(executor);
+        }
+        try {
+            master.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close the database", e);
+        }
+        shutdown(scanExecutor);
+    }
+
+    private static void shutdown(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<String>> listTableNames(@Nullable String pattern) {
+        return submit(() -> master.listTableNames(pattern));
+    }
+
+    @Override
+    public CompletableFuture<List<JsonTable>> listTables(@Nullable String pattern) {
+        return submit(() -> master.listTables(pattern));
+    }
+
+    @Override
+    public CompletableFuture<JsonTable> getTable(String tableName) {
+        CompletableFuture<JsonTable> future = new CompletableFuture<>();
+        try {
+            future.complete(master.getTable(tableName));
+        } catch (IllegalArgumentException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<List<JsonNode>> scanTable(String tableName, @Nullable List<String> columns) {
+        return submit(() -> master.scanTable(tableName, columns));
+    }
+
+    @Override
+    public CompletableFuture<InputStream> scanTableAsStream(String tableName, @Nullable List<String> columns) {
+        return submit(() -> master.scanTableAsStream(tableName, columns));
+    }
+
+    @Override
+    public CompletableFuture<JsonRowReader> scanTableAsRows(
+            String tableName, @Nullable List<String> columns, @Nullable List<JsonFilter> filters) {
+        return submit(() -> master.scanTableAsRows(tableName, columns, filters));
+    }
+
+    @Override
+    public CompletableFuture<RowBatchReader> scanTableAsBatches(
+            String tableName, @Nullable List<String> columns, @Nullable List<JsonFilter> filters) {
+        return submit(() -> {
+            JsonDataType[] types = getColumnTypes(master.getTable(tableName), columns);
+            JsonRowReader reader = master.scanTableAsRows(tableName, columns, filters);
+            BatchChannel channel = new BatchChannel(reader, types, scanBatchSize, scanBatchCapacity, executor);
+            channel.start();
+            return channel;
+        });
+    }
+
+    /**
+     * Get the types of the columns of a scan in the order of the scan.
+     */
+    private static JsonDataType[] getColumnTypes(JsonTable table, @Nullable List<String> columns) {
+        if (columns == null) {
+            return table.getColumns().stream().map(JsonColumn::getType).toArray(JsonDataType[]::new);
+        }
+        JsonDataType[] types = new JsonDataType[columns.size()];
+        for (int i = 0; i < types.length; i++) {
+            String name = columns.get(i);
+            types[i] = table.getColumns().stream()
+                    .filter(column -> column.getName().equals(name))
+                    .map(JsonColumn::getType)
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException(
+                            String.format("Column %s doesn't exist in table %s", name, table.getName())));
+        }
+        return types;
+    }
+
+    @Override
+    public CompletableFuture<List<Object[]>> aggregateTable(
+            String tableName,
+            List<String> groupColumns,
+            List<JsonAggregate> aggregates,
+            @Nullable List<JsonFilter> filters) {
+        return submit(() -> master.aggregateTable(tableName, groupColumns, aggregates, filters));
+    }
+
+    @Override
+    public CompletableFuture<Integer> insertRows(String tableName, List<Object[]> rows) {
+        return submit(() -> master.appendRows(tableName, rows))
+                .thenCompose(appended -> appended)
+                .thenApply(v -> rows.size());
+    }
+
+    @Override
+    public CompletableFuture<JsonTableStatistics> analyzeTable(String tableName) {
+        return submit(() -> master.analyzeTable(tableName));
+    }
+
+    @Override
+    public CompletableFuture<JsonTableStatistics> getTableStatistics(String tableName) {
+        return submit(() -> master.getTableStatistics(tableName));
+    }
+
+    @Override
+    public CompletableFuture<Long> getTableVersion(String tableName) {
+        return submit(() -> master.getTableVersion(tableName));
+    }
+
     @Override
     public List<String> listTableNames(@Nullable String pattern, long timeout, TimeUnit unit)
             throws InterruptedException, ExecutionException, TimeoutException {
-        return CompletableFuture.supplyAsync(() -> master.listTableNames(pattern), executor).get(timeout, unit);
+        return await(listTableNames(pattern), timeout, unit);
     }
 
     @Override
     public List<JsonTable> listTables(@Nullable String pattern, long timeout, TimeUnit unit)
             throws InterruptedException, ExecutionException, TimeoutException {
-        return CompletableFuture.supplyAsync(() -> master.listTables(pattern), executor).get(timeout, unit);
+        return await(listTables(pattern), timeout, unit);
+    }
+
+    /**
+     * Get a table in the calling thread rather than the server thread, since the lookup in the catalog never
+     * blocks, so that resolving tables during planning doesn't queue behind scans.
+     */
+    @Override
+    public JsonTable getTable(String tableName, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return await(getTable(tableName), timeout, unit);
     }
 
     @Override
     public List<JsonNode> scanTable(String tableName, @Nullable List<String> columns, long timeout, TimeUnit unit)
             throws InterruptedException, ExecutionException, TimeoutException {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return master.scanTable(tableName, columns);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to scan table " + tableName, e);
-            }
-        }).get(timeout, unit);
+        return await(scanTable(tableName, columns), timeout, unit);
     }
 
     @Override
     public InputStream scanTableAsStream(String tableName, @Nullable List<String> columns, long timeout, TimeUnit unit)
             throws InterruptedException, ExecutionException, TimeoutException {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return master.scanTableAsStream(tableName, columns);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to scan table " + tableName, e);
-            }
-        }).get(timeout, unit);
+        return await(scanTableAsStream(tableName, columns), timeout, unit);
+    }
+
+    @Override
+    public JsonRowReader scanTableAsRows(
+            String tableName,
+            @Nullable List<String> columns,
+            @Nullable List<JsonFilter> filters,
+            long timeout,
+            TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return await(scanTableAsRows(tableName, columns, filters), timeout, unit);
+    }
+
+    @Override
+    public RowBatchReader scanTableAsBatches(
+            String tableName,
+            @Nullable List<String> columns,
+            @Nullable List<JsonFilter> filters,
+            long timeout,
+            TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return await(scanTableAsBatches(tableName, columns, filters), timeout, unit);
+    }
+
+    @Override
+    public List<Object[]> aggregateTable(
+            String tableName,
+            List<String> groupColumns,
+            List<JsonAggregate> aggregates,
+            @Nullable List<JsonFilter> filters,
+            long timeout,
+            TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return await(aggregateTable(tableName, groupColumns, aggregates, filters), timeout, unit);
+    }
+
+    /**
+     * Insert rows in the calling thread rather than the server thread, so that concurrent inserts are
+     * group committed together without occupying server threads.
+     */
+    @Override
+    public int insertRows(String tableName, List<Object[]> rows, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture<Void> appended;
+        try {
+            appended = master.appendRows(tableName, rows);
+        } catch (Exception e) {
+            throw new ExecutionException("Failed to insert into table " + tableName, e);
+        }
+        appended.get(timeout, unit);
+        return rows.size();
+    }
+
+    @Override
+    public JsonTableStatistics analyzeTable(String tableName, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return await(analyzeTable(tableName), timeout, unit);
+    }
+
+    @Override
+    @Nullable
+    public JsonTableStatistics getTableStatistics(String tableName, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return await(getTableStatistics(tableName), timeout, unit);
+    }
+
+    @Override
+    public long getTableVersion(String tableName, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return await(getTableVersion(tableName), timeout, unit);
+    }
+
+    /**
+     * Run a request on the server executor. Requests that are rejected by the executor, or fail, complete the
+     * future exceptionally, and requests whose futures are cancelled before they start are skipped.
+     */
+    private <T> CompletableFuture<T> submit(Callable<T> request) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    T result = request.call();
+                    // readers and streams of cancelled scans are not handed to anyone
+                    if (!future.complete(result) && result instanceof Closeable) {
+                        ((Closeable) result).close();
+                    }
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Wait for a request, cancelling it if it's not completed in time.
+     */
+    private static <T> T await(CompletableFuture<T> future, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            return future.get(timeout, unit);
+        } catch (InterruptedException | TimeoutException e) {
+            future.cancel(false);
+            throw e;
+        }
     }
 
-}
\ No newline at end of file
+}
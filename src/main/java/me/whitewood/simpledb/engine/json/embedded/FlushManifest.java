@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FlushManifest records the last {@link WriteAheadLog} generation whose memtable is flushed into partition
+ * files, at ${basePath}/_metadata/wal/flush-manifest.json, so that the logs of flushed memtables are never
+ * replayed even if they are not deleted yet.
+ *
+ * The manifest is the commit point of a flush: it's written along with the renames of the flushed files
+ * before any of them is done, and the renames are rolled forward on startup if the flush is interrupted by a
+ * crash. So either all the tables of a memtable are flushed and its logs are skipped, or none of them is.
+ **/
+class FlushManifest {
+
+    static final String FILE_NAME = "flush-manifest.json";
+
+    private final File basePath;
+
+    private final File file;
+
+    /** The last flushed generation, or -1 if nothing is flushed. */
+    private long generation = -1;
+
+    /** Renames of temporary files to partition files that may not be done yet. */
+    private Map<File, File> moves = Collections.emptyMap();
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlushManifest.class);
+
+    FlushManifest(File basePath, File walDir) throws IOException {
+        this.basePath = basePath;
+        this.file = new File(walDir, FILE_NAME);
+        if (file.exists()) {
+            JsonNode node = OBJECT_MAPPER.readTree(file);
+            this.generation = node.get("generation").asLong();
+            Map<File, File> pending = Maps.newLinkedHashMap();
+            for (JsonNode move : node.get("moves")) {
+                pending.put(
+                        new File(basePath, move.get("source").asText()),
+                        new File(basePath, move.get("target").asText()));
+            }
+            this.moves = pending;
+        }
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Durably record that the logs up to a generation are flushed, once the given renames are done.
+     * @param generation The last flushed generation.
+     * @param moves The temporary files to the partition files they are renamed to.
+     * @throws IOException When IO error occurs, in which case the manifest is unchanged.
+     */
+    void commit(long generation, Map<File, File> moves) throws IOException {
+        ObjectNode node = OBJECT_MAPPER.createObjectNode();
+        node.put("generation", generation);
+        ArrayNode array = node.putArray("moves");
+        for (Map.Entry<File, File> move : moves.entrySet()) {
+            array.addObject()
+                    .put("source", relativize(move.getKey()))
+                    .put("target", relativize(move.getValue()));
+        }
+        File tmp = new File(file.getParentFile(), "." + FILE_NAME + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(OBJECT_MAPPER.writeValueAsBytes(node));
+            out.getChannel().force(false);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(file.getParentFile());
+        this.generation = generation;
+        this.moves = Maps.newLinkedHashMap(moves);
+    }
+
+    /**
+     * Roll forward the renames of a flush that is interrupted.
+     * @return The partition files that are renamed.
+     * @throws IOException When IO error occurs.
+     */
+    List<File> recover() throws IOException {
+        List<File> recovered = Lists.newArrayList();
+        for (Map.Entry<File, File> move : moves.entrySet()) {
+            if (move.getKey().exists()) {
+                Files.move(move.getKey().toPath(), move.getValue().toPath(), StandardCopyOption.ATOMIC_MOVE);
+                syncDirectory(move.getValue().getParentFile());
+                recovered.add(move.getValue());
+            }
+        }
+        if (!moves.isEmpty()) {
+            LOGGER.info("Recovered {} partition files of the flush of generation {}", recovered.size(), generation);
+            commit(generation, Collections.emptyMap());
+        }
+        return recovered;
+    }
+
+    private String relativize(File f) {
+        return basePath.toPath().relativize(f.toPath()).toString();
+    }
+
+    static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            LOGGER.debug("Failed to sync directory {}", dir, e);
+        }
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonDatabaseFactory;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonIndex;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.ToLongFunction;
+
+/**
+ * IndexStore maintains the secondary indexes declared in meta.json (see {@link JsonIndex}) at
+ * ${basePath}/_metadata/index/${table}/${column}.idx, and serves point lookups with them.
+ *
+ * An index file consists of a sorted {@link PartitionIndex} per partition file. Indexes are maintained
+ * on demand, ie. when a lookup meets a partition that is not indexed yet or modified since it's indexed,
+ * only that partition is reindexed. Reindexing runs in the background, so that the first queries of a large table
+ * don't wait for it, and lookups fall back to scans until it's done. Compressed partitions can't be read from
+ * arbitrary offsets, so they are not indexed, and lookups scan them with the filters instead. Partitions are read
+ * through the given opener, so rows being inserted but not committed yet are never indexed. The records at the
+ * offsets of lookups are read through the block cache if it's enabled.
+ **/
+class IndexStore {
+
+    static final String INDEX_DIR = "index";
+
+    static final String FILE_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x53444249;
+
+    private static final int VERSION = 2;
+
+    private final String basePath;
+
+    private final File indexDir;
+
+    private final EmbeddedJsonDatabaseMaster.PartitionOpener opener;
+
+    private final ToLongFunction<File> visibleLength;
+
+    /** Only set if the block cache is enabled. */
+    @Nullable
+    private final BlockCache blockCache;
+
+    /** Index file path to partition name to partition index. Guarded by this. */
+    private final Map<String, Map<String, PartitionIndex>> indexes = Maps.newHashMap();
+
+    /** Paths of the index files being rebuilt in the background. Guarded by this. */
+    private final Set<String> reindexing = Sets.newHashSet();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexStore.class);
+
+    /**
+     * Create a store of a database whose partitions are not written concurrently.
+     */
+    IndexStore(String basePath) {
+        this(basePath, BlockGzip::open, File::length, null);
+    }
+
+    /**
+     * @param basePath The base path of the database.
+     * @param opener Opener of the json lines of partitions, which reads up to the visible lengths.
+     * @param visibleLength The lengths of partitions that readers may see.
+     * @param blockCache The block cache to read records through, or null to read the files directly.
+     */
+    IndexStore(
+            String basePath,
+            EmbeddedJsonDatabaseMaster.PartitionOpener opener,
+            ToLongFunction<File> visibleLength,
+            @Nullable BlockCache blockCache) {
+        this.basePath = basePath;
+        this.indexDir = new File(new File(basePath, JsonDatabaseFactory.META_DIR), INDEX_DIR);
+        this.opener = opener;
+        this.visibleLength = visibleLength;
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * Read the rows that satisfy the filters through an index, if one of the filters is an equality
+     * on an indexed column.
+     * @param table The table.
+     * @param partitions The partition files whose indexes are kept up to date, eg. those assigned to a cluster node.
+     * @param scanned The partitions to read, which are all or some of the partitions.
+     * @param columns Optional projected column names.
+     * @param filters The conjunctive filters.
+     * @param executor The executor to index partitions on.
+     * @return The reader of the matched rows in scan order, or null if no index applies or the index is being
+     *         rebuilt.
+     * @throws IOException When IO error occurs.
+     */
+    @Nullable
+    JsonRowReader lookup(JsonTable table, File[] partitions, File[] scanned, @Nullable List<String> columns,
+                         List<JsonFilter> filters, Executor executor) throws IOException {
+        JsonFilter lookupFilter = null;
+        for (JsonFilter filter : filters) {
+            if (filter.getOperator() == JsonFilter.Operator.EQUALS && isIndexed(table, filter.getColumn())) {
+                lookupFilter = filter;
+                break;
+            }
+        }
+        if (lookupFilter == null) {
+            return null;
+        }
+        Map<String, PartitionIndex> partitionIndexes =
+                getPartitionIndexes(table, lookupFilter.getColumn(), partitions, executor);
+        if (partitionIndexes == null) {
+            return null;
+        }
+        List<ScanSplit> splits = Lists.newArrayList();
+        for (File partition : scanned) {
+            if (BlockGzip.isCompressed(partition)) {
+                splits.add(() -> new JsonReader(opener.open(partition), table, columns, filters));
+                continue;
+            }
+            long[] offsets;
+            try {
+                offsets = partitionIndexes.get(partition.getName()).lookup(lookupFilter.getValue());
+            } catch (IllegalArgumentException e) {
+                LOGGER.debug("Index on {}.{} doesn't apply to {}", table.getName(), lookupFilter.getColumn(),
+                        lookupFilter, e);
+                return null;
+            }
+            if (offsets.length > 0) {
+                long length = visibleLength.applyAsLong(partition);
+                splits.add(() -> {
+                    try {
+                        return new IndexedRowReader(partition, length, blockCache, offsets, table, columns, filters);
+                    } catch (FileNotFoundException e) {
+                        if (partition.exists()) {
+                            throw e;
+                        }
+                        // deleted since the partitions are listed, whose rows are gone
+                        return new SequentialScanReader(Collections.emptyList());
+                    }
+                });
+            }
+        }
+        return new SequentialScanReader(splits);
+    }
+
+    static boolean isIndexed(JsonTable table, String column) {
+        if (table.getIndexes() == null) {
+            return false;
+        }
+        for (JsonIndex index : table.getIndexes()) {
+            if (index.getColumn().equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the up-to-date indexes of the given partitions. If some of them are missing or stale, they are reindexed
+     * on the executor in the background.
+     * @return The indexes by partition names, or null if they are being reindexed.
+     */
+    @Nullable
+    Map<String, PartitionIndex> getPartitionIndexes(JsonTable table, String column, File[] partitions,
+                                                    Executor executor) throws IOException {
+        JsonDataType type = getColumnType(table, column);
+        File file = getIndexFile(table.getName(), column);
+        Map<String, PartitionIndex> result = Maps.newHashMapWithExpectedSize(partitions.length);
+        List<File> stale = Lists.newArrayList();
+        synchronized (this) {
+            collect(load(file, type), partitions, result, stale);
+            if (stale.isEmpty()) {
+                return result;
+            }
+            if (!reindexing.add(file.getPath())) {
+                return null;
+            }
+        }
+        CompletableFuture<Void> future = reindex(table, column, type, file, partitions, stale, executor);
+        if (!future.isDone()) {
+            LOGGER.info("Reindexing {} of {} partitions of {}.{} in the background",
+                    stale.size(), partitions.length, table.getName(), column);
+            return null;
+        }
+        // eg. reindexed by a direct executor
+        result.clear();
+        stale.clear();
+        synchronized (this) {
+            collect(load(file, type), partitions, result, stale);
+        }
+        return stale.isEmpty() ? result : null;
+    }
+
+    private void collect(Map<String, PartitionIndex> partitionIndexes, File[] partitions,
+                         Map<String, PartitionIndex> result, List<File> stale) {
+        for (File partition : partitions) {
+            if (BlockGzip.isCompressed(partition)) {
+                continue;
+            }
+            PartitionIndex index = partitionIndexes.get(partition.getName());
+            if (index != null && index.isFresh(visibleLength.applyAsLong(partition), partition.lastModified())) {
+                result.put(partition.getName(), index);
+            } else {
+                stale.add(partition);
+            }
+        }
+    }
+
+    private CompletableFuture<Void> reindex(JsonTable table, String column, JsonDataType type, File file,
+                                            File[] partitions, List<File> stale, Executor executor) {
+        List<CompletableFuture<PartitionIndex>> building = Lists.newArrayListWithCapacity(stale.size());
+        for (File partition : stale) {
+            long length = visibleLength.applyAsLong(partition);
+            // taken before reading, so that changes during the reading make the index stale
+            long lastModified = partition.lastModified();
+            building.add(CompletableFuture.supplyAsync(() -> {
+                try (InputStream in = opener.open(partition)) {
+                    return PartitionIndex.build(table, column, partition.getName(), in, length, lastModified);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        File tableDir = new File(basePath, table.getName());
+        return CompletableFuture.allOf(building.toArray(new CompletableFuture[0])).thenRun(() -> {
+            synchronized (this) {
+                try {
+                    // the file may be shared with the other nodes of a cluster, whose indexes are kept
+                    Map<String, PartitionIndex> stored = read(file, type);
+                    for (CompletableFuture<PartitionIndex> future : building) {
+                        PartitionIndex index = future.join();
+                        stored.put(index.getPartition(), index);
+                    }
+                    // partitions that no longer exist are dropped
+                    stored.keySet().removeIf(name -> !new File(tableDir, name).exists());
+                    store(file, type, stored);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            LOGGER.info("Reindexed {} of {} partitions of {}.{}",
+                    building.size(), partitions.length, table.getName(), column);
+        }).whenComplete((ignored, e) -> {
+            synchronized (this) {
+                reindexing.remove(file.getPath());
+            }
+            if (e != null) {
+                LOGGER.warn("Failed to reindex {}.{}", table.getName(), column, e);
+            }
+        });
+    }
+
+    /** Must be called with the lock held. */
+    private Map<String, PartitionIndex> load(File file, JsonDataType type) throws IOException {
+        Map<String, PartitionIndex> partitionIndexes = indexes.get(file.getPath());
+        if (partitionIndexes == null) {
+            partitionIndexes = read(file, type);
+            indexes.put(file.getPath(), partitionIndexes);
+        }
+        return partitionIndexes;
+    }
+
+    private static Map<String, PartitionIndex> read(File file, JsonDataType type) throws IOException {
+        Map<String, PartitionIndex> partitionIndexes = Maps.newHashMap();
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                    int size = in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        PartitionIndex index = PartitionIndex.read(in, type);
+                        partitionIndexes.put(index.getPartition(), index);
+                    }
+                } else {
+                    LOGGER.warn("Ignored index file {} of unknown format", file);
+                }
+            }
+        }
+        return partitionIndexes;
+    }
+
+    /** Must be called with the lock held. */
+    private void store(File file, JsonDataType type, Map<String, PartitionIndex> partitionIndexes)
+            throws IOException {
+        File dir = file.getParentFile();
+        Preconditions.checkState(dir.mkdirs() || dir.isDirectory(), "Failed to create directory %s", dir);
+        // unique among the writers, eg. the nodes of a cluster
+        File tmp = Files.createTempFile(dir.toPath(), "." + file.getName() + ".", ".tmp").toFile();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(partitionIndexes.size());
+                for (PartitionIndex index : partitionIndexes.values()) {
+                    index.write(out, type);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+        indexes.put(file.getPath(), partitionIndexes);
+    }
+
+    private static JsonDataType getColumnType(JsonTable table, String column) {
+        for (JsonColumn jsonColumn : table.getColumns()) {
+            if (jsonColumn.getName().equals(column)) {
+                return jsonColumn.getType();
+            }
+        }
+        throw new IllegalArgumentException(
+                String.format("Indexed column %s doesn't exist in table %s", column, table.getName()));
+    }
+
+    File getIndexFile(String tableName, String column) {
+        return new File(new File(indexDir, tableName), column + FILE_SUFFIX);
+    }
+
+    /**
+     * Reads the records at the given offsets of a partition file, one line per offset, through the block cache
+     * if it's given.
+     */
+    private static class IndexedRowReader implements JsonRowReader {
+
+        private static final int BUFFER_SIZE = 4096;
+
+        private final File partition;
+
+        /** The visible length of the partition, beyond which bytes are never read. */
+        private final long length;
+
+        @Nullable
+        private final BlockCache blockCache;
+
+        /** Only opened if there's no block cache. */
+        @Nullable
+        private final RandomAccessFile file;
+
+        private final long[] offsets;
+
+        private final JsonTable table;
+
+        @Nullable
+        private final List<String> columns;
+
+        private final List<JsonFilter> filters;
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        private int next = 0;
+
+        IndexedRowReader(File partition, long length, @Nullable BlockCache blockCache, long[] offsets,
+                         JsonTable table, @Nullable List<String> columns, List<JsonFilter> filters)
+                throws IOException {
+            this.partition = partition;
+            this.length = length;
+            this.blockCache = blockCache;
+            this.file = blockCache == null ? new RandomAccessFile(partition, "r") : null;
+            this.offsets = offsets;
+            this.table = table;
+            this.columns = columns;
+            this.filters = filters;
+        }
+
+        @Override
+        public boolean readRow(Object[] row) throws IOException {
+            while (next < offsets.length) {
+                readLine(offsets[next++]);
+                // the remaining filters are tested on the record
+                try (JsonReader reader = new JsonReader(
+                        new ByteArrayInputStream(line.toByteArray()), table, columns, filters)) {
+                    if (reader.readRow(row)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void readLine(long offset) throws IOException {
+            line.reset();
+            InputStream in = null;
+            if (blockCache != null) {
+                in = blockCache.open(partition, offset, length);
+            } else {
+                file.seek(offset);
+            }
+            try {
+                long remaining = length - offset;
+                while (remaining > 0) {
+                    int len = (int) Math.min(buffer.length, remaining);
+                    int n = in != null ? in.read(buffer, 0, len) : file.read(buffer, 0, len);
+                    if (n <= 0) {
+                        return;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        if (buffer[i] == '\n') {
+                            line.write(buffer, 0, i);
+                            return;
+                        }
+                    }
+                    line.write(buffer, 0, n);
+                    remaining -= n;
+                }
+            } finally {
+                if (in != null) {
+                    in.close();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MemTable holds the rows inserted since the last rotation, sorted by their insertion sequence numbers,
+ * so that merged scans return them in the order of insertion after the rows in partition files.
+ * Rows are decoded typed values in the order of the columns of their tables, and are never modified.
+ **/
+class MemTable {
+
+    /** Table name to sequence number to row. */
+    private final Map<String, ConcurrentSkipListMap<Long, Object[]>> tables = new ConcurrentHashMap<>();
+
+    /** Size of the json lines of the rows, as the measure of memory usage. */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /** Generations of the write-ahead log whose records are in this memtable. */
+    private final List<Long> walGenerations;
+
+    MemTable(List<Long> walGenerations) {
+        this.walGenerations = Collections.unmodifiableList(Lists.newArrayList(walGenerations));
+    }
+
+    void add(String tableName, long sequence, Object[] row) {
+        tables.computeIfAbsent(tableName, k -> new ConcurrentSkipListMap<>()).put(sequence, row);
+    }
+
+    void addBytes(long size) {
+        bytes.addAndGet(size);
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return A copy of the rows of a table in the order of insertion.
+     */
+    List<Object[]> getRows(String tableName) {
+        ConcurrentSkipListMap<Long, Object[]> rows = tables.get(tableName);
+        return rows == null ? Collections.emptyList() : Lists.newArrayList(rows.values());
+    }
+
+    Set<String> getTableNames() {
+        return tables.keySet();
+    }
+
+    boolean isEmpty() {
+        return tables.isEmpty();
+    }
+
+    List<Long> getWalGenerations() {
+        return walGenerations;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * MemTableReader reads the rows of a table in memtables, with the projection and the filters of a scan.
+ **/
+class MemTableReader implements JsonRowReader {
+
+    private final List<Object[]> rows;
+
+    /** Position in the full row of each projected column. */
+    private final int[] projection;
+
+    @Nullable
+    private final List<JsonFilter> filters;
+
+    /** Position in the full row of the column of each filter. */
+    private final int[] filterColumns;
+
+    private int next = 0;
+
+    MemTableReader(List<Object[]> rows, JsonTable table, @Nullable List<String> columns,
+                   @Nullable List<JsonFilter> filters) {
+        this.rows = rows;
+        List<JsonColumn> tableColumns = table.getColumns();
+        if (columns == null) {
+            this.projection = new int[tableColumns.size()];
+            for (int i = 0; i < projection.length; i++) {
+                projection[i] = i;
+            }
+        } else {
+            this.projection = new int[columns.size()];
+            for (int i = 0; i < projection.length; i++) {
+                projection[i] = indexOf(table, columns.get(i));
+            }
+        }
+        this.filters = filters;
+        this.filterColumns = new int[filters == null ? 0 : filters.size()];
+        for (int i = 0; i < filterColumns.length; i++) {
+            filterColumns[i] = indexOf(table, filters.get(i).getColumn());
+        }
+    }
+
+    private static int indexOf(JsonTable table, String column) {
+        List<JsonColumn> columns = table.getColumns();
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).getName().equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(
+                String.format("Column %s doesn't exist in table %s", column, table.getName()));
+    }
+
+    @Override
+    public boolean readRow(Object[] row) {
+        Preconditions.checkArgument(row.length >= projection.length,
+                "Row buffer of size %s is smaller than the %s projected columns", row.length, projection.length);
+        while (next < rows.size()) {
+            Object[] source = rows.get(next++);
+            if (matches(source)) {
+                for (int i = 0; i < projection.length; i++) {
+                    row[i] = source[projection[i]];
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(Object[] source) {
+        for (int i = 0; i < filterColumns.length; i++) {
+            if (!filters.get(i).test(source[filterColumns[i]])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        next = rows.size();
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.common.JsonDatabaseFactory;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * MemTableWriter is the LSM-style ingest layer of a database. Inserted rows are logged in the
+ * {@link WriteAheadLog} and then added to the active {@link MemTable}, where they are visible to scans
+ * immediately. Once the active memtable reaches the flush size, it's rotated (along with the log) into an
+ * immutable memtable, which is flushed into a new partition file per table in the background. After that,
+ * the log generations that the memtable covers are deleted. The {@link FlushManifest} records the flushed
+ * generations and makes the flush of all the tables of a memtable atomic, so no row is flushed twice.
+ *
+ * On startup, the remaining logs that are not flushed are replayed into the active memtable, so inserts that
+ * are acknowledged but not flushed before a crash are recovered.
+ *
+ * A read-write lock makes rotations wait for the inserts in flight, so that no logged row is left out of the
+ * memtable that covers its log generation, and makes flushed files replace their memtable atomically for
+ * scans, see {@link #snapshot(String, FileLister)}.
+ **/
+class MemTableWriter {
+
+    private final File basePath;
+
+    private final Function<String, JsonTable> tables;
+
+    private final long flushSize;
+
+    /** Only set if hot reloading is enabled, in which case flushed partitions are added to it. */
+    @Nullable
+    private final PartitionDiscovery discovery;
+
+    private final WriteAheadLog wal;
+
+    private final FlushManifest manifest;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Guarded by lock. */
+    private MemTable active;
+
+    /** Rotated memtables that are not flushed yet, from the oldest. Guarded by lock. */
+    private final List<MemTable> immutables = Lists.newArrayList();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private final ExecutorService flushExecutor;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemTableWriter.class);
+
+    MemTableWriter(
+            String basePath,
+            Function<String, JsonTable> tables,
+            long flushSize,
+            @Nullable PartitionDiscovery discovery) throws IOException {
+        this.basePath = new File(basePath);
+        this.tables = tables;
+        this.flushSize = flushSize;
+        this.discovery = discovery;
+        File walDir = new File(new File(basePath, JsonDatabaseFactory.META_DIR), WriteAheadLog.WAL_DIR);
+        Preconditions.checkState(walDir.mkdirs() || walDir.isDirectory(), "Failed to create directory %s", walDir);
+        this.manifest = new FlushManifest(this.basePath, walDir);
+        for (File recovered : manifest.recover()) {
+            if (discovery != null) {
+                discovery.refresh(recovered.getParentFile());
+            }
+        }
+        // the logs of flushed memtables may be left by a crash before they are deleted
+        List<Long> generations = Lists.newArrayList();
+        for (long existing : WriteAheadLog.listGenerations(walDir)) {
+            if (existing <= manifest.getGeneration()) {
+                Files.deleteIfExists(WriteAheadLog.getFile(walDir, existing).toPath());
+            } else {
+                generations.add(existing);
+            }
+        }
+        long generation = generations.isEmpty()
+                ? manifest.getGeneration() + 1
+                : generations.get(generations.size() - 1) + 1;
+        List<Long> covered = Lists.newArrayList(generations);
+        covered.add(generation);
+        this.active = new MemTable(covered);
+        for (long replayed : generations) {
+            WriteAheadLog.replay(
+                    WriteAheadLog.getFile(walDir, replayed),
+                    (tableName, lines) -> addRows(active, tables.apply(tableName), lines));
+        }
+        if (!generations.isEmpty()) {
+            LOGGER.info(
+                    "Replayed {} write-ahead logs into {} bytes of memtable", generations.size(), active.getBytes());
+        }
+        this.wal = new WriteAheadLog(walDir, generation);
+        this.flushExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("embedded-flush-thread-%d").build());
+        if (active.getBytes() >= flushSize) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Insert json lines of a table, returning after they are durable in the log and visible to scans.
+     */
+    void insert(JsonTable table, byte[] lines) throws IOException {
+        boolean full;
+        lock.readLock().lock();
+        try {
+            wal.append(table.getName(), lines).get();
+            addRows(active, table, lines);
+            full = active.getBytes() >= flushSize;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while inserting into table " + table.getName());
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to log the insert into table " + table.getName(), e.getCause());
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (full) {
+            scheduleFlush();
+        }
+    }
+
+    private void addRows(MemTable memTable, JsonTable table, byte[] lines) throws IOException {
+        try (JsonReader reader = new JsonReader(new ByteArrayInputStream(lines), table, null)) {
+            Object[] row = new Object[table.getColumns().size()];
+            while (reader.readRow(row)) {
+                memTable.add(table.getName(), sequence.incrementAndGet(), row);
+                row = new Object[row.length];
+            }
+        }
+        memTable.addBytes(lines.length);
+    }
+
+    /**
+     * Take a consistent view of a table, ie. every row is either in the listed partition files or
+     * in the memtable rows, but not both.
+     */
+    Snapshot snapshot(String tableName, FileLister lister) {
+        lock.readLock().lock();
+        try {
+            File[] files = lister.list();
+            List<Object[]> rows = Lists.newArrayList();
+            for (MemTable memTable : immutables) {
+                rows.addAll(memTable.getRows(tableName));
+            }
+            rows.addAll(active.getRows(tableName));
+            return new Snapshot(files, rows);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the sequence number of the last row inserted, which only grows.
+     */
+    long getSequence() {
+        return sequence.get();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                flushExecutor.execute(() -> {
+                    flushScheduled.set(false);
+                    try {
+                        flush();
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.error("Failed to flush memtable, will retry on the next flush", e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // closed, the rows are replayed on the next startup
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Wait for the flush in progress, and close the log. The unflushed rows are replayed on the next startup.
+     */
+    void close() throws IOException {
+        flushExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        wal.close();
+    }
+
+    /**
+     * Flush the rotated memtables and the active one into partition files.
+     * @throws IOException When IO error occurs, in which case the unflushed memtables are kept.
+     */
+    synchronized void flush() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!active.isEmpty()) {
+                long generation = wal.getGeneration() + 1;
+                wal.rotate(generation);
+                immutables.add(active);
+                active = new MemTable(Collections.singletonList(generation));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        while (true) {
+            MemTable memTable;
+            lock.readLock().lock();
+            try {
+                if (immutables.isEmpty()) {
+                    return;
+                }
+                memTable = immutables.get(0);
+            } finally {
+                lock.readLock().unlock();
+            }
+            flush(memTable);
+        }
+    }
+
+    private void flush(MemTable memTable) throws IOException {
+        long generation = Collections.max(memTable.getWalGenerations());
+        long previous = manifest.getGeneration();
+        Map<File, File> pending = Maps.newLinkedHashMap();
+        // whether the manifest refers to the temporary files, in which case they must be kept for recovery
+        boolean committed = false;
+        try {
+            for (String tableName : memTable.getTableNames()) {
+                JsonTable table = tables.apply(tableName);
+                File tableDir = new File(basePath, tableName);
+                if (!tableDir.mkdirs() && !tableDir.isDirectory()) {
+                    throw new IOException("Failed to create directory " + tableDir);
+                }
+                File target = PartitionWriter.nextPartitionFile(tableDir);
+                File tmp = new File(tableDir, "." + target.getName() + ".tmp");
+                try (FileOutputStream out = new FileOutputStream(tmp)) {
+                    out.write(EmbeddedJsonDatabaseMaster.encodeRows(table, memTable.getRows(tableName)));
+                    out.getChannel().force(false);
+                }
+                pending.put(tmp, target);
+            }
+            lock.writeLock().lock();
+            try {
+                manifest.commit(generation, pending);
+                committed = true;
+                List<Map.Entry<File, File>> moved = Lists.newArrayList();
+                try {
+                    for (Map.Entry<File, File> entry : pending.entrySet()) {
+                        Files.move(entry.getKey().toPath(), entry.getValue().toPath(), StandardCopyOption.ATOMIC_MOVE);
+                        moved.add(entry);
+                    }
+                } catch (IOException e) {
+                    // move the flushed files back, so that scans never see a part of the memtable twice
+                    for (Map.Entry<File, File> entry : Lists.reverse(moved)) {
+                        Files.move(entry.getValue().toPath(), entry.getKey().toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    manifest.commit(previous, Collections.emptyMap());
+                    committed = false;
+                    throw e;
+                }
+                if (discovery != null) {
+                    for (File target : pending.values()) {
+                        discovery.refresh(target.getParentFile());
+                    }
+                }
+                immutables.remove(memTable);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            if (committed) {
+                LOGGER.error("Failed to roll back the flush of generation {}, it's recovered on restart", generation);
+            } else {
+                for (File tmp : pending.keySet()) {
+                    Files.deleteIfExists(tmp.toPath());
+                }
+            }
+            throw e;
+        }
+        for (File target : pending.values()) {
+            FlushManifest.syncDirectory(target.getParentFile());
+        }
+        // the renames are durable, so they must not be rolled forward again
+        manifest.commit(generation, Collections.emptyMap());
+        for (long flushed : memTable.getWalGenerations()) {
+            Files.deleteIfExists(wal.getFile(flushed).toPath());
+        }
+        LOGGER.info("Flushed memtable of {} bytes into {}", memTable.getBytes(), pending.values());
+    }
+
+    interface FileLister {
+
+        File[] list();
+    }
+
+    /**
+     * The partition files and the memtable rows of a table at some point.
+     */
+    static class Snapshot {
+
+        private final File[] files;
+
+        private final List<Object[]> rows;
+
+        Snapshot(File[] files, List<Object[]> rows) {
+            this.files = files;
+            this.rows = rows;
+        }
+
+        File[] getFiles() {
+            return files;
+        }
+
+        List<Object[]> getRows() {
+            return rows;
+        }
+    }
+}
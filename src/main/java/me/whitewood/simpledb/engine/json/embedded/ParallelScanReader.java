@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * ParallelScanReader reads the splits of a scan concurrently on a worker pool and merges their rows,
+ * either in split order or in the order rows are decoded.
+ *
+ * Workers decode rows into fixed-size batches. Each split may buffer a bounded number of batches, and a worker
+ * whose split is full returns its thread to the pool instead of blocking on it. The split is rescheduled once
+ * the consumer takes one of its batches. That way a slow consumer throttles the workers, and scans that are
+ * paused by their consumers (eg. the outer side of a nested loop join) never starve other scans of the pool.
+ *
+ * At most `parallelism` splits of a scan are open at the same time, and the splits are started in order, so the
+ * earliest unfinished split always makes progress in ordered mode. It's not thread safe for the consumer side.
+ **/
+class ParallelScanReader implements JsonRowReader {
+
+    static final int BATCH_SIZE = 1024;
+
+    static final int MAX_BUFFERED_BATCHES_PER_SPLIT = 4;
+
+    private final Executor executor;
+
+    private final int rowWidth;
+
+    private final boolean ordered;
+
+    private final SplitTask[] tasks;
+
+    private final Object lock = new Object();
+
+    /** Batches of all the splits in decode order, only used in unordered mode. */
+    private final ArrayDeque<Batch> unorderedBatches = new ArrayDeque<>();
+
+    /** Index of the next split to start. */
+    private int nextTask = 0;
+
+    /** Index of the split being consumed, only used in ordered mode. */
+    private int consumingTask = 0;
+
+    private int finishedTasks = 0;
+
+    @Nullable
+    private Throwable failure;
+
+    private volatile boolean closed = false;
+
+    @Nullable
+    private Batch currentBatch;
+
+    private int currentRow;
+
+    ParallelScanReader(Executor executor, List<ScanSplit> splits, int rowWidth, int parallelism, boolean ordered) {
+        Preconditions.checkArgument(parallelism > 0, "Parallelism must be positive: %s", parallelism);
+        this.executor = executor;
+        this.rowWidth = rowWidth;
+        this.ordered = ordered;
+        this.tasks = new SplitTask[splits.size()];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new SplitTask(splits.get(i));
+        }
+        synchronized (lock) {
+            while (nextTask < tasks.length && nextTask < parallelism) {
+                schedule(tasks[nextTask++]);
+            }
+        }
+    }
+
+    @Override
+    public boolean readRow(Object[] row) throws IOException {
+        Preconditions.checkState(!closed, "The reader is closed.");
+        while (currentBatch == null || currentRow >= currentBatch.rows) {
+            currentBatch = takeBatch();
+            currentRow = 0;
+            if (currentBatch == null) {
+                return false;
+            }
+        }
+        System.arraycopy(currentBatch.values, currentRow * rowWidth, row, 0, rowWidth);
+        currentRow++;
+        return true;
+    }
+
+    /**
+     * Take the next batch, waiting for the workers if needed.
+     * @return The batch, or null if all the splits are consumed.
+     */
+    @Nullable
+    private Batch takeBatch() throws IOException {
+        synchronized (lock) {
+            while (true) {
+                if (failure != null) {
+                    throw failure instanceof IOException
+                            ? (IOException) failure
+                            : new IOException("Failed to scan split", failure);
+                }
+                Batch batch = pollBatch();
+                if (batch != null) {
+                    SplitTask task = batch.task;
+                    task.bufferedBatches--;
+                    if (!task.running && !task.finished) {
+                        // the split was paused for its buffer was full
+                        schedule(task);
+                    }
+                    return batch;
+                }
+                if (ordered ? consumingTask >= tasks.length : finishedTasks == tasks.length) {
+                    return null;
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for scan results");
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private Batch pollBatch() {
+        if (!ordered) {
+            return unorderedBatches.poll();
+        }
+        while (consumingTask < tasks.length) {
+            SplitTask task = tasks[consumingTask];
+            Batch batch = task.batches.poll();
+            if (batch != null || !task.finished) {
+                return batch;
+            }
+            consumingTask++;
+        }
+        return null;
+    }
+
+    private void schedule(SplitTask task) {
+        task.running = true;
+        executor.execute(task);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        synchronized (lock) {
+            for (SplitTask task : tasks) {
+                task.batches.clear();
+                if (!task.running) {
+                    task.closeReader();
+                }
+            }
+            unorderedBatches.clear();
+            currentBatch = null;
+        }
+    }
+
+    private static class Batch {
+
+        private final SplitTask task;
+
+        /** Values of the rows laid out one after another. */
+        private final Object[] values;
+
+        private int rows = 0;
+
+        Batch(SplitTask task, int rowWidth) {
+            this.task = task;
+            this.values = new Object[BATCH_SIZE * rowWidth];
+        }
+    }
+
+    private class SplitTask implements Runnable {
+
+        private final ScanSplit split;
+
+        /** Batches of the split, only used in ordered mode. */
+        private final ArrayDeque<Batch> batches = new ArrayDeque<>();
+
+        @Nullable
+        private JsonRowReader reader;
+
+        /** Guarded by the lock. */
+        private int bufferedBatches = 0;
+
+        /** Guarded by the lock. */
+        private boolean running = false;
+
+        /** Guarded by the lock. */
+        private boolean finished = false;
+
+        SplitTask(ScanSplit split) {
+            this.split = split;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (reader == null) {
+                    reader = split.open();
+                }
+                Object[] row = new Object[rowWidth];
+                while (true) {
+                    synchronized (lock) {
+                        if (closed) {
+                            running = false;
+                            closeReader();
+                            return;
+                        }
+                        if (bufferedBatches >= MAX_BUFFERED_BATCHES_PER_SPLIT) {
+                            running = false;
+                            return;
+                        }
+                    }
+                    Batch batch = new Batch(this, rowWidth);
+                    boolean eof = false;
+                    while (batch.rows < BATCH_SIZE) {
+                        if (!reader.readRow(row)) {
+                            eof = true;
+                            break;
+                        }
+                        System.arraycopy(row, 0, batch.values, batch.rows * rowWidth, rowWidth);
+                        batch.rows++;
+                    }
+                    synchronized (lock) {
+                        if (batch.rows > 0) {
+                            bufferedBatches++;
+                            (ordered ? batches : unorderedBatches).add(batch);
+                        }
+                        if (eof) {
+                            finish();
+                            return;
+                        }
+                        lock.notifyAll();
+                    }
+                }
+            } catch (Throwable t) {
+                synchronized (lock) {
+                    if (failure == null) {
+                        failure = t;
+                    }
+                    finish();
+                }
+            }
+        }
+
+        /** Must be called with the lock held. */
+        private void finish() {
+            running = false;
+            finished = true;
+            finishedTasks++;
+            closeReader();
+            if (nextTask < tasks.length && !closed) {
+                schedule(tasks[nextTask++]);
+            }
+            lock.notifyAll();
+        }
+
+        private void closeReader() {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                    // the split is fully read or abandoned
+                } finally {
+                    reader = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.common.JsonDatabaseFactory;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+
+/**
+ * PartitionCompactor merges runs of small adjacent partitions of a table into large ones, so that scans open
+ * and list fewer files. If the table declares a clustering column in meta.json, the rows of a merged partition
+ * are sorted by that column, which tightens its zone maps.
+ *
+ * A merged partition is named after the last of its inputs with the next compaction generation, so it takes
+ * the place of the inputs in the partition order. The last partition of a table is never merged, since it may
+ * be appended to.
+ *
+ * Compactions are swapped in atomically for scans: partitions are listed under a read lock, while the merged
+ * partition is renamed into place and its inputs are hidden from listings under the write lock. Scans that
+ * listed the inputs before the swap may still open them, so the hidden inputs are only deleted after a
+ * retention period. A journal at ${basePath}/_metadata/compaction/${table}/${merged}.json records each swap
+ * until its inputs are deleted, so a swap interrupted by a crash is completed on startup.
+ **/
+class PartitionCompactor {
+
+    static final String COMPACTION_DIR = "compaction";
+
+    private final File basePath;
+
+    private final File compactionDir;
+
+    private final long targetSize;
+
+    private final long retentionMillis;
+
+    /** Only set if hot reloading is enabled, in which case partitions are listed from memory. */
+    @Nullable
+    private final PartitionDiscovery discovery;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Journals of the swapped compactions whose inputs are not deleted yet, guarded by lock. */
+    private final List<CompactionJournal> journals = Lists.newArrayList();
+
+    /** Paths of the inputs of swapped compactions, which are hidden from listings. Guarded by lock. */
+    private final Set<String> hidden = Sets.newHashSet();
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionCompactor.class);
+
+    /**
+     * @param basePath The base path of the database.
+     * @param targetSize Partitions smaller than this are merged, into partitions no larger than this.
+     * @param retentionMillis How long the inputs of a compaction are kept for the scans that listed them.
+     * @param discovery Optional partition lists kept in memory, which are refreshed on swaps.
+     */
+    PartitionCompactor(
+            String basePath, long targetSize, long retentionMillis, @Nullable PartitionDiscovery discovery) {
+        this.basePath = new File(basePath);
+        this.compactionDir = new File(new File(basePath, JsonDatabaseFactory.META_DIR), COMPACTION_DIR);
+        this.targetSize = targetSize;
+        this.retentionMillis = retentionMillis;
+        this.discovery = discovery;
+        recover();
+    }
+
+    /**
+     * List the partition files of a table that are visible to scans, in partition order.
+     * @return The files, or null if the directory can't be listed.
+     */
+    @Nullable
+    File[] listPartitions(File tableDir, FileFilter filter) {
+        lock.readLock().lock();
+        try {
+            if (discovery != null) {
+                File[] files = discovery.listPartitions(tableDir);
+                return files == null ? null : Arrays.stream(files)
+                        .filter(file -> filter.accept(file) && !hidden.contains(file.getPath()))
+                        .toArray(File[]::new);
+            }
+            File[] files = tableDir.listFiles(file -> filter.accept(file) && !hidden.contains(file.getPath()));
+            if (files != null) {
+                Arrays.sort(files, PartitionWriter.PARTITION_ORDER);
+            }
+            return files;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Merge the small partitions of a table, and delete the inputs of earlier compactions whose retention expired.
+     * @param table The table.
+     * @param partitions The partition files of the table in partition order.
+     * @param opener Opener of the partitions.
+     * @return The number of merged partitions created.
+     * @throws IOException When IO error occurs, in which case the compactions that are not swapped are discarded.
+     */
+    int compact(JsonTable table, File[] partitions, EmbeddedJsonDatabaseMaster.PartitionOpener opener)
+            throws IOException {
+        purge();
+        int created = 0;
+        for (List<File> group : plan(partitions)) {
+            merge(table, group, opener);
+            created++;
+        }
+        return created;
+    }
+
+    /**
+     * Divide the partitions except the last one into runs of adjacent small json partitions, each no larger than
+     * the target size in total.
+     */
+    List<List<File>> plan(File[] partitions) {
+        List<List<File>> groups = Lists.newArrayList();
+        List<File> group = Lists.newArrayList();
+        long groupSize = 0;
+        for (int i = 0; i < partitions.length - 1; i++) {
+            File file = partitions[i];
+            boolean small = file.length() < targetSize
+                    && !BlockGzip.isCompressed(file)
+                    && PartitionWriter.PARTITION_NAME.matcher(file.getName()).matches();
+            if (!small || groupSize + file.length() > targetSize) {
+                addGroup(groups, group);
+                group = Lists.newArrayList();
+                groupSize = 0;
+            }
+            if (small) {
+                group.add(file);
+                groupSize += file.length();
+            }
+        }
+        addGroup(groups, group);
+        return groups;
+    }
+
+    private static void addGroup(List<List<File>> groups, List<File> group) {
+        if (group.size() > 1) {
+            groups.add(group);
+        }
+    }
+
+    private void merge(JsonTable table, List<File> inputs, EmbeddedJsonDatabaseMaster.PartitionOpener opener)
+            throws IOException {
+        File last = inputs.get(inputs.size() - 1);
+        Matcher matcher = PartitionWriter.PARTITION_NAME.matcher(last.getName());
+        Preconditions.checkState(matcher.matches(), "Unexpected partition file %s", last);
+        long generation = 0;
+        for (File input : inputs) {
+            Matcher m = PartitionWriter.PARTITION_NAME.matcher(input.getName());
+            Preconditions.checkState(m.matches(), "Unexpected partition file %s", input);
+            generation = Math.max(generation, PartitionWriter.getCompactionGeneration(m));
+        }
+        File tableDir = last.getParentFile();
+        File output = new File(tableDir,
+                "part-" + matcher.group(1) + "-" + matcher.group(2) + "-c" + (generation + 1) + ".json");
+        Preconditions.checkState(!output.exists(), "Partition file %s already exists", output);
+        File tmp = new File(tableDir, "." + output.getName() + ".tmp");
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                OutputStream out = new BufferedOutputStream(fos);
+                if (table.getClusteringColumn() == null) {
+                    concat(inputs, opener, out);
+                } else {
+                    sort(table, inputs, opener, out);
+                }
+                out.flush();
+                fos.getChannel().force(false);
+            }
+            CompactionJournal journal = new CompactionJournal();
+            journal.setTable(table.getName());
+            journal.setOutput(output.getName());
+            List<String> inputNames = Lists.newArrayList();
+            for (File input : inputs) {
+                inputNames.add(input.getName());
+            }
+            journal.setInputs(inputNames);
+            writeJournal(journal);
+            lock.writeLock().lock();
+            try {
+                Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                hide(journal, System.currentTimeMillis() + retentionMillis);
+                if (discovery != null) {
+                    discovery.refresh(tableDir);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+        syncDirectory(tableDir);
+        LOGGER.info("Compacted {} partitions of table {} into {}", inputs.size(), table.getName(), output.getName());
+    }
+
+    /**
+     * Concatenate the partitions as they are, with a line separator after partitions that don't end with one.
+     */
+    private static void concat(List<File> inputs, EmbeddedJsonDatabaseMaster.PartitionOpener opener, OutputStream out)
+            throws IOException {
+        byte[] buffer = new byte[64 << 10];
+        for (File input : inputs) {
+            int lastByte = '\n';
+            try (InputStream in = opener.open(input)) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                    lastByte = buffer[n - 1];
+                }
+            }
+            if (lastByte != '\n') {
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Sort the lines of the partitions by the clustering column with nulls first. The sort is stable, so rows
+     * with equal keys keep the order of insertion. Lines are kept as they are, including fields not in the schema.
+     */
+    private static void sort(
+            JsonTable table, List<File> inputs, EmbeddedJsonDatabaseMaster.PartitionOpener opener, OutputStream out)
+            throws IOException {
+        List<String> columns = Collections.singletonList(table.getClusteringColumn());
+        List<Object[]> keyedLines = Lists.newArrayList();
+        for (File input : inputs) {
+            try (BufferedReader reader =
+                         new BufferedReader(new InputStreamReader(opener.open(input), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                    Object[] key = new Object[1];
+                    try (JsonReader jsonReader = new JsonReader(new ByteArrayInputStream(bytes), table, columns)) {
+                        jsonReader.readRow(key);
+                    }
+                    keyedLines.add(new Object[] {key[0], bytes});
+                }
+            }
+        }
+        keyedLines.sort(Comparator.comparing(
+                (Object[] keyedLine) -> keyedLine[0], Comparator.nullsFirst(JsonFilter::compare)));
+        for (Object[] keyedLine : keyedLines) {
+            out.write((byte[]) keyedLine[1]);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Delete the hidden inputs whose retention expired.
+     */
+    void purge() throws IOException {
+        purge(System.currentTimeMillis());
+    }
+
+    private void purge(long now) throws IOException {
+        List<CompactionJournal> expired = Lists.newArrayList();
+        lock.writeLock().lock();
+        try {
+            Iterator<CompactionJournal> ite = journals.iterator();
+            while (ite.hasNext()) {
+                CompactionJournal journal = ite.next();
+                if (journal.getExpireTime() <= now) {
+                    ite.remove();
+                    expired.add(journal);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (CompactionJournal journal : expired) {
+            File tableDir = new File(basePath, journal.getTable());
+            for (String input : journal.getInputs()) {
+                Files.deleteIfExists(new File(tableDir, input).toPath());
+            }
+            syncDirectory(tableDir);
+            Files.deleteIfExists(getJournalFile(journal).toPath());
+            lock.writeLock().lock();
+            try {
+                if (discovery != null) {
+                    discovery.refresh(tableDir);
+                }
+                for (String input : journal.getInputs()) {
+                    hidden.remove(new File(tableDir, input).getPath());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Complete the compactions that are journaled before a restart. No scan is running yet, so their inputs are
+     * deleted right away. Compactions that are not swapped are discarded.
+     */
+    private void recover() {
+        File[] tableDirs = compactionDir.listFiles(File::isDirectory);
+        if (tableDirs == null) {
+            return;
+        }
+        try {
+            for (File tableDir : tableDirs) {
+                File[] files = tableDir.listFiles((dir, name) -> name.endsWith(".json") && !name.startsWith("."));
+                for (File file : files == null ? new File[0] : files) {
+                    CompactionJournal journal = OBJECT_MAPPER.readValue(file, CompactionJournal.class);
+                    File output = new File(new File(basePath, journal.getTable()), journal.getOutput());
+                    if (output.exists()) {
+                        hide(journal, 0);
+                    } else {
+                        Files.delete(file.toPath());
+                    }
+                }
+            }
+            purge(0);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to recover compactions of database " + basePath, e);
+        }
+    }
+
+    private void hide(CompactionJournal journal, long expireTime) {
+        journal.setExpireTime(expireTime);
+        journals.add(journal);
+        File tableDir = new File(basePath, journal.getTable());
+        for (String input : journal.getInputs()) {
+            hidden.add(new File(tableDir, input).getPath());
+        }
+    }
+
+    private void writeJournal(CompactionJournal journal) throws IOException {
+        File file = getJournalFile(journal);
+        File dir = file.getParentFile();
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Failed to create directory " + dir);
+        }
+        File tmp = new File(dir, "." + file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(OBJECT_MAPPER.writeValueAsBytes(journal));
+            out.getChannel().force(false);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(dir);
+    }
+
+    private File getJournalFile(CompactionJournal journal) {
+        return new File(new File(compactionDir, journal.getTable()), journal.getOutput());
+    }
+
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            LOGGER.debug("Failed to sync directory {}", dir, e);
+        }
+    }
+
+    /**
+     * A compaction that is swapped in, whose inputs are not deleted yet.
+     */
+    public static class CompactionJournal {
+
+        private String table;
+
+        private String output;
+
+        private List<String> inputs;
+
+        /** In memory only, the time after which the inputs can be deleted. */
+        private long expireTime;
+
+        public CompactionJournal() {}
+
+        public String getTable() {
+            return table;
+        }
+
+        public void setTable(String table) {
+            this.table = table;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+
+        public void setOutput(String output) {
+            this.output = output;
+        }
+
+        public List<String> getInputs() {
+            return inputs;
+        }
+
+        public void setInputs(List<String> inputs) {
+            this.inputs = inputs;
+        }
+
+        long getExpireTime() {
+            return expireTime;
+        }
+
+        void setExpireTime(long expireTime) {
+            this.expireTime = expireTime;
+        }
+
+        @Override
+        public String toString() {
+            return "CompactionJournal{" +
+                    "table='" + table + '\'' +
+                    ", output='" + output + '\'' +
+                    ", inputs=" + inputs +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.whitewood.simpledb.engine.json.common.JsonDatabase;
+import me.whitewood.simpledb.engine.json.common.JsonDatabaseFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * PartitionDiscovery keeps the partition lists of tables in memory, so that scans don't list table directories,
+ * and reloads meta.json when it changes, both by watching the directories with a {@link WatchService}.
+ *
+ * The partitions of a table are listed on the first request, at which point its directory starts being watched.
+ * Files that appear or disappear afterwards are applied to the list incrementally by the watch thread, and an
+ * overflow of events falls back to listing the directory again. Partitions written by the engine itself are not
+ * left to the watch thread, whose events arrive asynchronously: writers call {@link #refresh(File)} before the
+ * new partitions are expected to be visible, eg. in the same critical section that swaps them in.
+ *
+ * The lists are immutable arrays replaced as a whole, so reading them takes no locks.
+ **/
+class PartitionDiscovery implements Closeable {
+
+    private static final String META_FILE = "meta.json";
+
+    private final String basePath;
+
+    private final Path metaDir;
+
+    private final FileFilter filter;
+
+    private final Consumer<JsonDatabase> metaListener;
+
+    private final WatchService watchService;
+
+    /** Watched table directories to their partition lists. */
+    private final ConcurrentMap<Path, TablePartitions> tables = new ConcurrentHashMap<>();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionDiscovery.class);
+
+    /**
+     * @param basePath The base path of the database.
+     * @param filter Filter of the partition files in table directories.
+     * @param metaListener Listener of the reloaded meta.json, called by the watch thread.
+     * @throws IOException When the metadata directory can't be watched.
+     */
+    PartitionDiscovery(String basePath, FileFilter filter, Consumer<JsonDatabase> metaListener) throws IOException {
+        this.basePath = basePath;
+        this.metaDir = new File(basePath, JsonDatabaseFactory.META_DIR).toPath().toAbsolutePath();
+        this.filter = filter;
+        this.metaListener = metaListener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        metaDir.register(
+                watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("embedded-discovery-thread-%d")
+                .build()
+                .newThread(this::runWatches);
+        thread.start();
+    }
+
+    /**
+     * Get the partition files of a table, in partition order. The array must not be modified.
+     * @param tableDir The directory of the table.
+     * @return The files, or null if the directory can't be listed.
+     */
+    @Nullable
+    File[] listPartitions(File tableDir) {
+        Path dir = tableDir.toPath().toAbsolutePath();
+        TablePartitions partitions = tables.get(dir);
+        if (partitions == null || !partitions.key.isValid()) {
+            partitions = watch(dir, tableDir);
+        }
+        return partitions != null ? partitions.files : listFiles(tableDir);
+    }
+
+    /**
+     * List the partition files of a table again, eg. after partitions are added or removed by the engine.
+     * Tables whose partitions are not requested yet are ignored, since they are listed on the first request.
+     */
+    void refresh(File tableDir) {
+        Path dir = tableDir.toPath().toAbsolutePath();
+        TablePartitions partitions = tables.get(dir);
+        if (partitions != null) {
+            relist(dir, partitions);
+        }
+    }
+
+    @Nullable
+    private synchronized TablePartitions watch(Path dir, File tableDir) {
+        TablePartitions partitions = tables.get(dir);
+        if (partitions != null && partitions.key.isValid()) {
+            return partitions;
+        }
+        // register before listing, so that no change after the listing is missed
+        WatchKey key;
+        try {
+            key = dir.register(
+                    watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | ClosedWatchServiceException e) {
+            LOGGER.warn("Failed to watch directory {}, falling back to listing it on each scan", dir, e);
+            return null;
+        }
+        File[] files = listFiles(tableDir);
+        if (files == null) {
+            key.cancel();
+            return null;
+        }
+        partitions = new TablePartitions(key, tableDir, files);
+        tables.put(dir, partitions);
+        return partitions;
+    }
+
+    private void relist(Path dir, TablePartitions partitions) {
+        synchronized (partitions) {
+            File[] files = listFiles(partitions.tableDir);
+            if (files == null) {
+                tables.remove(dir, partitions);
+                partitions.key.cancel();
+            } else {
+                partitions.files = files;
+            }
+        }
+    }
+
+    @Nullable
+    private File[] listFiles(File tableDir) {
+        File[] files = tableDir.listFiles(filter);
+        if (files != null) {
+            Arrays.sort(files, PartitionWriter.PARTITION_ORDER);
+        }
+        return files;
+    }
+
+    private void runWatches() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                LOGGER.info("Watch thread is stopped, partition lists are no longer updated.");
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            List<WatchEvent<?>> events = key.pollEvents();
+            try {
+                if (dir.equals(metaDir)) {
+                    onMetaEvents(events);
+                } else {
+                    TablePartitions partitions = tables.get(dir);
+                    if (partitions != null && partitions.key == key) {
+                        onTableEvents(dir, partitions, events);
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to apply the changes of directory {}", dir, e);
+            }
+            if (!key.reset()) {
+                // the directory is deleted, and is watched again once it's requested
+                tables.entrySet().removeIf(entry -> entry.getValue().key == key);
+            }
+        }
+    }
+
+    private void onMetaEvents(List<WatchEvent<?>> events) {
+        boolean changed = false;
+        for (WatchEvent<?> event : events) {
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || META_FILE.equals(String.valueOf(event.context()));
+        }
+        if (!changed) {
+            return;
+        }
+        JsonDatabase database;
+        try {
+            database = JsonDatabaseFactory.getJsonDatabase(basePath);
+        } catch (RuntimeException e) {
+            // eg. the file is being rewritten in place, which will be followed by another event
+            LOGGER.warn("Failed to reload meta file, keeping the previous tables", e);
+            return;
+        }
+        metaListener.accept(database);
+        LOGGER.info("Reloaded {} tables from meta file", database.getTables().size());
+    }
+
+    private void onTableEvents(Path dir, TablePartitions partitions, List<WatchEvent<?>> events) {
+        synchronized (partitions) {
+            Set<File> files = Sets.newHashSet(partitions.files);
+            boolean changed = false;
+            for (WatchEvent<?> event : events) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    relist(dir, partitions);
+                    return;
+                }
+                File file = new File(partitions.tableDir, event.context().toString());
+                if (!filter.accept(file)) {
+                    continue;
+                }
+                // events may be stale, eg. a file created and deleted since, so the current state is applied
+                changed |= file.exists() ? files.add(file) : files.remove(file);
+            }
+            if (changed) {
+                File[] sorted = files.toArray(new File[0]);
+                Arrays.sort(sorted, PartitionWriter.PARTITION_ORDER);
+                partitions.files = sorted;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private static class TablePartitions {
+
+        private final WatchKey key;
+
+        /** The directory as it's first requested, which the partition files are resolved against. */
+        private final File tableDir;
+
+        /** Partition files in partition order, replaced as a whole. */
+        private volatile File[] files;
+
+        private TablePartitions(WatchKey key, File tableDir, File[] files) {
+            this.key = key;
+            this.tableDir = tableDir;
+            this.files = files;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The sorted index of a column within one partition file, which maps each non-null value of the column to
+ * the byte offsets of the records in the file. Entries are sorted by key and then by offset, so matched rows
+ * are read in file order. The version (visible length/mtime) of the file that the index is built from is kept to detect
+ * stale indexes.
+ **/
+class PartitionIndex {
+
+    private final String partition;
+
+    private final long length;
+
+    private final long lastModified;
+
+    private final Object[] keys;
+
+    private final long[] offsets;
+
+    private PartitionIndex(String partition, long length, long lastModified, Object[] keys, long[] offsets) {
+        this.partition = partition;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.keys = keys;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Build the index of a column by decoding the column of all the records in a partition.
+     * @param table The table.
+     * @param column The indexed column.
+     * @param partition The name of the partition file.
+     * @param source The uncompressed json lines of the partition, from the start of the file.
+     * @param length The visible length of the partition file, which is read by the source.
+     * @param lastModified The modification time of the partition file before it's read.
+     */
+    static PartitionIndex build(JsonTable table, String column, String partition, InputStream source, long length,
+                                long lastModified) throws IOException {
+        List<Object[]> entries = Lists.newArrayList();
+        try (JsonReader reader = new JsonReader(source, table, Collections.singletonList(column))) {
+            Object[] row = new Object[1];
+            while (reader.readRow(row)) {
+                if (row[0] != null) {
+                    entries.add(new Object[]{row[0], reader.getRecordOffset()});
+                }
+            }
+        }
+        // the sort is stable, so entries of equal keys stay in file order
+        entries.sort(Comparator.comparing(entry -> entry[0], JsonFilter::compare));
+        Object[] keys = new Object[entries.size()];
+        long[] offsets = new long[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            keys[i] = entries.get(i)[0];
+            offsets[i] = (Long) entries.get(i)[1];
+        }
+        return new PartitionIndex(partition, length, lastModified, keys, offsets);
+    }
+
+    String getPartition() {
+        return partition;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * @param length The visible length of the partition file.
+     * @param lastModified The modification time of the partition file.
+     */
+    boolean isFresh(long length, long lastModified) {
+        return length == this.length && lastModified == this.lastModified;
+    }
+
+    /**
+     * Find the records whose key equals to the given value.
+     * @return The byte offsets of the records in ascending order.
+     * @throws IllegalArgumentException If the value is not comparable with the keys.
+     */
+    long[] lookup(Object key) {
+        int from = lowerBound(key);
+        int to = from;
+        while (to < keys.length && JsonFilter.compare(keys[to], key) == 0) {
+            to++;
+        }
+        return Arrays.copyOfRange(offsets, from, to);
+    }
+
+    private int lowerBound(Object key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (JsonFilter.compare(keys[mid], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    void write(DataOutput out, JsonDataType type) throws IOException {
+        out.writeUTF(partition);
+        out.writeLong(length);
+        out.writeLong(lastModified);
+        out.writeInt(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            writeKey(out, type, keys[i]);
+            out.writeLong(offsets[i]);
+        }
+    }
+
+    static PartitionIndex read(DataInput in, JsonDataType type) throws IOException {
+        String partition = in.readUTF();
+        long length = in.readLong();
+        long lastModified = in.readLong();
+        int size = in.readInt();
+        Object[] keys = new Object[size];
+        long[] offsets = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = readKey(in, type);
+            offsets[i] = in.readLong();
+        }
+        return new PartitionIndex(partition, length, lastModified, keys, offsets);
+    }
+
+    private static void writeKey(DataOutput out, JsonDataType type, Object key) throws IOException {
+        switch (type) {
+            case STRING:
+                // writeUTF is limited to 64KB, which keys may exceed
+                byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                break;
+            case NUMBER:
+                out.writeDouble((Double) key);
+                break;
+            case INTEGER:
+                out.writeInt((Integer) key);
+                break;
+            case BOOLEAN:
+                out.writeBoolean((Boolean) key);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported JSON type: " + type);
+        }
+    }
+
+    private static Object readKey(DataInput in, JsonDataType type) throws IOException {
+        switch (type) {
+            case STRING:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            case NUMBER:
+                return in.readDouble();
+            case INTEGER:
+                return in.readInt();
+            case BOOLEAN:
+                return in.readBoolean();
+            default:
+                throw new IllegalArgumentException("Unsupported JSON type: " + type);
+        }
+    }
+}
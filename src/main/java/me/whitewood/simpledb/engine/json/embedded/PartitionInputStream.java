@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import me.whitewood.simpledb.engine.json.common.FileRegion;
+import me.whitewood.simpledb.engine.json.common.TransferableStream;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.function.ToLongFunction;
+
+/**
+ * The json lines of a stream scan, ie. the partition files of a table one after another, followed by the lines
+ * of the rows in the memtable if any. A line separator is inserted between two parts if the former doesn't end
+ * with one, so the lines of adjacent parts are never merged.
+ *
+ * Partitions are opened lazily, and those deleted since they are listed are skipped. Bytes that are read go through the partition opener, eg. the block cache,
+ * while uncompressed partitions can also be taken as {@link FileRegion}s, see {@link TransferableStream}.
+ * Both can be mixed on the same stream.
+ **/
+class PartitionInputStream extends InputStream implements TransferableStream {
+
+    private static final byte LINE_SEPARATOR = '\n';
+
+    private final File[] files;
+
+    private final EmbeddedJsonDatabaseMaster.PartitionOpener opener;
+
+    private final ToLongFunction<File> visibleLength;
+
+    /** Lines after the partitions, eg. of the memtable. */
+    @Nullable
+    private final byte[] tail;
+
+    /** Index of the current part, where the tail comes after the files. */
+    private int index;
+
+    /** The current part being read, if it's opened for reading. */
+    @Nullable
+    private InputStream current;
+
+    /** The current file being taken as regions, if it's opened as a channel. */
+    @Nullable
+    private FileChannel channel;
+
+    private long channelPosition;
+
+    private long channelEnd;
+
+    /** The last byte of the stream so far, which starts as a line boundary. */
+    private byte lastByte = LINE_SEPARATOR;
+
+    private boolean separatorPending;
+
+    PartitionInputStream(
+            File[] files,
+            EmbeddedJsonDatabaseMaster.PartitionOpener opener,
+            ToLongFunction<File> visibleLength,
+            @Nullable byte[] tail) {
+        this.files = files;
+        this.opener = opener;
+        this.visibleLength = visibleLength;
+        this.tail = tail;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (separatorPending) {
+                separatorPending = false;
+                b[off] = LINE_SEPARATOR;
+                lastByte = LINE_SEPARATOR;
+                return 1;
+            }
+            if (channel != null) {
+                // the file is partly taken as regions, so the rest is read from the channel
+                if (channelPosition < channelEnd) {
+                    int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, channelEnd - channelPosition)),
+                            channelPosition);
+                    if (n > 0) {
+                        channelPosition += n;
+                        lastByte = b[off + n - 1];
+                        return n;
+                    }
+                }
+                finishChannel();
+                continue;
+            }
+            if (current == null) {
+                if (index > files.length || (index == files.length && tail == null)) {
+                    return -1;
+                }
+                current = index < files.length ? openPartition(files[index]) : new ByteArrayInputStream(tail);
+            }
+            int n = current.read(b, off, len);
+            if (n > 0) {
+                lastByte = b[off + n - 1];
+                return n;
+            }
+            current.close();
+            current = null;
+            nextPart();
+        }
+    }
+
+    @Override
+    @Nullable
+    public FileRegion nextFileRegion(long maxLength) throws IOException {
+        while (!separatorPending && current == null) {
+            if (channel == null) {
+                if (index >= files.length || BlockGzip.isCompressed(files[index])) {
+                    return null;
+                }
+                if (!openChannel(files[index])) {
+                    nextPart();
+                    continue;
+                }
+            }
+            if (channelPosition < channelEnd) {
+                long length = Math.min(maxLength, channelEnd - channelPosition);
+                FileRegion region = new FileRegion(channel, channelPosition, length);
+                channelPosition += length;
+                return region;
+            }
+            finishChannel();
+        }
+        return null;
+    }
+
+    /**
+     * Move past the file of the channel, whose bytes may have been taken as regions without being read.
+     */
+    private void finishChannel() throws IOException {
+        if (channelEnd > 0) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            if (channel.read(last, channelEnd - 1) == 1) {
+                lastByte = last.get(0);
+            }
+        }
+        closeChannel();
+        nextPart();
+    }
+
+    private void nextPart() {
+        index++;
+        boolean hasNext = index < files.length || (index == files.length && tail != null);
+        separatorPending = hasNext && lastByte != LINE_SEPARATOR;
+    }
+
+    private InputStream openPartition(File file) throws IOException {
+        try {
+            return opener.open(file);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            if (file.exists()) {
+                throw e;
+            }
+            // deleted since the partitions are listed, whose rows are gone
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    }
+
+    /**
+     * @return False if the file is deleted since the partitions are listed, in which case it's skipped.
+     */
+    private boolean openChannel(File file) throws IOException {
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        channelPosition = 0;
+        channelEnd = visibleLength.applyAsLong(file);
+        return true;
+    }
+
+    private void closeChannel() throws IOException {
+        FileChannel closing = channel;
+        channel = null;
+        closing.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        index = files.length + 1;
+        separatorPending = false;
+        try {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        } finally {
+            if (channel != null) {
+                closeChannel();
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * PartitionSplit is a byte range of a json-lines partition file that contains whole lines only,
+ * so that a large partition can be decoded by several threads. Splits of compressed partitions are ranges
+ * of whole blocks, see {@link BlockGzip}.
+ **/
+class PartitionSplit {
+
+    private static final int SCAN_BUFFER_SIZE = 4096;
+
+    private final File file;
+
+    private final long offset;
+
+    private final long length;
+
+    PartitionSplit(File file, long offset, long length) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Split a partition file into ranges of about `splitSize` bytes. Each boundary is moved forward to
+     * the start of the next line, or the next block for compressed partitions, so no line crosses two splits.
+     * @param file The partition file.
+     * @param splitSize The nominal size of a split, no larger than {@link Integer#MAX_VALUE} for mapping.
+     * @return The splits in file order.
+     * @throws IOException When IO error occurs.
+     */
+    static List<PartitionSplit> plan(File file, long splitSize) throws IOException {
+        return plan(file, file.length(), splitSize);
+    }
+
+    /**
+     * Split the leading `fileLength` bytes of a partition file, see {@link #plan(File, long)}.
+     */
+    static List<PartitionSplit> plan(File file, long fileLength, long splitSize) throws IOException {
+        Preconditions.checkArgument(splitSize > 0 && splitSize <= Integer.MAX_VALUE, "Invalid split size %s", splitSize);
+        List<PartitionSplit> splits = Lists.newArrayList();
+        if (fileLength <= splitSize) {
+            splits.add(new PartitionSplit(file, 0, fileLength));
+            return splits;
+        }
+        if (BlockGzip.isCompressed(file)) {
+            return planBlocks(file, splitSize);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+            long start = 0;
+            while (start < fileLength) {
+                long end = start + splitSize >= fileLength
+                        ? fileLength
+                        : nextLineStart(channel, start + splitSize, fileLength, buffer);
+                splits.add(new PartitionSplit(file, start, end - start));
+                start = end;
+            }
+        }
+        return splits;
+    }
+
+    private static List<PartitionSplit> planBlocks(File file, long splitSize) throws IOException {
+        List<PartitionSplit> splits = Lists.newArrayList();
+        List<Long> blockOffsets = BlockGzip.blockOffsets(file);
+        if (blockOffsets == null) {
+            // plain gzip can only be inflated from the start
+            splits.add(new PartitionSplit(file, 0, file.length()));
+            return splits;
+        }
+        long start = 0;
+        for (long blockOffset : blockOffsets) {
+            if (blockOffset - start >= splitSize) {
+                splits.add(new PartitionSplit(file, start, blockOffset - start));
+                start = blockOffset;
+            }
+        }
+        splits.add(new PartitionSplit(file, start, file.length() - start));
+        return splits;
+    }
+
+    /**
+     * Find the start of the first line that starts at or after the given position.
+     */
+    private static long nextLineStart(FileChannel channel, long position, long fileLength, ByteBuffer buffer)
+            throws IOException {
+        // the line starts at the position itself if the previous byte is a line break
+        long pos = position - 1;
+        while (pos < fileLength) {
+            buffer.clear();
+            int n = channel.read(buffer, pos);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return fileLength;
+    }
+
+    /**
+     * Open the split as a stream over a read-only memory mapping of the range, inflating the blocks
+     * on the fly if the partition is compressed. The mapping is released when the stream is garbage collected.
+     */
+    InputStream open() throws IOException {
+        return open(null);
+    }
+
+    /**
+     * Open the split as a stream that reads through a block cache, or over a memory mapping if there's no cache,
+     * inflating the blocks on the fly if the partition is compressed.
+     */
+    InputStream open(@Nullable BlockCache cache) throws IOException {
+        if (cache != null) {
+            InputStream in = cache.open(file, offset, offset + length);
+            return BlockGzip.isCompressed(file) && length > 0 ? BlockGzip.inflate(in) : in;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            InputStream in = new ByteBufferInputStream(buffer);
+            return BlockGzip.isCompressed(file) && length > 0 ? BlockGzip.inflate(in) : in;
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionSplit{" +
+                "file=" + file +
+                ", offset=" + offset +
+                ", length=" + length +
+                '}';
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * PartitionWriter appends json lines to the current partition file of tables, rolling to a new
+ * part-${N}-${M+1}.json file once the current one reaches the roll size.
+ *
+ * Appends are group committed: writers enqueue their lines and wait, while a single commit thread takes all
+ * the appends that are pending, writes them and fsyncs each touched file once. So the number of fsyncs
+ * is bounded by the commit thread instead of growing with the number of rows or writers.
+ *
+ * Rows become visible to scans once they are committed: the committed lengths of the files being written are
+ * tracked, and scans only read up to them, see {@link #getVisibleLength(File)}.
+ **/
+class PartitionWriter {
+
+    /**
+     * Partition files are named part-${N}-${M}, and partitions merged by compaction are named after the last
+     * of the merged partitions with a compaction generation, ie. part-${N}-${M}-c${G}, see {@link PartitionCompactor}.
+     */
+    static final Pattern PARTITION_NAME = Pattern.compile("part-(\\d+)-(\\d+)(?:-c(\\d+))?\\.jsonl?(\\.gz)?");
+
+    /** Partition files in the order of part-${N}-${M}-c${G} numbers, and the others by name after them. */
+    static final Comparator<File> PARTITION_ORDER = (a, b) -> {
+        Matcher ma = PARTITION_NAME.matcher(a.getName());
+        Matcher mb = PARTITION_NAME.matcher(b.getName());
+        boolean pa = ma.matches();
+        boolean pb = mb.matches();
+        if (pa && pb) {
+            int c = Long.compare(Long.parseLong(ma.group(1)), Long.parseLong(mb.group(1)));
+            if (c == 0) {
+                c = Long.compare(Long.parseLong(ma.group(2)), Long.parseLong(mb.group(2)));
+            }
+            if (c == 0) {
+                c = Long.compare(getCompactionGeneration(ma), getCompactionGeneration(mb));
+            }
+            return c != 0 ? c : a.getName().compareTo(b.getName());
+        }
+        return pa != pb ? (pa ? -1 : 1) : a.getName().compareTo(b.getName());
+    };
+
+    static long getCompactionGeneration(Matcher matcher) {
+        return matcher.group(3) == null ? 0 : Long.parseLong(matcher.group(3));
+    }
+
+    /** Upper bound of the appends in one commit, to bound the latency of the first of them. */
+    private static final int MAX_COMMIT_APPENDS = 4096;
+
+    private static final byte[] LINE_SEPARATOR = {'\n'};
+
+    /** Queued by {@link #close()} to stop the commit thread after the appends before it. */
+    private static final Append CLOSE = new Append(null, new byte[0]);
+
+    private final String basePath;
+
+    private final long rollSize;
+
+    /** Only set if hot reloading is enabled, in which case new partitions are added to it. */
+    @Nullable
+    private final PartitionDiscovery discovery;
+
+    private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+
+    /** Table name to the partition being appended, only accessed by the commit thread. */
+    private final Map<String, ActivePartition> activePartitions = Maps.newHashMap();
+
+    /** Path to the committed length of the partition files that have been written. */
+    private final Map<String, Long> committedLengths = new ConcurrentHashMap<>();
+
+    private final AtomicLong commitCount = new AtomicLong();
+
+    private final Thread thread;
+
+    private volatile boolean closed = false;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionWriter.class);
+
+    PartitionWriter(String basePath, long rollSize, @Nullable PartitionDiscovery discovery) {
+        this.basePath = basePath;
+        this.rollSize = rollSize;
+        this.discovery = discovery;
+        this.thread = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("embedded-commit-thread-%d")
+                .build()
+                .newThread(this::runCommits);
+        thread.start();
+    }
+
+    /**
+     * Append lines to the current partition of a table.
+     * @param tableName The table name.
+     * @param lines Whole json lines, each of which ends with a line break.
+     * @return The future that completes when the lines are durable.
+     */
+    CompletableFuture<Void> append(String tableName, byte[] lines) {
+        Append append = new Append(tableName, lines);
+        if (closed) {
+            append.future.completeExceptionally(new IOException("Partition writer is closed"));
+            return append.future;
+        }
+        queue.add(append);
+        return append.future;
+    }
+
+    /**
+     * Get the length of a partition file that scans may read. Bytes being written but not committed yet are
+     * excluded, so scans never see partial lines.
+     */
+    long getVisibleLength(File partition) {
+        Long committed = committedLengths.get(partition.getPath());
+        return committed != null ? committed : partition.length();
+    }
+
+    /**
+     * @return The number of commits (fsync rounds) so far.
+     */
+    long getCommitCount() {
+        return commitCount.get();
+    }
+
+    private void runCommits() {
+        List<Append> batch = Lists.newArrayList();
+        while (true) {
+            batch.clear();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                LOGGER.warn("Commit thread is interrupted, pending appends are abandoned.");
+                return;
+            }
+            queue.drainTo(batch, MAX_COMMIT_APPENDS - 1);
+            boolean stopping = batch.remove(CLOSE);
+            Map<String, List<Append>> tables = Maps.newLinkedHashMap();
+            for (Append append : batch) {
+                tables.computeIfAbsent(append.tableName, k -> Lists.newArrayList()).add(append);
+            }
+            for (Map.Entry<String, List<Append>> entry : tables.entrySet()) {
+                try {
+                    commit(entry.getKey(), entry.getValue());
+                    entry.getValue().forEach(a -> a.future.complete(null));
+                } catch (Throwable t) {
+                    LOGGER.error("Failed to commit {} appends to table {}", entry.getValue().size(), entry.getKey(), t);
+                    abortQuietly(activePartitions.remove(entry.getKey()));
+                    entry.getValue().forEach(a -> a.future.completeExceptionally(t));
+                }
+            }
+            if (!tables.isEmpty()) {
+                commitCount.incrementAndGet();
+            }
+            if (stopping) {
+                for (ActivePartition partition : activePartitions.values()) {
+                    try {
+                        partition.close();
+                    } catch (IOException e) {
+                        LOGGER.warn("Failed to close partition {}", partition.file, e);
+                    }
+                }
+                activePartitions.clear();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop the commit thread after committing the appends so far, and close the partitions being appended.
+     * Appends after closing fail.
+     */
+    void close() {
+        closed = true;
+        queue.add(CLOSE);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // appends that raced with closing
+        for (Append append = queue.poll(); append != null; append = queue.poll()) {
+            append.future.completeExceptionally(new IOException("Partition writer is closed"));
+        }
+    }
+
+    private void commit(String tableName, List<Append> appends) throws IOException {
+        ActivePartition partition = getActivePartition(tableName);
+        for (Append append : appends) {
+            if (partition.length >= rollSize) {
+                partition.sync();
+                partition.close();
+                // the file is complete, so its length is the committed one
+                committedLengths.remove(partition.file.getPath());
+                partition = roll(tableName, partition.file);
+            }
+            partition.write(append.lines);
+        }
+        partition.sync();
+    }
+
+    private ActivePartition getActivePartition(String tableName) throws IOException {
+        ActivePartition partition = activePartitions.get(tableName);
+        if (partition != null) {
+            return partition;
+        }
+        File tableDir = new File(basePath, tableName);
+        Preconditions.checkState(tableDir.mkdirs() || tableDir.isDirectory(), "Failed to create directory %s", tableDir);
+        File last = lastPartition(tableDir);
+        if (last == null) {
+            partition = create(tableDir, 0, 0);
+        } else if (BlockGzip.isCompressed(last) || last.length() >= rollSize) {
+            partition = roll(tableName, last);
+        } else {
+            partition = new ActivePartition(last);
+        }
+        activePartitions.put(tableName, partition);
+        return partition;
+    }
+
+    @Nullable
+    private static File lastPartition(File tableDir) {
+        File[] files = tableDir.listFiles((dir, name) -> PARTITION_NAME.matcher(name).matches());
+        File last = null;
+        if (files != null) {
+            for (File file : files) {
+                if (last == null || PARTITION_ORDER.compare(file, last) > 0) {
+                    last = file;
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Get the file that a new partition of a table is written to, which comes after all the existing partitions.
+     * @param tableDir The directory of the table.
+     * @return The file, which doesn't exist yet.
+     */
+    static File nextPartitionFile(File tableDir) {
+        File last = lastPartition(tableDir);
+        if (last == null) {
+            return new File(tableDir, "part-0-0.json");
+        }
+        Matcher matcher = PARTITION_NAME.matcher(last.getName());
+        Preconditions.checkState(matcher.matches(), "Unexpected partition file %s", last);
+        return new File(tableDir,
+                "part-" + matcher.group(1) + "-" + (Long.parseLong(matcher.group(2)) + 1) + ".json");
+    }
+
+    private ActivePartition roll(String tableName, File last) throws IOException {
+        Matcher matcher = PARTITION_NAME.matcher(last.getName());
+        Preconditions.checkState(matcher.matches(), "Unexpected partition file %s", last);
+        ActivePartition partition = create(
+                last.getParentFile(), Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)) + 1);
+        activePartitions.put(tableName, partition);
+        LOGGER.info("Rolled table {} from partition {} to {}", tableName, last.getName(), partition.file.getName());
+        return partition;
+    }
+
+    private ActivePartition create(File tableDir, long n, long m) throws IOException {
+        File file = new File(tableDir, "part-" + n + "-" + m + ".json");
+        Preconditions.checkState(file.createNewFile(), "Partition file %s already exists", file);
+        // make the new directory entry durable along with the first commit
+        try (FileChannel dir = FileChannel.open(tableDir.toPath(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            LOGGER.debug("Failed to sync directory {}", tableDir, e);
+        }
+        // the appends are only acknowledged after the commit, by when the partition must be visible to scans
+        if (discovery != null) {
+            discovery.refresh(tableDir);
+        }
+        return new ActivePartition(file);
+    }
+
+    /**
+     * Drop the uncommitted bytes of a failed partition, so that the next commit starts after whole lines.
+     */
+    private void abortQuietly(@Nullable ActivePartition partition) {
+        if (partition != null) {
+            try {
+                partition.channel.truncate(committedLengths.get(partition.file.getPath()));
+                partition.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to abort partition {}", partition.file, e);
+            }
+        }
+    }
+
+    private static class Append {
+
+        private final String tableName;
+
+        private final byte[] lines;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Append(String tableName, byte[] lines) {
+            this.tableName = tableName;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * A partition file opened for appending.
+     */
+    private class ActivePartition {
+
+        private final File file;
+
+        private final FileChannel channel;
+
+        private long length;
+
+        private boolean dirty = false;
+
+        ActivePartition(File file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.READ);
+            this.length = channel.size();
+            committedLengths.put(file.getPath(), length);
+            if (length > 0) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, length - 1);
+                if (last.get(0) != '\n') {
+                    // the last line of the existing file isn't terminated
+                    write(LINE_SEPARATOR);
+                }
+            }
+        }
+
+        void write(byte[] lines) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(lines);
+            while (buffer.hasRemaining()) {
+                length += channel.write(buffer, length);
+            }
+            dirty = true;
+        }
+
+        void sync() throws IOException {
+            if (dirty) {
+                channel.force(false);
+                dirty = false;
+            }
+            committedLengths.put(file.getPath(), length);
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Maps;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statistics of the columns in a partition file, along with the version of the file they are computed from.
+ **/
+public class PartitionZoneMap {
+
+    private long length;
+
+    private long lastModified;
+
+    private long rowCount;
+
+    private Map<String, ColumnZoneMap> columns = Maps.newHashMap();
+
+    public PartitionZoneMap() {}
+
+    PartitionZoneMap(long length, long lastModified) {
+        this.length = length;
+        this.lastModified = lastModified;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public void setRowCount(long rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    public Map<String, ColumnZoneMap> getColumns() {
+        return columns;
+    }
+
+    public void setColumns(Map<String, ColumnZoneMap> columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * @param length The visible length of the partition file.
+     * @param lastModified The modification time of the partition file.
+     */
+    boolean isFresh(long length, long lastModified) {
+        return length == this.length && lastModified == this.lastModified;
+    }
+
+    /**
+     * Whether any row of the partition may satisfy all the filters. Columns without statistics are assumed to match.
+     */
+    boolean mayMatch(List<JsonFilter> filters) {
+        for (JsonFilter filter : filters) {
+            ColumnZoneMap column = columns.get(filter.getColumn());
+            try {
+                if (column != null && !column.mayMatch(filter, rowCount)) {
+                    return false;
+                }
+            } catch (IllegalArgumentException e) {
+                // incomparable values, eg. the column type is changed since the statistics are computed
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionZoneMap{" +
+                "length=" + length +
+                ", lastModified=" + lastModified +
+                ", rowCount=" + rowCount +
+                ", columns=" + columns +
+                '}';
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RowCache keeps the decoded rows of partitions in memory in the columnar form (see {@link ColumnarPartition}),
+ * so that repeated scans of small hot tables skip JSON parsing entirely.
+ *
+ * Entries are keyed by the paths of partitions, and are only used if they match the committed length and
+ * the modification time of the partitions, so a changed partition is decoded again and replaces its entry.
+ * Entries are weighed by their estimated heap usage, and the least recently used entries are evicted once
+ * the total exceeds the capacity.
+ **/
+public class RowCache {
+
+    private final long capacity;
+
+    private final Cache<String, ColumnarPartition> partitions;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * @param capacity The maximum estimated heap usage in bytes.
+     */
+    RowCache(long capacity) {
+        Preconditions.checkArgument(capacity > 0, "Row cache capacity must be positive: %s", capacity);
+        this.capacity = capacity;
+        // a single segment, so that the capacity is not divided among segments
+        this.partitions = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(capacity)
+                .weigher((String path, ColumnarPartition partition) ->
+                        (int) Math.min(partition.getMemorySize(), Integer.MAX_VALUE))
+                .build();
+    }
+
+    /**
+     * Whether a partition may fit in the cache. The decoded form is usually smaller than the json text.
+     */
+    boolean isCacheable(long length) {
+        return length <= capacity;
+    }
+
+    /**
+     * Open a reader over the decoded rows of a partition, decoding the partition if it's not cached or stale.
+     * @param table The table of the partition.
+     * @param partition The partition file.
+     * @param length The committed length of the partition.
+     * @param opener Opener of the json lines of the partition.
+     * @param columns Optional projected column names.
+     * @param filters Optional conjunctive filters.
+     * @return The reader.
+     * @throws IOException When IO error occurs.
+     */
+    JsonRowReader open(
+            JsonTable table,
+            File partition,
+            long length,
+            EmbeddedJsonDatabaseMaster.PartitionOpener opener,
+            @Nullable List<String> columns,
+            @Nullable List<JsonFilter> filters) throws IOException {
+        long lastModified = partition.lastModified();
+        ColumnarPartition rows = partitions.getIfPresent(partition.getPath());
+        if (rows != null && rows.isFresh(length, lastModified, table)) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+            try (InputStream in = opener.open(partition)) {
+                rows = ColumnarPartition.decode(table, in, length, lastModified);
+            }
+            partitions.put(partition.getPath(), rows);
+        }
+        return rows.reader(table, columns, filters);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getSize() {
+        long size = 0;
+        for (ColumnarPartition partition : partitions.asMap().values()) {
+            size += partition.getMemorySize();
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "RowCache{" +
+                "capacity=" + capacity +
+                ", size=" + getSize() +
+                ", hitCount=" + getHitCount() +
+                ", missCount=" + getMissCount() +
+                '}';
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+
+import java.io.IOException;
+
+/**
+ * ScanSplit is the unit of work of a scan, eg. a partition file, which is read by one thread at a time.
+ **/
+interface ScanSplit {
+
+    /**
+     * Open a reader of the rows in the split.
+     * @return The reader, which is closed by the caller.
+     * @throws IOException When IO error occurs.
+     */
+    JsonRowReader open() throws IOException;
+}
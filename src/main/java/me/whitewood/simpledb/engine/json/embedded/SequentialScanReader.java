@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * SequentialScanReader reads the splits of a scan one after another in the calling thread,
+ * holding at most one split open at a time.
+ **/
+class SequentialScanReader implements JsonRowReader {
+
+    private final List<ScanSplit> splits;
+
+    private int nextSplit = 0;
+
+    @Nullable
+    private JsonRowReader current;
+
+    SequentialScanReader(List<ScanSplit> splits) {
+        this.splits = splits;
+    }
+
+    @Override
+    public boolean readRow(Object[] row) throws IOException {
+        while (true) {
+            if (current == null) {
+                if (nextSplit >= splits.size()) {
+                    return false;
+                }
+                current = splits.get(nextSplit++).open();
+            }
+            if (current.readRow(row)) {
+                return true;
+            }
+            current.close();
+            current = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        nextSplit = splits.size();
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.common.JsonColumnStatistics;
+import me.whitewood.simpledb.engine.json.common.JsonDatabaseFactory;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.ToLongFunction;
+
+/**
+ * StatisticsStore computes the statistics of tables on ANALYZE, and keeps them at
+ * ${basePath}/_metadata/stats/${table}.json.
+ *
+ * Statistics are a snapshot of the table at the time of analyzing, and are not maintained on the changes of
+ * partitions, so tables should be analyzed again after considerable changes. Partitions are read through the given
+ * opener, so rows being inserted but not committed yet are never counted.
+ **/
+class StatisticsStore {
+
+    static final String STATS_DIR = "stats";
+
+    private final File statsDir;
+
+    private final EmbeddedJsonDatabaseMaster.PartitionOpener opener;
+
+    private final ToLongFunction<File> visibleLength;
+
+    /** Table name to statistics, absent if the table is never analyzed. Guarded by this. */
+    private final Map<String, Optional<JsonTableStatistics>> tables = Maps.newHashMap();
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatisticsStore.class);
+
+    /**
+     * Create a store of a database whose partitions are not written concurrently.
+     */
+    StatisticsStore(String basePath) {
+        this(basePath, BlockGzip::open, File::length);
+    }
+
+    /**
+     * @param basePath The base path of the database.
+     * @param opener Opener of the json lines of partitions, which reads up to the visible lengths.
+     * @param visibleLength The lengths of partitions that readers may see.
+     */
+    StatisticsStore(
+            String basePath,
+            EmbeddedJsonDatabaseMaster.PartitionOpener opener,
+            ToLongFunction<File> visibleLength) {
+        this.statsDir = new File(new File(basePath, JsonDatabaseFactory.META_DIR), STATS_DIR);
+        this.opener = opener;
+        this.visibleLength = visibleLength;
+    }
+
+    /**
+     * Compute the statistics of a table by reading all the rows of its partitions, and persist them.
+     * @param table The table.
+     * @param partitions The partition files of the table in scan order.
+     * @return The statistics.
+     * @throws IOException When IO error occurs.
+     */
+    JsonTableStatistics analyze(JsonTable table, File[] partitions) throws IOException {
+        return analyze(table, partitions, Collections.emptyList(), 0);
+    }
+
+    /**
+     * Compute the statistics of a table by reading all the rows of its partitions and its memtable, and persist
+     * them.
+     * @param table The table.
+     * @param partitions The partition files of the table in scan order.
+     * @param memTableRows The rows of the table that are not flushed yet.
+     * @param sequence The memtable sequence number before the rows are taken, as a part of the version.
+     * @return The statistics.
+     * @throws IOException When IO error occurs.
+     */
+    JsonTableStatistics analyze(JsonTable table, File[] partitions, List<Object[]> memTableRows, long sequence)
+            throws IOException {
+        int width = table.getColumns().size();
+        ColumnStatisticsCollector[] collectors = new ColumnStatisticsCollector[width];
+        for (int i = 0; i < width; i++) {
+            collectors[i] = new ColumnStatisticsCollector();
+        }
+        long rowCount = 0;
+        Object[] row = new Object[width];
+        // taken before reading, so that changes during the reading make the statistics stale
+        long version = getPartitionsVersion(partitions, sequence);
+        for (File partition : partitions) {
+            try (JsonReader reader = new JsonReader(opener.open(partition), table, null)) {
+                while (reader.readRow(row)) {
+                    for (int i = 0; i < width; i++) {
+                        collectors[i].add(row[i]);
+                    }
+                    rowCount++;
+                }
+            }
+        }
+        for (Object[] memTableRow : memTableRows) {
+            for (int i = 0; i < width; i++) {
+                collectors[i].add(memTableRow[i]);
+            }
+            rowCount++;
+        }
+        JsonTableStatistics statistics = new JsonTableStatistics();
+        statistics.setRowCount(rowCount);
+        statistics.setAnalyzeTime(System.currentTimeMillis());
+        statistics.setPartitionsVersion(version);
+        for (int i = 0; i < width; i++) {
+            statistics.getColumns().put(table.getColumns().get(i).getName(), collectors[i].build());
+        }
+        LOGGER.info("Analyzed {} rows in {} partitions of table {}", rowCount, partitions.length, table.getName());
+        synchronized (this) {
+            store(table.getName(), statistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * Get the statistics of a table.
+     * @return The statistics of the last analyzing, or null if the table is never analyzed.
+     */
+    @Nullable
+    synchronized JsonTableStatistics get(String tableName) throws IOException {
+        Optional<JsonTableStatistics> statistics = tables.get(tableName);
+        if (statistics == null) {
+            File file = getStatisticsFile(tableName);
+            statistics = file.exists()
+                    ? Optional.of(OBJECT_MAPPER.readValue(file, JsonTableStatistics.class))
+                    : Optional.empty();
+            tables.put(tableName, statistics);
+        }
+        return statistics.orElse(null);
+    }
+
+    /**
+     * Tell if the partitions of a table are changed since the statistics are computed.
+     */
+    boolean isStale(JsonTableStatistics statistics, File[] partitions) {
+        return isStale(statistics, partitions, 0);
+    }
+
+    /**
+     * Tell if the partitions of a table, or the memtable, are changed since the statistics are computed.
+     * @param sequence The current memtable sequence number, which changes on any insert into the memtable.
+     */
+    boolean isStale(JsonTableStatistics statistics, File[] partitions, long sequence) {
+        return statistics.getPartitionsVersion() != getPartitionsVersion(partitions, sequence);
+    }
+
+    private long getPartitionsVersion(File[] partitions, long sequence) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        // no memtable is the same as an empty one, so that statistics stay fresh when the memtable is enabled
+        if (sequence != 0) {
+            hasher.putLong(sequence);
+        }
+        for (File partition : partitions) {
+            hasher.putString(partition.getName(), StandardCharsets.UTF_8)
+                    .putLong(visibleLength.applyAsLong(partition))
+                    .putLong(partition.lastModified());
+        }
+        return hasher.hash().asLong();
+    }
+
+    /** Must be called with the lock held. */
+    private void store(String tableName, JsonTableStatistics statistics) throws IOException {
+        File file = getStatisticsFile(tableName);
+        Preconditions.checkState(
+                statsDir.mkdirs() || statsDir.isDirectory(), "Failed to create directory %s", statsDir);
+        // unique among the writers, eg. the nodes of a cluster
+        File tmp = Files.createTempFile(statsDir.toPath(), "." + file.getName() + ".", ".tmp").toFile();
+        try {
+            OBJECT_MAPPER.writeValue(tmp, statistics);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+        tables.put(tableName, Optional.of(statistics));
+    }
+
+    File getStatisticsFile(String tableName) {
+        return new File(statsDir, tableName + ".json");
+    }
+
+    /**
+     * Collects the statistics of a column in one pass. The distinct count is exact up to
+     * {@link #SKETCH_SIZE} values, and estimated with a k-minimum-values sketch beyond that.
+     * The histogram is built from a fixed-size reservoir sample of the values.
+     */
+    static class ColumnStatisticsCollector {
+
+        static final int SKETCH_SIZE = 1024;
+
+        static final int SAMPLE_SIZE = 4096;
+
+        static final int HISTOGRAM_BUCKETS = 16;
+
+        private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+        /** The smallest hashes of the values seen so far. */
+        private final TreeSet<Long> sketch = new TreeSet<>();
+
+        private final List<Object> sample = Lists.newArrayListWithCapacity(SAMPLE_SIZE);
+
+        private final Random random = new Random(0);
+
+        private long count;
+
+        private long nullCount;
+
+        private boolean sorted = true;
+
+        @Nullable
+        private Object min;
+
+        @Nullable
+        private Object max;
+
+        @Nullable
+        private Object last;
+
+        void add(@Nullable Object value) {
+            count++;
+            if (value == null) {
+                nullCount++;
+                sorted = false;
+                return;
+            }
+            if (min == null || JsonFilter.compare(value, min) < 0) {
+                min = value;
+            }
+            if (max == null || JsonFilter.compare(value, max) > 0) {
+                max = value;
+            }
+            if (sorted && last != null && JsonFilter.compare(last, value) > 0) {
+                sorted = false;
+            }
+            last = value;
+            long hash = HASH_FUNCTION.hashString(value.toString(), StandardCharsets.UTF_8).asLong();
+            if (sketch.size() < SKETCH_SIZE) {
+                sketch.add(hash);
+            } else if (hash < sketch.last() && sketch.add(hash)) {
+                sketch.pollLast();
+            }
+            long nonNullCount = count - nullCount;
+            if (sample.size() < SAMPLE_SIZE) {
+                sample.add(value);
+            } else {
+                long index = (long) (random.nextDouble() * nonNullCount);
+                if (index < SAMPLE_SIZE) {
+                    sample.set((int) index, value);
+                }
+            }
+        }
+
+        JsonColumnStatistics build() {
+            JsonColumnStatistics statistics = new JsonColumnStatistics();
+            long nonNullCount = count - nullCount;
+            statistics.setNullCount(nullCount);
+            statistics.setMin(min);
+            statistics.setMax(max);
+            statistics.setSorted(sorted && count > 0);
+            boolean exact = sketch.size() < SKETCH_SIZE;
+            statistics.setDistinctCount(exact ? sketch.size() : estimateDistinctCount(nonNullCount));
+            statistics.setUnique(exact && nullCount == 0 && sketch.size() == nonNullCount && count > 0);
+            sample.sort(JsonFilter::compare);
+            int buckets = Math.min(HISTOGRAM_BUCKETS, sample.size());
+            for (int i = 1; i <= buckets; i++) {
+                statistics.getHistogram().add(sample.get(i * sample.size() / buckets - 1));
+            }
+            return statistics;
+        }
+
+        private long estimateDistinctCount(long nonNullCount) {
+            // hashes are uniform in [Long.MIN_VALUE, Long.MAX_VALUE], so the k-th smallest one is
+            // expected at the k / (ndv + 1) quantile
+            double quantile = ((double) sketch.last() - Long.MIN_VALUE) / Math.pow(2, 64);
+            long estimate = Math.round((SKETCH_SIZE - 1) / quantile);
+            return Math.max(SKETCH_SIZE, Math.min(estimate, nonNullCount));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * TableCatalog keeps the tables of a database in memory for lookups by name.
+ *
+ * The tables are held in an immutable snapshot that is replaced as a whole on updates, so lookups never take
+ * locks and always see a consistent set of tables. Patterns of table names are compiled once and cached, since
+ * callers like schema resolution list tables with the same patterns over and over.
+ **/
+class TableCatalog {
+
+    private volatile Snapshot snapshot;
+
+    private final LoadingCache<String, Pattern> patterns = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PATTERNS)
+            .build(CacheLoader.from(Pattern::compile));
+
+    private static final int MAX_PATTERNS = 256;
+
+    TableCatalog(Collection<JsonTable> tables) {
+        this.snapshot = new Snapshot(tables);
+    }
+
+    /**
+     * Replace the tables of the catalog. Lookups in progress keep seeing the previous tables.
+     */
+    void update(Collection<JsonTable> tables) {
+        this.snapshot = new Snapshot(tables);
+    }
+
+    /**
+     * Get a table by the exact name.
+     * @return The table, or null if it doesn't exist.
+     */
+    @Nullable
+    JsonTable getTable(String tableName) {
+        return snapshot.tables.get(tableName);
+    }
+
+    /**
+     * List the names of the tables, in alphabetical order.
+     * @param pattern Optional pattern that a part of the table names must match. Null denotes no pattern.
+     */
+    List<String> listTableNames(@Nullable String pattern) {
+        Snapshot current = snapshot;
+        if (pattern == null) {
+            return current.names;
+        }
+        Pattern compiled = getPattern(pattern);
+        return current.names.stream().filter(name -> compiled.matcher(name).find()).collect(Collectors.toList());
+    }
+
+    /**
+     * List the tables, in alphabetical order of the names.
+     * @param pattern Optional pattern that a part of the table names must match. Null denotes no pattern.
+     */
+    List<JsonTable> listTables(@Nullable String pattern) {
+        Snapshot current = snapshot;
+        if (pattern == null) {
+            return current.tables.values().asList();
+        }
+        Pattern compiled = getPattern(pattern);
+        return current.tables.values().stream()
+                .filter(table -> compiled.matcher(table.getName()).find())
+                .collect(Collectors.toList());
+    }
+
+    Pattern getPattern(String pattern) {
+        try {
+            return patterns.getUnchecked(pattern);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof PatternSyntaxException) {
+                throw (PatternSyntaxException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static class Snapshot {
+
+        /** Tables in alphabetical order of the names. */
+        private final ImmutableMap<String, JsonTable> tables;
+
+        private final ImmutableList<String> names;
+
+        private Snapshot(Collection<JsonTable> tables) {
+            Map<String, JsonTable> sorted = Maps.newLinkedHashMap();
+            // a table name duplicated in meta.json keeps the last table
+            tables.stream()
+                    .sorted((t1, t2) -> t1.getName().compareTo(t2.getName()))
+                    .forEach(table -> sorted.put(table.getName(), table));
+            this.tables = ImmutableMap.copyOf(sorted);
+            this.names = this.tables.keySet().asList();
+        }
+    }
+}
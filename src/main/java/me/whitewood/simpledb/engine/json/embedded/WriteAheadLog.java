@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * WriteAheadLog is the sequential log of the inserts that are not flushed into partition files yet, at
+ * ${basePath}/_metadata/wal/wal-${generation}.log. A new generation is started whenever the
+ * {@link MemTable} is rotated, so a generation can be deleted once the memtables that cover it are flushed.
+ *
+ * A record is [payload length][crc32 of payload][payload], where the payload is the table name followed by
+ * the json lines that are inserted. Like {@link PartitionWriter}, appends are group committed by a single
+ * commit thread with one fsync per round.
+ **/
+class WriteAheadLog {
+
+    static final String WAL_DIR = "wal";
+
+    private static final Pattern FILE_NAME = Pattern.compile("wal-(\\d+)\\.log");
+
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int MAX_COMMIT_APPENDS = 4096;
+
+    /** Queued by {@link #close()} to stop the commit thread after the appends before it. */
+    private static final Append CLOSE = new Append(new byte[0]);
+
+    private final File walDir;
+
+    private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+
+    /** Guarded by this. */
+    private FileChannel channel;
+
+    /** Guarded by this. */
+    private long generation;
+
+    private final Thread thread;
+
+    private volatile boolean closed = false;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    WriteAheadLog(File walDir, long generation) throws IOException {
+        this.walDir = walDir;
+        Preconditions.checkState(walDir.mkdirs() || walDir.isDirectory(), "Failed to create directory %s", walDir);
+        rotate(generation);
+        this.thread = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("embedded-wal-thread-%d")
+                .build()
+                .newThread(this::runCommits);
+        thread.start();
+    }
+
+    /**
+     * Append the json lines inserted into a table.
+     * @return The future that completes when the record is durable.
+     */
+    CompletableFuture<Void> append(String tableName, byte[] lines) {
+        byte[] name = tableName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(4 + name.length + lines.length);
+        payload.putInt(name.length).put(name).put(lines);
+        Append append = new Append(payload.array());
+        if (closed) {
+            append.future.completeExceptionally(new IOException("Write-ahead log is closed"));
+            return append.future;
+        }
+        queue.add(append);
+        return append.future;
+    }
+
+    /**
+     * Start a new generation. The caller must make sure that there are no appends in flight.
+     */
+    synchronized void rotate(long generation) throws IOException {
+        FileChannel newChannel = FileChannel.open(getFile(generation).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (channel != null) {
+            channel.close();
+        }
+        this.channel = newChannel;
+        this.generation = generation;
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    private void runCommits() {
+        List<Append> batch = Lists.newArrayList();
+        while (true) {
+            batch.clear();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                LOGGER.warn("WAL thread is interrupted, pending appends are abandoned.");
+                return;
+            }
+            queue.drainTo(batch, MAX_COMMIT_APPENDS - 1);
+            boolean stopping = batch.remove(CLOSE);
+            if (!batch.isEmpty()) {
+                try {
+                    commit(batch);
+                    batch.forEach(a -> a.future.complete(null));
+                } catch (Throwable t) {
+                    LOGGER.error("Failed to commit {} appends to the write-ahead log", batch.size(), t);
+                    batch.forEach(a -> a.future.completeExceptionally(t));
+                }
+            }
+            if (stopping) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop the commit thread after committing the appends so far, and close the log file.
+     * Appends after closing fail.
+     */
+    void close() throws IOException {
+        closed = true;
+        queue.add(CLOSE);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // appends that raced with closing
+        for (Append append = queue.poll(); append != null; append = queue.poll()) {
+            append.future.completeExceptionally(new IOException("Write-ahead log is closed"));
+        }
+        synchronized (this) {
+            channel.close();
+        }
+    }
+
+    private synchronized void commit(List<Append> batch) throws IOException {
+        long position = channel.size();
+        try {
+            CRC32 crc = new CRC32();
+            for (Append append : batch) {
+                crc.reset();
+                crc.update(append.payload);
+                ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+                header.putInt(append.payload.length).putInt((int) crc.getValue()).flip();
+                ByteBuffer[] buffers = {header, ByteBuffer.wrap(append.payload)};
+                while (buffers[1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // drop the partial records, so the log stays replayable
+            channel.truncate(position);
+            throw e;
+        }
+    }
+
+    File getFile(long generation) {
+        return getFile(walDir, generation);
+    }
+
+    static File getFile(File walDir, long generation) {
+        return new File(walDir, "wal-" + generation + ".log");
+    }
+
+    /**
+     * List the generations of the log files in a directory in ascending order.
+     */
+    static List<Long> listGenerations(File walDir) {
+        List<Long> generations = Lists.newArrayList();
+        String[] names = walDir.list();
+        if (names != null) {
+            for (String name : names) {
+                Matcher matcher = FILE_NAME.matcher(name);
+                if (matcher.matches()) {
+                    generations.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        generations.sort(Long::compare);
+        return generations;
+    }
+
+    /**
+     * Read the records of a log file. A torn or corrupted record at the end, which is left by a crash during
+     * a commit, is truncated along with everything after it.
+     */
+    static void replay(File file, RecordConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            while (position < size) {
+                header.clear();
+                if (readFully(channel, header, position) < RECORD_HEADER_SIZE) {
+                    break;
+                }
+                int length = header.getInt(0);
+                if (length < 4 || position + RECORD_HEADER_SIZE + length > size) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, position + RECORD_HEADER_SIZE);
+                crc.reset();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != header.getInt(4)) {
+                    break;
+                }
+                payload.flip();
+                byte[] name = new byte[payload.getInt()];
+                payload.get(name);
+                byte[] lines = new byte[payload.remaining()];
+                payload.get(lines);
+                consumer.accept(new String(name, StandardCharsets.UTF_8), lines);
+                position += RECORD_HEADER_SIZE + length;
+            }
+            if (position < size) {
+                LOGGER.warn("Truncated the torn tail of write-ahead log {} at {} of {} bytes", file, position, size);
+                channel.truncate(position);
+            }
+        }
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + total);
+            if (n <= 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    interface RecordConsumer {
+
+        void accept(String tableName, byte[] lines) throws IOException;
+    }
+
+    private static class Append {
+
+        private final byte[] payload;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Append(byte[] payload) {
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonDatabaseFactory;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.ToLongFunction;
+
+/**
+ * ZoneMapStore keeps the per-partition zone maps (min/max/null-count of every column) of tables at
+ * ${basePath}/_metadata/zonemap/${table}.json, and uses them to skip partitions that can't satisfy
+ * pushed-down filters.
+ *
+ * Zone maps are computed on demand, ie. when a filtered scan meets a partition whose zone map is missing
+ * or computed from an older version (visible length/mtime) of the file. They are computed in the background,
+ * so that the first queries of a large table don't wait for them, and such partitions are not pruned until
+ * their zone maps are ready. Partitions are read through the given
+ * opener, so rows being inserted but not committed yet are never seen.
+ **/
+class ZoneMapStore {
+
+    static final String ZONE_MAP_DIR = "zonemap";
+
+    private final String basePath;
+
+    private final File zoneMapDir;
+
+    private final EmbeddedJsonDatabaseMaster.PartitionOpener opener;
+
+    private final ToLongFunction<File> visibleLength;
+
+    /** Table name to partition file name to zone map. Guarded by this. */
+    private final Map<String, Map<String, PartitionZoneMap>> tables = Maps.newHashMap();
+
+    /** Names of the tables whose zone maps are being computed in the background. Guarded by this. */
+    private final Set<String> computing = Sets.newHashSet();
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZoneMapStore.class);
+
+    /**
+     * Create a store of a database whose partitions are not written concurrently.
+     */
+    ZoneMapStore(String basePath) {
+        this(basePath, BlockGzip::open, File::length);
+    }
+
+    /**
+     * @param basePath The base path of the database.
+     * @param opener Opener of the json lines of partitions, which reads up to the visible lengths.
+     * @param visibleLength The lengths of partitions that readers may see.
+     */
+    ZoneMapStore(
+            String basePath,
+            EmbeddedJsonDatabaseMaster.PartitionOpener opener,
+            ToLongFunction<File> visibleLength) {
+        this.basePath = basePath;
+        this.zoneMapDir = new File(new File(basePath, JsonDatabaseFactory.META_DIR), ZONE_MAP_DIR);
+        this.opener = opener;
+        this.visibleLength = visibleLength;
+    }
+
+    /**
+     * Filter out the partitions that contain no row satisfying the filters.
+     * @param table The table.
+     * @param partitions The partition files of the table.
+     * @param filters The conjunctive filters.
+     * @param executor The executor to compute missing zone maps on.
+     * @return The partitions that may contain matched rows, in the original order.
+     * @throws IOException When IO error occurs.
+     */
+    List<File> prune(JsonTable table, File[] partitions, List<JsonFilter> filters, Executor executor)
+            throws IOException {
+        Map<String, PartitionZoneMap> zoneMaps = getZoneMaps(table, partitions, executor);
+        List<File> result = Lists.newArrayListWithCapacity(partitions.length);
+        for (File partition : partitions) {
+            PartitionZoneMap zoneMap = zoneMaps.get(partition.getName());
+            if (zoneMap == null || zoneMap.mayMatch(filters)) {
+                result.add(partition);
+            }
+        }
+        if (result.size() < partitions.length) {
+            LOGGER.debug("Pruned {} of {} partitions of table {} with filters {}",
+                    partitions.length - result.size(), partitions.length, table.getName(), filters);
+        }
+        return result;
+    }
+
+    /**
+     * Get the up-to-date zone maps of the given partitions. If some of them are missing or stale, they are computed
+     * on the executor in the background.
+     * @return The zone maps by partition names, which miss the partitions whose zone maps are being computed.
+     */
+    Map<String, PartitionZoneMap> getZoneMaps(JsonTable table, File[] partitions, Executor executor)
+            throws IOException {
+        Map<String, PartitionZoneMap> result = Maps.newHashMapWithExpectedSize(partitions.length);
+        List<File> stale = Lists.newArrayList();
+        synchronized (this) {
+            collect(load(table.getName()), partitions, result, stale);
+            if (stale.isEmpty() || !computing.add(table.getName())) {
+                return result;
+            }
+        }
+        CompletableFuture<Void> future = compute(table, partitions, stale, executor);
+        if (!future.isDone()) {
+            LOGGER.info("Computing zone maps of {} of {} partitions of table {} in the background",
+                    stale.size(), partitions.length, table.getName());
+            return result;
+        }
+        // eg. computed by a direct executor
+        result.clear();
+        synchronized (this) {
+            collect(load(table.getName()), partitions, result, Lists.newArrayList());
+        }
+        return result;
+    }
+
+    private void collect(Map<String, PartitionZoneMap> zoneMaps, File[] partitions,
+                         Map<String, PartitionZoneMap> result, List<File> stale) {
+        for (File partition : partitions) {
+            PartitionZoneMap zoneMap = zoneMaps.get(partition.getName());
+            if (zoneMap != null && zoneMap.isFresh(visibleLength.applyAsLong(partition), partition.lastModified())) {
+                result.put(partition.getName(), zoneMap);
+            } else {
+                stale.add(partition);
+            }
+        }
+    }
+
+    private CompletableFuture<Void> compute(JsonTable table, File[] partitions, List<File> stale,
+                                            Executor executor) {
+        Map<String, CompletableFuture<PartitionZoneMap>> computed = Maps.newLinkedHashMap();
+        for (File partition : stale) {
+            long length = visibleLength.applyAsLong(partition);
+            // taken before reading, so that changes during the reading make the zone map stale
+            long lastModified = partition.lastModified();
+            computed.put(partition.getName(), CompletableFuture.supplyAsync(() -> {
+                try {
+                    return compute(table, partition, length, lastModified);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        File tableDir = new File(basePath, table.getName());
+        return CompletableFuture.allOf(computed.values().toArray(new CompletableFuture[0])).thenRun(() -> {
+            synchronized (this) {
+                try {
+                    // the file may be shared with the other nodes of a cluster, whose zone maps are kept
+                    Map<String, PartitionZoneMap> stored = read(table.getName());
+                    for (Map.Entry<String, CompletableFuture<PartitionZoneMap>> entry : computed.entrySet()) {
+                        stored.put(entry.getKey(), entry.getValue().join());
+                    }
+                    // forget the partitions that no longer exist
+                    stored.keySet().removeIf(name -> !new File(tableDir, name).exists());
+                    store(table.getName(), stored);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }).whenComplete((ignored, e) -> {
+            synchronized (this) {
+                computing.remove(table.getName());
+            }
+            if (e != null) {
+                LOGGER.warn("Failed to compute zone maps of table {}", table.getName(), e);
+            }
+        });
+    }
+
+    /**
+     * Compute the zone map of a partition by decoding all of its visible rows.
+     */
+    private PartitionZoneMap compute(JsonTable table, File partition, long length, long lastModified)
+            throws IOException {
+        PartitionZoneMap zoneMap = new PartitionZoneMap(length, lastModified);
+        List<JsonColumn> columns = table.getColumns();
+        ColumnZoneMap[] columnZoneMaps = new ColumnZoneMap[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            columnZoneMaps[i] = new ColumnZoneMap();
+            zoneMap.getColumns().put(columns.get(i).getName(), columnZoneMaps[i]);
+        }
+        long rowCount = 0;
+        try (JsonReader reader = new JsonReader(opener.open(partition), table, null)) {
+            Object[] row = new Object[columns.size()];
+            while (reader.readRow(row)) {
+                for (int i = 0; i < row.length; i++) {
+                    columnZoneMaps[i].add(row[i]);
+                }
+                rowCount++;
+            }
+        }
+        zoneMap.setRowCount(rowCount);
+        return zoneMap;
+    }
+
+    /** Must be called with the lock held. */
+    private Map<String, PartitionZoneMap> load(String tableName) throws IOException {
+        Map<String, PartitionZoneMap> zoneMaps = tables.get(tableName);
+        if (zoneMaps == null) {
+            zoneMaps = read(tableName);
+            tables.put(tableName, zoneMaps);
+        }
+        return zoneMaps;
+    }
+
+    private Map<String, PartitionZoneMap> read(String tableName) throws IOException {
+        File file = getZoneMapFile(tableName);
+        return file.exists()
+                ? OBJECT_MAPPER.readValue(file, new TypeReference<Map<String, PartitionZoneMap>>() {})
+                : Maps.newHashMap();
+    }
+
+    /** Must be called with the lock held. */
+    private void store(String tableName, Map<String, PartitionZoneMap> zoneMaps) throws IOException {
+        File file = getZoneMapFile(tableName);
+        Preconditions.checkState(
+                zoneMapDir.mkdirs() || zoneMapDir.isDirectory(), "Failed to create directory %s", zoneMapDir);
+        // unique among the writers, eg. the nodes of a cluster
+        File tmp = Files.createTempFile(zoneMapDir.toPath(), "." + file.getName() + ".", ".tmp").toFile();
+        try {
+            OBJECT_MAPPER.writeValue(tmp, zoneMaps);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+        tables.put(tableName, zoneMaps);
+    }
+
+    File getZoneMapFile(String tableName) {
+        return new File(zoneMapDir, tableName + ".json");
+    }
+}
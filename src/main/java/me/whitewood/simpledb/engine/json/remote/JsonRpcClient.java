@@ -0,0 +1,380 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.remote;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.whitewood.simpledb.common.rpc.RpcClient;
+import me.whitewood.simpledb.engine.json.client.JsonDatabaseClient;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JsonRpcClient is the {@link JsonDatabaseClient} of a remote {@link JsonRpcService}.
+ *
+ * Requests are pipelined over a single persistent connection, so the client can be shared by many threads:
+ * each request is written as soon as it's issued, and a reader thread completes the pending requests by the
+ * request ids of the responses. Scans pull batches or chunks from cursors on the service, with a few requests
+ * in flight to hide the round trips, see {@link RemoteBatchReader} and {@link RemoteInputStream}.
+ **/
+public class JsonRpcClient implements RpcClient<JsonRpcRequest, JsonRpcRequest, JsonRpcResponse>, JsonDatabaseClient {
+
+    static final long TIMEOUT = 10;
+
+    /** Analyzing and aggregating read the whole table, so they're given much more time than the other requests. */
+    private static final long ANALYZE_TIMEOUT = 3600;
+
+    /** Number of batches requested ahead of the reader of a scan. */
+    private static final int SCAN_PREFETCH = 2;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsonRpcClient.class);
+
+    private final InetSocketAddress address;
+
+    private final Map<Long, CompletableFuture<JsonRpcResponse>> pendingRequests = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestIds = new AtomicLong();
+
+    private final Object writeLock = new Object();
+
+    @Nullable
+    private SocketChannel channel;
+
+    @Nullable
+    private Thread readerThread;
+
+    /** Set once the connection is lost or closed, which fails the pending and later requests. */
+    @Nullable
+    private volatile IOException failure;
+
+    public JsonRpcClient(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    @Override
+    public synchronized void open() {
+        Preconditions.checkState(channel == null, "The client is already opened.");
+        try {
+            channel = SocketChannel.open(address);
+            channel.socket().setTcpNoDelay(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to connect to " + address, e);
+        }
+        readerThread = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rpc-client-reader-thread-%d").build()
+                .newThread(this::readResponses);
+        readerThread.start();
+    }
+
+    /**
+     * Send a command, and wait for it to be served.
+     * @throws IllegalStateException When the command fails.
+     */
+    @Override
+    public void command(JsonRpcRequest object) {
+        JsonRpcResponse response = quert(object);
+        if (response.isError()) {
+            throw new IllegalStateException("Failed to serve " + object + ": " + response.getErrorMessage());
+        }
+    }
+
+    /**
+     * Send a query, and wait for its response, which may be an error.
+     * @throws UncheckedIOException When the connection is lost or the query times out.
+     */
+    @Override
+    public JsonRpcResponse quert(JsonRpcRequest object) {
+        try {
+            return await(send(object), TIMEOUT);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to serve " + object, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        SocketChannel current;
+        synchronized (this) {
+            current = channel;
+        }
+        if (current == null) {
+            return;
+        }
+        fail(new IOException("The client is closed."));
+        try {
+            current.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close rpc connection to {}", address, e);
+        }
+    }
+
+    @Override
+    public List<String> listTableNames(@Nullable String pattern) {
+        try {
+            return call(RpcMessageType.LIST_TABLE_NAMES, new PayloadWriter().writeString(pattern)).readStrings();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to get table names. Please retry later.", e);
+        }
+    }
+
+    @Override
+    public List<JsonTable> listTables(@Nullable String pattern) {
+        try {
+            return call(RpcMessageType.LIST_TABLES, new PayloadWriter().writeString(pattern))
+                    .readJson(new TypeReference<List<JsonTable>>() {});
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to get tables. Please retry later.", e);
+        }
+    }
+
+    @Override
+    public JsonTable getTable(String tableName) {
+        try {
+            return call(RpcMessageType.GET_TABLE, new PayloadWriter().writeString(tableName)).readJson(JsonTable.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to get table " + tableName + ".", e);
+        }
+    }
+
+    @Override
+    public List<JsonNode> scanTable(String tableName, @Nullable List<String> columns) throws IOException {
+        return call(RpcMessageType.SCAN_TABLE, new PayloadWriter().writeString(tableName).writeStrings(columns))
+                .readJson(new TypeReference<List<JsonNode>>() {});
+    }
+
+    @Override
+    public JsonReader scanTableAsStream(String tableName, @Nullable List<String> columns) throws IOException {
+        return new JsonReader(openStream(tableName, columns), columns);
+    }
+
+    /**
+     * Scan table as the raw json lines, eg. to concatenate the streams of many services.
+     * @param tableName The table name.
+     * @param columns Optional column names, which are only applied by the reader of the stream.
+     * @return The stream, which closes the cursor on the service once it's closed.
+     * @throws IOException When IO error occurs.
+     */
+    public InputStream openStream(String tableName, @Nullable List<String> columns) throws IOException {
+        long cursorId = call(
+                RpcMessageType.OPEN_STREAM, new PayloadWriter().writeString(tableName).writeStrings(columns)).readLong();
+        return new RemoteInputStream(this, cursorId);
+    }
+
+    /**
+     * Typed rows are read from batches, so that the round trips are amortized over many rows.
+     */
+    @Override
+    public JsonRowReader scanTableAsRows(
+            JsonTable table, @Nullable List<String> columns, @Nullable List<JsonFilter> filters) throws IOException {
+        return scanTableAsBatches(table, columns, filters);
+    }
+
+    @Override
+    public RowBatchReader scanTableAsBatches(
+            JsonTable table, @Nullable List<String> columns, @Nullable List<JsonFilter> filters) throws IOException {
+        long cursorId = call(RpcMessageType.OPEN_SCAN, new PayloadWriter()
+                .writeString(table.getName())
+                .writeStrings(columns)
+                .writeFilters(filters)).readLong();
+        int width = columns == null ? table.getColumns().size() : columns.size();
+        return new RemoteBatchReader(this, cursorId, width, SCAN_PREFETCH);
+    }
+
+    @Override
+    public List<Object[]> aggregateTable(
+            JsonTable table,
+            List<String> groupColumns,
+            List<JsonAggregate> aggregates,
+            @Nullable List<JsonFilter> filters) throws IOException {
+        return call(RpcMessageType.AGGREGATE_TABLE, new PayloadWriter()
+                .writeString(table.getName())
+                .writeStrings(groupColumns)
+                .writeAggregates(aggregates)
+                .writeFilters(filters), ANALYZE_TIMEOUT).readRows();
+    }
+
+    @Override
+    public int insertRows(String tableName, List<Object[]> rows) throws IOException {
+        return call(RpcMessageType.INSERT_ROWS, new PayloadWriter().writeString(tableName).writeRows(rows)).readInt();
+    }
+
+    @Override
+    public JsonTableStatistics analyzeTable(String tableName) throws IOException {
+        return call(RpcMessageType.ANALYZE_TABLE, new PayloadWriter().writeString(tableName), ANALYZE_TIMEOUT)
+                .readJson(JsonTableStatistics.class);
+    }
+
+    @Override
+    @Nullable
+    public JsonTableStatistics getTableStatistics(String tableName) throws IOException {
+        return call(RpcMessageType.GET_TABLE_STATISTICS, new PayloadWriter().writeString(tableName))
+                .readJson(JsonTableStatistics.class);
+    }
+
+    @Override
+    public long getTableVersion(String tableName) throws IOException {
+        return call(RpcMessageType.GET_TABLE_VERSION, new PayloadWriter().writeString(tableName)).readLong();
+    }
+
+    private PayloadReader call(RpcMessageType type, PayloadWriter payload) throws IOException {
+        return call(type, payload, TIMEOUT);
+    }
+
+    /**
+     * Send a request and wait for its result.
+     * @throws IOException When the connection is lost, the request times out, or the service fails to serve it.
+     */
+    private PayloadReader call(RpcMessageType type, PayloadWriter payload, long timeoutSeconds) throws IOException {
+        return checkResponse(await(send(new JsonRpcRequest(type, payload.toByteArray())), timeoutSeconds));
+    }
+
+    /**
+     * Send a request without waiting, eg. to pipeline requests.
+     * @return The future of the response, which is completed exceptionally if the connection is lost.
+     */
+    CompletableFuture<JsonRpcResponse> send(JsonRpcRequest request) {
+        Preconditions.checkState(channel != null, "The client is not opened.");
+        long requestId = requestIds.incrementAndGet();
+        CompletableFuture<JsonRpcResponse> future = new CompletableFuture<>();
+        ByteBuffer frame;
+        try {
+            frame = RpcFrames.encode(requestId, request.getType(), request.getPayload());
+        } catch (IllegalArgumentException e) {
+            // the request exceeds the frame limit, which is failed before it's pending
+            future.completeExceptionally(new IOException(e.getMessage(), e));
+            return future;
+        }
+        pendingRequests.put(requestId, future);
+        // the failure may be set before the request is added, in which case it's not failed by the reader thread
+        IOException error = failure;
+        if (error != null) {
+            pendingRequests.remove(requestId);
+            future.completeExceptionally(error);
+            return future;
+        }
+        try {
+            synchronized (writeLock) {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+        } catch (IOException e) {
+            pendingRequests.remove(requestId);
+            future.completeExceptionally(e);
+            fail(e);
+        }
+        return future;
+    }
+
+    static JsonRpcResponse await(CompletableFuture<JsonRpcResponse> future, long timeoutSeconds) throws IOException {
+        try {
+            return future.get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (TimeoutException e) {
+            throw new IOException("The request times out after " + timeoutSeconds + " seconds", e);
+        }
+    }
+
+    static PayloadReader checkResponse(JsonRpcResponse response) throws IOException {
+        if (response.isError()) {
+            throw new IOException("Remote error: " + response.getErrorMessage());
+        }
+        return new PayloadReader(response.getPayload());
+    }
+
+    private void readResponses() {
+        ByteBuffer header = ByteBuffer.allocate(RpcFrames.HEADER_SIZE);
+        try {
+            while (true) {
+                header.clear();
+                readFully(header);
+                header.flip();
+                int length = RpcFrames.checkLength(header.getInt());
+                long requestId = header.getLong();
+                RpcMessageType type = RpcMessageType.of(header.get());
+                ByteBuffer payload = ByteBuffer.allocate(length - 8 - 1);
+                readFully(payload);
+                if (type != RpcMessageType.OK && type != RpcMessageType.ERROR) {
+                    throw new ProtocolException("Unexpected response type " + type);
+                }
+                CompletableFuture<JsonRpcResponse> future = pendingRequests.remove(requestId);
+                if (future != null) {
+                    future.complete(new JsonRpcResponse(type, payload.array()));
+                }
+            }
+        } catch (IOException e) {
+            if (failure == null) {
+                LOGGER.warn("Rpc connection to {} is lost", address, e);
+            }
+            fail(e);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("The rpc connection is closed by the service.");
+            }
+        }
+    }
+
+    private void fail(IOException error) {
+        if (failure == null) {
+            failure = error;
+        }
+        for (Long requestId : Lists.newArrayList(pendingRequests.keySet())) {
+            CompletableFuture<JsonRpcResponse> future = pendingRequests.remove(requestId);
+            if (future != null) {
+                future.completeExceptionally(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.remote;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A request to {@link JsonRpcService}, whose payload is encoded by {@link PayloadWriter}.
+ **/
+public class JsonRpcRequest {
+
+    private final RpcMessageType type;
+
+    private final byte[] payload;
+
+    public JsonRpcRequest(RpcMessageType type, byte[] payload) {
+        Preconditions.checkArgument(
+                type != RpcMessageType.OK && type != RpcMessageType.ERROR, "%s is not a request type", type);
+        this.type = type;
+        this.payload = payload;
+    }
+
+    public RpcMessageType getType() {
+        return type;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "JsonRpcRequest{" +
+                "type=" + type +
+                ", payload=" + payload.length + " bytes" +
+                '}';
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.remote;
+
+import com.google.common.base.Preconditions;
+import me.whitewood.simpledb.engine.json.common.FileRegion;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A response of {@link JsonRpcService}. The payload of an {@link RpcMessageType#OK} response is the result
+ * encoded by {@link PayloadWriter}, and the payload of an {@link RpcMessageType#ERROR} response is the message
+ * of the error in UTF-8.
+ **/
+public class JsonRpcResponse {
+
+    private final RpcMessageType type;
+
+    private final byte[] payload;
+
+    /** Bytes that follow the payload on the wire, which are transferred from a file without copying. */
+    @Nullable
+    private final FileRegion region;
+
+    /** Completed once the region is transferred or dropped. */
+    private final CompletableFuture<Void> transferred;
+
+    public JsonRpcResponse(RpcMessageType type, byte[] payload) {
+        this(type, payload, null);
+    }
+
+    private JsonRpcResponse(RpcMessageType type, byte[] payload, @Nullable FileRegion region) {
+        Preconditions.checkArgument(
+                type == RpcMessageType.OK || type == RpcMessageType.ERROR, "%s is not a response type", type);
+        this.type = type;
+        this.payload = payload;
+        this.region = region;
+        this.transferred = region == null ? CompletableFuture.completedFuture(null) : new CompletableFuture<>();
+    }
+
+    public static JsonRpcResponse ok(byte[] payload) {
+        return new JsonRpcResponse(RpcMessageType.OK, payload);
+    }
+
+    /**
+     * Create a response whose payload is followed by the bytes of a file region, which is only valid until the
+     * future of {@link #getTransferred()} is completed by the sender.
+     */
+    static JsonRpcResponse ok(byte[] payload, FileRegion region) {
+        return new JsonRpcResponse(RpcMessageType.OK, payload, region);
+    }
+
+    public static JsonRpcResponse error(String message) {
+        return new JsonRpcResponse(RpcMessageType.ERROR, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public RpcMessageType getType() {
+        return type;
+    }
+
+    public boolean isError() {
+        return type == RpcMessageType.ERROR;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    @Nullable
+    FileRegion getRegion() {
+        return region;
+    }
+
+    CompletableFuture<Void> getTransferred() {
+        return transferred;
+    }
+
+    public String getErrorMessage() {
+        Preconditions.checkState(isError(), "The response is not an error.");
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "JsonRpcResponse{" +
+                "type=" + type +
+                ", payload=" + (isError() ? getErrorMessage() : payload.length + " bytes") +
+                (region != null ? ", region=" + region : "") +
+                '}';
+    }
+}
@@ -0,0 +1,569 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.remote;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.whitewood.simpledb.common.rpc.RpcService;
+import me.whitewood.simpledb.engine.json.common.FileRegion;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseConfig;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseServer;
+import me.whitewood.simpledb.engine.json.server.AsyncJsonDatabaseServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JsonRpcService serves the operations of an {@link AsyncJsonDatabaseServer} to {@link JsonRpcClient}s over TCP,
+ * so that the query layer and the storage engine can run in separate processes.
+ *
+ * Connections are persistent, and are multiplexed by a single selector thread with non-blocking IO. Requests are
+ * pipelined: a client may send many requests without waiting for the responses, which are sent back as soon as
+ * they're completed and matched by request ids, see {@link RpcFrames} for the framing. Requests are handed over
+ * to a {@link JsonRpcSession} per connection, so the selector thread never blocks on the engine. Responses of
+ * stream scans may carry file regions, which are sent by {@link java.nio.channels.FileChannel#transferTo} straight
+ * from the page cache to the socket.
+ *
+ * The service runs in one of the two modes, see {@link #start(boolean)}:
+ *
+ * 1. Local mode: the selector thread runs in the current process, serving the given server or an embedded server
+ *    on the base path.
+ * 2. Process mode: a child JVM is spawned to serve an embedded server on the base path, see {@link #main(String[])}.
+ *    The child exits once its parent is gone, since it exits at the end of its stdin.
+ **/
+public class JsonRpcService implements RpcService<JsonRpcRequest, JsonRpcRequest, JsonRpcResponse> {
+
+    /** The line printed by the child process once it's listening, followed by the port. */
+    static final String LISTENING = "LISTENING";
+
+    private static final int READ_BUFFER_SIZE = 64 << 10;
+
+    private static final long STOP_TIMEOUT_MILLIS = 10_000;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsonRpcService.class);
+
+    @Nullable
+    private final String basePath;
+
+    @Nullable
+    private final EmbeddedJsonDatabaseConfig config;
+
+    private final InetSocketAddress address;
+
+    @Nullable
+    private AsyncJsonDatabaseServer server;
+
+    /** The server created by the service, which is closed on {@link #stop()}. */
+    @Nullable
+    private EmbeddedJsonDatabaseServer embeddedServer;
+
+    /** Connections that have responses to send, which are registered for writes by the selector thread. */
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    @Nullable
+    private Selector selector;
+
+    @Nullable
+    private ServerSocketChannel serverChannel;
+
+    @Nullable
+    private Thread selectorThread;
+
+    /** Runs blocking cursor reads and the cleanup of connections. */
+    @Nullable
+    private ExecutorService workerExecutor;
+
+    /** The session that serves {@link #onReceiveQuery(JsonRpcRequest)} in this process. */
+    @Nullable
+    private JsonRpcSession localSession;
+
+    @Nullable
+    private Process process;
+
+    private volatile boolean running;
+
+    private volatile int port = -1;
+
+    /**
+     * Create a service of a server, which can only be started in local mode.
+     * @param server The server, which is not closed by the service.
+     * @param address The address to listen on, whose port can be 0 to pick a free port.
+     */
+    public JsonRpcService(AsyncJsonDatabaseServer server, InetSocketAddress address) {
+        this.basePath = null;
+        this.config = null;
+        this.server = server;
+        this.address = address;
+    }
+
+    /**
+     * Create a service of an embedded server on a base path, which is created on {@link #start(boolean)} and
+     * closed on {@link #stop()}.
+     * @param address The address to listen on, whose port can be 0 to pick a free port.
+     */
+    public JsonRpcService(String basePath, EmbeddedJsonDatabaseConfig config, InetSocketAddress address) {
+        this.basePath = basePath;
+        this.config = config;
+        this.address = address;
+    }
+
+    @Override
+    public synchronized void start(boolean isLocal) {
+        Preconditions.checkState(selectorThread == null && process == null, "The service is already started.");
+        try {
+            if (isLocal) {
+                startLocal();
+            } else {
+                startProcess();
+            }
+        } catch (IOException e) {
+            stop();
+            throw new UncheckedIOException("Failed to start rpc service on " + address, e);
+        }
+    }
+
+    private void startLocal() throws IOException {
+        if (server == null) {
+            embeddedServer = new EmbeddedJsonDatabaseServer(basePath, config);
+            server = embeddedServer;
+        }
+        workerExecutor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rpc-worker-thread-%d").build());
+        localSession = new JsonRpcSession(server, workerExecutor, false);
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        running = true;
+        selectorThread = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rpc-selector-thread-%d").build()
+                .newThread(this::runSelector);
+        selectorThread.start();
+        LOGGER.info("Rpc service is listening on port {}", port);
+    }
+
+    private void startProcess() throws IOException {
+        Preconditions.checkState(basePath != null, "Process mode requires the service to be created on a base path.");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        process = new ProcessBuilder(
+                java,
+                "-cp",
+                System.getProperty("java.class.path"),
+                JsonRpcService.class.getName(),
+                basePath,
+                address.getHostString(),
+                String.valueOf(address.getPort()),
+                OBJECT_MAPPER.writeValueAsString(config))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = out.readLine()) != null) {
+            if (line.startsWith(LISTENING + " ")) {
+                port = Integer.parseInt(line.substring(LISTENING.length() + 1).trim());
+                break;
+            }
+        }
+        if (port < 0) {
+            throw new IOException("The rpc service process exited before listening.");
+        }
+        // keep draining the output, so the child never blocks on a full pipe
+        Thread drainer = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rpc-process-output-thread-%d")
+                .build().newThread(() -> {
+                    try {
+                        while (out.readLine() != null) {
+                            // discard
+                        }
+                    } catch (IOException e) {
+                        // the process is gone
+                    }
+                });
+        drainer.start();
+        LOGGER.info("Rpc service process is listening on port {}", port);
+    }
+
+    /**
+     * Get the port that the service is listening on, eg. if it's started on port 0.
+     * @return The port, or -1 if the service is not started.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Serve a command in this process, without going through the network.
+     * @throws IllegalStateException When the service is not started in local mode, or the command fails.
+     */
+    @Override
+    public void onReceiveCommand(JsonRpcRequest message) {
+        JsonRpcResponse response = onReceiveQuery(message);
+        if (response.isError()) {
+            throw new IllegalStateException("Failed to serve " + message + ": " + response.getErrorMessage());
+        }
+    }
+
+    /**
+     * Serve a query in this process, without going through the network.
+     * @throws IllegalStateException When the service is not started in local mode.
+     */
+    @Override
+    public JsonRpcResponse onReceiveQuery(JsonRpcRequest message) {
+        JsonRpcSession session = localSession;
+        Preconditions.checkState(session != null, "The service is not started in local mode.");
+        return session.handle(message).join();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (process != null) {
+            stopProcess();
+            return;
+        }
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (selectorThread != null && Thread.currentThread() != selectorThread) {
+            try {
+                selectorThread.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (selector != null) {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            closeQuietly(selector);
+        }
+        if (serverChannel != null) {
+            closeQuietly(serverChannel);
+        }
+        if (localSession != null) {
+            localSession.close();
+        }
+        if (workerExecutor != null) {
+            workerExecutor.shutdown();
+        }
+        if (embeddedServer != null) {
+            embeddedServer.close();
+            embeddedServer = null;
+            server = null;
+        }
+        selectorThread = null;
+        localSession = null;
+        port = -1;
+    }
+
+    private void stopProcess() {
+        try {
+            // the child exits at the end of its stdin
+            process.getOutputStream().close();
+            if (!process.waitFor(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Rpc service process doesn't exit in time, killing it.");
+                process.destroyForcibly();
+            }
+        } catch (IOException e) {
+            process.destroyForcibly();
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        process = null;
+        port = -1;
+    }
+
+    private void runSelector() {
+        while (running) {
+            try {
+                selector.select();
+                Connection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    pending.flush();
+                }
+                Iterator<SelectionKey> ite = selector.selectedKeys().iterator();
+                while (ite.hasNext()) {
+                    SelectionKey key = ite.next();
+                    ite.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        connection.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    LOGGER.error("Rpc selector failed", e);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel, new JsonRpcSession(server, workerExecutor, true));
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        LOGGER.debug("Accepted rpc connection from {}", channel.getRemoteAddress());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close {}", closeable, e);
+        }
+    }
+
+    /**
+     * A connection, whose reads and interest ops are only touched by the selector thread, while responses are
+     * queued by any thread.
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+
+        private final JsonRpcSession session;
+
+        private SelectionKey key;
+
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        private final Queue<Outbound> outbound = new ConcurrentLinkedQueue<>();
+
+        private volatile boolean closed;
+
+        Connection(SocketChannel channel, JsonRpcSession session) {
+            this.channel = channel;
+            this.session = session;
+        }
+
+        void read() {
+            try {
+                if (channel.read(readBuffer) < 0) {
+                    close();
+                    return;
+                }
+                readBuffer.flip();
+                while (readBuffer.remaining() >= 4) {
+                    int length = RpcFrames.checkLength(readBuffer.getInt(readBuffer.position()));
+                    if (readBuffer.remaining() < 4 + length) {
+                        if (readBuffer.capacity() < 4 + length) {
+                            // grow for a frame larger than the buffer
+                            ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                            larger.put(readBuffer);
+                            larger.flip();
+                            readBuffer = larger;
+                        }
+                        break;
+                    }
+                    readBuffer.getInt();
+                    long requestId = readBuffer.getLong();
+                    byte code = readBuffer.get();
+                    byte[] payload = new byte[length - 8 - 1];
+                    readBuffer.get(payload);
+                    dispatch(requestId, code, payload);
+                }
+                readBuffer.compact();
+            } catch (ProtocolException e) {
+                LOGGER.warn("Closing rpc connection after a protocol error", e);
+                close();
+            } catch (IOException e) {
+                LOGGER.debug("Rpc connection is lost", e);
+                close();
+            }
+        }
+
+        private void dispatch(long requestId, byte code, byte[] payload) {
+            RpcMessageType type = RpcMessageType.of(code);
+            if (type == null || type == RpcMessageType.OK || type == RpcMessageType.ERROR) {
+                send(requestId, JsonRpcResponse.error("Unsupported request type " + code));
+                return;
+            }
+            session.handle(new JsonRpcRequest(type, payload)).thenAccept(response -> send(requestId, response));
+        }
+
+        private void send(long requestId, JsonRpcResponse response) {
+            FileRegion region = response.getRegion();
+            ByteBuffer frame;
+            try {
+                frame = RpcFrames.encode(
+                        requestId, response.getType(), response.getPayload(), region == null ? 0 : region.getLength());
+            } catch (IllegalArgumentException e) {
+                // the response exceeds the frame limit, answer with an error so the client doesn't wait for it
+                response.getTransferred().complete(null);
+                LOGGER.warn("Failed to send the response of request {}", requestId, e);
+                send(requestId, JsonRpcResponse.error(e.getMessage()));
+                return;
+            }
+            outbound.add(new Outbound(frame, region, response.getTransferred()));
+            if (closed) {
+                // the connection may be closed while the frame is added
+                drainOutbound();
+                return;
+            }
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Write the queued frames until the socket is full, in which case the connection waits to be writable.
+         * File regions are transferred from the files to the socket by the kernel.
+         */
+        void flush() {
+            if (closed || !key.isValid()) {
+                return;
+            }
+            try {
+                Outbound next;
+                while ((next = outbound.peek()) != null) {
+                    if (!next.writeTo(channel)) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    outbound.poll();
+                    next.transferred.complete(null);
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                LOGGER.debug("Rpc connection is lost", e);
+                close();
+            }
+        }
+
+        private void drainOutbound() {
+            Outbound next;
+            while ((next = outbound.poll()) != null) {
+                next.transferred.complete(null);
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+            drainOutbound();
+            workerExecutor.execute(session::close);
+        }
+    }
+
+    /**
+     * A frame to send, optionally followed by the bytes of a file region.
+     */
+    private static final class Outbound {
+
+        private final ByteBuffer frame;
+
+        @Nullable
+        private final FileRegion region;
+
+        private final CompletableFuture<Void> transferred;
+
+        private long regionOffset;
+
+        Outbound(ByteBuffer frame, @Nullable FileRegion region, CompletableFuture<Void> transferred) {
+            this.frame = frame;
+            this.region = region;
+            this.transferred = transferred;
+        }
+
+        /**
+         * @return True if the frame is fully written, false if the socket is full.
+         */
+        boolean writeTo(SocketChannel channel) throws IOException {
+            channel.write(frame);
+            if (frame.hasRemaining()) {
+                return false;
+            }
+            while (region != null && regionOffset < region.getLength()) {
+                long n = region.transferTo(regionOffset, channel);
+                if (n <= 0) {
+                    return false;
+                }
+                regionOffset += n;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Serve an embedded server in a child process, see {@link #start(boolean)}.
+     * @param args The base path, the host, the port and the config in json.
+     */
+    public static void main(String[] args) throws Exception {
+        Preconditions.checkArgument(args.length == 4, "Usage: JsonRpcService <basePath> <host> <port> <config>");
+        EmbeddedJsonDatabaseConfig config = OBJECT_MAPPER.readValue(args[3], EmbeddedJsonDatabaseConfig.class);
+        JsonRpcService service = new JsonRpcService(
+                args[0], config, new InetSocketAddress(args[1], Integer.parseInt(args[2])));
+        service.start(true);
+        System.out.println(LISTENING + " " + service.getPort());
+        System.out.flush();
+        // serve until the parent closes the stdin or exits
+        while (System.in.read() >= 0) {
+            // ignore
+        }
+        service.stop();
+        System.exit(0);
+    }
+}
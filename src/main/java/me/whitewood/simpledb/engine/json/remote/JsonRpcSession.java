@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.remote;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.ColumnarBatch;
+import me.whitewood.simpledb.engine.json.common.FileRegion;
+import me.whitewood.simpledb.engine.json.common.TransferableStream;
+import me.whitewood.simpledb.engine.json.server.AsyncJsonDatabaseServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JsonRpcSession serves the requests of a connection to {@link JsonRpcService} with an
+ * {@link AsyncJsonDatabaseServer}, and owns the cursors opened by them.
+ *
+ * Requests are handed over in the order they're received. Requests to the same cursor are executed one after
+ * another in that order, since reading a cursor is stateful, while the other requests run concurrently.
+ * Reading a cursor may block, so it runs on the worker executor rather than the thread handing over requests.
+ *
+ * Stream scans over connections respond the bytes in partition files as file regions, which are transferred from
+ * the files to the sockets by the kernel, so bulk exports don't copy the bytes through the heap.
+ **/
+class JsonRpcSession implements Closeable {
+
+    /** Maximum bytes of a chunk of a stream scan that is read. */
+    static final int STREAM_CHUNK_SIZE = 64 << 10;
+
+    /** Maximum bytes of a chunk of a stream scan that is transferred from a file. */
+    static final int TRANSFER_CHUNK_SIZE = 4 << 20;
+
+    private final AsyncJsonDatabaseServer server;
+
+    private final Executor executor;
+
+    private final boolean zeroCopy;
+
+    private final Map<Long, Cursor> cursors = new ConcurrentHashMap<>();
+
+    private final AtomicLong cursorIds = new AtomicLong();
+
+    private volatile boolean closed;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsonRpcSession.class);
+
+    /**
+     * @param zeroCopy Whether chunks of stream scans in files are responded as file regions, see
+     *                 {@link TransferableStream}. Only connections can send such responses.
+     */
+    JsonRpcSession(AsyncJsonDatabaseServer server, Executor executor, boolean zeroCopy) {
+        this.server = server;
+        this.executor = executor;
+        this.zeroCopy = zeroCopy;
+    }
+
+    /**
+     * Serve a request.
+     * @return The future of the response, which is never completed exceptionally, since errors are answered
+     *         with {@link RpcMessageType#ERROR} responses.
+     */
+    CompletableFuture<JsonRpcResponse> handle(JsonRpcRequest request) {
+        CompletableFuture<JsonRpcResponse> result;
+        try {
+            result = dispatch(request.getType(), new PayloadReader(request.getPayload()));
+        } catch (Exception e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        return result.handle((response, error) -> {
+            if (error == null) {
+                return response;
+            }
+            Throwable cause = unwrap(error);
+            LOGGER.debug("Failed to serve {}", request, cause);
+            return JsonRpcResponse.error(cause.getClass().getName() + ": " + cause.getMessage());
+        });
+    }
+
+    private CompletableFuture<JsonRpcResponse> dispatch(RpcMessageType type, PayloadReader in) throws IOException {
+        switch (type) {
+            case LIST_TABLE_NAMES:
+                return server.listTableNames(in.readString())
+                        .thenApply(names -> ok(new PayloadWriter().writeStrings(names)));
+            case LIST_TABLES:
+                return server.listTables(in.readString())
+                        .thenApply(tables -> ok(new PayloadWriter().writeJson(tables)));
+            case GET_TABLE:
+                return server.getTable(in.readString())
+                        .thenApply(table -> ok(new PayloadWriter().writeJson(table)));
+            case SCAN_TABLE:
+                return server.scanTable(in.readString(), in.readStrings())
+                        .thenApply(nodes -> ok(new PayloadWriter().writeJson(nodes)));
+            case OPEN_STREAM:
+                return server.scanTableAsStream(in.readString(), in.readStrings())
+                        .thenApply(stream -> openCursor(new StreamCursor(stream, zeroCopy)));
+            case OPEN_SCAN:
+                return server.scanTableAsBatches(in.readString(), in.readStrings(), in.readFilters())
+                        .thenApply(reader -> openCursor(new ScanCursor(reader)));
+            case READ_STREAM:
+            case NEXT_BATCH:
+                return readCursor(in.readLong());
+            case CLOSE_CURSOR:
+                return closeCursor(in.readLong());
+            case AGGREGATE_TABLE:
+                return server.aggregateTable(in.readString(), in.readStrings(), in.readAggregates(), in.readFilters())
+                        .thenApply(rows -> ok(new PayloadWriter().writeRows(rows)));
+            case INSERT_ROWS:
+                return server.insertRows(in.readString(), in.readRows())
+                        .thenApply(count -> ok(new PayloadWriter().writeInt(count)));
+            case ANALYZE_TABLE:
+                return server.analyzeTable(in.readString())
+                        .thenApply(statistics -> ok(new PayloadWriter().writeJson(statistics)));
+            case GET_TABLE_STATISTICS:
+                return server.getTableStatistics(in.readString())
+                        .thenApply(statistics -> ok(new PayloadWriter().writeJson(statistics)));
+            case GET_TABLE_VERSION:
+                return server.getTableVersion(in.readString())
+                        .thenApply(version -> ok(new PayloadWriter().writeLong(version)));
+            default:
+                throw new IllegalArgumentException("Unsupported request type " + type);
+        }
+    }
+
+    private JsonRpcResponse openCursor(Cursor cursor) {
+        if (closed) {
+            cursor.closeQuietly();
+            throw new IllegalStateException("The session is closed.");
+        }
+        long id = cursorIds.incrementAndGet();
+        cursors.put(id, cursor);
+        return ok(new PayloadWriter().writeLong(id));
+    }
+
+    private CompletableFuture<JsonRpcResponse> readCursor(long id) {
+        Cursor cursor = cursors.get(id);
+        if (cursor == null) {
+            throw new IllegalArgumentException("Cursor " + id + " doesn't exist.");
+        }
+        return cursor.enqueue(cursor::read, executor);
+    }
+
+    /**
+     * Close a cursor once the reads before are done. Closing an absent cursor is a no-op, since the client closes
+     * cursors without waiting for the responses.
+     */
+    private CompletableFuture<JsonRpcResponse> closeCursor(long id) {
+        Cursor cursor = cursors.remove(id);
+        if (cursor == null) {
+            return CompletableFuture.completedFuture(JsonRpcResponse.ok(new byte[0]));
+        }
+        return cursor.enqueue(() -> {
+            cursor.close();
+            return JsonRpcResponse.ok(new byte[0]);
+        }, executor);
+    }
+
+    /**
+     * Close the remaining cursors, eg. when the connection is lost.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        List<Long> ids = Lists.newArrayList(cursors.keySet());
+        for (Long id : ids) {
+            Cursor cursor = cursors.remove(id);
+            if (cursor != null) {
+                cursor.enqueue(() -> {
+                    cursor.close();
+                    return JsonRpcResponse.ok(new byte[0]);
+                }, executor);
+            }
+        }
+    }
+
+    private static JsonRpcResponse ok(PayloadWriter payload) {
+        return JsonRpcResponse.ok(payload.toByteArray());
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    @FunctionalInterface
+    private interface CursorTask {
+        JsonRpcResponse run() throws IOException;
+    }
+
+    /**
+     * A cursor that serializes the tasks on it. A task that responds with a file region is done once the region
+     * is transferred, since the region is only valid until the cursor is read or closed again.
+     */
+    private abstract static class Cursor implements Closeable {
+
+        private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+
+        synchronized CompletableFuture<JsonRpcResponse> enqueue(CursorTask task, Executor executor) {
+            CompletableFuture<JsonRpcResponse> future = tail.handle((r, e) -> null).thenApplyAsync(ignored -> {
+                try {
+                    return task.run();
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+            tail = future.thenCompose(JsonRpcResponse::getTransferred);
+            return future;
+        }
+
+        abstract JsonRpcResponse read() throws IOException;
+
+        void closeQuietly() {
+            try {
+                close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close cursor", e);
+            }
+        }
+    }
+
+    private static class ScanCursor extends Cursor {
+
+        private final RowBatchReader reader;
+
+        ScanCursor(RowBatchReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Read a batch, whose bytes are the payload as is, which is empty at the end of the scan.
+         */
+        @Override
+        JsonRpcResponse read() throws IOException {
+            ColumnarBatch batch = reader.nextBatch();
+            return JsonRpcResponse.ok(batch == null ? new byte[0] : batch.toByteArray());
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class StreamCursor extends Cursor {
+
+        private final InputStream stream;
+
+        /** Whether bytes in files are responded as file regions, which are only sent by connections. */
+        private final boolean zeroCopy;
+
+        @Nullable
+        private byte[] buffer;
+
+        StreamCursor(InputStream stream, boolean zeroCopy) {
+            this.stream = stream;
+            this.zeroCopy = zeroCopy && stream instanceof TransferableStream;
+        }
+
+        /**
+         * Read a chunk, which is empty at the end of the stream. Chunks in files are responded as file regions,
+         * whose bytes follow the length of the chunk on the wire.
+         */
+        @Override
+        JsonRpcResponse read() throws IOException {
+            if (zeroCopy) {
+                FileRegion region = ((TransferableStream) stream).nextFileRegion(TRANSFER_CHUNK_SIZE);
+                if (region != null) {
+                    byte[] length = new PayloadWriter(4).writeInt((int) region.getLength()).toByteArray();
+                    return JsonRpcResponse.ok(length, region);
+                }
+            }
+            if (buffer == null) {
+                buffer = new byte[STREAM_CHUNK_SIZE];
+            }
+            int length = Math.max(stream.read(buffer), 0);
+            return ok(new PayloadWriter(length + 4).writeBytes(buffer, 0, length));
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+}
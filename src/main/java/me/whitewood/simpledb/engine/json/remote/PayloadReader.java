@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.remote;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * PayloadReader decodes the payloads encoded by {@link PayloadWriter}.
+ *
+ * Malformed payloads are reported as {@link ProtocolException}s.
+ **/
+class PayloadReader {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final JsonFilter.Operator[] OPERATORS = JsonFilter.Operator.values();
+
+    private static final JsonAggregate.Function[] FUNCTIONS = JsonAggregate.Function.values();
+
+    private final ByteBuffer buffer;
+
+    PayloadReader(byte[] payload) {
+        this.buffer = ByteBuffer.wrap(payload);
+    }
+
+    byte readByte() throws ProtocolException {
+        try {
+            return buffer.get();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    int readInt() throws ProtocolException {
+        try {
+            return buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    long readLong() throws ProtocolException {
+        try {
+            return buffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    byte[] readBytes() throws ProtocolException {
+        int length = readInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw truncated();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Nullable
+    String readString() throws ProtocolException {
+        int length = readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw truncated();
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    @Nullable
+    List<String> readStrings() throws ProtocolException {
+        int size = readInt();
+        if (size == -1) {
+            return null;
+        }
+        List<String> values = Lists.newArrayListWithCapacity(checkSize(size));
+        for (int i = 0; i < size; i++) {
+            values.add(readString());
+        }
+        return values;
+    }
+
+    @Nullable
+    Object readValue() throws ProtocolException {
+        byte tag = readByte();
+        switch (tag) {
+            case PayloadWriter.NULL:
+                return null;
+            case PayloadWriter.STRING:
+                return readString();
+            case PayloadWriter.DOUBLE:
+                return Double.longBitsToDouble(readLong());
+            case PayloadWriter.INT:
+                return readInt();
+            case PayloadWriter.LONG:
+                return readLong();
+            case PayloadWriter.BOOLEAN:
+                return readByte() != 0;
+            default:
+                throw new ProtocolException("Unknown value tag " + tag);
+        }
+    }
+
+    List<Object[]> readRows() throws ProtocolException {
+        int size = checkSize(readInt());
+        List<Object[]> rows = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            Object[] row = new Object[checkSize(readInt())];
+            for (int j = 0; j < row.length; j++) {
+                row[j] = readValue();
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Nullable
+    List<JsonFilter> readFilters() throws ProtocolException {
+        int size = readInt();
+        if (size == -1) {
+            return null;
+        }
+        List<JsonFilter> filters = Lists.newArrayListWithCapacity(checkSize(size));
+        for (int i = 0; i < size; i++) {
+            String column = readString();
+            int operator = readByte();
+            if (operator < 0 || operator >= OPERATORS.length) {
+                throw new ProtocolException("Unknown filter operator " + operator);
+            }
+            filters.add(new JsonFilter(column, OPERATORS[operator], readValue()));
+        }
+        return filters;
+    }
+
+    List<JsonAggregate> readAggregates() throws ProtocolException {
+        int size = checkSize(readInt());
+        List<JsonAggregate> aggregates = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            int function = readByte();
+            if (function < 0 || function >= FUNCTIONS.length) {
+                throw new ProtocolException("Unknown aggregate function " + function);
+            }
+            aggregates.add(new JsonAggregate(FUNCTIONS[function], readString()));
+        }
+        return aggregates;
+    }
+
+    <T> T readJson(Class<T> clazz) throws IOException {
+        return OBJECT_MAPPER.readValue(readBytes(), clazz);
+    }
+
+    <T> T readJson(TypeReference<T> type) throws IOException {
+        return OBJECT_MAPPER.readValue(readBytes(), type);
+    }
+
+    /**
+     * Sizes are bounded by the remaining bytes, since each element takes at least one byte.
+     */
+    private int checkSize(int size) throws ProtocolException {
+        if (size < 0 || size > buffer.remaining()) {
+            throw truncated();
+        }
+        return size;
+    }
+
+    private static ProtocolException truncated() {
+        return new ProtocolException("Truncated or malformed payload");
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.remote;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * PayloadWriter encodes the payloads of rpc messages in a compact binary form, which is decoded by
+ * {@link PayloadReader}. Integers are big-endian, and strings are length-prefixed UTF-8.
+ *
+ * Values of rows are tagged with their types, so typed rows keep their java types across the wire without
+ * any schema. Metadata like tables and statistics are rare and small, so they're embedded as json.
+ **/
+class PayloadWriter {
+
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte DOUBLE = 2;
+    static final byte INT = 3;
+    static final byte BOOLEAN = 4;
+    static final byte LONG = 5;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final ByteArrayOutputStream bytes;
+
+    private final DataOutputStream out;
+
+    PayloadWriter() {
+        this(64);
+    }
+
+    PayloadWriter(int size) {
+        this.bytes = new ByteArrayOutputStream(size);
+        this.out = new DataOutputStream(bytes);
+    }
+
+    PayloadWriter writeByte(int value) {
+        try {
+            out.writeByte(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    PayloadWriter writeInt(int value) {
+        try {
+            out.writeInt(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    PayloadWriter writeLong(long value) {
+        try {
+            out.writeLong(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    PayloadWriter writeBytes(byte[] value) {
+        return writeBytes(value, 0, value.length);
+    }
+
+    PayloadWriter writeBytes(byte[] value, int offset, int length) {
+        writeInt(length);
+        bytes.write(value, offset, length);
+        return this;
+    }
+
+    /**
+     * Write a nullable string, whose length is -1 if it's null.
+     */
+    PayloadWriter writeString(@Nullable String value) {
+        if (value == null) {
+            return writeInt(-1);
+        }
+        return writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write a nullable list of strings, whose size is -1 if it's null.
+     */
+    PayloadWriter writeStrings(@Nullable List<String> values) {
+        if (values == null) {
+            return writeInt(-1);
+        }
+        writeInt(values.size());
+        for (String value : values) {
+            writeString(value);
+        }
+        return this;
+    }
+
+    /**
+     * Write a value of a row, tagged with its type.
+     * @throws IllegalArgumentException When the type of the value is not supported.
+     */
+    PayloadWriter writeValue(@Nullable Object value) {
+        if (value == null) {
+            return writeByte(NULL);
+        } else if (value instanceof String) {
+            return writeByte(STRING).writeString((String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            return writeByte(DOUBLE).writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return writeByte(INT).writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            return writeByte(LONG).writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            return writeByte(BOOLEAN).writeByte((Boolean) value ? 1 : 0);
+        }
+        throw new IllegalArgumentException("Unsupported value type: " + value.getClass().getName());
+    }
+
+    /**
+     * Write rows of the same width.
+     */
+    PayloadWriter writeRows(List<Object[]> rows) {
+        writeInt(rows.size());
+        for (Object[] row : rows) {
+            writeInt(row.length);
+            for (Object value : row) {
+                writeValue(value);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Write a nullable list of filters, whose size is -1 if it's null.
+     */
+    PayloadWriter writeFilters(@Nullable List<JsonFilter> filters) {
+        if (filters == null) {
+            return writeInt(-1);
+        }
+        writeInt(filters.size());
+        for (JsonFilter filter : filters) {
+            writeString(filter.getColumn());
+            writeByte(filter.getOperator().ordinal());
+            writeValue(filter.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Write a list of aggregates.
+     */
+    PayloadWriter writeAggregates(List<JsonAggregate> aggregates) {
+        writeInt(aggregates.size());
+        for (JsonAggregate aggregate : aggregates) {
+            writeByte(aggregate.getFunction().ordinal());
+            writeString(aggregate.getColumn());
+        }
+        return this;
+    }
+
+    /**
+     * Write an object as json, eg. metadata of tables.
+     */
+    PayloadWriter writeJson(Object value) {
+        try {
+            return writeBytes(OBJECT_MAPPER.writeValueAsBytes(value));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    byte[] toByteArray() {
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.remote;
+
+import com.google.common.base.Preconditions;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.ColumnarBatch;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * RemoteBatchReader reads the batches of a scan cursor on a {@link JsonRpcService}.
+ *
+ * A fixed number of batches are requested ahead of the reader, so the round trips overlap with the reading,
+ * while the batches buffered on both ends stay bounded, which keeps the backpressure of the scan on the service.
+ * The cursor is closed on the service once the scan ends or the reader is closed.
+ **/
+class RemoteBatchReader implements RowBatchReader {
+
+    private final JsonRpcClient client;
+
+    private final long cursorId;
+
+    private final int width;
+
+    private final int prefetch;
+
+    private final Deque<CompletableFuture<JsonRpcResponse>> inflight = new ArrayDeque<>();
+
+    private boolean finished;
+
+    private boolean closed;
+
+    @Nullable
+    private ColumnarBatch current;
+
+    private int position;
+
+    RemoteBatchReader(JsonRpcClient client, long cursorId, int width, int prefetch) {
+        Preconditions.checkArgument(prefetch > 0, "Prefetch must be positive: %s", prefetch);
+        this.client = client;
+        this.cursorId = cursorId;
+        this.width = width;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    @Nullable
+    public ColumnarBatch nextBatch() throws IOException {
+        Preconditions.checkState(!closed, "The reader is closed.");
+        if (finished) {
+            return null;
+        }
+        while (inflight.size() < prefetch) {
+            inflight.add(client.send(new JsonRpcRequest(
+                    RpcMessageType.NEXT_BATCH, new PayloadWriter().writeLong(cursorId).toByteArray())));
+        }
+        ColumnarBatch batch;
+        try {
+            JsonRpcResponse response = JsonRpcClient.await(inflight.poll(), JsonRpcClient.TIMEOUT);
+            JsonRpcClient.checkResponse(response);
+            byte[] payload = response.getPayload();
+            // the batch is read in place from the payload
+            batch = payload.length == 0 ? null : ColumnarBatch.wrap(ByteBuffer.wrap(payload));
+        } catch (IllegalArgumentException e) {
+            release();
+            throw new ProtocolException("Malformed batch: " + e.getMessage());
+        } catch (IOException e) {
+            release();
+            throw e;
+        }
+        if (batch == null) {
+            release();
+        }
+        return batch;
+    }
+
+    @Override
+    public boolean readRow(Object[] row) throws IOException {
+        Preconditions.checkArgument(row.length >= width,
+                "Row buffer of size %s is smaller than the %s projected columns", row.length, width);
+        if (current == null || position == current.getSize()) {
+            current = nextBatch();
+            position = 0;
+            if (current == null) {
+                return false;
+            }
+        }
+        current.readRow(position++, row);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        release();
+    }
+
+    /**
+     * Close the cursor without waiting, since the requests in flight are answered before the cursor is closed.
+     */
+    private void release() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        inflight.clear();
+        current = null;
+        client.send(new JsonRpcRequest(
+                RpcMessageType.CLOSE_CURSOR, new PayloadWriter().writeLong(cursorId).toByteArray()));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.remote;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * RemoteInputStream reads the bytes of a stream scan cursor on a {@link JsonRpcService} chunk by chunk.
+ * The next chunk is requested as soon as the current one arrives, so the transfer overlaps with the reading.
+ * The cursor is closed on the service once the stream ends or is closed.
+ **/
+class RemoteInputStream extends InputStream {
+
+    private final JsonRpcClient client;
+
+    private final long cursorId;
+
+    @Nullable
+    private CompletableFuture<JsonRpcResponse> next;
+
+    private byte[] chunk = new byte[0];
+
+    private int position;
+
+    private boolean finished;
+
+    private boolean closed;
+
+    RemoteInputStream(JsonRpcClient client, long cursorId) {
+        this.client = client;
+        this.cursorId = cursorId;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return chunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - position;
+    }
+
+    /**
+     * Make sure there are bytes to read.
+     * @return False if the end of the stream is reached.
+     */
+    private boolean fill() throws IOException {
+        if (closed) {
+            throw new IOException("The stream is closed.");
+        }
+        while (position == chunk.length) {
+            if (finished) {
+                return false;
+            }
+            if (next == null) {
+                next = requestChunk();
+            }
+            try {
+                chunk = JsonRpcClient.checkResponse(JsonRpcClient.await(next, JsonRpcClient.TIMEOUT)).readBytes();
+            } catch (IOException e) {
+                release();
+                throw e;
+            }
+            position = 0;
+            if (chunk.length == 0) {
+                release();
+                return false;
+            }
+            next = requestChunk();
+        }
+        return true;
+    }
+
+    private CompletableFuture<JsonRpcResponse> requestChunk() {
+        return client.send(new JsonRpcRequest(
+                RpcMessageType.READ_STREAM, new PayloadWriter().writeLong(cursorId).toByteArray()));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        release();
+    }
+
+    private void release() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        next = null;
+        client.send(new JsonRpcRequest(
+                RpcMessageType.CLOSE_CURSOR, new PayloadWriter().writeLong(cursorId).toByteArray()));
+    }
+}
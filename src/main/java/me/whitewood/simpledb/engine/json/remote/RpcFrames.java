@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.remote;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frames of the messages on the wire, which are laid out as:
+ *
+ * [length: int][request id: long][type: byte][payload: bytes]
+ *
+ * where the length counts the bytes after itself. The request id is chosen by the client and echoed by the
+ * response, so that requests are pipelined on a connection and responses are matched regardless of their order.
+ **/
+final class RpcFrames {
+
+    /** Bytes of the length, request id and type. */
+    static final int HEADER_SIZE = 4 + 8 + 1;
+
+    /** Upper bound of the bytes after the length, to reject corrupted or hostile frames early. */
+    static final int MAX_FRAME_SIZE = 256 << 20;
+
+    private RpcFrames() {}
+
+    static ByteBuffer encode(long requestId, RpcMessageType type, byte[] payload) {
+        return encode(requestId, type, payload, 0);
+    }
+
+    /**
+     * Encode a frame whose payload is followed by bytes that are written separately, eg. from a file.
+     * @param trailingLength The number of bytes that follow the encoded payload.
+     */
+    static ByteBuffer encode(long requestId, RpcMessageType type, byte[] payload, long trailingLength) {
+        long length = 8 + 1 + payload.length + trailingLength;
+        if (length > MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Frame of " + length + " bytes exceeds the limit " + MAX_FRAME_SIZE);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        frame.putInt((int) length);
+        frame.putLong(requestId);
+        frame.put(type.getCode());
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Check the length of a frame.
+     * @return The number of bytes after the length.
+     * @throws ProtocolException When the length is out of range.
+     */
+    static int checkLength(int length) throws ProtocolException {
+        if (length < 8 + 1 || length > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Invalid frame length " + length);
+        }
+        return length;
+    }
+}
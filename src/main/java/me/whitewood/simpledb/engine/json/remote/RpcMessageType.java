@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.remote;
+
+/**
+ * Types of the messages between {@link JsonRpcClient} and {@link JsonRpcService}, which are encoded as a single
+ * byte in frames. Requests are answered by either an {@link #OK} or an {@link #ERROR} response.
+ *
+ * Scans and stream scans are served by cursors on the service, so that their results are pulled by the client
+ * piece by piece: the client opens a cursor, fetches batches or chunks from it, and closes it.
+ **/
+public enum RpcMessageType {
+
+    LIST_TABLE_NAMES(1),
+    LIST_TABLES(2),
+    GET_TABLE(3),
+    SCAN_TABLE(4),
+    OPEN_STREAM(5),
+    READ_STREAM(6),
+    OPEN_SCAN(7),
+    NEXT_BATCH(8),
+    CLOSE_CURSOR(9),
+    INSERT_ROWS(10),
+    ANALYZE_TABLE(11),
+    GET_TABLE_STATISTICS(12),
+    GET_TABLE_VERSION(13),
+    AGGREGATE_TABLE(14),
+
+    OK(64),
+    ERROR(65);
+
+    private static final RpcMessageType[] TYPES = new RpcMessageType[128];
+
+    static {
+        for (RpcMessageType type : values()) {
+            TYPES[type.code] = type;
+        }
+    }
+
+    private final byte code;
+
+    RpcMessageType(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * @return The type of the code, or null if the code is unknown, eg. sent by a newer peer.
+     */
+    public static RpcMessageType of(byte code) {
+        return code >= 0 ? TYPES[code] : null;
+    }
+}
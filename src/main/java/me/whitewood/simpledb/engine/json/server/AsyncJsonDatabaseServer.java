@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
+
+import javax.annotation.Nullable;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AsyncJsonDatabaseServer is the non-blocking variant of {@link JsonDatabaseServer}. Requests return immediately
+ * with futures that are completed by the server, so callers can keep many requests in flight without blocking a
+ * thread per request. Errors, including requests rejected by an overloaded server, complete the futures
+ * exceptionally rather than being thrown.
+ **/
+public interface AsyncJsonDatabaseServer {
+
+    CompletableFuture<List<String>> listTableNames(@Nullable String pattern);
+
+    CompletableFuture<List<JsonTable>> listTables(@Nullable String pattern);
+
+    CompletableFuture<JsonTable> getTable(String tableName);
+
+    CompletableFuture<List<JsonNode>> scanTable(String tableName, @Nullable List<String> columns);
+
+    CompletableFuture<InputStream> scanTableAsStream(String tableName, @Nullable List<String> columns);
+
+    CompletableFuture<JsonRowReader> scanTableAsRows(
+            String tableName, @Nullable List<String> columns, @Nullable List<JsonFilter> filters);
+
+    /**
+     * @return The future of the reader, which completes once the scan is started.
+     */
+    CompletableFuture<RowBatchReader> scanTableAsBatches(
+            String tableName, @Nullable List<String> columns, @Nullable List<JsonFilter> filters);
+
+    CompletableFuture<List<Object[]>> aggregateTable(
+            String tableName,
+            List<String> groupColumns,
+            List<JsonAggregate> aggregates,
+            @Nullable List<JsonFilter> filters);
+
+    CompletableFuture<Integer> insertRows(String tableName, List<Object[]> rows);
+
+    CompletableFuture<JsonTableStatistics> analyzeTable(String tableName);
+
+    /**
+     * @return The future of the statistics, which completes with null if the table is never analyzed.
+     */
+    CompletableFuture<JsonTableStatistics> getTableStatistics(String tableName);
+
+    CompletableFuture<Long> getTableVersion(String tableName);
+}
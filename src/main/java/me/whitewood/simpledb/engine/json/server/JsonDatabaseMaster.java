@@ -18,7 +18,11 @@
 package me.whitewood.simpledb.engine.json.server;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
 import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -29,7 +33,7 @@ import java.util.List;
  *
  * 1. Manage metadata of the json database.
  * 2. Provide metadata of the json database.
- * 3. Serve reads(writes are not supported at the moment).
+ * 3. Serve reads and inserts.
  **/
 public interface JsonDatabaseMaster {
 
@@ -47,6 +51,14 @@ public interface JsonDatabaseMaster {
      */
     List<JsonTable> listTables(String pattern);
 
+    /**
+     * Get a table by the exact name.
+     * @param tableName The table name.
+     * @return The table.
+     * @throws IllegalArgumentException When the table doesn't exist.
+     */
+    JsonTable getTable(String tableName);
+
     /**
      * Scan table with a desired column name list.
      * @param tableName The table name.
@@ -57,10 +69,63 @@ public interface JsonDatabaseMaster {
 
     /**
      * Scan table as stream with a desired column name list.
+     * The stream carries the raw json lines of the table, so the columns are applied by the {@link
+     * me.whitewood.simpledb.engine.json.client.JsonReader} that parses the stream.
      * @param tableName The table name.
      * @param columns Optional column names. Null denotes all columns are desired.
      * @return The InputStream of the data of the table.
      */
     InputStream scanTableAsStream(String tableName, List<String> columns) throws IOException;
 
+    /**
+     * Scan table as typed rows with a desired column name list and pushed-down filters.
+     * @param tableName The table name.
+     * @param columns Optional column names. Null denotes all columns are desired.
+     * @param filters Optional conjunctive filters. Null denotes no filter.
+     * @return The reader of the rows in the order of the columns.
+     */
+    JsonRowReader scanTableAsRows(String tableName, List<String> columns, List<JsonFilter> filters) throws IOException;
+
+    /**
+     * Compute grouped aggregates over the rows that satisfy pushed-down filters.
+     * @param tableName The table name.
+     * @param groupColumns The group column names, which may be empty.
+     * @param aggregates The aggregates.
+     * @param filters Optional conjunctive filters. Null denotes no filter.
+     * @return The rows of the group values followed by the aggregate results, see
+     *         {@link me.whitewood.simpledb.engine.json.common.AggregateAccumulator}.
+     */
+    List<Object[]> aggregateTable(
+            String tableName, List<String> groupColumns, List<JsonAggregate> aggregates, List<JsonFilter> filters)
+            throws IOException;
+
+    /**
+     * Insert rows into a table.
+     * @param tableName The table name.
+     * @param rows The rows of values in the order of the columns of the table.
+     * @return The number of inserted rows.
+     */
+    int insertRows(String tableName, List<Object[]> rows) throws IOException;
+
+    /**
+     * Compute the statistics of a table by reading all of its rows, and persist them in the database.
+     * @param tableName The table name.
+     * @return The statistics.
+     */
+    JsonTableStatistics analyzeTable(String tableName) throws IOException;
+
+    /**
+     * Get the statistics of a table computed by the last {@link #analyzeTable(String)}.
+     * @param tableName The table name.
+     * @return The statistics, or null if the table is never analyzed.
+     */
+    JsonTableStatistics getTableStatistics(String tableName) throws IOException;
+
+    /**
+     * Get the version of the data of a table, which changes whenever rows are added to or removed from the table.
+     * @param tableName The table name.
+     * @return The version, which is only comparable for equality.
+     */
+    long getTableVersion(String tableName) throws IOException;
+
 }
@@ -18,7 +18,12 @@
 package me.whitewood.simpledb.engine.json.server;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
 import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
 
 import javax.annotation.Nullable;
 import java.io.InputStream;
@@ -39,9 +44,47 @@ public interface JsonDatabaseServer {
     List<JsonTable> listTables(@Nullable String pattern, long timeout, TimeUnit unit)
             throws InterruptedException, ExecutionException, TimeoutException;
 
+    JsonTable getTable(String tableName, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException;
+
     List<JsonNode> scanTable(String tableName, @Nullable List<String> columns, long timeout, TimeUnit unit)
             throws InterruptedException, ExecutionException, TimeoutException;
 
     InputStream scanTableAsStream(String tableName, @Nullable List<String> columns, long timeout, TimeUnit unit)
             throws InterruptedException, ExecutionException, TimeoutException;
+
+    JsonRowReader scanTableAsRows(
+            String tableName,
+            @Nullable List<String> columns,
+            @Nullable List<JsonFilter> filters,
+            long timeout,
+            TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException;
+
+    RowBatchReader scanTableAsBatches(
+            String tableName,
+            @Nullable List<String> columns,
+            @Nullable List<JsonFilter> filters,
+            long timeout,
+            TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException;
+
+    List<Object[]> aggregateTable(
+            String tableName,
+            List<String> groupColumns,
+            List<JsonAggregate> aggregates,
+            @Nullable List<JsonFilter> filters,
+            long timeout,
+            TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException;
+
+    int insertRows(String tableName, List<Object[]> rows, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException;
+
+    JsonTableStatistics analyzeTable(String tableName, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException;
+
+    @Nullable
+    JsonTableStatistics getTableStatistics(String tableName, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException;
+
+    long getTableVersion(String tableName, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException;
 }
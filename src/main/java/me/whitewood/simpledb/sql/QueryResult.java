@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.sql;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * QueryResult is the materialized result of a query, which is immutable and can be shared by readers.
+ **/
+public class QueryResult {
+
+    private final List<String> columnNames;
+
+    private final List<Object[]> rows;
+
+    public QueryResult(List<String> columnNames, List<Object[]> rows) {
+        this.columnNames = Collections.unmodifiableList(columnNames);
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * @return The rows of values in the order of the columns. The arrays must not be modified.
+     */
+    public List<Object[]> getRows() {
+        return rows;
+    }
+
+    /**
+     * Estimate the heap usage of the result.
+     */
+    long getMemorySize() {
+        long size = 0;
+        for (Object[] row : rows) {
+            // array header and references
+            size += 16 + row.length * 8L;
+            for (Object value : row) {
+                if (value instanceof String) {
+                    size += 40 + ((String) value).length() * 2L;
+                } else if (value != null) {
+                    size += 16;
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("QueryResult{columnNames=").append(columnNames).append(", rows=[");
+        for (int i = 0; i < rows.size(); i++) {
+            sb.append(i == 0 ? "" : ", ").append(Arrays.toString(rows.get(i)));
+        }
+        return sb.append("]}").toString();
+    }
+}
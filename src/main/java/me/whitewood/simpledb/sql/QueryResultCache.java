@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.sql;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import me.whitewood.simpledb.sql.adapter.json.JsonAdapterSchema;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlFunction;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlJoin;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlOperator;
+import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.SqlSyntax;
+import org.apache.calcite.sql.SqlUnresolvedFunction;
+import org.apache.calcite.sql.dialect.CalciteSqlDialect;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.util.SqlBasicVisitor;
+import org.apache.calcite.sql.validate.SqlNameMatchers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * QueryResultCache caches the results of queries in front of the execution of a connection, for dashboards that
+ * send the same queries over data that rarely changes.
+ *
+ * Queries are parsed by {@link Parser}, and the cache key is the SQL unparsed from the {@link SqlNode}, so queries
+ * that only differ in whitespaces or the case of keywords and unquoted identifiers share the results. Each result
+ * is stored along with the versions of the json tables that the query reads (see
+ * {@link JsonAdapterSchema#getTableVersion(String)}), which are taken before the execution, and a cached result is
+ * only returned if the versions are unchanged. Results also expire after a TTL, and the least recently used results
+ * are evicted once their estimated heap usage exceeds the capacity.
+ *
+ * Queries that are not cached, but executed directly every time:
+ *
+ * 1. Statements other than queries.
+ * 2. Queries that call dynamic or non-deterministic functions, eg. CURRENT_TIMESTAMP or RAND().
+ * 3. Queries that read relations other than the tables of the json schema, eg. views or VALUES, whose versions
+ *    are unknown.
+ **/
+public class QueryResultCache {
+
+    private final Connection connection;
+
+    private final JsonAdapterSchema schema;
+
+    private final Parser parser = new Parser();
+
+    private final long capacity;
+
+    private final Cache<String, CachedResult> results;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryResultCache.class);
+
+    /**
+     * @param connection The connection that executes the queries, whose default schema is the json schema.
+     * @param schema The json schema.
+     * @param capacity The maximum estimated heap usage of the results in bytes.
+     * @param ttl How long a result is kept after it's computed.
+     * @param unit The unit of the TTL.
+     */
+    public QueryResultCache(Connection connection, JsonAdapterSchema schema, long capacity, long ttl, TimeUnit unit) {
+        Preconditions.checkArgument(capacity > 0, "Result cache capacity must be positive: %s", capacity);
+        this.connection = connection;
+        this.schema = schema;
+        this.capacity = capacity;
+        // a single segment, so that the capacity is not divided among segments
+        this.results = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(capacity)
+                .weigher((String key, CachedResult result) ->
+                        (int) Math.min(result.result.getMemorySize(), Integer.MAX_VALUE))
+                .expireAfterWrite(ttl, unit)
+                .build();
+    }
+
+    /**
+     * Execute a query, or return its cached result if the tables it reads are unchanged since it's cached.
+     * @param sql The query.
+     * @return The result.
+     * @throws SQLException When the query fails.
+     */
+    public QueryResult executeQuery(String sql) throws SQLException {
+        SqlNode node = parser.parse(sql);
+        Set<String> tables = getCacheableTables(node);
+        if (tables == null) {
+            return execute(sql);
+        }
+        String key = node.toSqlString(CalciteSqlDialect.DEFAULT).getSql();
+        Map<String, Long> versions = getTableVersions(tables);
+        CachedResult cached = results.getIfPresent(key);
+        if (cached != null && cached.versions.equals(versions)) {
+            hitCount.increment();
+            return cached.result;
+        }
+        missCount.increment();
+        QueryResult result = execute(sql);
+        if (result.getMemorySize() <= capacity) {
+            results.put(key, new CachedResult(versions, result));
+        }
+        return result;
+    }
+
+    /**
+     * Get the json tables that a query reads.
+     * @return The upper-cased table names, or null if the result of the query is not cacheable.
+     */
+    @Nullable
+    Set<String> getCacheableTables(SqlNode node) {
+        if (!node.isA(SqlKind.QUERY)) {
+            return null;
+        }
+        TableCollector collector = new TableCollector(schema.getTableNames());
+        node.accept(collector);
+        return collector.cacheable ? collector.tables : null;
+    }
+
+    private Map<String, Long> getTableVersions(Set<String> tables) throws SQLException {
+        Map<String, Long> versions = new TreeMap<>();
+        try {
+            for (String table : tables) {
+                versions.put(table, schema.getTableVersion(table));
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new SQLException("Failed to get the versions of tables " + tables, e);
+        }
+        return ImmutableMap.copyOf(versions);
+    }
+
+    private QueryResult execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(sql)) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            List<String> columnNames = Lists.newArrayListWithCapacity(metaData.getColumnCount());
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                columnNames.add(metaData.getColumnLabel(i));
+            }
+            List<Object[]> rows = Lists.newArrayList();
+            while (rs.next()) {
+                Object[] row = new Object[columnNames.size()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                rows.add(row);
+            }
+            return new QueryResult(columnNames, rows);
+        }
+    }
+
+    public void invalidateAll() {
+        results.invalidateAll();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Collects the tables in the FROM clauses of a query, and tells if the query is deterministic.
+     */
+    private static class TableCollector extends SqlBasicVisitor<Void> {
+
+        private final Set<String> schemaTables;
+
+        private final Set<String> tables = Sets.newTreeSet();
+
+        private boolean cacheable = true;
+
+        TableCollector(Set<String> schemaTables) {
+            this.schemaTables = schemaTables;
+        }
+
+        @Override
+        public Void visit(SqlCall call) {
+            if (call instanceof SqlSelect) {
+                collectFrom(((SqlSelect) call).getFrom());
+            }
+            SqlOperator operator = call.getOperator();
+            if (operator instanceof SqlUnresolvedFunction) {
+                cacheable &= isDeterministic(((SqlFunction) operator).getSqlIdentifier(), SqlSyntax.FUNCTION);
+            } else {
+                cacheable &= operator.isDeterministic() && !operator.isDynamicFunction();
+            }
+            return super.visit(call);
+        }
+
+        @Override
+        public Void visit(SqlIdentifier id) {
+            // niladic functions like CURRENT_TIMESTAMP are parsed as identifiers
+            if (id.isSimple()) {
+                cacheable &= isDeterministic(id, SqlSyntax.FUNCTION_ID);
+            }
+            return null;
+        }
+
+        private static boolean isDeterministic(@Nullable SqlIdentifier name, SqlSyntax syntax) {
+            if (name == null) {
+                return false;
+            }
+            List<SqlOperator> operators = Lists.newArrayList();
+            SqlStdOperatorTable.instance().lookupOperatorOverloads(
+                    name, null, syntax, operators, SqlNameMatchers.withCaseSensitive(false));
+            for (SqlOperator operator : operators) {
+                if (!operator.isDeterministic() || operator.isDynamicFunction()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void collectFrom(@Nullable SqlNode from) {
+            if (from == null) {
+                return;
+            }
+            switch (from.getKind()) {
+                case IDENTIFIER:
+                    SqlIdentifier id = (SqlIdentifier) from;
+                    String name = id.names.get(id.names.size() - 1).toUpperCase();
+                    if (schemaTables.contains(name)) {
+                        tables.add(name);
+                    } else {
+                        LOGGER.debug("Not caching the query on relation {}, which is not a json table", id);
+                        cacheable = false;
+                    }
+                    return;
+                case JOIN:
+                    collectFrom(((SqlJoin) from).getLeft());
+                    collectFrom(((SqlJoin) from).getRight());
+                    return;
+                case AS:
+                    collectFrom(((SqlCall) from).operand(0));
+                    return;
+                default:
+                    // sub-queries are visited on their own
+                    if (!from.isA(SqlKind.QUERY)) {
+                        cacheable = false;
+                    }
+            }
+        }
+    }
+
+    private static class CachedResult {
+
+        private final Map<String, Long> versions;
+
+        private final QueryResult result;
+
+        CachedResult(Map<String, Long> versions, QueryResult result) {
+            this.versions = versions;
+            this.result = result;
+        }
+    }
+}
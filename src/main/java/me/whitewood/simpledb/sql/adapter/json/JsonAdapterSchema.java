@@ -17,9 +17,11 @@
 
 package me.whitewood.simpledb.sql.adapter.json;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
 import me.whitewood.simpledb.engine.json.common.JsonTable;
 import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseClient;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseConfig;
 import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseServer;
 import org.apache.calcite.schema.Table;
 import org.apache.calcite.schema.impl.AbstractSchema;
@@ -44,14 +46,23 @@ public class JsonAdapterSchema extends AbstractSchema {
     /** Adaptee **/
     private final EmbeddedJsonDatabaseClient jsonDbClient;
 
+    /** Whether scans return rows in the order of partition files, which makes collations of tables valid. */
+    private final boolean orderPreserving;
+
     /** Table name to table mapping. **/
     private Map<String, Table> tableMap;
 
     public JsonAdapterSchema(File basePath, List<org.apache.calcite.model.JsonTable> tables) {
+        this(basePath, tables, new EmbeddedJsonDatabaseConfig());
+    }
+
+    public JsonAdapterSchema(
+            File basePath, List<org.apache.calcite.model.JsonTable> tables, EmbeddedJsonDatabaseConfig config) {
         super();
-        EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(basePath.getAbsolutePath());
+        EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(basePath.getAbsolutePath(), config);
         this.jsonDbClient = server.getClient();
         this.tables = tables;
+        this.orderPreserving = config.isOrderedScan() || config.getScanParallelism() == 1;
     }
 
     @Override
@@ -66,6 +77,18 @@ public class JsonAdapterSchema extends AbstractSchema {
         return tableMap;
     }
 
+    /**
+     * Get the version of the data of a table, which changes whenever rows are added to or removed from the table.
+     * @param name The table name, case-insensitive.
+     * @return The version, which is only comparable for equality.
+     * @throws IOException When IO error occurs.
+     */
+    public long getTableVersion(String name) throws IOException {
+        Table table = getTableMap().get(name.toUpperCase());
+        Preconditions.checkArgument(table instanceof JsonAdapterTable, "Table %s doesn't exist", name);
+        return jsonDbClient.getTableVersion(((JsonAdapterTable) table).getJsonTable().getName());
+    }
+
     synchronized private Map<String, Table> createTableMap() throws IOException {
         // last check to ensure table map is not initialized
         if (tableMap != null) {
@@ -75,7 +98,7 @@ public class JsonAdapterSchema extends AbstractSchema {
         List<String> tableNames = jsonDbClient.listTableNames();
         for (String tableName : tableNames) {
             JsonTable table = jsonDbClient.getTable(tableName);
-            newTableMap.put(tableName.toUpperCase(), new JsonAdapterTable(jsonDbClient, table));
+            newTableMap.put(tableName.toUpperCase(), new JsonAdapterTable(jsonDbClient, table, orderPreserving));
         }
         return newTableMap;
     }
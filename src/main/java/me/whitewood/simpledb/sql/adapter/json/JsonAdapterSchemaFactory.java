@@ -17,6 +17,7 @@
 
 package me.whitewood.simpledb.sql.adapter.json;
 
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseConfig;
 import org.apache.calcite.model.JsonTable;
 import org.apache.calcite.model.ModelHandler;
 import org.apache.calcite.schema.Schema;
@@ -47,6 +48,77 @@ public class JsonAdapterSchemaFactory implements SchemaFactory {
         if (base != null && !directoryFile.isAbsolute()) {
             directoryFile = new File(base, directory);
         }
-        return new JsonAdapterSchema(directoryFile, tables);
+        return new JsonAdapterSchema(directoryFile, tables, toConfig(operand));
+    }
+
+    /**
+     * Engine options that are specified in the operand, eg. `scanParallelism: 4`.
+     */
+    private static EmbeddedJsonDatabaseConfig toConfig(Map<String, Object> operand) {
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        if (operand.containsKey("scanParallelism")) {
+            config.setScanParallelism(((Number) operand.get("scanParallelism")).intValue());
+        }
+        if (operand.containsKey("orderedScan")) {
+            config.setOrderedScan((Boolean) operand.get("orderedScan"));
+        }
+        if (operand.containsKey("splitSize")) {
+            config.setSplitSize(((Number) operand.get("splitSize")).longValue());
+        }
+        if (operand.containsKey("columnarCacheEnabled")) {
+            config.setColumnarCacheEnabled((Boolean) operand.get("columnarCacheEnabled"));
+        }
+        if (operand.containsKey("zoneMapsEnabled")) {
+            config.setZoneMapsEnabled((Boolean) operand.get("zoneMapsEnabled"));
+        }
+        if (operand.containsKey("partitionRollSize")) {
+            config.setPartitionRollSize(((Number) operand.get("partitionRollSize")).longValue());
+        }
+        if (operand.containsKey("memtableEnabled")) {
+            config.setMemtableEnabled((Boolean) operand.get("memtableEnabled"));
+        }
+        if (operand.containsKey("memtableFlushSize")) {
+            config.setMemtableFlushSize(((Number) operand.get("memtableFlushSize")).longValue());
+        }
+        if (operand.containsKey("compactionEnabled")) {
+            config.setCompactionEnabled((Boolean) operand.get("compactionEnabled"));
+        }
+        if (operand.containsKey("compactionIntervalMillis")) {
+            config.setCompactionIntervalMillis(((Number) operand.get("compactionIntervalMillis")).longValue());
+        }
+        if (operand.containsKey("compactionTargetSize")) {
+            config.setCompactionTargetSize(((Number) operand.get("compactionTargetSize")).longValue());
+        }
+        if (operand.containsKey("compactionRetentionMillis")) {
+            config.setCompactionRetentionMillis(((Number) operand.get("compactionRetentionMillis")).longValue());
+        }
+        if (operand.containsKey("blockCacheSize")) {
+            config.setBlockCacheSize(((Number) operand.get("blockCacheSize")).longValue());
+        }
+        if (operand.containsKey("blockCacheBlockSize")) {
+            config.setBlockCacheBlockSize(((Number) operand.get("blockCacheBlockSize")).intValue());
+        }
+        if (operand.containsKey("rowCacheSize")) {
+            config.setRowCacheSize(((Number) operand.get("rowCacheSize")).longValue());
+        }
+        if (operand.containsKey("hotReloadEnabled")) {
+            config.setHotReloadEnabled((Boolean) operand.get("hotReloadEnabled"));
+        }
+        if (operand.containsKey("serverParallelism")) {
+            config.setServerParallelism(((Number) operand.get("serverParallelism")).intValue());
+        }
+        if (operand.containsKey("serverQueueSize")) {
+            config.setServerQueueSize(((Number) operand.get("serverQueueSize")).intValue());
+        }
+        if (operand.containsKey("virtualThreadsEnabled")) {
+            config.setVirtualThreadsEnabled((Boolean) operand.get("virtualThreadsEnabled"));
+        }
+        if (operand.containsKey("scanBatchSize")) {
+            config.setScanBatchSize(((Number) operand.get("scanBatchSize")).intValue());
+        }
+        if (operand.containsKey("scanBatchCapacity")) {
+            config.setScanBatchCapacity(((Number) operand.get("scanBatchCapacity")).intValue());
+        }
+        return config;
     }
 }
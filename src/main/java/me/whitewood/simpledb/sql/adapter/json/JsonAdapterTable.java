@@ -19,27 +19,55 @@ package me.whitewood.simpledb.sql.adapter.json;
 
 import com.google.common.collect.Lists;
 import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonColumnStatistics;
 import me.whitewood.simpledb.engine.json.common.JsonDataType;
 import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
 import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseClient;
-import org.apache.calcite.DataContext;
 import org.apache.calcite.adapter.java.JavaTypeFactory;
-import org.apache.calcite.linq4j.AbstractEnumerable;
 import org.apache.calcite.linq4j.Enumerable;
 import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.QueryProvider;
+import org.apache.calcite.linq4j.Queryable;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.prepare.Prepare;
+import org.apache.calcite.rel.RelCollation;
+import org.apache.calcite.rel.RelCollations;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableModify;
+import org.apache.calcite.rel.logical.LogicalTableModify;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
 import org.apache.calcite.rel.type.RelProtoDataType;
-import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.schema.ModifiableTable;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.Schemas;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.schema.TranslatableTable;
 import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.schema.impl.AbstractTableQueryable;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.lang.reflect.Type;
+import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
 /**
  * Base table that represents a generic table of json adapter.
+ * Scans are planned in the {@link JsonRel#CONVENTION}, so projections, simple filters, aggregates, sorts and limits
+ * are pushed down into a single engine-side scan, see {@link JsonRules}.
+ * Statistics computed by analyzing the table are provided to the planner, see {@link #getStatistic()}.
+ * Rows can be inserted with INSERT statements, see {@link JsonModifiableCollection}.
  **/
-public class JsonAdapterTable extends AbstractTable implements ScannableTable {
+public class JsonAdapterTable extends AbstractTable implements TranslatableTable, ModifiableTable {
 
     private final EmbeddedJsonDatabaseClient jsonDbClient;
 
@@ -56,16 +84,33 @@ public class JsonAdapterTable extends AbstractTable implements ScannableTable {
 
     private final List<JsonDataType> columnTypes = Lists.newArrayList();
 
+    private final boolean orderPreserving;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsonAdapterTable.class);
+
     JsonAdapterTable(EmbeddedJsonDatabaseClient jsonDbClient, JsonTable jsonTable) {
+        this(jsonDbClient, jsonTable, false);
+    }
+
+    /**
+     * @param orderPreserving Whether scans return rows in the order of partition files, in which case columns
+     *                        that are analyzed as sorted are reported as collations.
+     */
+    JsonAdapterTable(EmbeddedJsonDatabaseClient jsonDbClient, JsonTable jsonTable, boolean orderPreserving) {
         super();
         this.jsonDbClient = jsonDbClient;
         this.jsonTable = jsonTable;
+        this.orderPreserving = orderPreserving;
         for (JsonColumn column : jsonTable.getColumns()) {
             columnNames.add(column.getName());
             columnTypes.add(column.getType());
         }
     }
 
+    JsonTable getJsonTable() {
+        return jsonTable;
+    }
+
     @Override
     public RelDataType getRowType(RelDataTypeFactory typeFactory) {
         if (protoRowType != null) {
@@ -80,13 +125,114 @@ public class JsonAdapterTable extends AbstractTable implements ScannableTable {
         return rowType;
     }
 
+    /**
+     * Provide the row count, and the unique keys and collations of single columns, from the statistics of the last
+     * analyzing. Unique keys and collations are only reported if the table is unchanged since then, since they're
+     * relied on for the correctness of plans.
+     */
     @Override
-    public Enumerable<Object[]> scan(DataContext root) {
-        return new AbstractEnumerable<Object[]>() {
-            @Override
-            public Enumerator<Object[]> enumerator() {
-                return new JsonEnumerator(jsonDbClient, jsonTable, columnNames, columnTypes);
+    public Statistic getStatistic() {
+        JsonTableStatistics statistics;
+        try {
+            statistics = jsonDbClient.getTableStatistics(jsonTable.getName());
+        } catch (Exception e) {
+            LOGGER.warn("Failed to get statistics of table {}", jsonTable.getName(), e);
+            return Statistics.UNKNOWN;
+        }
+        if (statistics == null) {
+            return Statistics.UNKNOWN;
+        }
+        List<ImmutableBitSet> keys = Lists.newArrayList();
+        List<RelCollation> collations = Lists.newArrayList();
+        if (!statistics.isStale()) {
+            for (int i = 0; i < columnNames.size(); i++) {
+                JsonColumnStatistics columnStatistics = statistics.getColumns().get(columnNames.get(i));
+                if (columnStatistics == null) {
+                    continue;
+                }
+                if (columnStatistics.isUnique()) {
+                    keys.add(ImmutableBitSet.of(i));
+                }
+                if (orderPreserving && columnStatistics.isSorted()) {
+                    collations.add(RelCollations.of(i));
+                }
             }
-        };
+        }
+        return Statistics.of(statistics.getRowCount(), keys, collations);
+    }
+
+    /**
+     * Convert the table into a scan of the {@link JsonRel#CONVENTION}, which registers the rules that push
+     * operators down to the engine, see {@link JsonRules}.
+     */
+    @Override
+    public RelNode toRel(RelOptTable.ToRelContext context, RelOptTable relOptTable) {
+        return new JsonTableScan(context.getCluster(), relOptTable, this);
+    }
+
+    @Override
+    public Collection getModifiableCollection() {
+        return new JsonModifiableCollection(jsonDbClient, jsonTable);
+    }
+
+    /**
+     * Only INSERT is supported, since partition files are append only.
+     */
+    @Override
+    public TableModify toModificationRel(
+            RelOptCluster cluster,
+            RelOptTable table,
+            Prepare.CatalogReader catalogReader,
+            RelNode child,
+            TableModify.Operation operation,
+            @Nullable List<String> updateColumnList,
+            @Nullable List<RexNode> sourceExpressionList,
+            boolean flattened) {
+        if (operation != TableModify.Operation.INSERT) {
+            throw new UnsupportedOperationException(
+                    String.format("%s is not supported by json table %s", operation, jsonTable.getName()));
+        }
+        return LogicalTableModify.create(
+                table, catalogReader, child, operation, updateColumnList, sourceExpressionList, flattened);
+    }
+
+    @Override
+    public <T> Queryable<T> asQueryable(QueryProvider queryProvider, SchemaPlus schema, String tableName) {
+        return new JsonQueryable<>(queryProvider, schema, this, tableName);
+    }
+
+    @Override
+    public Type getElementType() {
+        return Object[].class;
+    }
+
+    @Override
+    public Expression getExpression(SchemaPlus schema, String tableName, Class clazz) {
+        return Schemas.tableExpression(schema, getElementType(), tableName, clazz);
+    }
+
+    /**
+     * Queryable of a json table, which the generated code of Calcite executes queries on.
+     */
+    public static class JsonQueryable<T> extends AbstractTableQueryable<T> {
+
+        JsonQueryable(QueryProvider queryProvider, SchemaPlus schema, JsonAdapterTable table, String tableName) {
+            super(queryProvider, schema, table, tableName);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Enumerator<T> enumerator() {
+            JsonAdapterTable jsonAdapterTable = (JsonAdapterTable) table;
+            return (Enumerator<T>) new JsonEnumerator(
+                    jsonAdapterTable.jsonDbClient, jsonAdapterTable.jsonTable, jsonAdapterTable.columnNames);
+        }
+
+        /**
+         * Execute a query that is compiled from {@link JsonRel}s, see {@link JsonToEnumerableConverter}.
+         */
+        public Enumerable<Object[]> query(JsonQuery query) {
+            return query.execute(((JsonAdapterTable) table).jsonDbClient);
+        }
     }
 }
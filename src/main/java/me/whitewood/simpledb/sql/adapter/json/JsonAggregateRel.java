@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.sql.adapter.json;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Aggregate that is computed by the engine, so only the results cross over to Calcite.
+ * Only plain group-by and COUNT/SUM/MIN/MAX without DISTINCT or FILTER are supported, see {@link JsonAggregate}.
+ **/
+class JsonAggregateRel extends Aggregate implements JsonRel {
+
+    JsonAggregateRel(
+            RelOptCluster cluster,
+            RelTraitSet traitSet,
+            RelNode input,
+            ImmutableBitSet groupSet,
+            @Nullable List<ImmutableBitSet> groupSets,
+            List<AggregateCall> aggCalls) {
+        super(cluster, traitSet, ImmutableList.of(), input, groupSet, groupSets, aggCalls);
+    }
+
+    /**
+     * @return True if the aggregate can be computed by the engine.
+     */
+    static boolean isSupported(Aggregate aggregate) {
+        if (aggregate.getGroupType() != Group.SIMPLE) {
+            return false;
+        }
+        for (AggregateCall call : aggregate.getAggCallList()) {
+            if (toFunction(call) == null || call.isDistinct() || call.filterArg >= 0
+                    || !call.getCollation().getFieldCollations().isEmpty()) {
+                return false;
+            }
+            int argCount = call.getArgList().size();
+            if (argCount > 1 || (argCount == 0 && toFunction(call) != JsonAggregate.Function.COUNT)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private static JsonAggregate.Function toFunction(AggregateCall call) {
+        switch (call.getAggregation().getKind()) {
+            case COUNT:
+                return JsonAggregate.Function.COUNT;
+            case SUM:
+            case SUM0:
+                return JsonAggregate.Function.SUM;
+            case MIN:
+                return JsonAggregate.Function.MIN;
+            case MAX:
+                return JsonAggregate.Function.MAX;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Aggregate copy(
+            RelTraitSet traitSet,
+            RelNode input,
+            ImmutableBitSet groupSet,
+            @Nullable List<ImmutableBitSet> groupSets,
+            List<AggregateCall> aggCalls) {
+        return new JsonAggregateRel(getCluster(), traitSet, input, groupSet, groupSets, aggCalls);
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return super.computeSelfCost(planner, mq).multiplyBy(COST_FACTOR);
+    }
+
+    @Override
+    public void implement(Implementor implementor) {
+        implementor.visitChild(getInput());
+        List<JsonAggregate.Function> functions = Lists.newArrayListWithCapacity(aggCalls.size());
+        int[] argumentFields = new int[aggCalls.size()];
+        boolean[] zeroIfNull = new boolean[aggCalls.size()];
+        for (int i = 0; i < aggCalls.size(); i++) {
+            AggregateCall call = aggCalls.get(i);
+            functions.add(toFunction(call));
+            argumentFields[i] = call.getArgList().isEmpty() ? -1 : call.getArgList().get(0);
+            zeroIfNull[i] = call.getAggregation().getKind() == SqlKind.SUM0;
+        }
+        JavaTypeFactory typeFactory = (JavaTypeFactory) getCluster().getTypeFactory();
+        List<RelDataTypeField> fields = getRowType().getFieldList();
+        Type[] outputTypes = new Type[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            outputTypes[i] = typeFactory.getJavaClass(fields.get(i).getType());
+        }
+        implementor.getQuery().aggregate(groupSet.toArray(), functions, argumentFields, zeroIfNull, outputTypes);
+    }
+}
@@ -17,23 +17,29 @@
 
 package me.whitewood.simpledb.sql.adapter.json;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
 import me.whitewood.simpledb.engine.json.common.JsonTable;
 import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseClient;
 import org.apache.calcite.linq4j.Enumerator;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.List;
 
 /**
  * Enumerator that iterates over a json table. It's not thread safe.
  *
- * Since JsonClient only supports batch query, JsonEnumerator loads the whole result into memory and
- * provides random access. It's inefficient and impractical for real world use cases, but convenient
- * for experimental uses.
+ * JsonEnumerator pulls records lazily from the row scan of the table, so memory is bounded regardless of
+ * the table size and the first row is available as soon as the first partition file is decoded.
+ * The underlying scan is opened on the first call of {@link #moveNext()} and reopened on {@link #reset()}.
  *
- * TODO: support stream-based IO
+ * Records are decoded by {@link JsonReader} in typed row mode (possibly by parallel workers of the engine),
+ * so each row is decoded directly from the raw bytes in column order, and records that don't satisfy the
+ * pushed-down filters are discarded during parsing.
+ * A new row array is handed out per record, because Calcite operators (eg. joins and sorts) may retain
+ * the rows returned by {@link #current()}.
  **/
 public class JsonEnumerator implements Enumerator<Object[]> {
 
@@ -43,72 +49,73 @@ public class JsonEnumerator implements Enumerator<Object[]> {
 
     private final List<String> columnNames;
 
-    private final List<JsonDataType> columnTypes;
+    @Nullable
+    private final List<JsonFilter> filters;
 
-    private List<JsonNode> resultSet;
+    @Nullable
+    private JsonRowReader reader;
 
-    private int index = -1;
+    @Nullable
+    private Object[] current;
 
-    public JsonEnumerator(EmbeddedJsonDatabaseClient jsonClient, JsonTable jsonTable, List<String> columnNames, List<JsonDataType> columnTypes) {
+    public JsonEnumerator(EmbeddedJsonDatabaseClient jsonClient, JsonTable jsonTable, List<String> columnNames) {
+        this(jsonClient, jsonTable, columnNames, null);
+    }
+
+    public JsonEnumerator(
+            EmbeddedJsonDatabaseClient jsonClient,
+            JsonTable jsonTable,
+            List<String> columnNames,
+            @Nullable List<JsonFilter> filters) {
         this.jsonClient = jsonClient;
         this.jsonTable = jsonTable;
         this.columnNames = columnNames;
-        this.columnTypes = columnTypes;
-        try {
-            resultSet = jsonClient.scanTable(jsonTable);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to query table " + jsonTable.getName(), e);
-        }
+        this.filters = filters;
     }
 
     @Override
     public Object[] current() {
-        if (index < 0) {
+        if (current == null) {
             throw new IllegalStateException("moveNext() must be called before getting the first element.");
         }
-        JsonNode currentNode = resultSet.get(index);
-        Object[] row = new Object[columnNames.size()];
-        for (int i=0;i<columnNames.size();i++) {
-            JsonNode fieldNode = currentNode.get(columnNames.get(i));
-            JsonDataType jsonDataType = columnTypes.get(i);
-            switch (jsonDataType) {
-                case STRING:
-                    row[i] = fieldNode.asText();
-                    break;
-                case NUMBER:
-                    row[i] = fieldNode.asDouble();
-                    break;
-                case INTEGER:
-                    row[i] = fieldNode.asInt();
-                    break;
-                case BOOLEAN:
-                    row[i] = fieldNode.asBoolean();
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unsupported JSON type: " + jsonDataType);
-
-            }
-        }
-        return row;
+        return current;
     }
 
     @Override
     public boolean moveNext() {
-        if (index < resultSet.size() - 1) {
-            index++;
-            return true;
-        } else {
-            return false;
+        try {
+            if (reader == null) {
+                reader = jsonClient.scanTableAsRows(jsonTable, columnNames, filters);
+            }
+            Object[] row = new Object[columnNames.size()];
+            current = reader.readRow(row) ? row : null;
+            return current != null;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to query table " + jsonTable.getName(), e);
         }
     }
 
     @Override
     public void reset() {
-        index = -1;
+        closeReader();
+        current = null;
     }
 
     @Override
     public void close() {
-        resultSet = null;
+        closeReader();
+        current = null;
+    }
+
+    private void closeReader() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to close the scan of table " + jsonTable.getName(), e);
+            } finally {
+                reader = null;
+            }
+        }
     }
 }
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.sql.adapter.json;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexNode;
+
+/**
+ * Filter that is evaluated by the engine. The condition is a conjunction of the predicates that are supported by
+ * {@link JsonFilterTranslator}, each of which references a single field.
+ **/
+class JsonFilterRel extends Filter implements JsonRel {
+
+    JsonFilterRel(RelOptCluster cluster, RelTraitSet traitSet, RelNode input, RexNode condition) {
+        super(cluster, traitSet, ImmutableList.of(), input, condition);
+    }
+
+    @Override
+    public Filter copy(RelTraitSet traitSet, RelNode input, RexNode condition) {
+        return new JsonFilterRel(getCluster(), traitSet, input, condition);
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return super.computeSelfCost(planner, mq).multiplyBy(COST_FACTOR);
+    }
+
+    @Override
+    public void implement(Implementor implementor) {
+        implementor.visitChild(getInput());
+        JsonFilterTranslator translator = JsonFilterTranslator.of(getInput().getRowType());
+        for (RexNode predicate : RelOptUtil.conjunctions(getCondition())) {
+            JsonFilter filter = translator.translate(predicate);
+            Preconditions.checkState(filter != null, "Predicate %s is not supported by the engine", predicate);
+            implementor.getQuery().filter(RelOptUtil.InputFinder.bits(predicate).nth(0), filter);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.sql.adapter.json;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.NlsString;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * JsonFilterTranslator translates Calcite conjunctions into {@link JsonFilter}s that the engine can evaluate.
+ *
+ * Only simple predicates are supported: comparisons between a column and a literal, `IS [NOT] NULL` on a column,
+ * and boolean columns used as predicates (eg. `is_prepaid` or `NOT is_prepaid`). Other predicates are left to Calcite.
+ **/
+class JsonFilterTranslator {
+
+    private final List<JsonColumn> columns;
+
+    JsonFilterTranslator(JsonTable table) {
+        this(table.getColumns());
+    }
+
+    /**
+     * @param columns The columns that the input refs of predicates are indexes of. Predicates on columns of
+     *                null types are not supported.
+     */
+    JsonFilterTranslator(List<JsonColumn> columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Create a translator of the predicates on the fields of a row type, eg. the output of a projection.
+     */
+    static JsonFilterTranslator of(RelDataType rowType) {
+        List<JsonColumn> columns = Lists.newArrayList();
+        for (RelDataTypeField field : rowType.getFieldList()) {
+            columns.add(new JsonColumn(field.getName(), toJsonType(field.getType().getSqlTypeName())));
+        }
+        return new JsonFilterTranslator(columns);
+    }
+
+    @Nullable
+    private static JsonDataType toJsonType(SqlTypeName type) {
+        switch (type) {
+            case CHAR:
+            case VARCHAR:
+                return JsonDataType.STRING;
+            case BOOLEAN:
+                return JsonDataType.BOOLEAN;
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+                return JsonDataType.INTEGER;
+            case FLOAT:
+            case REAL:
+            case DOUBLE:
+            case DECIMAL:
+                return JsonDataType.NUMBER;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Translate a conjunction.
+     * @param node The predicate whose input refs are the indexes of the table columns.
+     * @return The equivalent filter, or null if the predicate is not supported.
+     */
+    @Nullable
+    JsonFilter translate(RexNode node) {
+        switch (node.getKind()) {
+            case INPUT_REF:
+                return booleanColumn((RexInputRef) node, true);
+            case NOT:
+                RexNode operand = ((RexCall) node).getOperands().get(0);
+                return operand instanceof RexInputRef ? booleanColumn((RexInputRef) operand, false) : null;
+            case IS_NULL:
+            case IS_NOT_NULL:
+                return nullCheck((RexCall) node);
+            case EQUALS:
+            case NOT_EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL:
+                return comparison((RexCall) node);
+            default:
+                return null;
+        }
+    }
+
+    @Nullable
+    private JsonFilter booleanColumn(RexInputRef ref, boolean value) {
+        JsonColumn column = columns.get(ref.getIndex());
+        if (column.getType() != JsonDataType.BOOLEAN) {
+            return null;
+        }
+        return new JsonFilter(column.getName(), JsonFilter.Operator.EQUALS, value);
+    }
+
+    @Nullable
+    private JsonFilter nullCheck(RexCall call) {
+        RexNode operand = call.getOperands().get(0);
+        if (!(operand instanceof RexInputRef)) {
+            return null;
+        }
+        JsonFilter.Operator operator = call.getKind() == SqlKind.IS_NULL
+                ? JsonFilter.Operator.IS_NULL
+                : JsonFilter.Operator.IS_NOT_NULL;
+        return new JsonFilter(columns.get(((RexInputRef) operand).getIndex()).getName(), operator, null);
+    }
+
+    @Nullable
+    private JsonFilter comparison(RexCall call) {
+        RexNode left = call.getOperands().get(0);
+        RexNode right = call.getOperands().get(1);
+        JsonFilter.Operator operator = toOperator(call.getKind());
+        if (left instanceof RexLiteral && right instanceof RexInputRef) {
+            RexNode tmp = left;
+            left = right;
+            right = tmp;
+            operator = operator.reverse();
+        }
+        if (!(left instanceof RexInputRef) || !(right instanceof RexLiteral)) {
+            return null;
+        }
+        JsonColumn column = columns.get(((RexInputRef) left).getIndex());
+        Object value = toValue((RexLiteral) right, column.getType());
+        if (value == null) {
+            return null;
+        }
+        return new JsonFilter(column.getName(), operator, value);
+    }
+
+    private static JsonFilter.Operator toOperator(SqlKind kind) {
+        switch (kind) {
+            case EQUALS:
+                return JsonFilter.Operator.EQUALS;
+            case NOT_EQUALS:
+                return JsonFilter.Operator.NOT_EQUALS;
+            case LESS_THAN:
+                return JsonFilter.Operator.LESS_THAN;
+            case LESS_THAN_OR_EQUAL:
+                return JsonFilter.Operator.LESS_THAN_OR_EQUAL;
+            case GREATER_THAN:
+                return JsonFilter.Operator.GREATER_THAN;
+            case GREATER_THAN_OR_EQUAL:
+                return JsonFilter.Operator.GREATER_THAN_OR_EQUAL;
+            default:
+                throw new IllegalArgumentException("Unsupported comparison: " + kind);
+        }
+    }
+
+    /**
+     * Convert a literal to the java value that is comparable with the decoded values of the column.
+     * Numeric literals keep their precision (eg. `age < 2.5` on an integer column), since
+     * {@link JsonFilter} compares numbers by their numeric values.
+     */
+    @Nullable
+    private static Object toValue(RexLiteral literal, @Nullable JsonDataType type) {
+        if (literal.isNull() || type == null) {
+            return null;
+        }
+        switch (type) {
+            case STRING:
+                return literal.getValue() instanceof NlsString ? literal.getValueAs(String.class) : null;
+            case BOOLEAN:
+                return literal.getValue() instanceof Boolean ? literal.getValueAs(Boolean.class) : null;
+            case INTEGER:
+            case NUMBER:
+                if (!(literal.getValue() instanceof BigDecimal)) {
+                    return null;
+                }
+                BigDecimal decimal = literal.getValueAs(BigDecimal.class);
+                try {
+                    return decimal.longValueExact();
+                } catch (ArithmeticException e) {
+                    return decimal.doubleValue();
+                }
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.sql.adapter.json;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseClient;
+
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The collection that Calcite inserts rows of a {@link JsonAdapterTable} into, see
+ * {@link org.apache.calcite.schema.ModifiableTable}. It's created per statement and not thread safe.
+ *
+ * Calcite adds the rows one by one and then reads {@link #size()} to count them, so rows are buffered and
+ * inserted in batches, and the last batch is flushed by {@link #size()}. So an INSERT statement costs one
+ * engine commit per batch rather than per row.
+ **/
+class JsonModifiableCollection extends AbstractCollection<Object> {
+
+    static final int BATCH_SIZE = 1024;
+
+    private final EmbeddedJsonDatabaseClient jsonDbClient;
+
+    private final JsonTable jsonTable;
+
+    private final List<Object[]> pending = Lists.newArrayListWithCapacity(BATCH_SIZE);
+
+    private int inserted = 0;
+
+    JsonModifiableCollection(EmbeddedJsonDatabaseClient jsonDbClient, JsonTable jsonTable) {
+        this.jsonDbClient = jsonDbClient;
+        this.jsonTable = jsonTable;
+    }
+
+    @Override
+    public boolean add(Object row) {
+        // rows of single column tables are not wrapped in arrays
+        pending.add(row instanceof Object[] ? (Object[]) row : new Object[]{row});
+        if (pending.size() >= BATCH_SIZE) {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of rows that are inserted, after flushing the buffered ones.
+     */
+    @Override
+    public int size() {
+        flush();
+        return inserted;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        throw new UnsupportedOperationException("Rows of json tables can only be inserted.");
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            inserted += jsonDbClient.insertRows(jsonTable.getName(), pending);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to insert into table " + jsonTable.getName(), e);
+        }
+        pending.clear();
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.sql.adapter.json;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.common.AggregateAccumulator;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseClient;
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.EnumerableDefaults;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.function.Functions;
+import org.apache.calcite.linq4j.tree.Primitive;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * JsonQuery is the query that a tree of {@link JsonRel}s is compiled into, and is executed as a single scan of a
+ * json table. It's built by the rels at planning time, and immutable once it's handed to the generated code.
+ *
+ * Operators are applied in the order of the rels, from the scan up. The leading projections and filters are
+ * pushed down to the scan of the engine, so unused columns and rows are discarded during parsing, and an aggregate
+ * on top of them is computed by the engine as well, see
+ * {@link EmbeddedJsonDatabaseClient#aggregateTable(JsonTable, List, List, List)}. Sorts and limits, and the
+ * operators after them, are applied to the rows of the engine as they're pulled, so a limit stops the scan early
+ * and a sort with a limit only keeps the top rows in memory. A projection or an aggregate after them still prunes
+ * the columns of the scan, to the ones that are referenced by the operators.
+ **/
+public class JsonQuery {
+
+    private final JsonTable table;
+
+    /** Columns of the scan, which are the output until the rows leave the engine. */
+    private List<String> columns;
+
+    private final List<JsonFilter> filters = Lists.newArrayList();
+
+    /** Group columns of the aggregate computed by the engine, or null if the scan is not aggregated. */
+    @Nullable
+    private List<String> groupColumns;
+
+    @Nullable
+    private List<JsonAggregate> aggregates;
+
+    /** Converts the rows of the aggregate computed by the engine into the types of the rel. */
+    @Nullable
+    private Function1<Object[], Object[]> aggregateConverter;
+
+    /** Operators applied to the rows of the engine, in order. */
+    private final List<Function1<Enumerable<Object[]>, Enumerable<Object[]>>> stages = Lists.newArrayList();
+
+    /** Fields of the scan that are referenced by the stages, until a stage changes the fields of the rows. */
+    private final BitSet stageFields = new BitSet();
+
+    /**
+     * Fields of the scan that are read, or null for all of them. The unread fields are null in the rows that are
+     * handed to the stages, which don't reference them.
+     */
+    @Nullable
+    private BitSet readFields;
+
+    JsonQuery(JsonTable table) {
+        this.table = table;
+        this.columns = table.getColumns().stream().map(JsonColumn::getName).collect(Collectors.toList());
+    }
+
+    /**
+     * @return True if the operators so far are computed by the engine while scanning.
+     */
+    private boolean isScan() {
+        return groupColumns == null && stages.isEmpty();
+    }
+
+    /**
+     * Project the fields of the output.
+     * @param fields The indexes of the projected fields in the current output.
+     */
+    void project(int[] fields) {
+        if (isScan()) {
+            columns = Arrays.stream(fields).mapToObj(columns::get).collect(Collectors.toList());
+            return;
+        }
+        pruneScan(fields);
+        stages.add(rows -> rows.select(row -> {
+            Object[] projected = new Object[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                projected[i] = row[fields[i]];
+            }
+            return projected;
+        }));
+    }
+
+    /**
+     * Filter the rows of the output.
+     * @param field The index of the filtered field in the current output.
+     * @param filter The filter of the field, whose column name is ignored.
+     */
+    void filter(int field, JsonFilter filter) {
+        if (isScan()) {
+            filters.add(new JsonFilter(columns.get(field), filter.getOperator(), filter.getValue()));
+            return;
+        }
+        if (readFields == null) {
+            stageFields.set(field);
+        }
+        stages.add(rows -> rows.where(row -> filter.test(row[field])));
+    }
+
+    /**
+     * Aggregate the rows of the output, which results in the group fields followed by the aggregates.
+     * @param groupFields The indexes of the group fields in the current output.
+     * @param functions The aggregate functions.
+     * @param argumentFields The index of the argument of each function in the current output, or -1 for COUNT(*).
+     * @param zeroIfNull Whether each aggregate results in 0 rather than null, ie. SUM0.
+     * @param outputTypes The java types of the output fields, which the results are converted to.
+     */
+    void aggregate(
+            int[] groupFields,
+            List<JsonAggregate.Function> functions,
+            int[] argumentFields,
+            boolean[] zeroIfNull,
+            Type[] outputTypes) {
+        Preconditions.checkArgument(functions.size() == argumentFields.length && functions.size() == zeroIfNull.length,
+                "Expected the arguments of %s aggregates", functions.size());
+        Preconditions.checkArgument(outputTypes.length == groupFields.length + functions.size(),
+                "Expected %s output types, but got %s", groupFields.length + functions.size(), outputTypes.length);
+        Function1<Object[], Object[]> converter = converter(groupFields.length, zeroIfNull, outputTypes);
+        if (isScan()) {
+            groupColumns = Arrays.stream(groupFields).mapToObj(columns::get).collect(Collectors.toList());
+            aggregates = Lists.newArrayListWithCapacity(functions.size());
+            for (int i = 0; i < functions.size(); i++) {
+                int field = argumentFields[i];
+                aggregates.add(new JsonAggregate(functions.get(i), field < 0 ? null : columns.get(field)));
+            }
+            aggregateConverter = converter;
+            return;
+        }
+        pruneScan(IntStream.concat(Arrays.stream(groupFields), Arrays.stream(argumentFields).filter(f -> f >= 0))
+                .toArray());
+        List<JsonAggregate> rowAggregates = Lists.newArrayListWithCapacity(functions.size());
+        // the aggregated values follow the group values in the rows that are accumulated
+        int[] slots = new int[functions.size()];
+        for (int i = 0; i < functions.size(); i++) {
+            int field = argumentFields[i];
+            rowAggregates.add(new JsonAggregate(functions.get(i), field < 0 ? null : "$" + field));
+            slots[i] = field < 0 ? -1 : groupFields.length + field;
+        }
+        stages.add(rows -> new AbstractEnumerable<Object[]>() {
+            @Override
+            public Enumerator<Object[]> enumerator() {
+                AggregateAccumulator accumulator = new AggregateAccumulator(groupFields.length, rowAggregates);
+                try (Enumerator<Object[]> input = rows.enumerator()) {
+                    while (input.moveNext()) {
+                        Object[] row = input.current();
+                        Object[] buffer = new Object[groupFields.length + row.length];
+                        for (int i = 0; i < groupFields.length; i++) {
+                            buffer[i] = row[groupFields[i]];
+                        }
+                        System.arraycopy(row, 0, buffer, groupFields.length, row.length);
+                        accumulator.accumulate(buffer, slots);
+                    }
+                }
+                return Linq4j.enumerator(Lists.transform(accumulator.getRows(), converter::apply));
+            }
+        });
+    }
+
+    /**
+     * Sort the rows of the output and take a range of them.
+     * @param fields The indexes of the sort keys in the current output, empty for a limit only.
+     * @param descending Whether each key is sorted in descending order.
+     * @param nullsFirst Whether nulls of each key come first.
+     * @param offset The number of leading rows to skip.
+     * @param fetch The maximum number of rows to take, or null for all of them.
+     */
+    void sort(int[] fields, boolean[] descending, boolean[] nullsFirst, int offset, @Nullable Integer fetch) {
+        if (readFields == null) {
+            Arrays.stream(fields).forEach(stageFields::set);
+        }
+        if (fields.length == 0) {
+            stages.add(rows -> {
+                Enumerable<Object[]> skipped = offset > 0 ? rows.skip(offset) : rows;
+                return fetch == null ? skipped : skipped.take(fetch);
+            });
+            return;
+        }
+        Comparator<Object[]> comparator = comparator(fields, descending, nullsFirst);
+        if (fetch != null) {
+            stages.add(rows -> EnumerableDefaults.orderBy(
+                    rows, Functions.identitySelector(), comparator, offset, fetch));
+        } else {
+            stages.add(rows -> {
+                Enumerable<Object[]> sorted = rows.orderBy(Functions.identitySelector(), comparator);
+                return offset > 0 ? sorted.skip(offset) : sorted;
+            });
+        }
+    }
+
+    /**
+     * Called before adding a stage that changes the fields of the rows. If it's the first one over the rows of the
+     * scan, only the fields that are referenced by the stages so far and by it are read.
+     */
+    private void pruneScan(int[] fields) {
+        if (groupColumns != null || readFields != null) {
+            return;
+        }
+        readFields = (BitSet) stageFields.clone();
+        Arrays.stream(fields).forEach(readFields::set);
+    }
+
+    /**
+     * Execute the query. The scan starts when the rows are enumerated.
+     */
+    Enumerable<Object[]> execute(EmbeddedJsonDatabaseClient client) {
+        Enumerable<Object[]> rows;
+        if (groupColumns == null && readFields != null && readFields.cardinality() < columns.size()) {
+            int[] fields = readFields.stream().toArray();
+            List<String> readColumns = Arrays.stream(fields).mapToObj(columns::get).collect(Collectors.toList());
+            int width = columns.size();
+            rows = new AbstractEnumerable<Object[]>() {
+                @Override
+                public Enumerator<Object[]> enumerator() {
+                    return new JsonEnumerator(client, table, readColumns, filters);
+                }
+            }.select(row -> {
+                Object[] expanded = new Object[width];
+                for (int i = 0; i < fields.length; i++) {
+                    expanded[fields[i]] = row[i];
+                }
+                return expanded;
+            });
+        } else if (groupColumns == null) {
+            rows = new AbstractEnumerable<Object[]>() {
+                @Override
+                public Enumerator<Object[]> enumerator() {
+                    return new JsonEnumerator(client, table, columns, filters);
+                }
+            };
+        } else {
+            rows = new AbstractEnumerable<Object[]>() {
+                @Override
+                public Enumerator<Object[]> enumerator() {
+                    try {
+                        List<Object[]> results = client.aggregateTable(table, groupColumns, aggregates, filters);
+                        return Linq4j.enumerator(Lists.transform(results, aggregateConverter::apply));
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to aggregate table " + table.getName(), e);
+                    }
+                }
+            };
+        }
+        for (Function1<Enumerable<Object[]>, Enumerable<Object[]>> stage : stages) {
+            rows = stage.apply(rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Create the converter of the rows of an aggregate, since the results of the engine are typed by the values,
+     * eg. SUM of an integer column is a Long while Calcite expects an Integer.
+     */
+    private static Function1<Object[], Object[]> converter(
+            int groupCount, boolean[] zeroIfNull, Type[] outputTypes) {
+        Primitive[] primitives = new Primitive[outputTypes.length];
+        for (int i = 0; i < outputTypes.length; i++) {
+            Primitive primitive = Primitive.ofBoxOr(outputTypes[i]);
+            boolean numeric = primitive != null
+                    && (primitive.isFixedNumeric() || primitive == Primitive.DOUBLE || primitive == Primitive.FLOAT);
+            primitives[i] = numeric ? primitive : null;
+        }
+        return row -> {
+            for (int i = 0; i < row.length; i++) {
+                Object value = row[i];
+                if (value == null && i >= groupCount && zeroIfNull[i - groupCount]) {
+                    value = 0L;
+                }
+                if (value instanceof Number && primitives[i] != null) {
+                    value = primitives[i].number((Number) value);
+                }
+                row[i] = value;
+            }
+            return row;
+        };
+    }
+
+    private static Comparator<Object[]> comparator(int[] fields, boolean[] descending, boolean[] nullsFirst) {
+        return (left, right) -> {
+            for (int i = 0; i < fields.length; i++) {
+                Object l = left[fields[i]];
+                Object r = right[fields[i]];
+                int c;
+                if (l == null || r == null) {
+                    // nulls are placed regardless of the direction
+                    c = l == r ? 0 : (l == null) == nullsFirst[i] ? -1 : 1;
+                } else {
+                    c = descending[i] ? JsonFilter.compare(r, l) : JsonFilter.compare(l, r);
+                }
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        };
+    }
+}
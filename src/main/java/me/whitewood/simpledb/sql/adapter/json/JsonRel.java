@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.sql.adapter.json;
+
+import com.google.common.base.Preconditions;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.rel.RelNode;
+
+import javax.annotation.Nullable;
+
+/**
+ * Relational expressions that are computed by the json engine rather than by Calcite's generic operators.
+ *
+ * Rels of the {@link #CONVENTION} form a tree over a {@link JsonTableScan}, which is compiled bottom up into a
+ * single {@link JsonQuery} and executed as one engine-side scan, see {@link JsonToEnumerableConverter}. The rels
+ * are produced from the logical ones by {@link JsonRules}.
+ **/
+public interface JsonRel extends RelNode {
+
+    /** Calling convention of the rels that are computed by the json engine. */
+    Convention CONVENTION = new Convention.Impl("JSON", JsonRel.class);
+
+    /**
+     * Factor of the cost of an operator that is pushed down to the engine, relative to the equivalent Calcite
+     * operator. Pushed-down operators don't materialize rows in between, and they shrink the rows that are
+     * handed over to Calcite, see {@link JsonToEnumerableConverter#computeSelfCost}.
+     */
+    double COST_FACTOR = 0.1;
+
+    /**
+     * Add the operator to the query that is compiled from the input.
+     */
+    void implement(Implementor implementor);
+
+    /**
+     * Compiles a tree of json rels into a query.
+     */
+    class Implementor {
+
+        @Nullable
+        private RelOptTable table;
+
+        @Nullable
+        private JsonQuery query;
+
+        void visitChild(RelNode input) {
+            ((JsonRel) input).implement(this);
+        }
+
+        void setTable(RelOptTable table, JsonQuery query) {
+            this.table = table;
+            this.query = query;
+        }
+
+        RelOptTable getTable() {
+            Preconditions.checkState(table != null, "The query doesn't start with a table scan.");
+            return table;
+        }
+
+        JsonQuery getQuery() {
+            Preconditions.checkState(query != null, "The query doesn't start with a table scan.");
+            return query;
+        }
+    }
+}
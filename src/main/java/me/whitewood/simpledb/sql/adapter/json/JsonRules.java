@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.sql.adapter.json;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.logical.LogicalFilter;
+import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rel.logical.LogicalSort;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Rules that push the logical operators on top of a {@link JsonTableScan} down to the engine, by converting them
+ * into the {@link JsonRel#CONVENTION}. Operators that are only partly supported are split, so the supported part
+ * is pushed down and the rest is left to Calcite:
+ *
+ * 1. Filters: the conjuncts that are supported by {@link JsonFilterTranslator}.
+ * 2. Projections: the fields that are referenced by the expressions.
+ * 3. Aggregates: see {@link JsonAggregateRel#isSupported}.
+ * 4. Sorts and limits: see {@link JsonSortRel#isSupported}.
+ **/
+final class JsonRules {
+
+    private JsonRules() {}
+
+    /** Hands the rows of the engine over to Calcite. */
+    static final RelOptRule TO_ENUMERABLE = JsonToEnumerableConverterRule.CONFIG.toRule();
+
+    static final List<RelOptRule> RULES = ImmutableList.of(
+            JsonFilterRule.CONFIG.toRule(),
+            JsonProjectRule.CONFIG.toRule(),
+            JsonAggregateRule.CONFIG.toRule(),
+            JsonSortRule.CONFIG.toRule());
+
+    private static class JsonToEnumerableConverterRule extends ConverterRule {
+
+        static final Config CONFIG = Config.INSTANCE
+                .withConversion(RelNode.class, JsonRel.CONVENTION, EnumerableConvention.INSTANCE,
+                        "JsonToEnumerableConverterRule")
+                .withRuleFactory(JsonToEnumerableConverterRule::new);
+
+        JsonToEnumerableConverterRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            return new JsonToEnumerableConverter(
+                    rel.getCluster(), rel.getTraitSet().replace(EnumerableConvention.INSTANCE), rel);
+        }
+    }
+
+    private static class JsonFilterRule extends ConverterRule {
+
+        static final Config CONFIG = Config.INSTANCE
+                .withConversion(LogicalFilter.class, Convention.NONE, JsonRel.CONVENTION, "JsonFilterRule")
+                .withRuleFactory(JsonFilterRule::new);
+
+        JsonFilterRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        @Nullable
+        public RelNode convert(RelNode rel) {
+            LogicalFilter filter = (LogicalFilter) rel;
+            JsonFilterTranslator translator = JsonFilterTranslator.of(filter.getInput().getRowType());
+            List<RexNode> pushed = Lists.newArrayList();
+            List<RexNode> remaining = Lists.newArrayList();
+            for (RexNode predicate : RelOptUtil.conjunctions(filter.getCondition())) {
+                (translator.translate(predicate) != null ? pushed : remaining).add(predicate);
+            }
+            if (pushed.isEmpty()) {
+                return null;
+            }
+            RexBuilder rexBuilder = filter.getCluster().getRexBuilder();
+            RelNode input = convert(filter.getInput(), filter.getInput().getTraitSet().replace(JsonRel.CONVENTION));
+            RelNode jsonFilter = new JsonFilterRel(
+                    filter.getCluster(), filter.getTraitSet().replace(JsonRel.CONVENTION), input,
+                    RexUtil.composeConjunction(rexBuilder, pushed));
+            if (remaining.isEmpty()) {
+                return jsonFilter;
+            }
+            return LogicalFilter.create(jsonFilter, RexUtil.composeConjunction(rexBuilder, remaining));
+        }
+    }
+
+    private static class JsonProjectRule extends ConverterRule {
+
+        static final Config CONFIG = Config.INSTANCE
+                .withConversion(LogicalProject.class, p -> !p.containsOver(), Convention.NONE, JsonRel.CONVENTION,
+                        "JsonProjectRule")
+                .withRuleFactory(JsonProjectRule::new);
+
+        JsonProjectRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        @Nullable
+        public RelNode convert(RelNode rel) {
+            LogicalProject project = (LogicalProject) rel;
+            RelNode input = convert(project.getInput(), project.getInput().getTraitSet().replace(JsonRel.CONVENTION));
+            if (project.getProjects().stream().allMatch(p -> p instanceof RexInputRef)) {
+                return new JsonProjectRel(project.getCluster(), project.getTraitSet().replace(JsonRel.CONVENTION),
+                        input, project.getProjects(), project.getRowType());
+            }
+            // push down the referenced fields, and compute the expressions over them in Calcite
+            List<RelDataTypeField> inputFields = project.getInput().getRowType().getFieldList();
+            ImmutableBitSet used = RelOptUtil.InputFinder.bits(project.getProjects(), null);
+            if (used.cardinality() == inputFields.size()) {
+                return null;
+            }
+            List<RexNode> refs = Lists.newArrayList();
+            List<String> names = Lists.newArrayList();
+            for (int field : used) {
+                refs.add(new RexInputRef(field, inputFields.get(field).getType()));
+                names.add(inputFields.get(field).getName());
+            }
+            RelDataType rowType = project.getCluster().getTypeFactory().createStructType(
+                    Lists.transform(refs, RexNode::getType), names);
+            RelNode jsonProject = new JsonProjectRel(project.getCluster(),
+                    project.getCluster().traitSetOf(JsonRel.CONVENTION), input, refs, rowType);
+            RexShuttle shuttle = new RexShuttle() {
+                @Override
+                public RexNode visitInputRef(RexInputRef ref) {
+                    return new RexInputRef(used.indexOf(ref.getIndex()), ref.getType());
+                }
+            };
+            return project.copy(project.getTraitSet(), jsonProject, shuttle.apply(project.getProjects()),
+                    project.getRowType());
+        }
+    }
+
+    private static class JsonAggregateRule extends ConverterRule {
+
+        static final Config CONFIG = Config.INSTANCE
+                .withConversion(LogicalAggregate.class, JsonAggregateRel::isSupported, Convention.NONE,
+                        JsonRel.CONVENTION, "JsonAggregateRule")
+                .withRuleFactory(JsonAggregateRule::new);
+
+        JsonAggregateRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalAggregate aggregate = (LogicalAggregate) rel;
+            RelNode input = convert(aggregate.getInput(),
+                    aggregate.getInput().getTraitSet().replace(JsonRel.CONVENTION));
+            return new JsonAggregateRel(aggregate.getCluster(), aggregate.getTraitSet().replace(JsonRel.CONVENTION),
+                    input, aggregate.getGroupSet(), aggregate.getGroupSets(), aggregate.getAggCallList());
+        }
+    }
+
+    private static class JsonSortRule extends ConverterRule {
+
+        static final Config CONFIG = Config.INSTANCE
+                .withConversion(LogicalSort.class, JsonSortRel::isSupported, Convention.NONE, JsonRel.CONVENTION,
+                        "JsonSortRule")
+                .withRuleFactory(JsonSortRule::new);
+
+        JsonSortRule(Config config) {
+            super(config);
+        }
+
+        @Override
+        public RelNode convert(RelNode rel) {
+            LogicalSort sort = (LogicalSort) rel;
+            RelNode input = convert(sort.getInput(), sort.getInput().getTraitSet().replace(JsonRel.CONVENTION));
+            return new JsonSortRel(sort.getCluster(), sort.getTraitSet().replace(JsonRel.CONVENTION), input,
+                    sort.getCollation(), sort.offset, sort.fetch);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.sql.adapter.json;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelCollation;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Sort and/or limit that is applied to the rows of the engine as they're pulled, so a limit stops the scan
+ * early and a sort with a limit keeps only the top rows in memory.
+ **/
+class JsonSortRel extends Sort implements JsonRel {
+
+    JsonSortRel(
+            RelOptCluster cluster,
+            RelTraitSet traitSet,
+            RelNode input,
+            RelCollation collation,
+            @Nullable RexNode offset,
+            @Nullable RexNode fetch) {
+        super(cluster, traitSet, ImmutableList.of(), input, collation, offset, fetch);
+    }
+
+    /**
+     * @return True if the offset and the fetch are constants, rather than eg. dynamic parameters.
+     */
+    static boolean isSupported(Sort sort) {
+        return (sort.offset == null || sort.offset instanceof RexLiteral)
+                && (sort.fetch == null || sort.fetch instanceof RexLiteral);
+    }
+
+    @Override
+    public Sort copy(
+            RelTraitSet traitSet,
+            RelNode input,
+            RelCollation collation,
+            @Nullable RexNode offset,
+            @Nullable RexNode fetch) {
+        return new JsonSortRel(getCluster(), traitSet, input, collation, offset, fetch);
+    }
+
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        return super.computeSelfCost(planner, mq).multiplyBy(COST_FACTOR);
+    }
+
+    @Override
+    public void implement(Implementor implementor) {
+        implementor.visitChild(getInput());
+        List<RelFieldCollation> keys = collation.getFieldCollations();
+        int[] fields = new int[keys.size()];
+        boolean[] descending = new boolean[keys.size()];
+        boolean[] nullsFirst = new boolean[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            RelFieldCollation key = keys.get(i);
+            fields[i] = key.getFieldIndex();
+            descending[i] = key.getDirection().isDescending();
+            RelFieldCollation.NullDirection nullDirection = key.nullDirection;
+            if (nullDirection == RelFieldCollation.NullDirection.UNSPECIFIED) {
+                nullDirection = key.getDirection().defaultNullDirection();
+            }
+            nullsFirst[i] = nullDirection == RelFieldCollation.NullDirection.FIRST;
+        }
+        implementor.getQuery().sort(fields, descending, nullsFirst,
+                offset == null ? 0 : RexLiteral.intValue(offset), fetch == null ? null : RexLiteral.intValue(fetch));
+    }
+}
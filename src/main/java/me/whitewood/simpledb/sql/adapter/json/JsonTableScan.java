@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.sql.adapter.json;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelCollation;
+import org.apache.calcite.rel.RelCollationTraitDef;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableScan;
+
+import java.util.List;
+
+/**
+ * Scan of a json table, which the operators that are pushed down to the engine are applied to.
+ * The rules of the {@link JsonRel#CONVENTION} are registered once a table is scanned, see {@link JsonRules}.
+ **/
+class JsonTableScan extends TableScan implements JsonRel {
+
+    private final JsonAdapterTable jsonTable;
+
+    JsonTableScan(RelOptCluster cluster, RelOptTable table, JsonAdapterTable jsonTable) {
+        this(cluster, traitSetOf(cluster, table), table, jsonTable);
+    }
+
+    private JsonTableScan(RelOptCluster cluster, RelTraitSet traitSet, RelOptTable table, JsonAdapterTable jsonTable) {
+        super(cluster, traitSet, ImmutableList.of(), table);
+        this.jsonTable = jsonTable;
+    }
+
+    /**
+     * The traits of the scan, including the collations from the statistics of the table, if any.
+     */
+    private static RelTraitSet traitSetOf(RelOptCluster cluster, RelOptTable table) {
+        return cluster.traitSetOf(JsonRel.CONVENTION).replaceIfs(RelCollationTraitDef.INSTANCE, () -> {
+            List<RelCollation> collations = table.getCollationList();
+            return collations == null ? ImmutableList.of() : collations;
+        });
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new JsonTableScan(getCluster(), traitSet, table, jsonTable);
+    }
+
+    @Override
+    public void register(RelOptPlanner planner) {
+        planner.addRule(JsonRules.TO_ENUMERABLE);
+        for (RelOptRule rule : JsonRules.RULES) {
+            planner.addRule(rule);
+        }
+    }
+
+    @Override
+    public void implement(Implementor implementor) {
+        implementor.setTable(table, new JsonQuery(jsonTable.getJsonTable()));
+    }
+}
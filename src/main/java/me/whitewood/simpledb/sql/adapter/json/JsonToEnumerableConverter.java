@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.sql.adapter.json;
+
+import com.google.common.base.Preconditions;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.ConventionTraitDef;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterImpl;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Converts a tree of {@link JsonRel}s into the generated code of Calcite, which executes the {@link JsonQuery}
+ * that the tree is compiled into, see {@link JsonAdapterTable.JsonQueryable#query(JsonQuery)}.
+ **/
+class JsonToEnumerableConverter extends ConverterImpl implements EnumerableRel {
+
+    private static final Method QUERY_METHOD =
+            Types.lookupMethod(JsonAdapterTable.JsonQueryable.class, "query", JsonQuery.class);
+
+    JsonToEnumerableConverter(RelOptCluster cluster, RelTraitSet traits, RelNode input) {
+        super(cluster, ConventionTraitDef.INSTANCE, traits, input);
+    }
+
+    @Override
+    public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+        return new JsonToEnumerableConverter(getCluster(), traitSet, sole(inputs));
+    }
+
+    /**
+     * The cost of handing the rows over to Calcite, which is proportional to the number of values. So operators
+     * that are pushed down reduce it by shrinking the rows or the number of them.
+     */
+    @Override
+    public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+        double rows = mq.getRowCount(getInput());
+        double values = rows * getRowType().getFieldCount();
+        return planner.getCostFactory().makeCost(values, values, 0).multiplyBy(JsonRel.COST_FACTOR);
+    }
+
+    @Override
+    public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+        JsonRel.Implementor jsonImplementor = new JsonRel.Implementor();
+        jsonImplementor.visitChild(getInput());
+        // rows are always arrays, even if there's a single field
+        PhysType physType = PhysTypeImpl.of(
+                implementor.getTypeFactory(), getRowType(), JavaRowFormat.ARRAY, false);
+        BlockBuilder builder = new BlockBuilder();
+        Expression table = jsonImplementor.getTable().getExpression(JsonAdapterTable.JsonQueryable.class);
+        Preconditions.checkState(table != null, "Table %s is not queryable", jsonImplementor.getTable());
+        Expression query = implementor.stash(jsonImplementor.getQuery(), JsonQuery.class);
+        Expression enumerable = builder.append("enumerable",
+                Expressions.call(builder.append("table", table), QUERY_METHOD, query));
+        builder.add(Expressions.return_(null, enumerable));
+        return implementor.result(physType, builder.toBlock());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.client;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link JsonReader}.
+ **/
+public class JsonReaderTest {
+
+    private final JsonTable table = new JsonTable(
+            "tbl_order",
+            Lists.newArrayList(
+                    new JsonColumn("order_id", JsonDataType.INTEGER),
+                    new JsonColumn("buyer_id", JsonDataType.STRING),
+                    new JsonColumn("amount", JsonDataType.NUMBER),
+                    new JsonColumn("is_prepaid", JsonDataType.BOOLEAN)));
+
+    private static final String RECORDS =
+            "{\"order_id\":10001, \"buyer_id\":\"u234152\", \"amount\": 27.53, \"tags\": [1, {\"a\": 2}], \"is_prepaid\": false}\n" +
+            "\n" +
+            "{\"buyer_id\":null, \"order_id\":10002, \"extra\": {\"nested\": true}}\n";
+
+    @Test
+    public void testReadRowInColumnOrder() throws IOException {
+        try (JsonReader reader = new JsonReader(
+                new ByteArrayInputStream(RECORDS.getBytes(StandardCharsets.UTF_8)), table, null)) {
+            Object[] row = new Object[4];
+            assertTrue(reader.readRow(row));
+            assertArrayEquals(new Object[]{10001, "u234152", 27.53, false}, row);
+            // the buffer is reused and fields missing from the record are reset to null
+            assertTrue(reader.readRow(row));
+            assertArrayEquals(new Object[]{10002, null, null, null}, row);
+            assertFalse(reader.readRow(row));
+        }
+    }
+
+    @Test
+    public void testReadRowWithProjection() throws IOException {
+        try (JsonReader reader = new JsonReader(
+                new ByteArrayInputStream(RECORDS.getBytes(StandardCharsets.UTF_8)),
+                table,
+                Lists.newArrayList("is_prepaid", "order_id"))) {
+            Object[] row = new Object[2];
+            assertTrue(reader.readRow(row));
+            assertArrayEquals(new Object[]{false, 10001}, row);
+        }
+    }
+
+    @Test
+    public void testReadRowWithFilters() throws IOException {
+        try (JsonReader reader = new JsonReader(
+                new ByteArrayInputStream(RECORDS.getBytes(StandardCharsets.UTF_8)),
+                table,
+                Lists.newArrayList("order_id"),
+                Lists.newArrayList(
+                        new JsonFilter("order_id", JsonFilter.Operator.GREATER_THAN, 10001L),
+                        new JsonFilter("buyer_id", JsonFilter.Operator.IS_NULL, null)))) {
+            Object[] row = new Object[1];
+            assertTrue(reader.readRow(row));
+            assertArrayEquals(new Object[]{10002}, row);
+            assertFalse(reader.readRow(row));
+        }
+        try (JsonReader reader = new JsonReader(
+                new ByteArrayInputStream(RECORDS.getBytes(StandardCharsets.UTF_8)),
+                table,
+                Lists.newArrayList("order_id"),
+                Lists.newArrayList(new JsonFilter("amount", JsonFilter.Operator.LESS_THAN, 30)))) {
+            Object[] row = new Object[1];
+            // the second record has no amount, which never satisfies a comparison
+            assertTrue(reader.readRow(row));
+            assertArrayEquals(new Object[]{10001}, row);
+            assertFalse(reader.readRow(row));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReadRowWithoutSchema() throws IOException {
+        try (JsonReader reader = new JsonReader(new ByteArrayInputStream(RECORDS.getBytes(StandardCharsets.UTF_8)))) {
+            reader.readRow(new Object[4]);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.engine.json.cluster;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.ColumnarBatch;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseClient;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseConfig;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseServer;
+import me.whitewood.simpledb.engine.json.remote.JsonRpcClient;
+import me.whitewood.simpledb.engine.json.remote.JsonRpcService;
+import me.whitewood.simpledb.engine.json.embedded.TestDatabases;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link JsonClusterCoordinator} over nodes on loopback.
+ **/
+public class JsonClusterCoordinatorTest {
+
+    private static final int PARTITIONS = 20;
+
+    private static final int ROWS_PER_PARTITION = 5;
+
+    /** The 3 rows of the test database, and the rows of the added partitions. */
+    private static final int ROWS = 3 + PARTITIONS * ROWS_PER_PARTITION;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File base;
+
+    private final List<JsonRpcService> services = Lists.newArrayList();
+
+    private JsonClusterCoordinator coordinator;
+
+    @Before
+    public void setUp() throws IOException {
+        base = TestDatabases.copyTestDb(folder);
+        for (int p = 0; p < PARTITIONS; p++) {
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < ROWS_PER_PARTITION; i++) {
+                int id = 20000 + p * ROWS_PER_PARTITION + i;
+                lines.append("{\"order_id\":").append(id).append(", \"buyer_id\":\"u").append(id % 7)
+                        .append("\", \"create_time\":\"2020-07-03T10:00:00+08:00\", \"is_prepaid\": ")
+                        .append(id % 2 == 0).append("}\n");
+            }
+            Files.write(new File(base, "tbl_order/part-1-" + p + ".json").toPath(),
+                    lines.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (coordinator != null) {
+            coordinator.close();
+        }
+        services.forEach(JsonRpcService::stop);
+    }
+
+    @Test
+    public void testScatterGatherScans() throws IOException {
+        coordinator = startInProcess(3);
+        JsonTable table = coordinator.getTable("tbl_order");
+        assertEquals(Lists.newArrayList("tbl_order", "tbl_user"), coordinator.listTableNames(null));
+
+        List<Object> orderIds = Lists.newArrayList();
+        try (RowBatchReader reader = coordinator.scanTableAsBatches(
+                table, Collections.singletonList("order_id"), null)) {
+            ColumnarBatch batch;
+            while ((batch = reader.nextBatch()) != null) {
+                for (int i = 0; i < batch.getSize(); i++) {
+                    orderIds.add(batch.getValue(0, i));
+                }
+            }
+        }
+        assertEquals(scanLocally(null), sorted(orderIds));
+
+        List<JsonFilter> filters = Lists.newArrayList(
+                new JsonFilter("is_prepaid", JsonFilter.Operator.EQUALS, true),
+                new JsonFilter("order_id", JsonFilter.Operator.LESS_THAN, 20050));
+        orderIds.clear();
+        try (JsonRowReader reader = coordinator.scanTableAsRows(
+                table, Collections.singletonList("order_id"), filters)) {
+            Object[] row = new Object[1];
+            while (reader.readRow(row)) {
+                orderIds.add(row[0]);
+            }
+        }
+        assertEquals(27, orderIds.size());
+        assertEquals(scanLocally(filters), sorted(orderIds));
+
+        assertEquals(ROWS, coordinator.scanTable("tbl_order", null).size());
+        int lines = 0;
+        try (JsonReader reader = coordinator.scanTableAsStream("tbl_order", Collections.singletonList("buyer_id"))) {
+            JsonNode node;
+            while ((node = reader.readJson()) != null) {
+                assertEquals(1, node.size());
+                lines++;
+            }
+        }
+        assertEquals(ROWS, lines);
+    }
+
+    @Test
+    public void testPartialAggregates() throws IOException {
+        coordinator = startInProcess(3);
+        JsonTable table = coordinator.getTable("tbl_order");
+        List<JsonAggregate> aggregates = Lists.newArrayList(
+                new JsonAggregate(JsonAggregate.Function.COUNT, null),
+                new JsonAggregate(JsonAggregate.Function.SUM, "order_id"),
+                new JsonAggregate(JsonAggregate.Function.MIN, "order_id"),
+                new JsonAggregate(JsonAggregate.Function.MAX, "order_id"));
+        List<JsonFilter> filters = Lists.newArrayList(
+                new JsonFilter("order_id", JsonFilter.Operator.GREATER_THAN_OR_EQUAL, 10002));
+
+        List<Object[]> expected;
+        try (EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(base.getPath())) {
+            expected = server.getClient()
+                    .aggregateTable(table, Collections.singletonList("buyer_id"), aggregates, filters);
+        }
+        List<Object[]> actual =
+                coordinator.aggregateTable(table, Collections.singletonList("buyer_id"), aggregates, filters);
+        assertEquals(9, actual.size());
+        assertEquals(toStrings(expected), toStrings(actual));
+
+        List<Object[]> total = coordinator.aggregateTable(table, Collections.emptyList(), aggregates, null);
+        assertEquals(1, total.size());
+        assertEquals((long) ROWS, total.get(0)[0]);
+        assertEquals(10001.0, total.get(0)[2]);
+        assertEquals(20099.0, total.get(0)[3]);
+    }
+
+    @Test
+    public void testScanResultSize() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            lines.append("{\"order_id\":").append(40000 + i).append(", \"buyer_id\":\"u1\"}\n");
+        }
+        for (int p = 0; p < 10; p++) {
+            Files.write(new File(base, "tbl_order/part-2-" + p + ".json").toPath(),
+                    lines.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        coordinator = startInProcess(3);
+        // no node reaches the limit on its own, but the gathered rows do
+        assertEquals(1024, coordinator.scanTable("tbl_order", null).size());
+    }
+
+    @Test
+    public void testInsertIntoOwner() throws IOException {
+        coordinator = startInProcess(2);
+        long version = coordinator.getTableVersion("tbl_order");
+        assertEquals(1, coordinator.insertRows("tbl_order", Collections.singletonList(
+                new Object[]{30000, "u1", "2020-07-04T10:00:00+08:00", true})));
+        assertNotEquals(version, coordinator.getTableVersion("tbl_order"));
+        assertEquals(ROWS + 1, coordinator.scanTable("tbl_order", null).size());
+    }
+
+    @Test
+    public void testLocalProcesses() throws IOException {
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        config.setScanBatchSize(7);
+        coordinator = JsonClusterCoordinator.startLocal(base.getPath(), config, 2);
+        assertEquals(2, coordinator.getRing().getNodes().size());
+        JsonTable table = coordinator.getTable("tbl_order");
+        List<Object> orderIds = Lists.newArrayList();
+        try (JsonRowReader reader = coordinator.scanTableAsRows(table, Collections.singletonList("order_id"), null)) {
+            Object[] row = new Object[1];
+            while (reader.readRow(row)) {
+                orderIds.add(row[0]);
+            }
+        }
+        assertEquals(scanLocally(null), sorted(orderIds));
+        List<Object[]> count = coordinator.aggregateTable(table, Collections.emptyList(),
+                Collections.singletonList(new JsonAggregate(JsonAggregate.Function.COUNT, null)), null);
+        assertEquals((long) ROWS, count.get(0)[0]);
+    }
+
+    /**
+     * Start nodes as services in this process, each of which serves a server over the test database.
+     */
+    private JsonClusterCoordinator startInProcess(int nodeCount) {
+        List<String> nodeIds = Lists.newArrayList();
+        for (int i = 0; i < nodeCount; i++) {
+            nodeIds.add("node-" + i);
+        }
+        Map<String, JsonRpcClient> clients = Maps.newLinkedHashMap();
+        for (String nodeId : nodeIds) {
+            EmbeddedJsonDatabaseConfig config =
+                    JsonClusterCoordinator.getNodeConfig(new EmbeddedJsonDatabaseConfig(), nodeIds, nodeId);
+            JsonRpcService service = new JsonRpcService(new EmbeddedJsonDatabaseServer(base.getPath(), config),
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            service.start(true);
+            services.add(service);
+            JsonRpcClient client = new JsonRpcClient(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), service.getPort()));
+            client.open();
+            clients.put(nodeId, client);
+        }
+        return new JsonClusterCoordinator(clients);
+    }
+
+    private List<Object> scanLocally(List<JsonFilter> filters) throws IOException {
+        List<Object> orderIds = Lists.newArrayList();
+        try (EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(base.getPath())) {
+            EmbeddedJsonDatabaseClient local = server.getClient();
+            try (JsonRowReader reader = local.scanTableAsRows(
+                    local.getTable("tbl_order"), Collections.singletonList("order_id"), filters)) {
+                Object[] row = new Object[1];
+                while (reader.readRow(row)) {
+                    orderIds.add(row[0]);
+                }
+            }
+        }
+        return sorted(orderIds);
+    }
+
+    private static List<Object> sorted(List<Object> values) {
+        return values.stream().sorted((a, b) -> JsonFilter.compare(a, b)).collect(Collectors.toList());
+    }
+
+    private static List<String> toStrings(List<Object[]> rows) {
+        return rows.stream().map(java.util.Arrays::toString).sorted().collect(Collectors.toList());
+    }
+}
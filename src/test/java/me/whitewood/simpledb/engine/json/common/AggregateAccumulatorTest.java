@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.engine.json.common;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link AggregateAccumulator} and {@link JsonAggregate}.
+ **/
+public class AggregateAccumulatorTest {
+
+    private static final List<JsonAggregate> AGGREGATES = Lists.newArrayList(
+            new JsonAggregate(JsonAggregate.Function.COUNT, null),
+            new JsonAggregate(JsonAggregate.Function.COUNT, "age"),
+            new JsonAggregate(JsonAggregate.Function.SUM, "age"),
+            new JsonAggregate(JsonAggregate.Function.MIN, "age"),
+            new JsonAggregate(JsonAggregate.Function.MAX, "name"));
+
+    /** Each aggregate reads the column of the slot, in rows of (city, age, name). */
+    private static final int[] SLOTS = {-1, 1, 1, 1, 2};
+
+    @Test
+    public void testAccumulate() {
+        AggregateAccumulator accumulator = new AggregateAccumulator(1, AGGREGATES);
+        Object[] row = new Object[3];
+        accumulate(accumulator, row, "a", 30, "x");
+        accumulate(accumulator, row, "b", null, "y");
+        accumulate(accumulator, row, "a", 12, null);
+        accumulate(accumulator, row, null, 1, "z");
+        List<Object[]> rows = accumulator.getRows();
+        assertEquals(3, rows.size());
+        assertArrayEquals(new Object[]{"a", 2L, 2L, 42L, 12, "x"}, rows.get(0));
+        assertArrayEquals(new Object[]{"b", 1L, 0L, null, null, "y"}, rows.get(1));
+        assertArrayEquals(new Object[]{null, 1L, 1L, 1L, 1, "z"}, rows.get(2));
+    }
+
+    @Test
+    public void testMergePartials() {
+        AggregateAccumulator first = new AggregateAccumulator(0, AGGREGATES);
+        Object[] row = new Object[3];
+        accumulate(first, row, "a", 30, "x");
+        accumulate(first, row, "a", 12, "w");
+        AggregateAccumulator second = new AggregateAccumulator(0, AGGREGATES);
+        accumulate(second, row, "b", null, "y");
+        // a partial result of no row
+        AggregateAccumulator third = new AggregateAccumulator(0, AGGREGATES);
+
+        AggregateAccumulator merged = new AggregateAccumulator(0, AGGREGATES);
+        for (AggregateAccumulator partial : Lists.newArrayList(first, second, third)) {
+            partial.getRows().forEach(merged::merge);
+        }
+        assertEquals(1, merged.getRows().size());
+        assertArrayEquals(new Object[]{3L, 2L, 42L, 12, "y"}, merged.getRows().get(0));
+    }
+
+    @Test
+    public void testSumOfDoubles() {
+        JsonAggregate sum = new JsonAggregate(JsonAggregate.Function.SUM, "amount");
+        assertEquals(40.0, sum.merge(sum.accumulate(null, 27.5), 12.5));
+        assertEquals(3L, sum.merge(1, 2));
+        assertNull(sum.merge(null, null));
+    }
+
+    private static void accumulate(AggregateAccumulator accumulator, Object[] row, Object... values) {
+        System.arraycopy(values, 0, row, 0, values.length);
+        accumulator.accumulate(row, SLOTS);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.engine.json.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ColumnarBatch}.
+ **/
+public class ColumnarBatchTest {
+
+    private static final JsonDataType[] TYPES = {
+            JsonDataType.NUMBER, JsonDataType.INTEGER, JsonDataType.STRING, JsonDataType.BOOLEAN};
+
+    @Test
+    public void testRoundTrip() {
+        ColumnarBatch.Builder builder = new ColumnarBatch.Builder(TYPES, 2);
+        builder.add(new Object[]{10001.0, 1, "a", true});
+        builder.add(new Object[]{null, null, null, null});
+        builder.add(new Object[]{10003.5, -3, "a", false});
+        builder.add(new Object[]{0.0, 0, "b", null});
+        assertEquals(4, builder.getSize());
+        ColumnarBatch batch = builder.build();
+
+        ColumnarBatch copy = ColumnarBatch.wrap(ByteBuffer.wrap(batch.toByteArray()));
+        assertEquals(4, copy.getSize());
+        assertEquals(4, copy.getColumnCount());
+        assertArrayEquals(new Object[]{10001.0, 1, "a", true}, copy.getRow(0));
+        assertArrayEquals(new Object[]{null, null, null, null}, copy.getRow(1));
+        assertArrayEquals(new Object[]{10003.5, -3, "a", false}, copy.getRow(2));
+        assertArrayEquals(new Object[]{0.0, 0, "b", null}, copy.getRow(3));
+        // strings are dictionary encoded
+        assertArrayEquals(new String[]{"a", "b"}, copy.getColumn(2).getDictionary());
+        assertEquals(JsonDataType.BOOLEAN, copy.getColumn(3).getType());
+        assertTrue(copy.getColumn(3).isNull(3));
+    }
+
+    @Test
+    public void testWrapSlice() {
+        ColumnarBatch.Builder builder = new ColumnarBatch.Builder(TYPES, 1);
+        builder.add(new Object[]{1.0, 2, "c", true});
+        byte[] bytes = builder.build().toByteArray();
+        byte[] framed = new byte[bytes.length + 3];
+        System.arraycopy(bytes, 0, framed, 3, bytes.length);
+
+        ColumnarBatch batch = ColumnarBatch.wrap(ByteBuffer.wrap(framed, 3, bytes.length));
+        assertArrayEquals(new Object[]{1.0, 2, "c", true}, batch.getRow(0));
+        assertArrayEquals(bytes, batch.toByteArray());
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        ColumnarBatch batch = new ColumnarBatch.Builder(TYPES, 0).build();
+        ColumnarBatch copy = ColumnarBatch.wrap(ByteBuffer.wrap(batch.toByteArray()));
+        assertEquals(0, copy.getSize());
+        assertEquals(4, copy.getColumnCount());
+    }
+
+    @Test
+    public void testMalformed() {
+        ColumnarBatch.Builder builder = new ColumnarBatch.Builder(TYPES, 1);
+        builder.add(new Object[]{1.0, 2, "c", true});
+        byte[] bytes = builder.build().toByteArray();
+        assertMalformed(Arrays.copyOf(bytes, 6));
+        assertMalformed(Arrays.copyOf(bytes, bytes.length - 1));
+        assertMalformed(Arrays.copyOf(bytes, bytes.length + 1));
+        byte[] unknownType = bytes.clone();
+        unknownType[8] = 100;
+        assertMalformed(unknownType);
+    }
+
+    private static void assertMalformed(byte[] bytes) {
+        try {
+            ColumnarBatch.wrap(ByteBuffer.wrap(bytes));
+            fail("Malformed batch should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.engine.json.common;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ConsistentHashRing}.
+ **/
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 10_000;
+
+    @Test
+    public void testBalance() {
+        ConsistentHashRing ring = new ConsistentHashRing(Lists.newArrayList("node-0", "node-1", "node-2", "node-3"));
+        Map<String, Integer> counts = Maps.newHashMap();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.getNode(partition(i)), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue("Unbalanced assignment " + counts, count > KEYS / 4 * 0.7 && count < KEYS / 4 * 1.3);
+        }
+    }
+
+    @Test
+    public void testAddNode() {
+        List<String> nodes = Lists.newArrayList("node-0", "node-1", "node-2");
+        ConsistentHashRing ring = new ConsistentHashRing(nodes);
+        // assignments are stable across rings of the same nodes
+        ConsistentHashRing same = new ConsistentHashRing(Lists.newArrayList(nodes));
+        nodes.add("node-3");
+        ConsistentHashRing larger = new ConsistentHashRing(nodes);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = partition(i);
+            assertEquals(ring.getNode(key), same.getNode(key));
+            if (!ring.getNode(key).equals(larger.getNode(key))) {
+                // keys only move to the new node
+                assertEquals("node-3", larger.getNode(key));
+                moved++;
+            }
+        }
+        assertTrue("Moved " + moved + " keys", moved > KEYS / 4 * 0.7 && moved < KEYS / 4 * 1.3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateNodes() {
+        new ConsistentHashRing(Lists.newArrayList("node-0", "node-0"));
+    }
+
+    private static String partition(int i) {
+        return "part-" + (i / 100) + "-" + (i % 100) + ".json";
+    }
+}
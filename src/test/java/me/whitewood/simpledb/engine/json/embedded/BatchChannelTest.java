@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.ColumnarBatch;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BatchChannel}.
+ **/
+public class BatchChannelTest {
+
+    /** Runs the production in the calling thread, so the channel is deterministic. */
+    private static final Executor DIRECT = Runnable::run;
+
+    private static final JsonDataType[] TYPES = {JsonDataType.INTEGER};
+
+    @Test
+    public void testBatches() throws IOException {
+        CountingReader source = new CountingReader(5, -1);
+        try (BatchChannel channel = new BatchChannel(source, TYPES, 2, 4, DIRECT)) {
+            channel.start();
+            assertEquals(2, channel.nextBatch().getSize());
+            assertEquals(2, channel.nextBatch().getSize());
+            ColumnarBatch last = channel.nextBatch();
+            assertEquals(1, last.getSize());
+            assertArrayEquals(new Object[]{4}, last.getRow(0));
+            assertNull(channel.nextBatch());
+            assertNull(channel.nextBatch());
+            assertTrue(source.closed);
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws IOException {
+        CountingReader source = new CountingReader(Integer.MAX_VALUE, -1);
+        BatchChannel channel = new BatchChannel(source, TYPES, 10, 3, DIRECT);
+        channel.start();
+        // stops at the capacity until the consumer takes a batch
+        assertEquals(30, source.count);
+        assertEquals(3, channel.getBufferedBatches());
+        assertEquals(0, channel.nextBatch().getRow(0)[0]);
+        assertEquals(40, source.count);
+        assertEquals(3, channel.getBufferedBatches());
+
+        Object[] row = new Object[1];
+        for (int i = 10; i < 25; i++) {
+            assertTrue(channel.readRow(row));
+            assertEquals(i, row[0]);
+        }
+        // two more batches are taken
+        assertEquals(60, source.count);
+        channel.close();
+        assertTrue(source.closed);
+        assertEquals(0, channel.getBufferedBatches());
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        CountingReader source = new CountingReader(Integer.MAX_VALUE, 15);
+        try (BatchChannel channel = new BatchChannel(source, TYPES, 10, 4, DIRECT)) {
+            channel.start();
+            assertEquals(10, channel.nextBatch().getSize());
+            try {
+                channel.nextBatch();
+                fail("The source fails in the second batch");
+            } catch (IOException e) {
+                assertEquals("Broken at 15", e.getMessage());
+            }
+            assertTrue(source.closed);
+        }
+    }
+
+    @Test
+    public void testScanTableAsBatches() throws IOException {
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        config.setScanBatchSize(2);
+        config.setScanBatchCapacity(1);
+        EmbeddedJsonDatabaseClient client = new EmbeddedJsonDatabaseServer("src/test/resources/testdb", config)
+                .getClient();
+        JsonTable table = client.getTable("tbl_order");
+        List<Object> orderIds = Lists.newArrayList();
+        try (RowBatchReader reader = client.scanTableAsBatches(table, Lists.newArrayList("order_id"), null)) {
+            ColumnarBatch batch;
+            while ((batch = reader.nextBatch()) != null) {
+                assertTrue(batch.getSize() <= 2);
+                for (int i = 0; i < batch.getSize(); i++) {
+                    orderIds.add(batch.getRow(i)[0]);
+                }
+            }
+        }
+        assertEquals(Lists.newArrayList(10001.0, 10002.0, 10003.0), orderIds);
+    }
+
+    /**
+     * Reads rows of sequential integers, optionally failing at a given row.
+     */
+    private static class CountingReader implements JsonRowReader {
+
+        private final int rows;
+
+        private final int failure;
+
+        private int count;
+
+        private boolean closed;
+
+        private CountingReader(int rows, int failure) {
+            this.rows = rows;
+            this.failure = failure;
+        }
+
+        @Override
+        public boolean readRow(Object[] row) throws IOException {
+            if (count == failure) {
+                throw new IOException("Broken at " + failure);
+            }
+            if (count == rows) {
+                return false;
+            }
+            row[0] = count++;
+            return true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
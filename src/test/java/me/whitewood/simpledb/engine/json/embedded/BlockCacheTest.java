@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.io.ByteStreams;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BlockCache}.
+ **/
+public class BlockCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadAndEvict() throws IOException {
+        byte[] content = new byte[10 * 1024 + 100];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        File file = folder.newFile();
+        Files.write(file.toPath(), content);
+        BlockCache cache = new BlockCache(4 * 1024, 1024);
+
+        assertArrayEquals(content, read(cache, file, 0, content.length));
+        assertEquals(11, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+        assertTrue(cache.getSize() <= 4 * 1024);
+        assertEquals(7, cache.getEvictionCount());
+
+        // the last blocks are cached
+        assertArrayEquals(Arrays.copyOfRange(content, 9000, 10000), read(cache, file, 9000, 10000));
+        assertEquals(11, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+
+        // ranges that don't start at block boundaries
+        assertArrayEquals(Arrays.copyOfRange(content, 1500, 2600), read(cache, file, 1500, 2600));
+    }
+
+    @Test
+    public void testInvalidateOnChange() throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), new byte[] {'a', 'b', 'c'});
+        BlockCache cache = new BlockCache(1 << 20, 1024);
+        assertArrayEquals(new byte[] {'a', 'b', 'c'}, read(cache, file, 0, 3));
+        assertEquals(3, cache.getSize());
+
+        Files.write(file.toPath(), new byte[] {'d', 'e'}, StandardOpenOption.APPEND);
+        assertArrayEquals(new byte[] {'a', 'b', 'c', 'd', 'e'}, read(cache, file, 0, 5));
+        assertEquals(2, cache.getMissCount());
+        // the block of the older version is dropped
+        assertEquals(5, cache.getSize());
+    }
+
+    @Test
+    public void testSharedByScans() throws IOException {
+        File base = TestDatabases.copyTestDb(folder);
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        config.setBlockCacheSize(1 << 20);
+        config.setBlockCacheBlockSize(64);
+        config.setScanParallelism(2);
+        config.setSplitSize(128);
+        EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(base.getAbsolutePath(), config);
+        EmbeddedJsonDatabaseClient client = server.getClient();
+        BlockCache cache = server.getBlockCache();
+
+        assertEquals(3, client.scanTable("tbl_order").size());
+        long misses = cache.getMissCount();
+        assertTrue(misses > 0);
+        assertEquals(0, cache.getHitCount());
+
+        // the parallel splits read the blocks loaded by the list scan
+        int rows = 0;
+        try (JsonRowReader reader =
+                     client.scanTableAsRows(client.getTable("tbl_order"), null)) {
+            Object[] row = new Object[4];
+            while (reader.readRow(row)) {
+                rows++;
+            }
+        }
+        assertEquals(3, rows);
+        assertEquals(misses, cache.getMissCount());
+        assertTrue(cache.getHitCount() > 0);
+    }
+
+    @Test
+    public void testInflateAcrossBlocks() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            lines.append("{\"order_id\":").append(i).append(", \"buyer_id\":\"u").append(i * 7).append("\"}\n");
+        }
+        byte[] content = lines.toString().getBytes(StandardCharsets.UTF_8);
+        File file = new File(folder.getRoot(), "part-0-0.json" + BlockGzip.SUFFIX);
+        try (OutputStream out = new BlockGzipOutputStream(new FileOutputStream(file), 256)) {
+            out.write(content);
+        }
+        // gzip members end at all kinds of offsets within the cache blocks
+        for (int blockSize = 16; blockSize <= 160; blockSize++) {
+            BlockCache cache = new BlockCache(1 << 20, blockSize);
+            try (InputStream in = BlockGzip.inflate(cache.open(file, 0, file.length()))) {
+                assertArrayEquals("block size " + blockSize, content, ByteStreams.toByteArray(in));
+            }
+        }
+    }
+
+    private static byte[] read(BlockCache cache, File file, long start, long end) throws IOException {
+        try (InputStream in = cache.open(file, start, end)) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+}
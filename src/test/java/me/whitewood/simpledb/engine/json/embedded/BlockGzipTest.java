@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BlockGzip} and {@link BlockGzipOutputStream}.
+ **/
+public class BlockGzipTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSplitBlocks() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("{\"id\":").append(i).append(", \"name\":\"user-").append(i % 7).append("\"}\n");
+        }
+        File source = folder.newFile("part-0-0.json");
+        Files.write(source.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+        File compressed = new File(folder.getRoot(), "part-0-0.json.gz");
+        BlockGzip.compress(source, compressed, 1024);
+
+        // the layout is plain gzip for standard tools
+        try (InputStream in = new GZIPInputStream(new FileInputStream(compressed))) {
+            assertEquals(content.toString(), new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+        List<Long> blockOffsets = BlockGzip.blockOffsets(compressed);
+        assertNotNull(blockOffsets);
+        assertTrue(blockOffsets.size() > 10);
+        assertEquals(0L, (long) blockOffsets.get(0));
+
+        for (long splitSize : new long[]{1, 500, compressed.length()}) {
+            List<PartitionSplit> splits = PartitionSplit.plan(compressed, splitSize);
+            StringBuilder joined = new StringBuilder();
+            for (PartitionSplit split : splits) {
+                try (InputStream in = split.open()) {
+                    String text = new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+                    assertTrue("Split doesn't end with a whole line: " + text, text.endsWith("\n"));
+                    joined.append(text);
+                }
+            }
+            assertEquals(content.toString(), joined.toString());
+            if (splitSize == 1) {
+                assertEquals(blockOffsets.size(), splits.size());
+            }
+        }
+    }
+
+    @Test
+    public void testLongLineAndPlainGzip() throws IOException {
+        String content = "{\"id\":1}\n{\"pad\":\"" + new String(new char[5000]).replace('\0', 'x') + "\"}\n{\"id\":3}";
+        File blocked = folder.newFile("part-0-0.jsonl.gz");
+        try (OutputStream out = new BlockGzipOutputStream(new FileOutputStream(blocked), 100)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        // the long line goes with the following lines, since the grown buffer isn't full again
+        assertEquals(2, BlockGzip.blockOffsets(blocked).size());
+        try (InputStream in = BlockGzip.open(blocked)) {
+            assertEquals(content, new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+
+        File plain = folder.newFile("part-0-1.jsonl.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(plain))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        assertNull(BlockGzip.blockOffsets(plain));
+        assertEquals(1, PartitionSplit.plan(plain, 10).size());
+        try (InputStream in = BlockGzip.open(plain)) {
+            assertEquals(content, new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testScanCompressedTable() throws IOException {
+        File base = TestDatabases.copyTestDb(folder);
+        for (String partition : new String[]{"part-0-0.json", "part-0-1.json"}) {
+            File source = new File(base, "tbl_order/" + partition);
+            BlockGzip.compress(source, new File(base, "tbl_order/" + partition + BlockGzip.SUFFIX), 64);
+            assertTrue(source.delete());
+        }
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        config.setScanParallelism(2);
+        config.setSplitSize(16);
+        EmbeddedJsonDatabaseClient client = new EmbeddedJsonDatabaseServer(base.getAbsolutePath(), config).getClient();
+        JsonTable orders = client.getTable("tbl_order");
+
+        List<Object> buyers = Lists.newArrayList();
+        try (JsonRowReader reader = client.scanTableAsRows(orders, Lists.newArrayList("buyer_id"),
+                Lists.newArrayList(new JsonFilter("is_prepaid", JsonFilter.Operator.EQUALS, true)))) {
+            Object[] row = new Object[1];
+            while (reader.readRow(row)) {
+                buyers.add(row[0]);
+            }
+        }
+        assertEquals(Lists.newArrayList("u2341534", "u92742"), buyers);
+        assertEquals(3, client.scanTable("tbl_order").size());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ColumnarCache} and {@link ColumnarPartition}.
+ **/
+public class ColumnarCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final JsonTable table = new JsonTable(
+            "tbl_order",
+            Lists.newArrayList(
+                    new JsonColumn("order_id", JsonDataType.INTEGER),
+                    new JsonColumn("buyer_id", JsonDataType.STRING),
+                    new JsonColumn("amount", JsonDataType.NUMBER),
+                    new JsonColumn("is_prepaid", JsonDataType.BOOLEAN)));
+
+    @Test
+    public void testTranscodeAndRead() throws IOException {
+        File base = folder.getRoot();
+        File partition = new File(folder.newFolder("tbl_order"), "part-0-0.json");
+        Files.write(partition.toPath(), (
+                "{\"order_id\":1, \"buyer_id\":\"u1\", \"amount\": 1.5, \"is_prepaid\": true}\n" +
+                "{\"order_id\":2, \"buyer_id\":\"u2\", \"is_prepaid\": false}\n" +
+                "{\"order_id\":3, \"buyer_id\":\"u1\", \"amount\": 3.5, \"is_prepaid\": null}\n"
+        ).getBytes(StandardCharsets.UTF_8));
+        ColumnarCache cache = new ColumnarCache(base.getAbsolutePath());
+        File sidecar = cache.getSidecar("tbl_order", partition);
+
+        List<Object[]> rows = readAll(cache.open(table, partition, partition.length(), BlockGzip::open, null, null), 4);
+        assertTrue(sidecar.exists());
+        assertEquals(3, rows.size());
+        assertArrayEquals(new Object[]{1, "u1", 1.5, true}, rows.get(0));
+        assertArrayEquals(new Object[]{2, "u2", null, false}, rows.get(1));
+        assertArrayEquals(new Object[]{3, "u1", 3.5, null}, rows.get(2));
+
+        rows = readAll(cache.open(
+                table,
+                partition,
+                partition.length(),
+                BlockGzip::open,
+                Lists.newArrayList("amount", "order_id"),
+                Lists.newArrayList(new JsonFilter("buyer_id", JsonFilter.Operator.EQUALS, "u1"))), 2);
+        assertEquals(2, rows.size());
+        assertArrayEquals(new Object[]{1.5, 1}, rows.get(0));
+        assertArrayEquals(new Object[]{3.5, 3}, rows.get(1));
+
+        // the sidecar is rewritten once the partition changes
+        long transcodedAt = sidecar.lastModified();
+        Files.write(
+                partition.toPath(),
+                "{\"order_id\":4, \"buyer_id\":\"u4\"}\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        assertTrue(partition.setLastModified(transcodedAt + 2000));
+        rows = readAll(cache.open(
+                table, partition, partition.length(), BlockGzip::open, Lists.newArrayList("order_id"), null), 1);
+        assertEquals(4, rows.size());
+        assertArrayEquals(new Object[]{4}, rows.get(3));
+    }
+
+    @Test
+    public void testTranscodeCommittedLength() throws IOException {
+        File base = folder.getRoot();
+        File partition = new File(folder.newFolder("tbl_order"), "part-0-0.json");
+        byte[] committed = "{\"order_id\":1, \"buyer_id\":\"u1\"}\n".getBytes(StandardCharsets.UTF_8);
+        // the second line is an append in flight, which is not committed yet
+        Files.write(partition.toPath(), committed);
+        Files.write(
+                partition.toPath(),
+                "{\"order_id\":2, \"buy".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        ColumnarCache cache = new ColumnarCache(base.getAbsolutePath());
+        long length = committed.length;
+        EmbeddedJsonDatabaseMaster.PartitionOpener opener =
+                file -> ByteStreams.limit(new FileInputStream(file), length);
+
+        List<Object[]> rows = readAll(cache.open(table, partition, length, opener, null, null), 4);
+        assertEquals(1, rows.size());
+        assertArrayEquals(new Object[]{1, "u1", null, null}, rows.get(0));
+        ColumnarPartition columnar = ColumnarPartition.open(cache.getSidecar("tbl_order", partition));
+        assertNotNull(columnar);
+        assertEquals(length, columnar.getSourceLength());
+        assertTrue(columnar.isFresh(length, partition.lastModified(), table));
+        assertFalse(columnar.isFresh(partition.length(), partition.lastModified(), table));
+    }
+
+    @Test
+    public void testScanTableFromSidecars() throws IOException {
+        File base = TestDatabases.copyTestDb(folder);
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        config.setColumnarCacheEnabled(true);
+        EmbeddedJsonDatabaseClient client = new EmbeddedJsonDatabaseServer(base.getAbsolutePath(), config).getClient();
+        ColumnarCache cache = new ColumnarCache(base.getAbsolutePath());
+
+        JsonTable orders = client.getTable("tbl_order");
+        List<Object[]> rows = readAll(client.scanTableAsRows(orders, Lists.newArrayList("buyer_id")), 1);
+        assertEquals(3, rows.size());
+        assertArrayEquals(new Object[]{"u234152"}, rows.get(0));
+        assertTrue(cache.getSidecar("tbl_order", new File(base, "tbl_order/part-0-0.json")).exists());
+    }
+
+    private static List<Object[]> readAll(JsonRowReader reader, int width) throws IOException {
+        assertNotNull(reader);
+        List<Object[]> rows = Lists.newArrayList();
+        try {
+            Object[] row = new Object[width];
+            while (reader.readRow(row)) {
+                rows.add(row.clone());
+            }
+        } finally {
+            reader.close();
+        }
+        return rows;
+    }
+}
@@ -18,7 +18,13 @@ package me.whitewood.simpledb.engine.json.embedded;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.google.common.collect.Lists;
 import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.ConsistentHashRing;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -44,6 +50,17 @@ public class EmbeddedJsonClientTest {
         assertEquals("tbl_order", tables.get(0));
     }
 
+    @Test
+    public void testGetTable() {
+        assertEquals("tbl_order", jsonMaster.getTable("tbl_order").getName());
+        try {
+            jsonMaster.getTable("tbl_");
+            fail("Tables are looked up by exact names");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause().getCause() instanceof IllegalArgumentException);
+        }
+    }
+
     @Test
     public void testTableScan() throws IOException {
         List<JsonNode> jsonNodeList = jsonMaster.scanTable("tbl_order");
@@ -73,4 +90,88 @@ public class EmbeddedJsonClientTest {
             assertEquals(false, node.get("is_prepaid").asBoolean());
         }
     }
+
+    @Test
+    public void testTableScanStreamAcrossPartitions() throws IOException {
+        int count = 0;
+        try (
+                JsonReader reader = jsonMaster.scanTableAsStream("tbl_order")
+        ) {
+            while (reader.readJson() != null) {
+                count++;
+            }
+        }
+        assertEquals(3, count);
+    }
+
+    @Test
+    public void testTableScanRowsInParallel() throws IOException {
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        config.setScanParallelism(2);
+        // splits the first partition into one split per line
+        config.setSplitSize(16);
+        EmbeddedJsonDatabaseClient client = new EmbeddedJsonDatabaseServer(testDbPath, config).getClient();
+        JsonTable table = client.getTable("tbl_order");
+        try (JsonRowReader reader = client.scanTableAsRows(table, Lists.newArrayList("order_id", "is_prepaid"))) {
+            Object[] row = new Object[2];
+            assertTrue(reader.readRow(row));
+            assertArrayEquals(new Object[]{10001.0, false}, row);
+            assertTrue(reader.readRow(row));
+            assertArrayEquals(new Object[]{10002.0, true}, row);
+            assertTrue(reader.readRow(row));
+            assertArrayEquals(new Object[]{10003.0, true}, row);
+            assertFalse(reader.readRow(row));
+        }
+    }
+
+    @Test
+    public void testAggregateTable() throws IOException {
+        JsonTable table = jsonMaster.getTable("tbl_order");
+        List<Object[]> rows = jsonMaster.aggregateTable(table, Lists.newArrayList("is_prepaid"), Lists.newArrayList(
+                new JsonAggregate(JsonAggregate.Function.COUNT, null),
+                new JsonAggregate(JsonAggregate.Function.SUM, "order_id"),
+                new JsonAggregate(JsonAggregate.Function.MAX, "buyer_id")), null);
+        assertEquals(2, rows.size());
+        assertArrayEquals(new Object[]{false, 1L, 10001.0, "u234152"}, rows.get(0));
+        assertArrayEquals(new Object[]{true, 2L, 20005.0, "u92742"}, rows.get(1));
+
+        // a global aggregate over no row still has a result
+        rows = jsonMaster.aggregateTable(table, Lists.newArrayList(), Lists.newArrayList(
+                new JsonAggregate(JsonAggregate.Function.COUNT, "order_id"),
+                new JsonAggregate(JsonAggregate.Function.MIN, "order_id")),
+                Lists.newArrayList(new JsonFilter("order_id", JsonFilter.Operator.GREATER_THAN, 20000)));
+        assertEquals(1, rows.size());
+        assertArrayEquals(new Object[]{0L, null}, rows.get(0));
+    }
+
+    @Test
+    public void testClusterNodeScansAssignedPartitions() throws IOException {
+        List<String> nodeIds = Lists.newArrayList("node-0", "node-1", "node-2");
+        ConsistentHashRing ring = new ConsistentHashRing(nodeIds);
+        List<Object> orderIds = Lists.newArrayList();
+        for (String nodeId : nodeIds) {
+            EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+            config.setClusterNodes(nodeIds);
+            config.setClusterNodeId(nodeId);
+            EmbeddedJsonDatabaseClient client = new EmbeddedJsonDatabaseServer(testDbPath, config).getClient();
+            JsonTable table = client.getTable("tbl_order");
+            List<Object> nodeOrderIds = Lists.newArrayList();
+            try (JsonRowReader reader = client.scanTableAsRows(table, Lists.newArrayList("order_id"))) {
+                Object[] row = new Object[1];
+                while (reader.readRow(row)) {
+                    nodeOrderIds.add(row[0]);
+                }
+            }
+            List<Object> expected = Lists.newArrayList();
+            if (ring.getNode("part-0-0.json").equals(nodeId)) {
+                expected.addAll(Lists.newArrayList(10001.0, 10002.0));
+            }
+            if (ring.getNode("part-0-1.json").equals(nodeId)) {
+                expected.add(10003.0);
+            }
+            assertEquals(expected, nodeOrderIds);
+            orderIds.addAll(nodeOrderIds);
+        }
+        assertEquals(3, orderIds.size());
+    }
 }
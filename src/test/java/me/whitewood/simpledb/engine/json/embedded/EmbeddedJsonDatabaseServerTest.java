@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link EmbeddedJsonDatabaseServer}.
+ **/
+public class EmbeddedJsonDatabaseServerTest {
+
+    private final String testDbPath = "src/test/resources/testdb";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRequestsInFlight() {
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        config.setServerParallelism(2);
+        EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(testDbPath, config);
+        List<CompletableFuture<Integer>> counts = Lists.newArrayList();
+        for (int i = 0; i < 200; i++) {
+            counts.add(server.scanTableAsRows("tbl_order", Collections.singletonList("order_id"), null)
+                    .thenApply(EmbeddedJsonDatabaseServerTest::countRows));
+        }
+        CompletableFuture.allOf(counts.toArray(new CompletableFuture[0])).join();
+        for (CompletableFuture<Integer> count : counts) {
+            assertEquals(3, (int) count.join());
+        }
+    }
+
+    @Test
+    public void testFailedRequest() throws Exception {
+        EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(testDbPath);
+        try {
+            server.scanTable("tbl_absent", null).join();
+            fail("The table doesn't exist");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause().getMessage().contains("tbl_absent"));
+        }
+        try {
+            server.getTable("tbl_absent", 1, TimeUnit.SECONDS);
+            fail("The table doesn't exist");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testRejectedRequest() throws Exception {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1, 0L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+        try {
+            EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(
+                    testDbPath, new EmbeddedJsonDatabaseConfig(), executor);
+            CountDownLatch latch = new CountDownLatch(1);
+            // occupies the only thread
+            executor.execute(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            CompletableFuture<List<String>> queued = server.listTableNames(null);
+            CompletableFuture<List<String>> rejected = server.listTableNames(null);
+            assertTrue(rejected.isCompletedExceptionally());
+            try {
+                rejected.join();
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            // lookups are served in the calling thread
+            assertEquals("tbl_order", server.getTable("tbl_order").join().getName());
+            latch.countDown();
+            assertEquals(Lists.newArrayList("tbl_order", "tbl_user"), queued.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        File base = TestDatabases.copyTestDb(folder);
+        Set<Thread> before = Thread.getAllStackTraces().keySet();
+        EmbeddedJsonDatabaseServer server = TestDatabases.newServer(base, config -> {
+            config.setMemtableEnabled(true);
+            config.setHotReloadEnabled(true);
+            config.setCompactionEnabled(true);
+        });
+        EmbeddedJsonDatabaseClient client = server.getClient();
+        client.insertRows("tbl_order", Collections.singletonList(
+                new Object[]{10004, "u1", "2020-07-03T10:00:00+08:00", false}));
+        assertEquals(4, client.scanTable("tbl_order").size());
+
+        server.close();
+        long deadline = System.currentTimeMillis() + 10_000;
+        List<String> leaked = getNewThreads(before);
+        while (!leaked.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            leaked = getNewThreads(before);
+        }
+        assertEquals(Collections.emptyList(), leaked);
+
+        // the insert is replayed from the log on restart
+        server = TestDatabases.newServer(base, config -> config.setMemtableEnabled(true));
+        assertEquals(4, server.getClient().scanTable("tbl_order").size());
+        server.close();
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        // falls back to a thread pool if the runtime doesn't support virtual threads
+        config.setVirtualThreadsEnabled(true);
+        EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(testDbPath, config);
+        assertEquals(3, (int) server.scanTableAsRows("tbl_order", null, null)
+                .thenApply(EmbeddedJsonDatabaseServerTest::countRows)
+                .get(10, TimeUnit.SECONDS));
+        assertEquals(3, server.getClient().scanTable("tbl_order").size());
+    }
+
+    private static int countRows(JsonRowReader reader) {
+        int count = 0;
+        try (JsonRowReader r = reader) {
+            Object[] row = new Object[4];
+            while (r.readRow(row)) {
+                count++;
+            }
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        return count;
+    }
+
+    private static List<String> getNewThreads(Set<Thread> before) {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> !before.contains(t) && t.getName().startsWith("embedded-"))
+                .map(Thread::getName)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonIndex;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link IndexStore}.
+ **/
+public class IndexStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final JsonTable table = new JsonTable(
+            "tbl_order",
+            Lists.newArrayList(
+                    new JsonColumn("order_id", JsonDataType.NUMBER),
+                    new JsonColumn("buyer_id", JsonDataType.STRING),
+                    new JsonColumn("is_prepaid", JsonDataType.BOOLEAN)));
+
+    private File[] partitions;
+
+    @Before
+    public void setUp() throws IOException {
+        table.setIndexes(Lists.newArrayList(new JsonIndex("buyer_id")));
+        File tableDir = folder.newFolder("tbl_order");
+        partitions = new File[3];
+        for (int p = 0; p < partitions.length; p++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 10; i++) {
+                int orderId = 10000 * (p + 1) + i;
+                // every buyer has an order in each partition
+                sb.append("{\"order_id\":").append(orderId)
+                        .append(", \"buyer_id\":\"u").append(9 - i).append('"')
+                        .append(", \"is_prepaid\":").append(i % 2 == 0).append("}\n");
+            }
+            partitions[p] = new File(tableDir, "part-0-" + p + ".json");
+            Files.write(partitions[p].toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        IndexStore store = new IndexStore(folder.getRoot().getAbsolutePath());
+        assertEquals(
+                Lists.newArrayList(10004.0, 20004.0, 30004.0),
+                lookup(store, new JsonFilter("buyer_id", JsonFilter.Operator.EQUALS, "u5")));
+        assertEquals(
+                Lists.newArrayList(20004.0),
+                lookup(store,
+                        new JsonFilter("buyer_id", JsonFilter.Operator.EQUALS, "u5"),
+                        new JsonFilter("order_id", JsonFilter.Operator.GREATER_THAN, 20000L),
+                        new JsonFilter("order_id", JsonFilter.Operator.LESS_THAN, 30000L)));
+        assertEquals(
+                Lists.newArrayList(),
+                lookup(store, new JsonFilter("buyer_id", JsonFilter.Operator.EQUALS, "u10")));
+        assertTrue(store.getIndexFile("tbl_order", "buyer_id").exists());
+        // no index on the column
+        assertNull(store.lookup(table, partitions, partitions, null,
+                Lists.newArrayList(new JsonFilter("order_id", JsonFilter.Operator.EQUALS, 10001L)),
+                MoreExecutors.directExecutor()));
+    }
+
+    @Test
+    public void testReindexModifiedPartition() throws IOException {
+        IndexStore store = new IndexStore(folder.getRoot().getAbsolutePath());
+        JsonFilter filter = new JsonFilter("buyer_id", JsonFilter.Operator.EQUALS, "u0");
+        assertEquals(Lists.newArrayList(10009.0, 20009.0, 30009.0), lookup(store, filter));
+
+        Files.write(partitions[1].toPath(),
+                "{\"order_id\":50000, \"buyer_id\":\"u1\"}\n{\"order_id\":50001, \"buyer_id\":\"u0\"}\n"
+                        .getBytes(StandardCharsets.UTF_8));
+        assertTrue(partitions[1].setLastModified(partitions[1].lastModified() + 2000));
+        assertTrue(partitions[2].delete());
+        // a new store reloads the persisted index, and reindexes the rewritten partition
+        store = new IndexStore(folder.getRoot().getAbsolutePath());
+        partitions = new File[]{partitions[0], partitions[1]};
+        assertEquals(Lists.newArrayList(10009.0, 50001.0), lookup(store, filter));
+    }
+
+    @Test
+    public void testLongKeys() throws IOException {
+        String buyerId = Strings.repeat("u", 70_000);
+        Files.write(partitions[2].toPath(), ("{\"order_id\":30000, \"buyer_id\":\"" + buyerId + "\"}\n")
+                .getBytes(StandardCharsets.UTF_8));
+        IndexStore store = new IndexStore(folder.getRoot().getAbsolutePath());
+        JsonFilter filter = new JsonFilter("buyer_id", JsonFilter.Operator.EQUALS, buyerId);
+        assertEquals(Lists.newArrayList(30000.0), lookup(store, filter));
+        // the persisted index is read back
+        store = new IndexStore(folder.getRoot().getAbsolutePath());
+        assertEquals(Lists.newArrayList(30000.0), lookup(store, filter));
+    }
+
+    @Test
+    public void testUncommittedRows() throws IOException {
+        long committed = partitions[2].length();
+        // a row being inserted, which is not committed and only partially written
+        Files.write(partitions[2].toPath(), "{\"order_id\":30010, \"buyer_id\":\"u5\"}\n{\"order_id\":300"
+                .getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        ToLongFunction<File> visibleLength = file -> file.equals(partitions[2]) ? committed : file.length();
+        IndexStore store = new IndexStore(folder.getRoot().getAbsolutePath(),
+                file -> ByteStreams.limit(new FileInputStream(file), visibleLength.applyAsLong(file)),
+                visibleLength, null);
+        assertEquals(
+                Lists.newArrayList(10004.0, 20004.0, 30004.0),
+                lookup(store, new JsonFilter("buyer_id", JsonFilter.Operator.EQUALS, "u5")));
+    }
+
+    @Test
+    public void testLookupThroughBlockCache() throws IOException {
+        BlockCache cache = new BlockCache(1 << 20, 64);
+        IndexStore store = new IndexStore(folder.getRoot().getAbsolutePath(), BlockGzip::open, File::length, cache);
+        JsonFilter filter = new JsonFilter("buyer_id", JsonFilter.Operator.EQUALS, "u5");
+        assertEquals(Lists.newArrayList(10004.0, 20004.0, 30004.0), lookup(store, filter));
+        long misses = cache.getMissCount();
+        assertTrue(misses > 0);
+        // the records are read from the cached blocks again
+        assertEquals(Lists.newArrayList(10004.0, 20004.0, 30004.0), lookup(store, filter));
+        assertEquals(misses, cache.getMissCount());
+        assertTrue(cache.getHitCount() > 0);
+    }
+
+    @Test
+    public void testReindexInBackground() throws IOException {
+        IndexStore store = new IndexStore(folder.getRoot().getAbsolutePath());
+        List<Runnable> tasks = Lists.newArrayList();
+        List<JsonFilter> filters = Lists.newArrayList(new JsonFilter("buyer_id", JsonFilter.Operator.EQUALS, "u5"));
+        // the lookup falls back to a scan while the partitions are being indexed
+        assertNull(store.lookup(table, partitions, partitions, null, filters, tasks::add));
+        assertEquals(partitions.length, tasks.size());
+        // no more reindexing is started meanwhile
+        assertNull(store.lookup(table, partitions, partitions, null, filters, tasks::add));
+        assertEquals(partitions.length, tasks.size());
+        tasks.forEach(Runnable::run);
+        assertTrue(store.getIndexFile("tbl_order", "buyer_id").exists());
+        assertEquals(Lists.newArrayList(10004.0, 20004.0, 30004.0), lookup(store, filters.get(0)));
+    }
+
+    @Test
+    public void testSharedIndexFile() throws IOException {
+        List<JsonFilter> filters = Lists.newArrayList(new JsonFilter("buyer_id", JsonFilter.Operator.EQUALS, "u5"));
+        // two nodes of a cluster index their own partitions into the same file
+        File[][] assigned = {{partitions[0], partitions[2]}, {partitions[1]}};
+        for (File[] files : assigned) {
+            IndexStore store = new IndexStore(folder.getRoot().getAbsolutePath());
+            store.lookup(table, files, files, null, filters, MoreExecutors.directExecutor()).close();
+        }
+        File dir = new IndexStore(folder.getRoot().getAbsolutePath()).getIndexFile("tbl_order", "buyer_id")
+                .getParentFile();
+        assertArrayEquals(new String[] {"buyer_id.idx"}, dir.list());
+
+        // the indexes of both nodes are kept
+        IndexStore store = new IndexStore(folder.getRoot().getAbsolutePath());
+        List<Runnable> tasks = Lists.newArrayList();
+        store.lookup(table, partitions, partitions, null, filters, tasks::add).close();
+        assertTrue(tasks.isEmpty());
+        assertEquals(Lists.newArrayList(10004.0, 20004.0, 30004.0), lookup(store, filters.get(0)));
+    }
+
+    private List<Object> lookup(IndexStore store, JsonFilter... filters) throws IOException {
+        List<Object> result = Lists.newArrayList();
+        try (JsonRowReader reader = store.lookup(table, partitions, partitions, Lists.newArrayList("order_id"),
+                Lists.newArrayList(filters), MoreExecutors.directExecutor())) {
+            assertNotNull(reader);
+            Object[] row = new Object[1];
+            while (reader.readRow(row)) {
+                result.add(row[0]);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.common.JsonDatabaseFactory;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static me.whitewood.simpledb.engine.json.embedded.TestDatabases.copyTestDb;
+import static me.whitewood.simpledb.engine.json.embedded.TestDatabases.newServer;
+import static me.whitewood.simpledb.engine.json.embedded.TestDatabases.scanOrderIds;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MemTableWriter}, {@link WriteAheadLog} and {@link FlushManifest}, via {@link EmbeddedJsonDatabaseClient}.
+ **/
+public class MemTableWriterTest {
+
+    private static final Consumer<EmbeddedJsonDatabaseConfig> MEMTABLE =
+            config -> config.setMemtableEnabled(true);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testScanBeforeAndAfterFlush() throws IOException {
+        File base = copyTestDb(folder);
+        EmbeddedJsonDatabaseServer server = newServer(base, MEMTABLE);
+        EmbeddedJsonDatabaseClient client = server.getClient();
+        client.insertRows("tbl_order", Lists.newArrayList(
+                new Object[]{10004, "u1", "2020-07-03T10:00:00+08:00", false},
+                new Object[]{10005, "u2", "2020-07-03T11:00:00+08:00", true}));
+
+        // visible before the memtable is flushed
+        File tableDir = new File(base, "tbl_order");
+        assertEquals(2, tableDir.list().length);
+        assertEquals(5, client.scanTable("tbl_order").size());
+        assertEquals(Lists.newArrayList(10003, 10004, 10005), scanOrderIds(client, 10002));
+
+        server.getMaster().getMemTableWriter().flush();
+
+        File[] partitions = tableDir.listFiles();
+        assertEquals(3, partitions.length);
+        assertTrue(new File(tableDir, "part-0-2.json").exists());
+        // only the log of the new active memtable is kept
+        assertEquals(1, WriteAheadLog.listGenerations(getWalDir(base)).size());
+        List<JsonNode> rows = client.scanTable("tbl_order");
+        assertEquals(5, rows.size());
+        assertEquals(10005, rows.get(4).get("order_id").asInt());
+        assertEquals(Lists.newArrayList(10003, 10004, 10005), scanOrderIds(client, 10002));
+    }
+
+    @Test
+    public void testReplayOnStartup() throws IOException {
+        File base = copyTestDb(folder);
+        EmbeddedJsonDatabaseClient client = newServer(base, MEMTABLE).getClient();
+        client.insertRows("tbl_order", Collections.singletonList(
+                new Object[]{10004, "u1", "2020-07-03T10:00:00+08:00", false}));
+        client.insertRows("tbl_user", Collections.singletonList(new Object[]{"u1", "Alice", 30, null}));
+
+        // restart without flushing
+        client = newServer(base, MEMTABLE).getClient();
+        assertEquals(Lists.newArrayList(10004), scanOrderIds(client, 10003));
+        assertEquals(2, new File(base, "tbl_order").list().length);
+        // tables without partitions are read from the memtable only
+        List<JsonNode> users = client.scanTable("tbl_user");
+        assertEquals(1, users.size());
+        assertEquals(30, users.get(0).get("age").asInt());
+
+        // a torn record at the tail, eg. from a crash during a commit, is dropped
+        List<Long> generations = WriteAheadLog.listGenerations(getWalDir(base));
+        File last = WriteAheadLog.getFile(getWalDir(base), generations.get(generations.size() - 1));
+        long length = last.length();
+        try (FileOutputStream out = new FileOutputStream(last, true)) {
+            out.write(new byte[]{0, 0, 1, 0, 42});
+        }
+        client = newServer(base, MEMTABLE).getClient();
+        assertEquals(Lists.newArrayList(10004), scanOrderIds(client, 10003));
+        assertEquals(length, last.length());
+    }
+
+    @Test
+    public void testFlushedLogIsNotReplayed() throws IOException {
+        File base = copyTestDb(folder);
+        EmbeddedJsonDatabaseServer server = newServer(base, MEMTABLE);
+        server.getClient().insertRows("tbl_order", Collections.singletonList(
+                new Object[]{10004, "u1", "2020-07-03T10:00:00+08:00", false}));
+        List<Long> generations = WriteAheadLog.listGenerations(getWalDir(base));
+        File log = WriteAheadLog.getFile(getWalDir(base), generations.get(generations.size() - 1));
+        byte[] records = Files.readAllBytes(log.toPath());
+
+        // a crash after the flushed partition is visible but before the log is deleted
+        server.getMaster().getMemTableWriter().flush();
+        assertFalse(log.exists());
+        Files.write(log.toPath(), records);
+
+        EmbeddedJsonDatabaseClient client = newServer(base, MEMTABLE).getClient();
+        assertEquals(Lists.newArrayList(10004), scanOrderIds(client, 10003));
+        assertFalse(log.exists());
+    }
+
+    @Test
+    public void testRecoverInterruptedFlush() throws IOException {
+        File base = copyTestDb(folder);
+        EmbeddedJsonDatabaseServer server = newServer(base, MEMTABLE);
+        server.getClient().insertRows("tbl_order", Collections.singletonList(
+                new Object[]{10004, "u1", "2020-07-03T10:00:00+08:00", false}));
+        List<Long> generations = WriteAheadLog.listGenerations(getWalDir(base));
+        long generation = generations.get(generations.size() - 1);
+
+        // a crash after the flush is committed but before the flushed file is renamed
+        File tableDir = new File(base, "tbl_order");
+        File tmp = new File(tableDir, ".part-0-2.json.tmp");
+        Files.write(tmp.toPath(), "{\"order_id\":10004}\n".getBytes(StandardCharsets.UTF_8));
+        FlushManifest manifest = new FlushManifest(base, getWalDir(base));
+        manifest.commit(generation, Collections.singletonMap(tmp, new File(tableDir, "part-0-2.json")));
+
+        EmbeddedJsonDatabaseClient client = newServer(base, MEMTABLE).getClient();
+        assertFalse(tmp.exists());
+        assertTrue(new File(tableDir, "part-0-2.json").exists());
+        assertEquals(Lists.newArrayList(10004), scanOrderIds(client, 10003));
+        assertEquals(generation, new FlushManifest(base, getWalDir(base)).getGeneration());
+    }
+
+    @Test
+    public void testStatisticsStaleOnUnflushedInsert() throws IOException {
+        File base = copyTestDb(folder);
+        EmbeddedJsonDatabaseServer server = newServer(base, MEMTABLE);
+        EmbeddedJsonDatabaseClient client = server.getClient();
+        client.insertRows("tbl_order", Collections.singletonList(
+                new Object[]{10004, "u1", "2020-07-03T10:00:00+08:00", false}));
+
+        // unflushed rows are analyzed along with the partitions
+        JsonTableStatistics statistics = client.analyzeTable("tbl_order");
+        assertEquals(4, statistics.getRowCount());
+        assertFalse(client.getTableStatistics("tbl_order").isStale());
+
+        client.insertRows("tbl_order", Collections.singletonList(
+                new Object[]{10003, "u2", "2020-07-03T11:00:00+08:00", true}));
+        assertTrue(client.getTableStatistics("tbl_order").isStale());
+    }
+
+    private static File getWalDir(File base) {
+        return new File(new File(base, JsonDatabaseFactory.META_DIR), WriteAheadLog.WAL_DIR);
+    }
+
+}
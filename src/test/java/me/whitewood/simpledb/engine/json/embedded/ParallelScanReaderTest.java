@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ParallelScanReader}.
+ **/
+public class ParallelScanReaderTest {
+
+    private static final int SPLITS = 8;
+
+    /** More rows than a split may buffer, so that workers are paused and resumed. */
+    private static final int ROWS_PER_SPLIT =
+            ParallelScanReader.BATCH_SIZE * (ParallelScanReader.MAX_BUFFERED_BATCHES_PER_SPLIT + 2) + 7;
+
+    private final JsonTable table = new JsonTable(
+            "tbl_seq", Lists.newArrayList(new JsonColumn("id", JsonDataType.INTEGER)));
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOrderedScan() throws IOException {
+        try (JsonRowReader reader = new ParallelScanReader(executor, splits(), 1, 3, true)) {
+            Object[] row = new Object[1];
+            for (int i = 0; i < SPLITS * ROWS_PER_SPLIT; i++) {
+                assertTrue(reader.readRow(row));
+                assertEquals(i, row[0]);
+            }
+            assertFalse(reader.readRow(row));
+        }
+    }
+
+    @Test
+    public void testUnorderedScan() throws IOException {
+        List<Integer> ids = Lists.newArrayList();
+        try (JsonRowReader reader = new ParallelScanReader(executor, splits(), 1, 3, false)) {
+            Object[] row = new Object[1];
+            while (reader.readRow(row)) {
+                ids.add((Integer) row[0]);
+            }
+        }
+        assertEquals(SPLITS * ROWS_PER_SPLIT, ids.size());
+        Collections.sort(ids);
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i, (int) ids.get(i));
+        }
+    }
+
+    @Test
+    public void testConcurrentScansDoNotStarveThePool() throws IOException {
+        // the first scan is paused by its consumer, while its workers are stopped by backpressure
+        try (JsonRowReader paused = new ParallelScanReader(executor, splits(), 1, 3, true);
+             JsonRowReader active = new ParallelScanReader(executor, splits(), 1, 3, true)) {
+            Object[] row = new Object[1];
+            assertTrue(paused.readRow(row));
+            int count = 0;
+            while (active.readRow(row)) {
+                count++;
+            }
+            assertEquals(SPLITS * ROWS_PER_SPLIT, count);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testSplitFailure() throws IOException {
+        List<ScanSplit> splits = splits();
+        splits.set(SPLITS / 2, () -> {
+            throw new IOException("Broken partition");
+        });
+        try (JsonRowReader reader = new ParallelScanReader(executor, splits, 1, 3, true)) {
+            Object[] row = new Object[1];
+            while (reader.readRow(row)) {
+                // consume until the failure is reported
+            }
+        }
+    }
+
+    private List<ScanSplit> splits() {
+        List<ScanSplit> splits = Lists.newArrayList();
+        for (int i = 0; i < SPLITS; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < ROWS_PER_SPLIT; j++) {
+                sb.append("{\"id\":").append(i * ROWS_PER_SPLIT + j).append("}\n");
+            }
+            byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            splits.add(() -> new JsonReader(new ByteArrayInputStream(bytes), table, null));
+        }
+        return splits;
+    }
+}
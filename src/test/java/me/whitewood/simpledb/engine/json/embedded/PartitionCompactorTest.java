@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static me.whitewood.simpledb.engine.json.embedded.TestDatabases.copyTestDb;
+import static me.whitewood.simpledb.engine.json.embedded.TestDatabases.scanOrderIds;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PartitionCompactor}.
+ **/
+public class PartitionCompactorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompactAndScan() throws IOException {
+        File base = copyTestDb(folder);
+        EmbeddedJsonDatabaseServer server = newServer(base, 0);
+        EmbeddedJsonDatabaseClient client = server.getClient();
+        insertOrders(client, 10004, 10020);
+        File tableDir = new File(base, "tbl_order");
+        int partitions = tableDir.list().length;
+        assertTrue(partitions > 3);
+        List<Integer> before = scanOrderIds(client);
+
+        assertEquals(1, server.getMaster().compactTables());
+        // the merged partition and the last partition, which may be appended to
+        assertEquals(before, scanOrderIds(client));
+        File[] visible = server.getMaster().getPartitionCompactor()
+                .listPartitions(tableDir, file -> !file.getName().startsWith("."));
+        assertEquals(2, visible.length);
+        assertTrue(visible[0].getName().matches("part-0-\\d+-c1\\.json"));
+        // the inputs are kept until the next round
+        assertEquals(partitions + 1, tableDir.list().length);
+
+        assertEquals(0, server.getMaster().compactTables());
+        assertEquals(2, tableDir.list().length);
+        assertEquals(before, scanOrderIds(client));
+    }
+
+    @Test
+    public void testClusteringAndRecovery() throws IOException {
+        File base = copyTestDb(folder);
+        EmbeddedJsonDatabaseServer server = newServer(base, 3600_000L);
+        server.getMaster().getTable("tbl_order").setClusteringColumn("order_id");
+        EmbeddedJsonDatabaseClient client = server.getClient();
+        for (int orderId = 10020; orderId > 10003; orderId--) {
+            client.insertRows("tbl_order", Collections.singletonList(
+                    new Object[]{orderId, "u1", "2020-07-03T10:00:00+08:00", false}));
+        }
+        File tableDir = new File(base, "tbl_order");
+        int partitions = tableDir.list().length;
+        assertEquals(1, server.getMaster().compactTables());
+
+        // the merged rows are sorted, followed by the rows of the last partition
+        List<Integer> orderIds = scanOrderIds(client);
+        assertEquals(20, orderIds.size());
+        File[] visible = server.getMaster().getPartitionCompactor()
+                .listPartitions(tableDir, file -> !file.getName().startsWith("."));
+        int lastRows = Files.readAllLines(visible[visible.length - 1].toPath()).size();
+        List<Integer> merged = orderIds.subList(0, orderIds.size() - lastRows);
+        List<Integer> sorted = Lists.newArrayList(merged);
+        Collections.sort(sorted);
+        assertEquals(sorted, merged);
+        assertEquals(10004, (int) orderIds.get(orderIds.size() - 1));
+
+        // the inputs are retained for running scans, and deleted on restart
+        assertEquals(partitions + 1, tableDir.list().length);
+        client = newServer(base, 3600_000L).getClient();
+        assertEquals(2, tableDir.list().length);
+        assertEquals(orderIds, scanOrderIds(client));
+    }
+
+    private static EmbeddedJsonDatabaseServer newServer(File base, long retentionMillis) {
+        return TestDatabases.newServer(base, config -> {
+            // roll to a new partition every few rows
+            config.setPartitionRollSize(256);
+            config.setCompactionTargetSize(1 << 20);
+            config.setCompactionRetentionMillis(retentionMillis);
+        });
+    }
+
+    private static void insertOrders(EmbeddedJsonDatabaseClient client, int from, int to) throws IOException {
+        for (int orderId = from; orderId <= to; orderId++) {
+            client.insertRows("tbl_order", Collections.singletonList(
+                    new Object[]{orderId, "u1", "2020-07-03T10:00:00+08:00", false}));
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+import static me.whitewood.simpledb.engine.json.embedded.TestDatabases.copyTestDb;
+import static me.whitewood.simpledb.engine.json.embedded.TestDatabases.newServer;
+import static me.whitewood.simpledb.engine.json.embedded.TestDatabases.scanOrderIds;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PartitionDiscovery}.
+ **/
+public class PartitionDiscoveryTest {
+
+    private static final Consumer<EmbeddedJsonDatabaseConfig> HOT_RELOAD = config -> config.setHotReloadEnabled(true);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final long TIMEOUT_MILLIS = 10_000L;
+
+    @Test
+    public void testPartitionChanges() throws Exception {
+        File base = copyTestDb(folder);
+        EmbeddedJsonDatabaseServer server = newServer(base, HOT_RELOAD);
+        EmbeddedJsonDatabaseClient client = server.getClient();
+        File tableDir = new File(base, "tbl_order");
+        assertEquals(3, scanOrderIds(client).size());
+        // the partitions are listed once
+        PartitionDiscovery discovery = server.getMaster().getPartitionDiscovery();
+        assertSame(discovery.listPartitions(tableDir), discovery.listPartitions(tableDir));
+
+        File added = new File(tableDir, "part-9-0.json");
+        Files.write(added.toPath(), "{\"order_id\": 10009}\n".getBytes(StandardCharsets.UTF_8));
+        await(() -> scanOrderIds(client).size() == 4);
+        assertEquals(10009, (int) scanOrderIds(client).get(3));
+
+        Files.delete(added.toPath());
+        await(() -> scanOrderIds(client).size() == 3);
+    }
+
+    @Test
+    public void testWritesAreVisibleImmediately() throws IOException {
+        File base = copyTestDb(folder);
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        config.setHotReloadEnabled(true);
+        // roll to a new partition every few rows
+        config.setPartitionRollSize(256);
+        config.setCompactionTargetSize(1 << 20);
+        config.setCompactionRetentionMillis(0);
+        EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(base.getAbsolutePath(), config);
+        EmbeddedJsonDatabaseClient client = server.getClient();
+        for (int orderId = 10004; orderId <= 10020; orderId++) {
+            client.insertRows("tbl_order", Collections.singletonList(
+                    new Object[]{orderId, "u1", "2020-07-03T10:00:00+08:00", false}));
+            assertEquals(orderId - 10000, scanOrderIds(client).size());
+        }
+        List<Integer> before = scanOrderIds(client);
+        assertEquals(1, server.getMaster().compactTables());
+        assertEquals(before, scanOrderIds(client));
+        // deletes the inputs of the compaction
+        assertEquals(0, server.getMaster().compactTables());
+        assertEquals(before, scanOrderIds(client));
+    }
+
+    @Test
+    public void testMemtableFlushesAreVisibleImmediately() throws IOException {
+        File base = copyTestDb(folder);
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        config.setHotReloadEnabled(true);
+        config.setMemtableEnabled(true);
+        EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(base.getAbsolutePath(), config);
+        EmbeddedJsonDatabaseClient client = server.getClient();
+        client.insertRows("tbl_order", Collections.singletonList(
+                new Object[]{10004, "u1", "2020-07-03T10:00:00+08:00", false}));
+        server.getMaster().getMemTableWriter().flush();
+        assertEquals(Lists.newArrayList(10001, 10002, 10003, 10004), scanOrderIds(client));
+    }
+
+    @Test
+    public void testReloadMeta() throws Exception {
+        File base = copyTestDb(folder);
+        EmbeddedJsonDatabaseClient client = newServer(base, HOT_RELOAD).getClient();
+        assertEquals(Lists.newArrayList("tbl_order", "tbl_user"), client.listTableNames());
+
+        File metaFile = new File(base, "_metadata/meta.json");
+        String meta = new String(Files.readAllBytes(metaFile.toPath()), StandardCharsets.UTF_8);
+        File tmp = new File(metaFile.getParentFile(), ".meta.json.tmp");
+        Files.write(tmp.toPath(), meta.replace("tbl_user", "tbl_customer").getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), metaFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        await(() -> client.listTableNames().contains("tbl_customer"));
+        assertEquals(Lists.newArrayList("tbl_customer", "tbl_order"), client.listTableNames());
+        assertEquals(4, client.getTable("tbl_customer").getColumns().size());
+    }
+
+    private static void await(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.call()) {
+            assertTrue("Timed out waiting for the change to be discovered", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+}
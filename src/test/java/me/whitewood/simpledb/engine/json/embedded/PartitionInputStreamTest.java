@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.io.ByteStreams;
+import me.whitewood.simpledb.engine.json.common.FileRegion;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PartitionInputStream}.
+ **/
+public class PartitionInputStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadParts() throws IOException {
+        File[] files = {
+                write("part-0-0.json", "{\"a\":1}\n{\"a\":2}"),
+                write("part-0-1.json", ""),
+                write("part-0-2.json", "{\"a\":3}\n")
+        };
+        byte[] tail = "{\"a\":4}\n".getBytes(StandardCharsets.UTF_8);
+        try (PartitionInputStream in = new PartitionInputStream(files, FileInputStream::new, File::length, tail)) {
+            // separators are only inserted after parts that don't end with one
+            assertEquals("{\"a\":1}\n{\"a\":2}\n{\"a\":3}\n{\"a\":4}\n",
+                    new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testFileRegions() throws IOException {
+        File[] files = {
+                write("part-0-0.json", "{\"a\":1}\n{\"a\":2}"),
+                write("part-0-1.json", "{\"a\":3}\n{\"a\":4}\n"),
+                write("part-0-2.json.gz", "")
+        };
+        // the last 8 bytes of the second partition are not committed yet
+        long[] lengths = {files[0].length(), files[1].length() - 8, 0};
+        PartitionInputStream in = new PartitionInputStream(
+                files, FileInputStream::new, f -> lengths[f.getName().charAt(7) - '0'], null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileRegion region = in.nextFileRegion(10);
+        assertEquals(0, region.getPosition());
+        assertEquals(10, region.getLength());
+        out.write(readRegion(region));
+        region = in.nextFileRegion(10);
+        assertEquals(5, region.getLength());
+        out.write(readRegion(region));
+        // the separator is read from the stream
+        assertNull(in.nextFileRegion(10));
+        assertEquals('\n', in.read());
+        out.write('\n');
+        region = in.nextFileRegion(5);
+        out.write(readRegion(region));
+        // regions and reads can be mixed within a partition
+        byte[] rest = new byte[100];
+        int n = in.read(rest);
+        assertEquals(3, n);
+        out.write(rest, 0, n);
+        // compressed partitions are read from the stream
+        assertNull(in.nextFileRegion(10));
+        assertEquals(-1, in.read());
+        in.close();
+        assertEquals("{\"a\":1}\n{\"a\":2}\n{\"a\":3}\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDeletedPartitions() throws IOException {
+        File[] files = {
+                write("part-0-0.json", "{\"a\":1}"),
+                write("part-0-1.json", "{\"a\":2}\n"),
+                write("part-0-2.json", "{\"a\":3}\n")
+        };
+        // deleted after the partitions are listed
+        assertTrue(files[1].delete());
+        try (PartitionInputStream in = new PartitionInputStream(files, FileInputStream::new, File::length, null)) {
+            assertEquals("{\"a\":1}\n{\"a\":3}\n", new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+        try (PartitionInputStream in = new PartitionInputStream(files, FileInputStream::new, File::length, null)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(readRegion(in.nextFileRegion(100)));
+            assertNull(in.nextFileRegion(100));
+            out.write(in.read());
+            out.write(readRegion(in.nextFileRegion(100)));
+            assertNull(in.nextFileRegion(100));
+            assertEquals(-1, in.read());
+            assertEquals("{\"a\":1}\n{\"a\":3}\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static byte[] readRegion(FileRegion region) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) region.getLength());
+        region.getChannel().read(buffer, region.getPosition());
+        return buffer.array();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PartitionSplit}.
+ **/
+public class PartitionSplitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSplitsSnapToLineBoundaries() throws IOException {
+        List<String> lines = Lists.newArrayList();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            // lines of varying lengths, so that nominal boundaries fall at different positions of lines
+            String line = "{\"id\":" + i + ", \"pad\":\"" + new String(new char[i % 17]).replace('\0', 'x') + "\"}";
+            lines.add(line);
+            content.append(line).append('\n');
+        }
+        File file = folder.newFile("part-0-0.json");
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (long splitSize : new long[]{1, 23, 64, 1000, file.length(), file.length() + 1}) {
+            List<PartitionSplit> splits = PartitionSplit.plan(file, splitSize);
+            StringBuilder joined = new StringBuilder();
+            long expectedOffset = 0;
+            for (PartitionSplit split : splits) {
+                assertEquals(expectedOffset, split.getOffset());
+                expectedOffset += split.getLength();
+                String text = read(split);
+                assertTrue("Split doesn't end with a whole line: " + text, text.endsWith("\n"));
+                joined.append(text);
+            }
+            assertEquals(file.length(), expectedOffset);
+            assertEquals(content.toString(), joined.toString());
+            if (splitSize == 1) {
+                assertEquals(lines.size(), splits.size());
+            }
+        }
+    }
+
+    @Test
+    public void testLastLineWithoutLineBreak() throws IOException {
+        File file = folder.newFile("part-0-0.json");
+        Files.write(file.toPath(), "{\"id\":1}\n{\"id\":2}\n{\"id\":3}".getBytes(StandardCharsets.UTF_8));
+        List<PartitionSplit> splits = PartitionSplit.plan(file, 9);
+        assertEquals(3, splits.size());
+        assertEquals("{\"id\":3}", read(splits.get(2)));
+    }
+
+    private static String read(PartitionSplit split) throws IOException {
+        try (InputStream in = split.open()) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+}
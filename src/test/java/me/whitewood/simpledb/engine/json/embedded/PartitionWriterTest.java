@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PartitionWriter}, via {@link EmbeddedJsonDatabaseClient}.
+ **/
+public class PartitionWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testInsertAndScan() throws IOException {
+        File base = TestDatabases.copyTestDb(folder);
+        // the last line of the existing partition isn't terminated
+        File last = new File(base, "tbl_order/part-0-1.json");
+        String content = new String(Files.readAllBytes(last.toPath()), StandardCharsets.UTF_8).trim();
+        Files.write(last.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+        EmbeddedJsonDatabaseClient client = new EmbeddedJsonDatabaseServer(base.getAbsolutePath()).getClient();
+        assertEquals(2, client.insertRows("tbl_order", Lists.newArrayList(
+                new Object[]{10004L, "u1", "2020-07-03T10:00:00+08:00", false},
+                new Object[]{10005.5, null, null, true})));
+
+        List<JsonNode> rows = client.scanTable("tbl_order");
+        assertEquals(5, rows.size());
+        assertEquals(10004, rows.get(3).get("order_id").asInt());
+        assertEquals("u1", rows.get(3).get("buyer_id").asText());
+        assertEquals(10005.5, rows.get(4).get("order_id").asDouble(), 0);
+        assertTrue(rows.get(4).get("buyer_id").isNull());
+        assertTrue(rows.get(4).get("is_prepaid").asBoolean());
+        // appended to the existing partition
+        assertEquals(2, new File(base, "tbl_order").list().length);
+    }
+
+    @Test
+    public void testInvalidIntegers() throws IOException {
+        JsonTable table = new JsonTable("tbl_user", Lists.newArrayList(new JsonColumn("age", JsonDataType.INTEGER)));
+        assertEquals("{\"age\":30}\n{\"age\":31}\n", new String(EmbeddedJsonDatabaseMaster.encodeRows(
+                table, Lists.newArrayList(new Object[]{30L}, new Object[]{31.0})), StandardCharsets.UTF_8));
+        for (Object value : new Object[]{1.7, Double.NaN, 1L << 32, "30"}) {
+            try {
+                EmbeddedJsonDatabaseMaster.encodeRows(table, Collections.singletonList(new Object[]{value}));
+                fail("Invalid value " + value);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("integer column age"));
+            }
+        }
+    }
+
+    @Test
+    public void testGroupCommitAndRoll() throws Exception {
+        File base = TestDatabases.copyTestDb(folder);
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        config.setPartitionRollSize(4096);
+        EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(base.getAbsolutePath(), config);
+        EmbeddedJsonDatabaseClient client = server.getClient();
+        long commitsBefore = getWriter(server).getCommitCount();
+
+        int writers = 16;
+        int insertsPerWriter = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<CompletableFuture<Void>> futures = Lists.newArrayList();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < insertsPerWriter; i++) {
+                    int orderId = 20000 + writer * insertsPerWriter + i;
+                    try {
+                        client.insertRows("tbl_order", Collections.singletonList(
+                                new Object[]{orderId, "u" + writer, "2020-07-03T10:00:00+08:00", i % 2 == 0}));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, executor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        int inserts = writers * insertsPerWriter;
+        long commits = getWriter(server).getCommitCount() - commitsBefore;
+        assertTrue("Expected fewer commits than inserts, but got " + commits, commits < inserts);
+
+        File[] partitions = new File(base, "tbl_order").listFiles();
+        assertTrue(partitions.length > 3);
+        Arrays.sort(partitions, PartitionWriter.PARTITION_ORDER);
+        assertEquals("part-0-10.json", partitions[10].getName());
+
+        JsonTable orders = client.getTable("tbl_order");
+        int count = 0;
+        int[] lastOrderIds = new int[writers];
+        try (JsonRowReader reader = client.scanTableAsRows(orders, Lists.newArrayList("order_id", "buyer_id"))) {
+            Object[] row = new Object[2];
+            while (reader.readRow(row)) {
+                count++;
+                int orderId = ((Double) row[0]).intValue();
+                if (orderId >= 20000) {
+                    // rows of each writer are scanned in the order of insertion
+                    int writer = Integer.parseInt(((String) row[1]).substring(1));
+                    assertTrue(orderId > lastOrderIds[writer]);
+                    lastOrderIds[writer] = orderId;
+                }
+            }
+        }
+        assertEquals(3 + inserts, count);
+    }
+
+    private static PartitionWriter getWriter(EmbeddedJsonDatabaseServer server) {
+        return server.getMaster().getPartitionWriter();
+    }
+}
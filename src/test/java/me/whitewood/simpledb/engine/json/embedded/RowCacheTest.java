@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link RowCache}.
+ **/
+public class RowCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testScanThroughCache() throws IOException {
+        File base = TestDatabases.copyTestDb(folder);
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        config.setRowCacheSize(1 << 20);
+        EmbeddedJsonDatabaseServer server = new EmbeddedJsonDatabaseServer(base.getAbsolutePath(), config);
+        EmbeddedJsonDatabaseClient client = server.getClient();
+        RowCache cache = server.getRowCache();
+        JsonTable orders = client.getTable("tbl_order");
+        int partitions = new File(base, "tbl_order").list().length;
+
+        List<String> rows = scan(client, orders, null);
+        assertEquals(Lists.newArrayList("10001.0,u234152", "10002.0,u2341534", "10003.0,u92742"), rows);
+        assertEquals(partitions, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+        assertTrue(cache.getSize() > 0 && cache.getSize() <= cache.getCapacity());
+
+        // decoded rows are reused with other projections and filters
+        List<JsonFilter> filters = Collections.singletonList(
+                new JsonFilter("is_prepaid", JsonFilter.Operator.EQUALS, true));
+        assertEquals(Lists.newArrayList("10002.0,u2341534", "10003.0,u92742"), scan(client, orders, filters));
+        assertEquals(partitions, cache.getMissCount());
+        assertEquals(partitions, cache.getHitCount());
+
+        // a changed partition is decoded again
+        client.insertRows("tbl_order", Collections.singletonList(
+                new Object[]{10004, "u1", "2020-07-03T10:00:00+08:00", false}));
+        rows = scan(client, orders, null);
+        assertEquals(4, rows.size());
+        assertEquals("10004.0,u1", rows.get(3));
+        assertEquals(partitions + 1, cache.getMissCount());
+    }
+
+    private static List<String> scan(EmbeddedJsonDatabaseClient client, JsonTable table, List<JsonFilter> filters)
+            throws IOException {
+        List<String> rows = Lists.newArrayList();
+        try (JsonRowReader reader =
+                     client.scanTableAsRows(table, Lists.newArrayList("order_id", "buyer_id"), filters)) {
+            Object[] row = new Object[2];
+            while (reader.readRow(row)) {
+                rows.add(row[0] + "," + row[1]);
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonColumnStatistics;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link StatisticsStore}.
+ **/
+public class StatisticsStoreTest {
+
+    private static final int ROWS_PER_PARTITION = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final JsonTable table = new JsonTable(
+            "tbl_order",
+            Lists.newArrayList(
+                    new JsonColumn("order_id", JsonDataType.INTEGER),
+                    new JsonColumn("buyer_id", JsonDataType.STRING),
+                    new JsonColumn("amount", JsonDataType.NUMBER),
+                    new JsonColumn("is_prepaid", JsonDataType.BOOLEAN)));
+
+    private File[] partitions;
+
+    @Before
+    public void setUp() throws IOException {
+        File tableDir = folder.newFolder("tbl_order");
+        partitions = new File[2];
+        for (int p = 0; p < partitions.length; p++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < ROWS_PER_PARTITION; i++) {
+                int orderId = p * ROWS_PER_PARTITION + i;
+                // 100 buyers, and amounts of every 10th order are missing
+                sb.append("{\"order_id\":").append(orderId)
+                        .append(", \"buyer_id\":\"u").append(orderId % 100).append('"')
+                        .append(", \"amount\":").append(i % 10 == 0 ? "null" : String.valueOf(orderId % 1000))
+                        .append(", \"is_prepaid\":").append(i % 2 == 0).append("}\n");
+            }
+            partitions[p] = new File(tableDir, "part-0-" + p + ".json");
+            Files.write(partitions[p].toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testAnalyze() throws IOException {
+        StatisticsStore store = new StatisticsStore(folder.getRoot().getAbsolutePath());
+        assertNull(store.get("tbl_order"));
+        JsonTableStatistics statistics = store.analyze(table, partitions);
+        assertEquals(2 * ROWS_PER_PARTITION, statistics.getRowCount());
+        assertFalse(store.isStale(statistics, partitions));
+
+        JsonColumnStatistics orderId = statistics.getColumns().get("order_id");
+        assertTrue(orderId.isSorted());
+        assertEquals(0, orderId.getMin());
+        assertEquals(2 * ROWS_PER_PARTITION - 1, orderId.getMax());
+        // more values than the sketch keeps exactly, so the distinct count is estimated
+        assertFalse(orderId.isUnique());
+        assertEquals(2 * ROWS_PER_PARTITION, orderId.getDistinctCount(), 0.2 * 2 * ROWS_PER_PARTITION);
+        assertEquals(StatisticsStore.ColumnStatisticsCollector.HISTOGRAM_BUCKETS, orderId.getHistogram().size());
+        assertEquals(2 * ROWS_PER_PARTITION - 1, orderId.getHistogram().get(orderId.getHistogram().size() - 1));
+
+        JsonColumnStatistics buyerId = statistics.getColumns().get("buyer_id");
+        assertEquals(100, buyerId.getDistinctCount());
+        assertFalse(buyerId.isUnique());
+        assertFalse(buyerId.isSorted());
+
+        JsonColumnStatistics amount = statistics.getColumns().get("amount");
+        assertEquals(2 * ROWS_PER_PARTITION / 10, amount.getNullCount());
+        // multiples of 10 are all missing
+        assertEquals(1.0, ((Number) amount.getMin()).doubleValue(), 0);
+
+        assertEquals(2, statistics.getColumns().get("is_prepaid").getDistinctCount());
+    }
+
+    @Test
+    public void testUniqueColumn() throws IOException {
+        StatisticsStore store = new StatisticsStore(folder.getRoot().getAbsolutePath());
+        File[] firstPartition = {partitions[0]};
+        JsonColumnStatistics orderId = store.analyze(table, new File[]{}).getColumns().get("order_id");
+        assertFalse(orderId.isUnique());
+        assertFalse(orderId.isSorted());
+
+        Files.write(partitions[0].toPath(),
+                "{\"order_id\":3}\n{\"order_id\":1}\n{\"order_id\":2}\n".getBytes(StandardCharsets.UTF_8));
+        orderId = store.analyze(table, firstPartition).getColumns().get("order_id");
+        assertTrue(orderId.isUnique());
+        assertFalse(orderId.isSorted());
+        assertEquals(3, orderId.getDistinctCount());
+        assertEquals(Lists.newArrayList(1, 2, 3), orderId.getHistogram());
+    }
+
+    @Test
+    public void testReloadAndStale() throws IOException {
+        new StatisticsStore(folder.getRoot().getAbsolutePath()).analyze(table, partitions);
+        StatisticsStore store = new StatisticsStore(folder.getRoot().getAbsolutePath());
+        JsonTableStatistics statistics = store.get("tbl_order");
+        assertNotNull(statistics);
+        assertEquals(2 * ROWS_PER_PARTITION, statistics.getRowCount());
+        assertTrue(statistics.getColumns().get("order_id").isSorted());
+        assertFalse(store.isStale(statistics, partitions));
+
+        Files.write(partitions[1].toPath(), "{\"order_id\":0}\n".getBytes(StandardCharsets.UTF_8));
+        assertTrue(store.isStale(statistics, partitions));
+        assertTrue(store.isStale(statistics, new File[]{partitions[0]}));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TableCatalog}.
+ **/
+public class TableCatalogTest {
+
+    private final TableCatalog catalog = new TableCatalog(
+            Lists.newArrayList(table("tbl_user"), table("tbl_order"), table("user_tag")));
+
+    @Test
+    public void testGetTable() {
+        assertEquals("tbl_order", catalog.getTable("tbl_order").getName());
+        // exact match only
+        assertNull(catalog.getTable("tbl_"));
+        assertNull(catalog.getTable("TBL_ORDER"));
+    }
+
+    @Test
+    public void testListTables() {
+        assertEquals(Lists.newArrayList("tbl_order", "tbl_user", "user_tag"), catalog.listTableNames(null));
+        assertEquals(Lists.newArrayList("tbl_user", "user_tag"), catalog.listTableNames("user"));
+        assertEquals(Lists.newArrayList("tbl_order", "tbl_user"), catalog.listTableNames("^tbl_"));
+        List<JsonTable> tables = catalog.listTables("^user");
+        assertEquals(1, tables.size());
+        assertEquals("user_tag", tables.get(0).getName());
+    }
+
+    @Test
+    public void testPatternIsCompiledOnce() {
+        assertSame(catalog.getPattern("^tbl_"), catalog.getPattern("^tbl_"));
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void testInvalidPattern() {
+        catalog.listTableNames("tbl_(");
+    }
+
+    @Test
+    public void testUpdate() {
+        List<String> before = catalog.listTableNames(null);
+        catalog.update(Collections.singletonList(table("tbl_item")));
+        assertEquals(Lists.newArrayList("tbl_item"), catalog.listTableNames(null));
+        assertNull(catalog.getTable("tbl_order"));
+        // results taken before the update are not affected
+        assertEquals(3, before.size());
+    }
+
+    @Test
+    public void testDuplicateTables() {
+        JsonTable last = table("tbl_order");
+        catalog.update(Lists.newArrayList(table("tbl_order"), table("tbl_user"), last));
+        assertEquals(Lists.newArrayList("tbl_order", "tbl_user"), catalog.listTableNames(null));
+        assertSame(last, catalog.getTable("tbl_order"));
+    }
+
+    private static JsonTable table(String name) {
+        return new JsonTable(name, Collections.emptyList());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Fixtures of tests that change the test database, which work on a copy of it in a temporary folder.
+ **/
+public final class TestDatabases {
+
+    public static final String TEST_DB_PATH = "src/test/resources/testdb";
+
+    private TestDatabases() {}
+
+    /**
+     * Copy the test database into a new folder named testdb.
+     * @return The base path of the copy.
+     */
+    public static File copyTestDb(TemporaryFolder folder) throws IOException {
+        File base = folder.newFolder("testdb");
+        copyDirectory(new File(TEST_DB_PATH), base);
+        return base;
+    }
+
+    /**
+     * Start a server on a database with the configuration customized by the given options.
+     */
+    public static EmbeddedJsonDatabaseServer newServer(File base, Consumer<EmbeddedJsonDatabaseConfig> options) {
+        EmbeddedJsonDatabaseConfig config = new EmbeddedJsonDatabaseConfig();
+        options.accept(config);
+        return new EmbeddedJsonDatabaseServer(base.getAbsolutePath(), config);
+    }
+
+    /**
+     * Scan the order ids of tbl_order in scan order.
+     */
+    public static List<Integer> scanOrderIds(EmbeddedJsonDatabaseClient client) throws IOException {
+        return scanOrderIds(client, null);
+    }
+
+    /**
+     * Scan the order ids of tbl_order that are greater than the given one in scan order.
+     */
+    public static List<Integer> scanOrderIds(EmbeddedJsonDatabaseClient client, int after) throws IOException {
+        return scanOrderIds(client, Collections.singletonList(
+                new JsonFilter("order_id", JsonFilter.Operator.GREATER_THAN, after)));
+    }
+
+    private static List<Integer> scanOrderIds(EmbeddedJsonDatabaseClient client, @Nullable List<JsonFilter> filters)
+            throws IOException {
+        JsonTable orders = client.getTable("tbl_order");
+        List<Integer> orderIds = Lists.newArrayList();
+        try (JsonRowReader reader = client.scanTableAsRows(orders, Collections.singletonList("order_id"), filters)) {
+            Object[] row = new Object[1];
+            while (reader.readRow(row)) {
+                orderIds.add(((Number) row[0]).intValue());
+            }
+        }
+        return orderIds;
+    }
+
+    private static void copyDirectory(File source, File target) throws IOException {
+        Path sourcePath = source.toPath();
+        try (Stream<Path> paths = Files.walk(sourcePath)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path targetPath = target.toPath().resolve(sourcePath.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(targetPath);
+                } else {
+                    Files.copy(path, targetPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+}
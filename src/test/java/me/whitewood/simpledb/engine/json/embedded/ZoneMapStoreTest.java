@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.embedded;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ZoneMapStore}.
+ **/
+public class ZoneMapStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final JsonTable table = new JsonTable(
+            "tbl_order",
+            Lists.newArrayList(
+                    new JsonColumn("order_id", JsonDataType.NUMBER),
+                    new JsonColumn("buyer_id", JsonDataType.STRING),
+                    new JsonColumn("is_prepaid", JsonDataType.BOOLEAN)));
+
+    private File[] partitions;
+
+    @Before
+    public void setUp() throws IOException {
+        File tableDir = folder.newFolder("tbl_order");
+        partitions = new File[3];
+        for (int p = 0; p < partitions.length; p++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 10; i++) {
+                int orderId = 10000 * (p + 1) + i;
+                // only the second partition has prepaid orders, and only the last one has null buyers
+                sb.append("{\"order_id\":").append(orderId)
+                        .append(", \"buyer_id\":").append(p == 2 && i == 0 ? "null" : "\"u" + orderId + "\"")
+                        .append(", \"is_prepaid\":").append(p == 1).append("}\n");
+            }
+            partitions[p] = new File(tableDir, "part-0-" + p + ".json");
+            Files.write(partitions[p].toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testPrunePartitions() throws IOException {
+        ZoneMapStore store = new ZoneMapStore(folder.getRoot().getAbsolutePath());
+        assertEquals(
+                Lists.newArrayList("part-0-2.json"),
+                prune(store, new JsonFilter("order_id", JsonFilter.Operator.GREATER_THAN, 20009L)));
+        assertEquals(
+                Lists.newArrayList("part-0-1.json"),
+                prune(store, new JsonFilter("is_prepaid", JsonFilter.Operator.EQUALS, true)));
+        assertEquals(
+                Lists.newArrayList("part-0-2.json"),
+                prune(store, new JsonFilter("buyer_id", JsonFilter.Operator.IS_NULL, null)));
+        assertEquals(
+                Lists.newArrayList("part-0-0.json", "part-0-1.json"),
+                prune(store, new JsonFilter("buyer_id", JsonFilter.Operator.LESS_THAN_OR_EQUAL, "u20009")));
+        assertEquals(
+                Lists.newArrayList(),
+                prune(store, new JsonFilter("order_id", JsonFilter.Operator.EQUALS, 15000.5)));
+        assertTrue(store.getZoneMapFile("tbl_order").exists());
+    }
+
+    @Test
+    public void testRecomputeStaleZoneMap() throws IOException {
+        ZoneMapStore store = new ZoneMapStore(folder.getRoot().getAbsolutePath());
+        JsonFilter filter = new JsonFilter("order_id", JsonFilter.Operator.GREATER_THAN_OR_EQUAL, 50000L);
+        assertEquals(Lists.newArrayList(), prune(store, filter));
+
+        Files.write(partitions[0].toPath(), "{\"order_id\":50000}\n".getBytes(StandardCharsets.UTF_8));
+        assertTrue(partitions[0].setLastModified(partitions[0].lastModified() + 2000));
+        // a new store reloads the persisted zone maps, and recomputes the one of the rewritten partition
+        store = new ZoneMapStore(folder.getRoot().getAbsolutePath());
+        assertEquals(Lists.newArrayList("part-0-0.json"), prune(store, filter));
+    }
+
+    @Test
+    public void testUncommittedRows() throws IOException {
+        long committed = partitions[0].length();
+        // a row being inserted, which is not committed and only partially written
+        Files.write(partitions[0].toPath(), "{\"order_id\":60000}\n{\"order_id\":600".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        ToLongFunction<File> visibleLength = file -> file.equals(partitions[0]) ? committed : file.length();
+        ZoneMapStore store = new ZoneMapStore(folder.getRoot().getAbsolutePath(),
+                file -> ByteStreams.limit(new FileInputStream(file), visibleLength.applyAsLong(file)), visibleLength);
+        assertEquals(Lists.newArrayList(),
+                prune(store, new JsonFilter("order_id", JsonFilter.Operator.GREATER_THAN_OR_EQUAL, 50000L)));
+    }
+
+    @Test
+    public void testComputeInBackground() throws IOException {
+        ZoneMapStore store = new ZoneMapStore(folder.getRoot().getAbsolutePath());
+        List<Runnable> tasks = Lists.newArrayList();
+        List<JsonFilter> filters = Lists.newArrayList(new JsonFilter("is_prepaid", JsonFilter.Operator.EQUALS, true));
+        // no partition is pruned while the zone maps are being computed
+        assertEquals(partitions.length, store.prune(table, partitions, filters, tasks::add).size());
+        assertEquals(partitions.length, tasks.size());
+        assertEquals(partitions.length, store.prune(table, partitions, filters, tasks::add).size());
+        assertEquals(partitions.length, tasks.size());
+        tasks.forEach(Runnable::run);
+        assertTrue(store.getZoneMapFile("tbl_order").exists());
+        assertEquals(Lists.newArrayList("part-0-1.json"), prune(store, filters.get(0)));
+    }
+
+    @Test
+    public void testSharedZoneMapFile() throws IOException {
+        List<JsonFilter> filters = Lists.newArrayList(new JsonFilter("is_prepaid", JsonFilter.Operator.EQUALS, true));
+        // two nodes of a cluster compute the zone maps of their own partitions into the same file
+        File[][] assigned = {{partitions[0], partitions[2]}, {partitions[1]}};
+        for (File[] files : assigned) {
+            ZoneMapStore store = new ZoneMapStore(folder.getRoot().getAbsolutePath());
+            store.prune(table, files, filters, MoreExecutors.directExecutor());
+        }
+        File file = new ZoneMapStore(folder.getRoot().getAbsolutePath()).getZoneMapFile("tbl_order");
+        assertArrayEquals(new String[] {file.getName()}, file.getParentFile().list());
+
+        // the zone maps of both nodes are kept
+        ZoneMapStore store = new ZoneMapStore(folder.getRoot().getAbsolutePath());
+        List<Runnable> tasks = Lists.newArrayList();
+        assertEquals(Lists.newArrayList(partitions[1]), store.prune(table, partitions, filters, tasks::add));
+        assertTrue(tasks.isEmpty());
+    }
+
+    private List<String> prune(ZoneMapStore store, JsonFilter filter) throws IOException {
+        return store.prune(table, partitions, Lists.newArrayList(filter), MoreExecutors.directExecutor())
+                .stream()
+                .map(File::getName)
+                .collect(Collectors.toList());
+    }
+}
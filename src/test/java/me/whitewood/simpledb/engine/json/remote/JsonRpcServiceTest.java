@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.engine.json.remote;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.client.JsonRowReader;
+import me.whitewood.simpledb.engine.json.client.RowBatchReader;
+import me.whitewood.simpledb.engine.json.common.ColumnarBatch;
+import me.whitewood.simpledb.engine.json.common.FileRegion;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.TransferableStream;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseConfig;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseServer;
+import me.whitewood.simpledb.engine.json.embedded.TestDatabases;
+import me.whitewood.simpledb.engine.json.server.AsyncJsonDatabaseServer;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link JsonRpcService} and {@link JsonRpcClient} over loopback.
+ **/
+public class JsonRpcServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final String testDbPath = "src/test/resources/testdb";
+
+    private final List<JsonRpcService> services = Lists.newArrayList();
+
+    private final List<JsonRpcClient> clients = Lists.newArrayList();
+
+    @After
+    public void tearDown() {
+        clients.forEach(JsonRpcClient::close);
+        services.forEach(JsonRpcService::stop);
+    }
+
+    @Test
+    public void testMetadata() throws IOException {
+        JsonRpcClient client = connect(start(testDbPath, new EmbeddedJsonDatabaseConfig(), true));
+        assertEquals(Lists.newArrayList("tbl_order", "tbl_user"), client.listTableNames(null));
+        assertEquals(Collections.singletonList("tbl_user"), client.listTableNames("tbl_u.*"));
+        assertEquals(2, client.listTables(null).size());
+        JsonTable table = client.getTable("tbl_order");
+        assertEquals("tbl_order", table.getName());
+        assertEquals(4, table.getColumns().size());
+        assertNull(client.getTableStatistics("tbl_order"));
+    }
+
+    @Test
+    public void testScans() throws IOException {
+        JsonRpcClient client = connect(start(testDbPath, new EmbeddedJsonDatabaseConfig(), true));
+        JsonTable table = client.getTable("tbl_order");
+
+        List<JsonNode> nodes = client.scanTable("tbl_order", null);
+        assertEquals(3, nodes.size());
+
+        try (JsonReader reader = client.scanTableAsStream("tbl_order", Collections.singletonList("buyer_id"))) {
+            List<String> buyers = Lists.newArrayList();
+            JsonNode node;
+            while ((node = reader.readJson()) != null) {
+                assertEquals(1, node.size());
+                buyers.add(node.get("buyer_id").asText());
+            }
+            assertEquals(3, buyers.size());
+            assertTrue(buyers.contains("u92742"));
+        }
+
+        List<JsonFilter> filters = Collections.singletonList(
+                new JsonFilter("is_prepaid", JsonFilter.Operator.EQUALS, true));
+        try (RowBatchReader reader = client.scanTableAsBatches(
+                table, Arrays.asList("order_id", "is_prepaid"), filters)) {
+            List<Object> ids = Lists.newArrayList();
+            ColumnarBatch batch;
+            while ((batch = reader.nextBatch()) != null) {
+                for (int i = 0; i < batch.getSize(); i++) {
+                    assertEquals(true, batch.getRow(i)[1]);
+                    ids.add(batch.getRow(i)[0]);
+                }
+            }
+            assertEquals(Lists.newArrayList(10002.0, 10003.0), ids);
+            assertNull(reader.nextBatch());
+        }
+    }
+
+    @Test
+    public void testStreamLargePartitions() throws IOException {
+        File base = TestDatabases.copyTestDb(folder);
+        // larger than a transfer chunk, and without a trailing newline
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 60_000; i++) {
+            if (i > 0) {
+                lines.append('\n');
+            }
+            lines.append("{\"order_id\":").append(20000 + i).append(", \"buyer_id\":\"u").append(i)
+                    .append("\", \"create_time\":\"2020-07-03T10:00:00+08:00\", \"is_prepaid\": false}");
+        }
+        Files.write(new File(base, "tbl_order/part-1-0.json").toPath(),
+                lines.toString().getBytes(StandardCharsets.UTF_8));
+        JsonRpcClient client = connect(start(base.getPath(), new EmbeddedJsonDatabaseConfig(), true));
+
+        JsonRpcResponse response = client.quert(new JsonRpcRequest(RpcMessageType.OPEN_STREAM,
+                new PayloadWriter().writeString("tbl_order").writeStrings(null).toByteArray()));
+        long cursorId = new PayloadReader(response.getPayload()).readLong();
+        byte[] remote;
+        try (RemoteInputStream in = new RemoteInputStream(client, cursorId)) {
+            remote = ByteStreams.toByteArray(in);
+        }
+        byte[] local;
+        try (InputStream in = new EmbeddedJsonDatabaseServer(base.getPath())
+                .scanTableAsStream("tbl_order", null, 10, TimeUnit.SECONDS)) {
+            local = ByteStreams.toByteArray(in);
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        assertTrue(remote.length > JsonRpcSession.TRANSFER_CHUNK_SIZE);
+        assertArrayEquals(local, remote);
+
+        int count = 0;
+        try (JsonReader reader = client.scanTableAsStream("tbl_order", null)) {
+            while (reader.readJson() != null) {
+                count++;
+            }
+        }
+        assertEquals(60_003, count);
+    }
+
+    @Test
+    public void testInsertRows() throws IOException {
+        File base = TestDatabases.copyTestDb(folder);
+        JsonRpcClient client = connect(start(base.getPath(), new EmbeddedJsonDatabaseConfig(), true));
+        long version = client.getTableVersion("tbl_order");
+        assertEquals(2, client.insertRows("tbl_order", Lists.newArrayList(
+                new Object[]{10004.0, "u1", "2020-07-03T10:00:00+08:00", false},
+                new Object[]{10005, "u2", null, true})));
+        assertNotEquals(version, client.getTableVersion("tbl_order"));
+        assertEquals(5, client.scanTable("tbl_order", null).size());
+        assertEquals(5L, client.analyzeTable("tbl_order").getRowCount());
+        assertNotNull(client.getTableStatistics("tbl_order"));
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        JsonRpcService service = start(testDbPath, new EmbeddedJsonDatabaseConfig(), true);
+        JsonRpcClient client = connect(service);
+        try {
+            client.getTable("tbl_absent");
+            fail("The table doesn't exist");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause().getMessage().contains("IllegalArgumentException"));
+        }
+        try {
+            client.scanTable("tbl_absent", null);
+            fail("The table doesn't exist");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("tbl_absent"));
+        }
+        JsonRpcResponse response = client.quert(new JsonRpcRequest(
+                RpcMessageType.NEXT_BATCH, new PayloadWriter().writeLong(42).toByteArray()));
+        assertTrue(response.isError());
+        // the connection survives errors
+        assertEquals(2, client.listTableNames(null).size());
+        // so do the local requests
+        assertFalse(service.onReceiveQuery(new JsonRpcRequest(
+                RpcMessageType.GET_TABLE_VERSION, new PayloadWriter().writeString("tbl_order").toByteArray())).isError());
+    }
+
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        JsonRpcClient client = connect(start(testDbPath, new EmbeddedJsonDatabaseConfig(), true));
+        JsonTable table = client.getTable("tbl_order");
+        List<CompletableFuture<Integer>> counts = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            counts.add(CompletableFuture.supplyAsync(() -> {
+                try (JsonRowReader reader = client.scanTableAsRows(table, null, null)) {
+                    int count = 0;
+                    Object[] row = new Object[4];
+                    while (reader.readRow(row)) {
+                        count++;
+                    }
+                    return count;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (CompletableFuture<Integer> count : counts) {
+            assertEquals(3, (int) count.get());
+        }
+    }
+
+    @Test
+    public void testProcessMode() throws IOException {
+        JsonRpcService service = start(testDbPath, new EmbeddedJsonDatabaseConfig(), false);
+        assertTrue(service.getPort() > 0);
+        JsonRpcClient client = connect(service);
+        assertEquals(Lists.newArrayList("tbl_order", "tbl_user"), client.listTableNames(null));
+        assertEquals(3, client.scanTable("tbl_order", null).size());
+        service.stop();
+        try {
+            client.listTableNames(null);
+            fail("The service is stopped");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testOversizedResponse() throws IOException {
+        File file = folder.newFile("part-0-0.json");
+        Files.write(file.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+        AsyncJsonDatabaseServer server = mock(AsyncJsonDatabaseServer.class);
+        when(server.scanTableAsStream(any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(new OversizedStream(file)));
+        JsonRpcService service = new JsonRpcService(server, new InetSocketAddress("127.0.0.1", 0));
+        service.start(true);
+        services.add(service);
+        JsonRpcClient client = connect(service);
+
+        long start = System.nanoTime();
+        try (InputStream in = client.openStream("tbl_order", null)) {
+            in.read();
+            fail("The response exceeds the frame limit");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("exceeds the limit"));
+        }
+        // answered with an error rather than timed out
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    private JsonRpcService start(String basePath, EmbeddedJsonDatabaseConfig config, boolean isLocal) {
+        JsonRpcService service = new JsonRpcService(basePath, config, new InetSocketAddress("127.0.0.1", 0));
+        service.start(isLocal);
+        services.add(service);
+        return service;
+    }
+
+    private JsonRpcClient connect(JsonRpcService service) {
+        JsonRpcClient client = new JsonRpcClient(new InetSocketAddress("127.0.0.1", service.getPort()));
+        client.open();
+        clients.add(client);
+        return client;
+    }
+
+    /** A stream whose only region is too large to fit in a frame. */
+    private static final class OversizedStream extends InputStream implements TransferableStream {
+
+        private final FileChannel channel;
+
+        OversizedStream(File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath());
+        }
+
+        @Override
+        public FileRegion nextFileRegion(long maxLength) {
+            return new FileRegion(channel, 0, RpcFrames.MAX_FRAME_SIZE);
+        }
+
+        @Override
+        public int read() {
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
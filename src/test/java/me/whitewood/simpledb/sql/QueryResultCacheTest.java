@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.sql;
+
+import me.whitewood.simpledb.sql.adapter.json.JsonAdapterSchema;
+import me.whitewood.simpledb.sql.adapter.json.JsonAdapterSchemaFactory;
+import me.whitewood.simpledb.engine.json.embedded.TestDatabases;
+import org.apache.calcite.jdbc.CalciteConnection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link QueryResultCache}.
+ **/
+public class QueryResultCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHitAndInvalidate() throws Exception {
+        try (Connection connection = connect()) {
+            QueryResultCache cache = new QueryResultCache(connection, getSchema(connection), 1 << 20, 1, TimeUnit.HOURS);
+            QueryResult result = cache.executeQuery("select buyer_id from tbl_order where is_prepaid order by order_id");
+            assertEquals(2, result.getRows().size());
+            assertEquals("u2341534", result.getRows().get(0)[0]);
+            assertEquals(1, cache.getMissCount());
+
+            // the same query after normalization
+            assertSame(result, cache.executeQuery(
+                    "SELECT buyer_id\n  FROM TBL_ORDER\n  WHERE is_prepaid\n  ORDER BY order_id"));
+            assertEquals(1, cache.getHitCount());
+
+            // changes of the table invalidate the result
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(
+                        "insert into tbl_order values (10004, 'u1', '2020-07-03T10:00:00+08:00', true)");
+            }
+            result = cache.executeQuery("select buyer_id from tbl_order where is_prepaid order by order_id");
+            assertEquals(3, result.getRows().size());
+            assertEquals("u1", result.getRows().get(2)[0]);
+            assertEquals(2, cache.getMissCount());
+        }
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        try (Connection connection = connect()) {
+            QueryResultCache cache = new QueryResultCache(
+                    connection, getSchema(connection), 1 << 20, 10, TimeUnit.MILLISECONDS);
+            cache.executeQuery("select count(*) from tbl_order");
+            Thread.sleep(50);
+            cache.executeQuery("select count(*) from tbl_order");
+            assertEquals(0, cache.getHitCount());
+            assertEquals(2, cache.getMissCount());
+        }
+    }
+
+    @Test
+    public void testNotCacheable() throws Exception {
+        try (Connection connection = connect()) {
+            QueryResultCache cache = new QueryResultCache(connection, getSchema(connection), 1 << 20, 1, TimeUnit.HOURS);
+            Parser parser = new Parser();
+            assertNotNull(cache.getCacheableTables(parser.parse(
+                    "select o.is_prepaid, count(distinct u.user_id) from tbl_order o, tbl_user u " +
+                            "where o.buyer_id = u.user_id and u.age <= 20 group by o.is_prepaid")));
+            assertNotNull(cache.getCacheableTables(parser.parse(
+                    "select * from (select buyer_id from tbl_order) t where buyer_id like 'u%'")));
+            assertNull(cache.getCacheableTables(parser.parse("select current_timestamp from tbl_order")));
+            assertNull(cache.getCacheableTables(parser.parse("select rand() from tbl_order")));
+            assertNull(cache.getCacheableTables(parser.parse("select * from unknown_view")));
+
+            cache.executeQuery("select rand() from tbl_order");
+            assertEquals(0, cache.getMissCount());
+        }
+    }
+
+    private Connection connect() throws Exception {
+        File base = TestDatabases.copyTestDb(folder);
+        String model = "{version: '1.0', defaultSchema: 'eshop', schemas: [{name: 'eshop', type: 'custom', " +
+                "factory: '" + JsonAdapterSchemaFactory.class.getName() + "', " +
+                "operand: {directory: '" + base.getAbsolutePath().replace("\\", "\\\\") + "'}}]}";
+        return DriverManager.getConnection("jdbc:calcite:model=inline:" + model + ";caseSensitive=false");
+    }
+
+    private static JsonAdapterSchema getSchema(Connection connection) throws Exception {
+        return connection.unwrap(CalciteConnection.class).getRootSchema()
+                .getSubSchema("eshop").unwrap(JsonAdapterSchema.class);
+    }
+}
@@ -103,7 +103,7 @@ public class SqlTest {
                 catalogReader,
                 RelOptCluster.create(new VolcanoPlanner(), new RexBuilder(typeFactory)),
                 StandardConvertletTable.INSTANCE,
-                SqlToRelConverter.Config.DEFAULT
+                SqlToRelConverter.config()
         );
 
         RelRoot root = converter.convertQuery(astNode, true, true);
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.whitewood.simpledb.sql.adapter.json;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
+import me.whitewood.simpledb.engine.json.common.JsonColumnStatistics;
+import me.whitewood.simpledb.engine.json.common.JsonDataType;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.common.JsonTableStatistics;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseClient;
+import org.apache.calcite.rel.RelCollations;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link JsonAdapterTable}.
+ **/
+public class JsonAdapterTableTest {
+
+    private final JsonTable jsonTable = new JsonTable(
+            "tbl_order",
+            Lists.newArrayList(
+                    new JsonColumn("order_id", JsonDataType.NUMBER),
+                    new JsonColumn("buyer_id", JsonDataType.STRING)));
+
+    @Test
+    public void testStatistic() throws IOException {
+        EmbeddedJsonDatabaseClient client = mock(EmbeddedJsonDatabaseClient.class);
+        JsonAdapterTable table = new JsonAdapterTable(client, jsonTable, true);
+        assertNull(table.getStatistic().getRowCount());
+
+        JsonTableStatistics statistics = new JsonTableStatistics();
+        statistics.setRowCount(3);
+        JsonColumnStatistics orderId = new JsonColumnStatistics();
+        orderId.setUnique(true);
+        orderId.setSorted(true);
+        statistics.getColumns().put("order_id", orderId);
+        statistics.getColumns().put("buyer_id", new JsonColumnStatistics());
+        when(client.getTableStatistics("tbl_order")).thenReturn(statistics);
+
+        Statistic statistic = table.getStatistic();
+        assertEquals(3.0, statistic.getRowCount(), 0);
+        assertTrue(statistic.isKey(ImmutableBitSet.of(0)));
+        assertFalse(statistic.isKey(ImmutableBitSet.of(1)));
+        assertEquals(Lists.newArrayList(RelCollations.of(0)), statistic.getCollations());
+
+        // keys and collations may not hold after the table changes
+        statistics.setStale(true);
+        statistic = table.getStatistic();
+        assertEquals(3.0, statistic.getRowCount(), 0);
+        assertFalse(statistic.isKey(ImmutableBitSet.of(0)));
+        assertTrue(statistic.getCollations().isEmpty());
+    }
+}
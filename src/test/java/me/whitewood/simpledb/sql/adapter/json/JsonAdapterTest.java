@@ -19,14 +19,20 @@ package me.whitewood.simpledb.sql.adapter.json;
 
 import me.whitewood.simpledb.sql.adapter.json.JsonAdapterSchemaFactory;
 import org.apache.calcite.jdbc.CalciteConnection;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import static org.junit.Assert.*;
 
@@ -35,10 +41,150 @@ import static org.junit.Assert.*;
  **/
 public class JsonAdapterTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testScan() throws SQLException {
+        String sql = "select order_id, buyer_id, is_prepaid from tbl_order where order_id = 10001";
+        try (Connection connection = connect();
+            final CalciteConnection calciteConnection =
+                    connection.unwrap(CalciteConnection.class);
+            final PreparedStatement statement =
+                    calciteConnection.prepareStatement(sql);
+            ResultSet rs = statement.executeQuery()) {
+            if(rs.next()) {
+                assertEquals(10001, rs.getInt("order_id"));
+                assertEquals("u234152", rs.getString("buyer_id"));
+                assertEquals(false, rs.getBoolean("is_prepaid"));
+            }
+        }
+    }
+
+    @Test
+    public void testProjectAndFilterPushdown() throws SQLException {
+        String sql = "select buyer_id from tbl_order where is_prepaid and order_id > 10002 and create_time like '2020%'";
+        try (Connection connection = connect();
+             Statement statement = connection.createStatement()) {
+            String plan = explain(statement, sql);
+            // supported filters and the referenced columns are handed to the engine, and LIKE is left to Calcite
+            assertTrue(plan, plan.contains("JsonFilterRel(condition=[AND($3, >($0, 10002))])"));
+            assertTrue(plan, plan.contains("JsonProjectRel(buyer_id=[$1], create_time=[$2])"));
+            assertTrue(plan, plan.contains("LIKE"));
+            try (ResultSet rs = statement.executeQuery(sql)) {
+                assertTrue(rs.next());
+                assertEquals("u92742", rs.getString("buyer_id"));
+                assertFalse(rs.next());
+            }
+        }
+    }
+
+    @Test
+    public void testAggregatePushdown() throws SQLException {
+        String sql = "select is_prepaid, count(*) as cnt, sum(order_id) as total, max(buyer_id) as max_buyer " +
+                "from tbl_order where order_id > 10000 group by is_prepaid order by is_prepaid";
+        try (Connection connection = connect();
+             Statement statement = connection.createStatement()) {
+            String plan = explain(statement, sql);
+            assertTrue(plan, plan.contains("JsonAggregateRel"));
+            assertTrue(plan, plan.contains("JsonSortRel"));
+            assertFalse(plan, plan.contains("EnumerableAggregate"));
+            assertFalse(plan, plan.contains("EnumerableSort"));
+            try (ResultSet rs = statement.executeQuery(sql)) {
+                assertTrue(rs.next());
+                assertFalse(rs.getBoolean("is_prepaid"));
+                assertEquals(1L, rs.getLong("cnt"));
+                assertEquals(10001.0, rs.getDouble("total"), 0);
+                assertEquals("u234152", rs.getString("max_buyer"));
+                assertTrue(rs.next());
+                assertTrue(rs.getBoolean("is_prepaid"));
+                assertEquals(2L, rs.getLong("cnt"));
+                assertEquals(20005.0, rs.getDouble("total"), 0);
+                assertEquals("u92742", rs.getString("max_buyer"));
+                assertFalse(rs.next());
+            }
+            // AVG is computed from SUM and COUNT, and DISTINCT from a nested aggregate
+            try (ResultSet rs = statement.executeQuery(
+                    "select avg(order_id), count(distinct is_prepaid) from tbl_order")) {
+                assertTrue(rs.next());
+                assertEquals(10002.0, rs.getDouble(1), 0);
+                assertEquals(2, rs.getInt(2));
+            }
+        }
+    }
+
+    @Test
+    public void testSortAndLimitPushdown() throws SQLException {
+        String sql = "select order_id, buyer_id from tbl_order order by order_id desc limit 2";
+        try (Connection connection = connect();
+             Statement statement = connection.createStatement()) {
+            String plan = explain(statement, sql);
+            assertTrue(plan, plan.contains("JsonSortRel(sort0=[$0], dir0=[DESC], fetch=[2])"));
+            assertFalse(plan, plan.contains("EnumerableSort"));
+            assertFalse(plan, plan.contains("EnumerableLimit"));
+            try (ResultSet rs = statement.executeQuery(sql)) {
+                assertTrue(rs.next());
+                assertEquals(10003, rs.getInt("order_id"));
+                assertEquals("u92742", rs.getString("buyer_id"));
+                assertTrue(rs.next());
+                assertEquals(10002, rs.getInt("order_id"));
+                assertFalse(rs.next());
+            }
+            // the filter applies to the limited rows rather than the scan
+            try (ResultSet rs = statement.executeQuery("select order_id from " +
+                    "(select order_id, is_prepaid from tbl_order order by order_id limit 2) where is_prepaid")) {
+                assertTrue(rs.next());
+                assertEquals(10002, rs.getInt("order_id"));
+                assertFalse(rs.next());
+            }
+        }
+    }
+
+    @Test
+    public void testInsert() throws SQLException, IOException {
+        File base = folder.newFolder("eventdb");
+        File metaDir = new File(base, "_metadata");
+        assertTrue(metaDir.mkdirs());
+        String meta = "{\"name\": \"eventdb\", \"tables\": [{\"name\": \"tbl_event\", \"columns\": [" +
+                "{\"name\": \"event_id\", \"type\": \"INTEGER\"}," +
+                "{\"name\": \"event_type\", \"type\": \"STRING\"}," +
+                "{\"name\": \"is_valid\", \"type\": \"BOOLEAN\"}]}]}";
+        Files.write(new File(metaDir, "meta.json").toPath(), meta.getBytes(StandardCharsets.UTF_8));
+
+        try (Connection connection = connect(base);
+             Statement statement = connection.createStatement()) {
+            assertEquals(3, statement.executeUpdate(
+                    "insert into tbl_event values (1, 'click', true), (2, 'view', false), (3, 'click', null)"));
+            assertEquals(1, statement.executeUpdate(
+                    "insert into tbl_event select event_id + 10, event_type, is_valid from tbl_event where event_id = 2"));
+            try (ResultSet rs = statement.executeQuery(
+                    "select event_type, count(*) as cnt from tbl_event group by event_type order by event_type")) {
+                assertTrue(rs.next());
+                assertEquals("click", rs.getString("event_type"));
+                assertEquals(2, rs.getInt("cnt"));
+                assertTrue(rs.next());
+                assertEquals("view", rs.getString("event_type"));
+                assertEquals(2, rs.getInt("cnt"));
+                assertFalse(rs.next());
+            }
+        }
+        assertTrue(new File(base, "tbl_event/part-0-0.json").exists());
+    }
+
+    private static String explain(Statement statement, String sql) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("explain plan for " + sql)) {
+            assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+
+    private static Connection connect() throws SQLException {
         File file = new File("src/test/resources/testdb");
         assertTrue(file.exists());
+        return connect(file);
+    }
+
+    private static Connection connect(File file) throws SQLException {
 
         String model = "{\n" +
                 "  version: '1.0',\n" +
@@ -54,22 +200,7 @@ public class JsonAdapterTest {
                 "   }\n" +
                 "  ]\n" +
                 "}";
-
-        String sql = "select order_id, buyer_id, is_prepaid from tbl_order where order_id = 10001";
-        try (Connection connection =
-                     DriverManager.getConnection("jdbc:calcite:model=inline:" + model
-                             + ";caseSensitive=false");
-            final CalciteConnection calciteConnection =
-                    connection.unwrap(CalciteConnection.class);
-            final PreparedStatement statement =
-                    calciteConnection.prepareStatement(sql);
-            ResultSet rs = statement.executeQuery()) {
-            if(rs.next()) {
-                assertEquals(10001, rs.getInt("order_id"));
-                assertEquals("u234152", rs.getString("buyer_id"));
-                assertEquals(false, rs.getBoolean("is_prepaid"));
-            }
-        }
+        return DriverManager.getConnection("jdbc:calcite:model=inline:" + model + ";caseSensitive=false");
     }
 
     /**
@@ -17,8 +17,9 @@
 
 package me.whitewood.simpledb.sql.adapter.json;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.client.JsonReader;
+import me.whitewood.simpledb.engine.json.common.JsonColumn;
 import me.whitewood.simpledb.engine.json.common.JsonDataType;
 import me.whitewood.simpledb.engine.json.common.JsonTable;
 import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseClient;
@@ -28,7 +29,9 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -45,28 +48,38 @@ public class JsonEnumeratorTest {
     @Mock
     private EmbeddedJsonDatabaseClient jsonMaster;
 
-    @Mock
-    private JsonTable jsonTable;
-
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private final JsonTable jsonTable = new JsonTable(
+            "tbl_book",
+            Lists.newArrayList(
+                    new JsonColumn("author", JsonDataType.STRING),
+                    new JsonColumn("title", JsonDataType.STRING),
+                    new JsonColumn("publish-year", JsonDataType.INTEGER)));
 
     @Test
     public void testIterateTable() throws IOException {
-        when(jsonMaster.scanTable(any(JsonTable.class))).thenReturn(
-                Lists.newArrayList(
-                        OBJECT_MAPPER.readTree("{\"author\":\"George Orwell\", \"title\":\"1984\", \"publish-year\":1949}"),
-                        OBJECT_MAPPER.readTree("{\"author\":\"Bertrand Russell\", \"title\":\"Authority and the Individual\", \"publish-year\":1948}"),
-                        OBJECT_MAPPER.readTree("{\"author\":\"Montesquieu\", \"title\":\"The Spirit of the Laws\", \"publish-year\":1748}")
-                )
-        );
-
+        String records =
+                "{\"author\":\"George Orwell\", \"title\":\"1984\", \"publish-year\":1949}\n" +
+                "{\"author\":\"Bertrand Russell\", \"title\":\"Authority and the Individual\", \"publish-year\":1948}\n" +
+                "{\"author\":\"Montesquieu\", \"title\":\"The Spirit of the Laws\", \"publish-year\":1748}\n";
         List<String> columnNames = Lists.newArrayList("title", "author", "publish-year");
-        List<JsonDataType> columnTypes = Lists.newArrayList(JsonDataType.STRING, JsonDataType.STRING, JsonDataType.INTEGER);
+        when(jsonMaster.scanTableAsRows(any(JsonTable.class), any(), any())).thenAnswer(
+                invocation -> new JsonReader(
+                        new ByteArrayInputStream(records.getBytes(StandardCharsets.UTF_8)), jsonTable, columnNames)
+        );
 
-        JsonEnumerator enumerator = new JsonEnumerator(jsonMaster, jsonTable, columnNames, columnTypes);
+        JsonEnumerator enumerator = new JsonEnumerator(jsonMaster, jsonTable, columnNames);
         assertTrue(enumerator.moveNext());
         Object[] first = enumerator.current();
         assertArrayEquals(new Object[]{"1984", "George Orwell", 1949}, first);
+        assertTrue(enumerator.moveNext());
+        assertTrue(enumerator.moveNext());
+        assertArrayEquals(new Object[]{"The Spirit of the Laws", "Montesquieu", 1748}, enumerator.current());
+        assertFalse(enumerator.moveNext());
 
+        // reset reopens the stream from the first record
+        enumerator.reset();
+        assertTrue(enumerator.moveNext());
+        assertArrayEquals(new Object[]{"1984", "George Orwell", 1949}, enumerator.current());
+        enumerator.close();
     }
 }
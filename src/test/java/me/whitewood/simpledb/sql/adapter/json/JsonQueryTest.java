@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.whitewood.simpledb.sql.adapter.json;
+
+import com.google.common.collect.Lists;
+import me.whitewood.simpledb.engine.json.common.JsonAggregate;
+import me.whitewood.simpledb.engine.json.common.JsonFilter;
+import me.whitewood.simpledb.engine.json.common.JsonTable;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseClient;
+import me.whitewood.simpledb.engine.json.embedded.EmbeddedJsonDatabaseServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for {@link JsonQuery}.
+ **/
+public class JsonQueryTest {
+
+    private final EmbeddedJsonDatabaseClient client =
+            spy(new EmbeddedJsonDatabaseServer("src/test/resources/testdb").getClient());
+
+    @Test
+    public void testPushDownScan() throws IOException {
+        JsonTable table = client.getTable("tbl_order");
+        JsonQuery query = new JsonQuery(table);
+        query.project(new int[]{3, 1, 0});
+        query.filter(0, new JsonFilter("is_prepaid", JsonFilter.Operator.EQUALS, true));
+        query.sort(new int[0], new boolean[0], new boolean[0], 1, null);
+
+        List<Object[]> rows = query.execute(client).toList();
+        assertEquals(1, rows.size());
+        assertArrayEquals(new Object[]{true, "u92742", 10003.0}, rows.get(0));
+        verify(client).scanTableAsRows(eq(table), eq(Lists.newArrayList("is_prepaid", "buyer_id", "order_id")),
+                argThat(filters -> filters.size() == 1 && filters.get(0).getColumn().equals("is_prepaid")));
+    }
+
+    @Test
+    public void testPruneScanBelowSort() throws IOException {
+        JsonTable table = client.getTable("tbl_order");
+        JsonQuery query = new JsonQuery(table);
+        query.sort(new int[]{0}, new boolean[]{true}, new boolean[]{false}, 0, 2);
+        query.project(new int[]{1});
+
+        List<Object[]> rows = query.execute(client).toList();
+        assertEquals(2, rows.size());
+        assertArrayEquals(new Object[]{"u92742"}, rows.get(0));
+        assertArrayEquals(new Object[]{"u2341534"}, rows.get(1));
+        // only the sort key and the projected column are read
+        verify(client).scanTableAsRows(eq(table), eq(Lists.newArrayList("order_id", "buyer_id")), any());
+    }
+
+    @Test
+    public void testAggregate() throws IOException {
+        JsonTable table = client.getTable("tbl_order");
+        List<JsonAggregate.Function> functions =
+                Lists.newArrayList(JsonAggregate.Function.COUNT, JsonAggregate.Function.SUM);
+        Type[] types = new Type[]{Boolean.class, long.class, Integer.class};
+
+        // computed by the engine, and SUM of doubles is converted to the integer type of the rel
+        JsonQuery query = new JsonQuery(table);
+        query.aggregate(new int[]{3}, functions, new int[]{-1, 0}, new boolean[]{false, false}, types);
+        query.sort(new int[]{0}, new boolean[]{false}, new boolean[]{false}, 0, null);
+        List<Object[]> rows = query.execute(client).toList();
+        assertEquals(2, rows.size());
+        assertArrayEquals(new Object[]{false, 1L, 10001}, rows.get(0));
+        assertArrayEquals(new Object[]{true, 2L, 20005}, rows.get(1));
+
+        // computed over the limited rows, and SUM0 of no row is 0
+        query = new JsonQuery(table);
+        query.sort(new int[0], new boolean[0], new boolean[0], 3, null);
+        query.aggregate(new int[0], functions, new int[]{-1, 0}, new boolean[]{false, true},
+                new Type[]{long.class, Integer.class});
+        rows = query.execute(client).toList();
+        assertEquals(1, rows.size());
+        assertArrayEquals(new Object[]{0L, 0}, rows.get(0));
+        // only the first query is aggregated by the engine
+        verify(client, times(1)).aggregateTable(any(), any(), any(), any());
+    }
+}